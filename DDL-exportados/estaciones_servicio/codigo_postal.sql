@@ -5,7 +5,9 @@ create table estaciones_servicio.codigo_postal
     codigo_postal    varchar(10) not null,
     localidad_id     int         not null,
     constraint codigo_postal_ibfk_1
-        foreign key (localidad_id) references estaciones_servicio.localidad (localidad_id)
+        foreign key (localidad_id) references estaciones_servicio.localidad (localidad_id),
+    constraint uk_codigo_postal_codigo_postal
+        unique (localidad_id, codigo_postal)
 );
 
 create index idx_localidad_id
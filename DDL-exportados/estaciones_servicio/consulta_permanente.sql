@@ -0,0 +1,14 @@
+create table estaciones_servicio.consulta_permanente
+(
+    consulta_id        int auto_increment
+        primary key,
+    nombre_combustible varchar(100)  not null,
+    nombre_provincia   varchar(100)  null,
+    latitud            double        null,
+    longitud           double        null,
+    radio_km           double        null,
+    estacion_id        int           null,
+    precio             decimal(5, 3) null,
+    fecha_evaluacion   datetime      null
+);
+
@@ -5,6 +5,7 @@ create table estaciones_servicio.estacion_servicio
     direccion        varchar(255) not null,
     margen_id        int          not null,
     ubicacion        point        not null,
+    clave_ubicacion  varchar(64) as (st_astext(`ubicacion`)) stored not null,
     codigo_postal_id int          not null,
     marca_id         int          not null,
     horario_id       int          not null,
@@ -18,7 +19,9 @@ create table estaciones_servicio.estacion_servicio
     constraint estacion_servicio_ibfk_4
         foreign key (horario_id) references estaciones_servicio.horario (horario_id),
     constraint estacion_servicio_ibfk_5
-        foreign key (tipo_estacion_id) references estaciones_servicio.tipo_estacion (tipo_estacion_id)
+        foreign key (tipo_estacion_id) references estaciones_servicio.tipo_estacion (tipo_estacion_id),
+    constraint uk_estacion_servicio_clave_ubicacion
+        unique (clave_ubicacion)
 );
 
 create index idx_codigo_postal_id
@@ -0,0 +1,12 @@
+create table estaciones_servicio.fichero_importado
+(
+    fichero_id        int auto_increment
+        primary key,
+    nombre            varchar(255) not null,
+    huella            char(64)     not null,
+    tamano            bigint       not null,
+    fecha_importacion datetime     not null,
+    constraint uk_fichero_importado_huella
+        unique (huella)
+);
+
@@ -3,6 +3,9 @@ create table estaciones_servicio.horario
     horario_id          int auto_increment
         primary key,
     descripcion_horario varchar(255) not null,
-    detalles            varchar(255) null
+    detalles            varchar(255) null,
+    horario_semanal     binary(84)   null,
+    constraint uk_horario_descripcion_horario
+        unique (descripcion_horario)
 );
 
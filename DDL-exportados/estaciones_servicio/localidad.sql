@@ -5,7 +5,9 @@ create table estaciones_servicio.localidad
     nombre_localidad varchar(100) not null,
     municipio_id     int          not null,
     constraint localidad_ibfk_1
-        foreign key (municipio_id) references estaciones_servicio.municipio (municipio_id)
+        foreign key (municipio_id) references estaciones_servicio.municipio (municipio_id),
+    constraint uk_localidad_nombre_localidad
+        unique (municipio_id, nombre_localidad)
 );
 
 create index idx_municipio_id
@@ -2,6 +2,8 @@ create table estaciones_servicio.marca
 (
     marca_id     int auto_increment
         primary key,
-    nombre_marca varchar(100) not null
+    nombre_marca varchar(100) not null,
+    constraint uk_marca_nombre_marca
+        unique (nombre_marca)
 );
 
@@ -2,6 +2,8 @@ create table estaciones_servicio.margen
 (
     margen_id     int auto_increment
         primary key,
-    nombre_margen varchar(10) not null
+    nombre_margen varchar(10) not null,
+    constraint uk_margen_nombre_margen
+        unique (nombre_margen)
 );
 
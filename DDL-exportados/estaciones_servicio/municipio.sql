@@ -5,7 +5,9 @@ create table estaciones_servicio.municipio
     nombre_municipio varchar(100) not null,
     provincia_id     int          not null,
     constraint municipio_ibfk_1
-        foreign key (provincia_id) references estaciones_servicio.provincia (provincia_id)
+        foreign key (provincia_id) references estaciones_servicio.provincia (provincia_id),
+    constraint uk_municipio_nombre_municipio
+        unique (provincia_id, nombre_municipio)
 );
 
 create index idx_provincia_id
@@ -0,0 +1,18 @@
+create table estaciones_servicio.notificacion_consulta
+(
+    notificacion_id      int auto_increment
+        primary key,
+    consulta_id          int           not null,
+    estacion_anterior_id int           null,
+    precio_anterior      decimal(5, 3) null,
+    estacion_id          int           null,
+    precio               decimal(5, 3) null,
+    fecha_notificacion   datetime      not null,
+    constraint notificacion_consulta_ibfk_1
+        foreign key (consulta_id) references estaciones_servicio.consulta_permanente (consulta_id)
+            on delete cascade
+);
+
+create index idx_notificacion_consulta_fecha
+    on estaciones_servicio.notificacion_consulta (consulta_id, fecha_notificacion);
+
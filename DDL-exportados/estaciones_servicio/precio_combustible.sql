@@ -18,3 +18,12 @@ create index idx_combustible_id
 create index idx_estacion_id
     on estaciones_servicio.precio_combustible (estacion_id);
 
+create index idx_combustible_precio_estacion
+    on estaciones_servicio.precio_combustible (combustible_id, precio, estacion_id);
+
+create unique index idx_estacion_combustible_fecha
+    on estaciones_servicio.precio_combustible (estacion_id, combustible_id, fecha_hora);
+
+create index idx_fecha_hora
+    on estaciones_servicio.precio_combustible (fecha_hora);
+
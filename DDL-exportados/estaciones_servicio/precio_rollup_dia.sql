@@ -0,0 +1,19 @@
+create table estaciones_servicio.precio_rollup_dia
+(
+    provincia_id   int            not null,
+    combustible_id int            not null,
+    periodo        date           not null,
+    suma_precio    decimal(14, 3) not null,
+    num_precios    int            not null,
+    precio_minimo  decimal(5, 3)  not null,
+    precio_maximo  decimal(5, 3)  not null,
+    primary key (provincia_id, combustible_id, periodo),
+    constraint precio_rollup_dia_ibfk_1
+        foreign key (provincia_id) references estaciones_servicio.provincia (provincia_id),
+    constraint precio_rollup_dia_ibfk_2
+        foreign key (combustible_id) references estaciones_servicio.tipo_combustible (combustible_id)
+);
+
+create index idx_rollup_dia_periodo
+    on estaciones_servicio.precio_rollup_dia (periodo);
+
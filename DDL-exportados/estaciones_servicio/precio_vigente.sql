@@ -0,0 +1,16 @@
+create table estaciones_servicio.precio_vigente
+(
+    estacion_id    int           not null,
+    combustible_id int           not null,
+    precio         decimal(5, 3) not null,
+    fecha_hora     datetime      not null,
+    primary key (estacion_id, combustible_id),
+    constraint precio_vigente_ibfk_1
+        foreign key (estacion_id) references estaciones_servicio.estacion_servicio (estacion_id),
+    constraint precio_vigente_ibfk_2
+        foreign key (combustible_id) references estaciones_servicio.tipo_combustible (combustible_id)
+);
+
+create index idx_vigente_combustible_precio_estacion
+    on estaciones_servicio.precio_vigente (combustible_id, precio, estacion_id);
+
@@ -2,6 +2,8 @@ create table estaciones_servicio.provincia
 (
     provincia_id     int auto_increment
         primary key,
-    nombre_provincia varchar(100) not null
+    nombre_provincia varchar(100) not null,
+    constraint uk_provincia_nombre_provincia
+        unique (nombre_provincia)
 );
 
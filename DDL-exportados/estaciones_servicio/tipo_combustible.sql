@@ -2,6 +2,8 @@ create table estaciones_servicio.tipo_combustible
 (
     combustible_id     int auto_increment
         primary key,
-    nombre_combustible varchar(100) not null
+    nombre_combustible varchar(100) not null,
+    constraint uk_tipo_combustible_nombre_combustible
+        unique (nombre_combustible)
 );
 
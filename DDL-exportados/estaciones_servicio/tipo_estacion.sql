@@ -2,6 +2,8 @@ create table estaciones_servicio.tipo_estacion
 (
     tipo_estacion_id int auto_increment
         primary key,
-    tipo_estacion    varchar(50) not null
+    tipo_estacion    varchar(50) not null,
+    constraint uk_tipo_estacion_tipo_estacion
+        unique (tipo_estacion)
 );
 
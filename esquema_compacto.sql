@@ -0,0 +1,54 @@
+-- Almacenamiento compacto (opcional) del histórico de precios. Se aplica sobre una base de datos creada
+-- con esquema_relacional.sql y migra los precios existentes. El importador detecta la columna
+-- precio_milesimas y escribe los precios en milésimas; las consultas siguen leyendo la columna precio.
+USE estaciones_servicio;
+-- Tabla: precio_combustible_compacta
+-- Sin clave sustituta: la clave primaria agrupada es (estacion_id, combustible_id, fecha_hora), así que
+-- el histórico de cada estación y combustible queda contiguo y la clave ya impide observaciones
+-- repetidas. El precio se guarda como SMALLINT UNSIGNED en milésimas (2 bytes frente a los 3 de
+-- DECIMAL(5, 3)) y la columna precio es virtual (no ocupa espacio en la fila). Las páginas se comprimen
+-- con zlib (compresión de páginas de InnoDB: requiere innodb_file_per_table y un sistema de ficheros
+-- con soporte de hole punching; si no lo tiene, MySQL avisa y la tabla se guarda sin comprimir).
+CREATE TABLE precio_combustible_compacta (
+    estacion_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    fecha_hora DATETIME NOT NULL,
+    precio_milesimas SMALLINT UNSIGNED NOT NULL,
+    precio DECIMAL(5, 3) AS (precio_milesimas / 1000) VIRTUAL,
+    PRIMARY KEY (estacion_id, combustible_id, fecha_hora),
+    CONSTRAINT precio_combustible_compacta_ibfk_1 FOREIGN KEY (estacion_id) REFERENCES estacion_servicio (estacion_id),
+    CONSTRAINT precio_combustible_compacta_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci COMPRESSION = 'zlib';
+-- Índices para la tabla precio_combustible_compacta: la clave primaria sustituye a idx_estacion_id y a
+-- idx_estacion_combustible_fecha, e idx_combustible_precio_estacion (sobre la columna virtual, que sí
+-- se guarda en el índice) a idx_combustible_id
+CREATE INDEX idx_combustible_precio_estacion ON precio_combustible_compacta (combustible_id, precio, estacion_id);
+CREATE INDEX idx_fecha_hora ON precio_combustible_compacta (fecha_hora);
+-- Migración de los precios existentes, en el orden de la clave primaria
+INSERT INTO precio_combustible_compacta (estacion_id, combustible_id, fecha_hora, precio_milesimas)
+SELECT estacion_id, combustible_id, fecha_hora, ROUND(precio * 1000)
+FROM precio_combustible
+ORDER BY estacion_id, combustible_id, fecha_hora;
+-- Intercambio atómico: la tabla original se conserva como precio_combustible_decimal hasta comprobar la
+-- migración (DROP TABLE precio_combustible_decimal para liberar su espacio)
+RENAME TABLE precio_combustible TO precio_combustible_decimal,
+    precio_combustible_compacta TO precio_combustible;
+ANALYZE TABLE precio_combustible;
+-- precio_vigente guarda el precio en el mismo formato que precio_combustible
+CREATE TABLE precio_vigente_compacta (
+    estacion_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    precio_milesimas SMALLINT UNSIGNED NOT NULL,
+    precio DECIMAL(5, 3) AS (precio_milesimas / 1000) VIRTUAL,
+    fecha_hora DATETIME NOT NULL,
+    PRIMARY KEY (estacion_id, combustible_id),
+    CONSTRAINT precio_vigente_compacta_ibfk_1 FOREIGN KEY (estacion_id) REFERENCES estacion_servicio (estacion_id),
+    CONSTRAINT precio_vigente_compacta_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE INDEX idx_vigente_combustible_precio_estacion ON precio_vigente_compacta (combustible_id, precio, estacion_id);
+INSERT INTO precio_vigente_compacta (estacion_id, combustible_id, precio_milesimas, fecha_hora)
+SELECT estacion_id, combustible_id, ROUND(precio * 1000), fecha_hora
+FROM precio_vigente;
+RENAME TABLE precio_vigente TO precio_vigente_decimal,
+    precio_vigente_compacta TO precio_vigente;
+DROP TABLE precio_vigente_decimal;
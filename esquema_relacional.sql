@@ -5,43 +5,52 @@ USE estaciones_servicio;
 CREATE TABLE horario (
     horario_id INT AUTO_INCREMENT PRIMARY KEY,
     descripcion_horario VARCHAR(255) NOT NULL,
-    detalles VARCHAR(255) NULL
+    detalles VARCHAR(255) NULL,
+    -- Mapa de bits semanal (un bit por franja de 15 minutos, 7 x 96 bits); NULL si no se pudo interpretar
+    horario_semanal BINARY(84) NULL,
+    CONSTRAINT uk_horario_descripcion_horario UNIQUE (descripcion_horario)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: marca
 CREATE TABLE marca (
     marca_id INT AUTO_INCREMENT PRIMARY KEY,
-    nombre_marca VARCHAR(100) NOT NULL
+    nombre_marca VARCHAR(100) NOT NULL,
+    CONSTRAINT uk_marca_nombre_marca UNIQUE (nombre_marca)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: margen
 CREATE TABLE margen (
     margen_id INT AUTO_INCREMENT PRIMARY KEY,
-    nombre_margen VARCHAR(10) NOT NULL
+    nombre_margen VARCHAR(10) NOT NULL,
+    CONSTRAINT uk_margen_nombre_margen UNIQUE (nombre_margen)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: provincia
 CREATE TABLE provincia (
     provincia_id INT AUTO_INCREMENT PRIMARY KEY,
-    nombre_provincia VARCHAR(100) NOT NULL
+    nombre_provincia VARCHAR(100) NOT NULL,
+    CONSTRAINT uk_provincia_nombre_provincia UNIQUE (nombre_provincia)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: municipio
 CREATE TABLE municipio (
     municipio_id INT AUTO_INCREMENT PRIMARY KEY,
     nombre_municipio VARCHAR(100) NOT NULL,
     provincia_id INT NOT NULL,
-    CONSTRAINT municipio_ibfk_1 FOREIGN KEY (provincia_id) REFERENCES provincia (provincia_id)
+    CONSTRAINT municipio_ibfk_1 FOREIGN KEY (provincia_id) REFERENCES provincia (provincia_id),
+    CONSTRAINT uk_municipio_nombre_municipio UNIQUE (provincia_id, nombre_municipio)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: localidad
 CREATE TABLE localidad (
     localidad_id INT AUTO_INCREMENT PRIMARY KEY,
     nombre_localidad VARCHAR(100) NOT NULL,
     municipio_id INT NOT NULL,
-    CONSTRAINT localidad_ibfk_1 FOREIGN KEY (municipio_id) REFERENCES municipio (municipio_id)
+    CONSTRAINT localidad_ibfk_1 FOREIGN KEY (municipio_id) REFERENCES municipio (municipio_id),
+    CONSTRAINT uk_localidad_nombre_localidad UNIQUE (municipio_id, nombre_localidad)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: codigo_postal
 CREATE TABLE codigo_postal (
     codigo_postal_id INT AUTO_INCREMENT PRIMARY KEY,
     codigo_postal VARCHAR(10) NOT NULL,
     localidad_id INT NOT NULL,
-    CONSTRAINT codigo_postal_ibfk_1 FOREIGN KEY (localidad_id) REFERENCES localidad (localidad_id)
+    CONSTRAINT codigo_postal_ibfk_1 FOREIGN KEY (localidad_id) REFERENCES localidad (localidad_id),
+    CONSTRAINT uk_codigo_postal_codigo_postal UNIQUE (localidad_id, codigo_postal)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Índices para mejorar el rendimiento en consultas
 CREATE INDEX idx_localidad_id ON codigo_postal (localidad_id);
@@ -50,12 +59,14 @@ CREATE INDEX idx_provincia_id ON municipio (provincia_id);
 -- Tabla: tipo_combustible
 CREATE TABLE tipo_combustible (
     combustible_id INT AUTO_INCREMENT PRIMARY KEY,
-    nombre_combustible VARCHAR(100) NOT NULL
+    nombre_combustible VARCHAR(100) NOT NULL,
+    CONSTRAINT uk_tipo_combustible_nombre_combustible UNIQUE (nombre_combustible)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: tipo_estacion
 CREATE TABLE tipo_estacion (
     tipo_estacion_id INT AUTO_INCREMENT PRIMARY KEY,
-    tipo_estacion VARCHAR(50) NOT NULL
+    tipo_estacion VARCHAR(50) NOT NULL,
+    CONSTRAINT uk_tipo_estacion_tipo_estacion UNIQUE (tipo_estacion)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Tabla: estacion_servicio
 CREATE TABLE estacion_servicio (
@@ -63,6 +74,8 @@ CREATE TABLE estacion_servicio (
     direccion VARCHAR(255) NOT NULL,
     margen_id INT NOT NULL,
     ubicacion POINT NOT NULL SRID 4326,
+    -- Clave natural de la estación: los puntos no admiten índices únicos
+    clave_ubicacion VARCHAR(64) AS (ST_AsText(ubicacion)) STORED NOT NULL,
     codigo_postal_id INT NOT NULL,
     marca_id INT NOT NULL,
     horario_id INT NOT NULL,
@@ -72,7 +85,8 @@ CREATE TABLE estacion_servicio (
     CONSTRAINT estacion_servicio_ibfk_2 FOREIGN KEY (codigo_postal_id) REFERENCES codigo_postal (codigo_postal_id),
     CONSTRAINT estacion_servicio_ibfk_3 FOREIGN KEY (marca_id) REFERENCES marca (marca_id),
     CONSTRAINT estacion_servicio_ibfk_4 FOREIGN KEY (horario_id) REFERENCES horario (horario_id),
-    CONSTRAINT estacion_servicio_ibfk_5 FOREIGN KEY (tipo_estacion_id) REFERENCES tipo_estacion (tipo_estacion_id)
+    CONSTRAINT estacion_servicio_ibfk_5 FOREIGN KEY (tipo_estacion_id) REFERENCES tipo_estacion (tipo_estacion_id),
+    CONSTRAINT uk_estacion_servicio_clave_ubicacion UNIQUE (clave_ubicacion)
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Índices adicionales para mejorar el rendimiento en consultas
 CREATE INDEX idx_codigo_postal_id ON estacion_servicio (codigo_postal_id);
@@ -92,4 +106,84 @@ CREATE TABLE precio_combustible (
 ) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
 -- Índices para la tabla precio_combustible
 CREATE INDEX idx_combustible_id ON precio_combustible (combustible_id);
-CREATE INDEX idx_estacion_id ON precio_combustible (estacion_id);
\ No newline at end of file
+CREATE INDEX idx_estacion_id ON precio_combustible (estacion_id);
+-- Índices para los rankings de precios (paginación por cursor sobre (precio, estacion_id))
+-- y para localizar el último precio de cada estación y combustible (único: una observación por
+-- estación, combustible y fecha: al recargar el histórico, la inserción deja como está una ya guardada)
+CREATE INDEX idx_combustible_precio_estacion ON precio_combustible (combustible_id, precio, estacion_id);
+CREATE UNIQUE INDEX idx_estacion_combustible_fecha ON precio_combustible (estacion_id, combustible_id, fecha_hora);
+-- Índice para reagregar por rango de fechas los precios de cada fichero importado
+CREATE INDEX idx_fecha_hora ON precio_combustible (fecha_hora);
+-- Tabla: precio_vigente (último precio de cada estación y combustible, mantenido por el importador al
+-- guardar cada precio): los rankings recorren por cursor solo los precios vigentes, sin el histórico
+CREATE TABLE precio_vigente (
+    estacion_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    precio DECIMAL(5, 3) NOT NULL,
+    fecha_hora DATETIME NOT NULL,
+    PRIMARY KEY (estacion_id, combustible_id),
+    CONSTRAINT precio_vigente_ibfk_1 FOREIGN KEY (estacion_id) REFERENCES estacion_servicio (estacion_id),
+    CONSTRAINT precio_vigente_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE INDEX idx_vigente_combustible_precio_estacion ON precio_vigente (combustible_id, precio, estacion_id);
+-- Tabla: fichero_importado (ficheros ya importados por el demonio, identificados por su contenido)
+CREATE TABLE fichero_importado (
+    fichero_id INT AUTO_INCREMENT PRIMARY KEY,
+    nombre VARCHAR(255) NOT NULL,
+    huella CHAR(64) NOT NULL,
+    tamano BIGINT NOT NULL,
+    fecha_importacion DATETIME NOT NULL,
+    CONSTRAINT uk_fichero_importado_huella UNIQUE (huella)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+-- Tablas: precio_rollup_hora y precio_rollup_dia (agregados de precios por provincia, combustible y periodo)
+CREATE TABLE precio_rollup_hora (
+    provincia_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    periodo DATETIME NOT NULL,
+    suma_precio DECIMAL(14, 3) NOT NULL,
+    num_precios INT NOT NULL,
+    precio_minimo DECIMAL(5, 3) NOT NULL,
+    precio_maximo DECIMAL(5, 3) NOT NULL,
+    PRIMARY KEY (provincia_id, combustible_id, periodo),
+    CONSTRAINT precio_rollup_hora_ibfk_1 FOREIGN KEY (provincia_id) REFERENCES provincia (provincia_id),
+    CONSTRAINT precio_rollup_hora_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE INDEX idx_rollup_hora_periodo ON precio_rollup_hora (periodo);
+CREATE TABLE precio_rollup_dia (
+    provincia_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    periodo DATE NOT NULL,
+    suma_precio DECIMAL(14, 3) NOT NULL,
+    num_precios INT NOT NULL,
+    precio_minimo DECIMAL(5, 3) NOT NULL,
+    precio_maximo DECIMAL(5, 3) NOT NULL,
+    PRIMARY KEY (provincia_id, combustible_id, periodo),
+    CONSTRAINT precio_rollup_dia_ibfk_1 FOREIGN KEY (provincia_id) REFERENCES provincia (provincia_id),
+    CONSTRAINT precio_rollup_dia_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE INDEX idx_rollup_dia_periodo ON precio_rollup_dia (periodo);
+-- Tablas: consulta_permanente y notificacion_consulta (consultas registradas que el importador reevalúa
+-- tras cada lote y cambios de su resultado). No tienen claves ajenas a las tablas que el modo sombra
+-- sustituye con RENAME TABLE: la estación y el combustible se guardan por ID y por nombre.
+CREATE TABLE consulta_permanente (
+    consulta_id INT AUTO_INCREMENT PRIMARY KEY,
+    nombre_combustible VARCHAR(100) NOT NULL,
+    nombre_provincia VARCHAR(100) NULL,
+    latitud DOUBLE NULL,
+    longitud DOUBLE NULL,
+    radio_km DOUBLE NULL,
+    estacion_id INT NULL,
+    precio DECIMAL(5, 3) NULL,
+    fecha_evaluacion DATETIME NULL
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE TABLE notificacion_consulta (
+    notificacion_id INT AUTO_INCREMENT PRIMARY KEY,
+    consulta_id INT NOT NULL,
+    estacion_anterior_id INT NULL,
+    precio_anterior DECIMAL(5, 3) NULL,
+    estacion_id INT NULL,
+    precio DECIMAL(5, 3) NULL,
+    fecha_notificacion DATETIME NOT NULL,
+    CONSTRAINT notificacion_consulta_ibfk_1 FOREIGN KEY (consulta_id) REFERENCES consulta_permanente (consulta_id) ON DELETE CASCADE
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE INDEX idx_notificacion_consulta_fecha ON notificacion_consulta (consulta_id, fecha_notificacion);
\ No newline at end of file
@@ -0,0 +1,225 @@
+-- Migración de una base de datos creada con una versión anterior de esquema_relacional.sql al esquema
+-- actual. Es idempotente: cada paso comprueba en information_schema si ya está aplicado, así que puede
+-- ejecutarse de nuevo sin efecto (mysql estaciones_servicio < migracion_esquema.sql). Se aplica antes de
+-- esquema_compacto.sql, que necesita la tabla precio_vigente.
+-- Las claves únicas de las claves naturales no se pueden añadir si hay filas repetidas: antes de crear
+-- cada una, las filas repetidas se fusionan en la de menor ID y sus referencias pasan a esa fila.
+USE estaciones_servicio;
+-- Tablas nuevas (las de esquema_relacional.sql que no existan)
+CREATE TABLE IF NOT EXISTS precio_vigente (
+    estacion_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    precio DECIMAL(5, 3) NOT NULL,
+    fecha_hora DATETIME NOT NULL,
+    PRIMARY KEY (estacion_id, combustible_id),
+    CONSTRAINT precio_vigente_ibfk_1 FOREIGN KEY (estacion_id) REFERENCES estacion_servicio (estacion_id),
+    CONSTRAINT precio_vigente_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE TABLE IF NOT EXISTS fichero_importado (
+    fichero_id INT AUTO_INCREMENT PRIMARY KEY,
+    nombre VARCHAR(255) NOT NULL,
+    huella CHAR(64) NOT NULL,
+    tamano BIGINT NOT NULL,
+    fecha_importacion DATETIME NOT NULL,
+    CONSTRAINT uk_fichero_importado_huella UNIQUE (huella)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE TABLE IF NOT EXISTS precio_rollup_hora (
+    provincia_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    periodo DATETIME NOT NULL,
+    suma_precio DECIMAL(14, 3) NOT NULL,
+    num_precios INT NOT NULL,
+    precio_minimo DECIMAL(5, 3) NOT NULL,
+    precio_maximo DECIMAL(5, 3) NOT NULL,
+    PRIMARY KEY (provincia_id, combustible_id, periodo),
+    CONSTRAINT precio_rollup_hora_ibfk_1 FOREIGN KEY (provincia_id) REFERENCES provincia (provincia_id),
+    CONSTRAINT precio_rollup_hora_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE TABLE IF NOT EXISTS precio_rollup_dia (
+    provincia_id INT NOT NULL,
+    combustible_id INT NOT NULL,
+    periodo DATE NOT NULL,
+    suma_precio DECIMAL(14, 3) NOT NULL,
+    num_precios INT NOT NULL,
+    precio_minimo DECIMAL(5, 3) NOT NULL,
+    precio_maximo DECIMAL(5, 3) NOT NULL,
+    PRIMARY KEY (provincia_id, combustible_id, periodo),
+    CONSTRAINT precio_rollup_dia_ibfk_1 FOREIGN KEY (provincia_id) REFERENCES provincia (provincia_id),
+    CONSTRAINT precio_rollup_dia_ibfk_2 FOREIGN KEY (combustible_id) REFERENCES tipo_combustible (combustible_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE TABLE IF NOT EXISTS consulta_permanente (
+    consulta_id INT AUTO_INCREMENT PRIMARY KEY,
+    nombre_combustible VARCHAR(100) NOT NULL,
+    nombre_provincia VARCHAR(100) NULL,
+    latitud DOUBLE NULL,
+    longitud DOUBLE NULL,
+    radio_km DOUBLE NULL,
+    estacion_id INT NULL,
+    precio DECIMAL(5, 3) NULL,
+    fecha_evaluacion DATETIME NULL
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+CREATE TABLE IF NOT EXISTS notificacion_consulta (
+    notificacion_id INT AUTO_INCREMENT PRIMARY KEY,
+    consulta_id INT NOT NULL,
+    estacion_anterior_id INT NULL,
+    precio_anterior DECIMAL(5, 3) NULL,
+    estacion_id INT NULL,
+    precio DECIMAL(5, 3) NULL,
+    fecha_notificacion DATETIME NOT NULL,
+    CONSTRAINT notificacion_consulta_ibfk_1 FOREIGN KEY (consulta_id) REFERENCES consulta_permanente (consulta_id) ON DELETE CASCADE
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_unicode_ci;
+-- Procedimientos auxiliares de la migración (se borran al final)
+DROP PROCEDURE IF EXISTS migracion_ejecutar;
+DROP PROCEDURE IF EXISTS migracion_columna;
+DROP PROCEDURE IF EXISTS migracion_indice;
+DROP PROCEDURE IF EXISTS migracion_reasignar;
+DROP PROCEDURE IF EXISTS migracion_clave_unica;
+DELIMITER $$
+-- Ejecuta una sentencia construida como texto
+CREATE PROCEDURE migracion_ejecutar(IN p_sql TEXT)
+BEGIN
+    SET @migracion_sql = p_sql;
+    PREPARE sentencia FROM @migracion_sql;
+    EXECUTE sentencia;
+    DEALLOCATE PREPARE sentencia;
+END$$
+-- Añade una columna si la tabla no la tiene
+CREATE PROCEDURE migracion_columna(IN p_tabla VARCHAR(64), IN p_columna VARCHAR(64), IN p_definicion TEXT)
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.COLUMNS
+                   WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = p_tabla AND COLUMN_NAME = p_columna) THEN
+        CALL migracion_ejecutar(CONCAT('ALTER TABLE ', p_tabla, ' ADD COLUMN ', p_columna, ' ', p_definicion));
+    END IF;
+END$$
+-- Crea un índice no único si la tabla no tiene uno con ese nombre
+CREATE PROCEDURE migracion_indice(IN p_tabla VARCHAR(64), IN p_indice VARCHAR(64), IN p_columnas TEXT)
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = p_tabla AND INDEX_NAME = p_indice) THEN
+        CALL migracion_ejecutar(CONCAT('CREATE INDEX ', p_indice, ' ON ', p_tabla, ' (', p_columnas, ')'));
+    END IF;
+END$$
+-- Pasa las referencias de una columna a las filas fusionadas (tabla temporal migracion_fusion) a la
+-- fila que se conserva. Si la columna forma parte de una clave de la tabla que referencia, las filas
+-- que quedarían repetidas se borran: son agregados y precios vigentes, que se pueden recalcular.
+CREATE PROCEDURE migracion_reasignar(IN p_tabla VARCHAR(64), IN p_columna VARCHAR(64))
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = p_tabla) THEN
+        CALL migracion_ejecutar(CONCAT('UPDATE IGNORE ', p_tabla, ' r JOIN migracion_fusion f ON r.', p_columna,
+                ' = f.id_duplicado SET r.', p_columna, ' = f.id'));
+        CALL migracion_ejecutar(CONCAT('DELETE r FROM ', p_tabla, ' r JOIN migracion_fusion f ON r.', p_columna,
+                ' = f.id_duplicado'));
+    END IF;
+END$$
+-- Añade la clave única de la clave natural de una tabla de dimensión, fusionando antes las filas
+-- repetidas. p_referencias lista las columnas que apuntan a la tabla como 'tabla.columna' separadas
+-- por comas.
+CREATE PROCEDURE migracion_clave_unica(IN p_tabla VARCHAR(64), IN p_id VARCHAR(64), IN p_clave TEXT,
+                                       IN p_nombre VARCHAR(64), IN p_referencias TEXT)
+BEGIN
+    DECLARE v_referencia TEXT;
+    IF NOT EXISTS (SELECT 1 FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = p_tabla AND INDEX_NAME = p_nombre) THEN
+        DROP TEMPORARY TABLE IF EXISTS migracion_fusion;
+        CREATE TEMPORARY TABLE migracion_fusion (id_duplicado INT PRIMARY KEY, id INT NOT NULL);
+        CALL migracion_ejecutar(CONCAT('INSERT INTO migracion_fusion (id_duplicado, id) SELECT d.', p_id, ', k.id FROM ',
+                p_tabla, ' d JOIN (SELECT ', p_clave, ', MIN(', p_id, ') AS id FROM ', p_tabla, ' GROUP BY ', p_clave,
+                ' HAVING COUNT(*) > 1) k ON (', REPLACE(CONCAT('d.', p_clave), ', ', ', d.'), ') = (',
+                REPLACE(CONCAT('k.', p_clave), ', ', ', k.'),
+                ') AND d.', p_id, ' <> k.id'));
+        IF EXISTS (SELECT 1 FROM migracion_fusion) THEN
+            SET @migracion_fusionadas = @migracion_fusionadas + (SELECT COUNT(*) FROM migracion_fusion);
+            WHILE p_referencias <> '' DO
+                SET v_referencia = TRIM(SUBSTRING_INDEX(p_referencias, ',', 1));
+                SET p_referencias = IF(LOCATE(',', p_referencias) > 0,
+                        SUBSTRING(p_referencias, LOCATE(',', p_referencias) + 1), '');
+                CALL migracion_reasignar(SUBSTRING_INDEX(v_referencia, '.', 1), SUBSTRING_INDEX(v_referencia, '.', -1));
+            END WHILE;
+            CALL migracion_ejecutar(CONCAT('DELETE d FROM ', p_tabla, ' d JOIN migracion_fusion f ON d.', p_id,
+                    ' = f.id_duplicado'));
+        END IF;
+        DROP TEMPORARY TABLE migracion_fusion;
+        CALL migracion_ejecutar(CONCAT('ALTER TABLE ', p_tabla, ' ADD CONSTRAINT ', p_nombre, ' UNIQUE (', p_clave, ')'));
+    END IF;
+END$$
+DELIMITER ;
+SET @migracion_fusionadas = 0;
+-- Columnas nuevas
+CALL migracion_columna('horario', 'horario_semanal', 'BINARY(84) NULL');
+CALL migracion_columna('estacion_servicio', 'clave_ubicacion',
+        'VARCHAR(64) AS (ST_AsText(ubicacion)) STORED NOT NULL AFTER ubicacion');
+-- Claves únicas de las claves naturales, de las tablas padre a las hijas: al fusionar dos provincias,
+-- sus municipios del mismo nombre pasan a estar repetidos y se fusionan después
+CALL migracion_clave_unica('provincia', 'provincia_id', 'nombre_provincia', 'uk_provincia_nombre_provincia',
+        'municipio.provincia_id, precio_rollup_hora.provincia_id, precio_rollup_dia.provincia_id');
+CALL migracion_clave_unica('municipio', 'municipio_id', 'provincia_id, nombre_municipio', 'uk_municipio_nombre_municipio',
+        'localidad.municipio_id');
+CALL migracion_clave_unica('localidad', 'localidad_id', 'municipio_id, nombre_localidad', 'uk_localidad_nombre_localidad',
+        'codigo_postal.localidad_id');
+CALL migracion_clave_unica('codigo_postal', 'codigo_postal_id', 'localidad_id, codigo_postal', 'uk_codigo_postal_codigo_postal',
+        'estacion_servicio.codigo_postal_id');
+CALL migracion_clave_unica('horario', 'horario_id', 'descripcion_horario', 'uk_horario_descripcion_horario',
+        'estacion_servicio.horario_id');
+CALL migracion_clave_unica('marca', 'marca_id', 'nombre_marca', 'uk_marca_nombre_marca',
+        'estacion_servicio.marca_id');
+CALL migracion_clave_unica('margen', 'margen_id', 'nombre_margen', 'uk_margen_nombre_margen',
+        'estacion_servicio.margen_id');
+CALL migracion_clave_unica('tipo_estacion', 'tipo_estacion_id', 'tipo_estacion', 'uk_tipo_estacion_tipo_estacion',
+        'estacion_servicio.tipo_estacion_id');
+CALL migracion_clave_unica('tipo_combustible', 'combustible_id', 'nombre_combustible', 'uk_tipo_combustible_nombre_combustible',
+        CONCAT('precio_combustible.combustible_id, precio_vigente.combustible_id, ',
+               'precio_rollup_hora.combustible_id, precio_rollup_dia.combustible_id'));
+CALL migracion_clave_unica('estacion_servicio', 'estacion_id', 'clave_ubicacion', 'uk_estacion_servicio_clave_ubicacion',
+        CONCAT('precio_combustible.estacion_id, precio_vigente.estacion_id, consulta_permanente.estacion_id, ',
+               'notificacion_consulta.estacion_anterior_id, notificacion_consulta.estacion_id'));
+-- Índices de precio_combustible. Con el almacenamiento compacto (esquema_compacto.sql), la clave
+-- primaria ya es (estacion_id, combustible_id, fecha_hora) y no hay precio_id ni índice único aparte.
+-- Al fusionar estaciones o al recargar el histórico con la versión anterior pueden quedar observaciones
+-- repetidas: se conserva la de menor precio_id.
+DELIMITER $$
+DROP PROCEDURE IF EXISTS migracion_precios$$
+CREATE PROCEDURE migracion_precios()
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.COLUMNS
+               WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'precio_combustible' AND COLUMN_NAME = 'precio_id')
+            AND NOT EXISTS (SELECT 1 FROM information_schema.STATISTICS
+                            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'precio_combustible'
+                              AND INDEX_NAME = 'idx_estacion_combustible_fecha' AND NON_UNIQUE = 0) THEN
+        DELETE p FROM precio_combustible p
+        JOIN (SELECT estacion_id, combustible_id, fecha_hora, MIN(precio_id) AS precio_id
+              FROM precio_combustible
+              GROUP BY estacion_id, combustible_id, fecha_hora
+              HAVING COUNT(*) > 1) k
+          ON p.estacion_id = k.estacion_id AND p.combustible_id = k.combustible_id AND p.fecha_hora = k.fecha_hora
+         AND p.precio_id <> k.precio_id;
+        -- Una versión anterior creaba el índice sin UNIQUE
+        IF EXISTS (SELECT 1 FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'precio_combustible'
+                     AND INDEX_NAME = 'idx_estacion_combustible_fecha') THEN
+            DROP INDEX idx_estacion_combustible_fecha ON precio_combustible;
+        END IF;
+        CREATE UNIQUE INDEX idx_estacion_combustible_fecha ON precio_combustible (estacion_id, combustible_id, fecha_hora);
+    END IF;
+END$$
+DELIMITER ;
+CALL migracion_precios();
+DROP PROCEDURE migracion_precios;
+CALL migracion_indice('precio_combustible', 'idx_combustible_precio_estacion', 'combustible_id, precio, estacion_id');
+CALL migracion_indice('precio_combustible', 'idx_fecha_hora', 'fecha_hora');
+CALL migracion_indice('precio_vigente', 'idx_vigente_combustible_precio_estacion', 'combustible_id, precio, estacion_id');
+CALL migracion_indice('precio_rollup_hora', 'idx_rollup_hora_periodo', 'periodo');
+CALL migracion_indice('precio_rollup_dia', 'idx_rollup_dia_periodo', 'periodo');
+CALL migracion_indice('notificacion_consulta', 'idx_notificacion_consulta_fecha', 'consulta_id, fecha_notificacion');
+-- Tras fusionar estaciones o combustibles, los precios vigentes pueden no ser los últimos: se vacían y
+-- el importador los reconstruye desde precio_combustible al arrancar (también si la tabla es nueva)
+DELETE FROM precio_vigente WHERE @migracion_fusionadas > 0;
+DROP PROCEDURE migracion_ejecutar;
+DROP PROCEDURE migracion_columna;
+DROP PROCEDURE migracion_indice;
+DROP PROCEDURE migracion_reasignar;
+DROP PROCEDURE migracion_clave_unica;
+-- Los agregados de las provincias y combustibles fusionados están incompletos: volver a calcularlos con
+-- RollupPrecios sobre todo el histórico
+SELECT IF(@migracion_fusionadas > 0,
+          CONCAT(@migracion_fusionadas, ' filas repetidas fusionadas: reagregar el histórico con RollupPrecios'),
+          'Sin filas repetidas') AS resultado;
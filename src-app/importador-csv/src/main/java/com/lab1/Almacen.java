@@ -0,0 +1,68 @@
+package com.lab1;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Interfaz Almacen.
+ *
+ * <p>
+ * Motor de almacenamiento sobre el que trabajan el importador y las consultas. Hay dos implementaciones:
+ * {@link AlmacenMySql}, el servidor MySQL de siempre, y {@link AlmacenH2}, una base de datos H2 embebida
+ * en el propio proceso y guardada en ficheros locales, que no necesita servidor ni paga viajes por la
+ * red en cada fila; pensada para análisis en una sola máquina y para pruebas de rendimiento en CI. El
+ * motor se elige con la variable de entorno MOTOR_BD (mysql, el valor por defecto, o h2).
+ * </p>
+ *
+ * <p>
+ * Las sentencias se escriben en el dialecto de MySQL; las diferencias con cada motor las resuelve su
+ * {@link Dialecto}.
+ * </p>
+ */
+public interface Almacen {
+
+    /**
+     * Abre una conexión nueva con la base de datos.
+     *
+     * @return Conexión abierta.
+     * @throws SQLException Si no se puede conectar.
+     */
+    Connection conectar() throws SQLException;
+
+    /**
+     * Abre una conexión nueva para consultas que leen sus resultados por bloques con un fetch size
+     * positivo (ver {@link Consultas}). Por defecto es una conexión normal.
+     *
+     * @return Conexión abierta.
+     * @throws SQLException Si no se puede conectar.
+     */
+    default Connection conectarLectura() throws SQLException {
+        return conectar();
+    }
+
+    /**
+     * Devuelve el dialecto SQL del motor.
+     *
+     * @return Dialecto del motor.
+     */
+    Dialecto getDialecto();
+
+    /**
+     * Crea el almacén indicado por la variable de entorno MOTOR_BD.
+     *
+     * @param host     Host del servidor (no se usa con H2).
+     * @param database Nombre de la base de datos.
+     * @return Almacén del motor configurado.
+     */
+    static Almacen crear(String host, String database) {
+        String motor = System.getenv().getOrDefault("MOTOR_BD", "mysql").trim().toLowerCase();
+        switch (motor) {
+            case "mysql":
+                return new AlmacenMySql(host, database);
+            case "h2":
+                return new AlmacenH2(System.getenv().getOrDefault("H2_DIRECTORIO", "h2"), database);
+            default:
+                throw new IllegalArgumentException("Motor de base de datos desconocido en MOTOR_BD: " + motor);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.lab1;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clase AlmacenH2.
+ *
+ * <p>
+ * Almacén sobre una base de datos H2 embebida en el proceso y guardada en ficheros (H2_DIRECTORIO, por
+ * defecto ./h2). La base de datos se abre en modo MySQL, con identificadores en minúsculas y
+ * comparaciones de texto sin distinguir mayúsculas, como la intercalación utf8mb4_unicode_ci del
+ * esquema de MySQL. La primera conexión de cada base de datos registra las funciones de
+ * {@link FuncionesH2} y, si la base de datos está vacía, crea el esquema de esquema_h2.sql.
+ * </p>
+ */
+@Slf4j
+public class AlmacenH2 implements Almacen {
+
+    private static final String RECURSO_ESQUEMA = "/esquema_h2.sql";
+
+    private static final String SQL_EXISTE_ESQUEMA =
+            "SELECT 1 FROM information_schema.TABLES WHERE TABLE_SCHEMA = 'public' AND TABLE_NAME = 'precio_combustible'";
+
+    /**
+     * Funciones de MySQL implementadas en FuncionesH2: nombre SQL y método.
+     */
+    private static final String[][] FUNCIONES = {
+            {"ST_PointFromText", "stPointFromText"},
+            {"ST_GeomFromText", "stPointFromText"},
+            {"ST_PolyFromText", "stPolyFromText"},
+            {"MBRContains", "mbrContains"},
+            {"ST_AsText", "stAsText"},
+            {"ST_Equals", "stEquals"},
+            {"ST_Distance_Sphere", "stDistanceSphere"},
+            {"DATE_FORMAT", "dateFormat"},
+            {"WEEKDAY", "weekday"},
+            {"HORARIO_ABIERTO", "horarioAbierto"}
+    };
+
+    /**
+     * URLs de las bases de datos ya preparadas en este proceso.
+     */
+    private static final Set<String> PREPARADAS = ConcurrentHashMap.newKeySet();
+
+    private final String url;
+
+    /**
+     * Constructor de la clase AlmacenH2.
+     *
+     * @param directorio Directorio de los ficheros de la base de datos.
+     * @param database   Nombre de la base de datos.
+     */
+    public AlmacenH2(String directorio, String database) {
+        this.url = "jdbc:h2:file:" + directorio + "/" + database +
+                ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;IGNORECASE=TRUE";
+    }
+
+    @Override
+    public Connection conectar() throws SQLException {
+        Connection conn = DriverManager.getConnection(url,
+                System.getenv().getOrDefault("H2_USER", "sa"),
+                System.getenv().getOrDefault("H2_PASSWORD", ""));
+        if (!PREPARADAS.contains(url)) {
+            synchronized (PREPARADAS) {
+                if (!PREPARADAS.contains(url)) {
+                    preparar(conn);
+                    PREPARADAS.add(url);
+                }
+            }
+        }
+        return conn;
+    }
+
+    @Override
+    public Dialecto getDialecto() {
+        return Dialecto.H2;
+    }
+
+    /**
+     * Registra las funciones y crea el esquema si la base de datos está vacía.
+     */
+    private void preparar(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(true);
+        try (Statement stmt = conn.createStatement()) {
+            for (String[] funcion : FUNCIONES) {
+                stmt.execute("CREATE ALIAS IF NOT EXISTS " + funcion[0] + " DETERMINISTIC FOR '" +
+                        FuncionesH2.class.getName() + "." + funcion[1] + "'");
+            }
+            if (!existeEsquema(conn)) {
+                log.info("Creando el esquema en la base de datos H2 {}", url);
+                for (String sentencia : leerEsquema().split(";")) {
+                    if (!sentencia.trim().isEmpty()) {
+                        stmt.execute(sentencia);
+                    }
+                }
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean existeEsquema(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_EXISTE_ESQUEMA);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Lee el script del esquema sin las líneas de comentario.
+     */
+    private static String leerEsquema() throws SQLException {
+        InputStream in = AlmacenH2.class.getResourceAsStream(RECURSO_ESQUEMA);
+        if (in == null) {
+            throw new SQLException("No se encuentra el recurso " + RECURSO_ESQUEMA);
+        }
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                if (!linea.trim().startsWith("--")) {
+                    sb.append(linea).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Error al leer el recurso " + RECURSO_ESQUEMA, e);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package com.lab1;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Clase AlmacenMySql.
+ *
+ * <p>
+ * Almacén sobre un servidor MySQL, con las conexiones de {@link MySqlConnector}. El esquema se crea
+ * aparte con esquema_relacional.sql.
+ * </p>
+ */
+public class AlmacenMySql implements Almacen {
+
+    private final String host;
+    private final String database;
+
+    /**
+     * Constructor de la clase AlmacenMySql.
+     *
+     * @param host     Host del servidor MySQL.
+     * @param database Nombre de la base de datos.
+     */
+    public AlmacenMySql(String host, String database) {
+        this.host = host;
+        this.database = database;
+    }
+
+    @Override
+    public Connection conectar() throws SQLException {
+        return conectar(false);
+    }
+
+    /**
+     * Conexión con useCursorFetch, que solo necesitan las lecturas por bloques.
+     */
+    @Override
+    public Connection conectarLectura() throws SQLException {
+        return conectar(true);
+    }
+
+    private Connection conectar(boolean lecturaPorBloques) throws SQLException {
+        try {
+            return new MySqlConnector(host, database, lecturaPorBloques).getConnection();
+        } catch (RuntimeException e) {
+            // MySqlConnector envuelve el error de conexión; se devuelve como el SQLException del contrato
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Dialecto getDialecto() {
+        return Dialecto.MYSQL;
+    }
+}
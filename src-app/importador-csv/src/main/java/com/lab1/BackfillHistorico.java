@@ -0,0 +1,412 @@
+package com.lab1;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase BackfillHistorico.
+ *
+ * <p>
+ * Carga en una sola ejecución un archivo de instantáneas diarias del fichero de precios. Cada fichero
+ * se asigna al día que aparece en su ruta (por ejemplo archivo/2021-03-15/preciosEESS_es.csv o
+ * archivo/preciosEESS_es_2021-03-15.csv). Varios hilos leen e interpretan los días en paralelo. El hilo
+ * principal los escribe en orden de fecha: resuelve las dimensiones con las cachés de
+ * {@link ImportadorCSV}, que se comparten entre todos los días, ordena los precios de cada día por
+ * fecha_hora y los inserta con INSERT de muchas filas por sentencia, actualizando con las mismas filas
+ * precio_vigente (ver {@link FormatoPrecio#sqlActualizarVigentes(int)}).
+ * </p>
+ *
+ * <p>
+ * No se comprueba la existencia de cada precio: la clave única (estacion_id, combustible_id, fecha_hora)
+ * descarta los repetidos con un ON DUPLICATE KEY UPDATE que no cambia nada, como
+ * {@link FormatoPrecio#sqlInsertar()}, por lo que repetir el backfill de un rango ya cargado no duplica
+ * filas. A diferencia de INSERT IGNORE, un precio fuera de rango o una clave ajena rota siguen siendo un
+ * error y no se guardan recortados ni se descartan en silencio. Cada día se confirma por separado, de
+ * modo que un backfill interrumpido se puede relanzar sobre el mismo rango. Al terminar se recalculan
+ * los agregados de {@link RollupPrecios}, mes a mes.
+ * </p>
+ */
+@Slf4j
+public class BackfillHistorico {
+
+    private static final String DATABASE = "estaciones_servicio";
+
+    /**
+     * Filas por sentencia INSERT.
+     */
+    private static final int FILAS_POR_INSERT = 1000;
+
+    /**
+     * Días leídos por adelantado por cada hilo lector, que acotan la memoria usada.
+     */
+    private static final int DIAS_POR_HILO = 2;
+
+    private static final Pattern FECHA_RUTA = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})");
+    private static final DateTimeFormatter FORMATO_TOMA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Connection conn;
+    private final int hilos;
+    private Dialecto dialecto;
+    private PreparedStatement insertCompleto;
+    private PreparedStatement vigentesCompleto;
+    private FormatoPrecio formatoPrecio;
+
+    // Rango de fecha_hora de los precios escritos, para recalcular sus agregados
+    private LocalDateTime primeraFecha;
+    private LocalDateTime ultimaFecha;
+
+    /**
+     * Fichero de un día ya interpretado.
+     */
+    private static class FicheroDia {
+        final Map<String, Integer> columnIndices = new HashMap<>();
+        String[] combustibles;
+        final List<FilaDia> filas = new ArrayList<>();
+    }
+
+    /**
+     * Registro de un fichero: los datos de la estación, la fecha de la toma en segundos y un precio por
+     * combustible del fichero (NaN si está vacío).
+     */
+    private static class FilaDia {
+        final String[] data;
+        final long segundos;
+        final double[] precios;
+
+        FilaDia(String[] data, long segundos, double[] precios) {
+            this.data = data;
+            this.segundos = segundos;
+            this.precios = precios;
+        }
+    }
+
+    /**
+     * Constructor de la clase BackfillHistorico. El importador debe estar inicializado sobre la misma conexión.
+     *
+     * @param conn  Conexión a la base de datos, con el auto-commit desactivado.
+     * @param hilos Número de hilos lectores.
+     */
+    public BackfillHistorico(final Connection conn, final int hilos) {
+        this.conn = conn;
+        this.hilos = hilos;
+    }
+
+    /**
+     * Carga las instantáneas de un rango de días.
+     *
+     * @param directorio Directorio del archivo de instantáneas.
+     * @param desde      Primer día incluido.
+     * @param hasta      Último día incluido.
+     * @throws IOException  Si no se puede leer un fichero.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void ejecutar(Path directorio, LocalDate desde, LocalDate hasta) throws IOException, SQLException {
+        SortedMap<LocalDate, List<Path>> ficherosPorDia = buscarFicheros(directorio, desde, hasta);
+        log.info("Backfill de {} días con {} hilos lectores", ficherosPorDia.size(), hilos);
+        if (ficherosPorDia.isEmpty()) {
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        ExecutorService lectores = Executors.newFixedThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, "backfill-lector");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        dialecto = Dialecto.de(conn);
+        formatoPrecio = FormatoPrecio.detectar(conn);
+        insertCompleto = preparar(sqlInsert(FILAS_POR_INSERT));
+        vigentesCompleto = preparar(formatoPrecio.sqlActualizarVigentes(FILAS_POR_INSERT));
+        try {
+            // Los días se leen en paralelo, pero se consumen en orden con una ventana acotada
+            Iterator<Map.Entry<LocalDate, List<Path>>> siguientes = ficherosPorDia.entrySet().iterator();
+            Deque<Map.Entry<LocalDate, Future<List<FicheroDia>>>> enLectura = new ArrayDeque<>();
+            long filas = 0;
+            while (siguientes.hasNext() || !enLectura.isEmpty()) {
+                while (siguientes.hasNext() && enLectura.size() < hilos * DIAS_POR_HILO) {
+                    Map.Entry<LocalDate, List<Path>> dia = siguientes.next();
+                    enLectura.add(new AbstractMap.SimpleEntry<>(dia.getKey(), lectores.submit(() -> leerDia(dia.getValue()))));
+                }
+                Map.Entry<LocalDate, Future<List<FicheroDia>>> dia = enLectura.poll();
+                long fueraDeOrden = ImportadorCSV.getObservacionesFueraDeOrden();
+                long escritas = escribirDia(dia.getKey(), esperar(dia.getKey(), dia.getValue()));
+                filas += escritas;
+                log.info("Día {}: {} precios escritos", dia.getKey(), escritas);
+                if (ImportadorCSV.getObservacionesFueraDeOrden() > fueraDeOrden) {
+                    log.warn("Día {}: descartadas {} observaciones anteriores a las ya guardadas de la misma estación y combustible",
+                            dia.getKey(), ImportadorCSV.getObservacionesFueraDeOrden() - fueraDeOrden);
+                }
+            }
+            log.info("Backfill terminado: {} precios escritos en {} s", filas, (System.nanoTime() - inicio) / 1_000_000_000);
+        } finally {
+            lectores.shutdownNow();
+            insertCompleto.close();
+            vigentesCompleto.close();
+        }
+
+        reagregar();
+    }
+
+    /**
+     * Busca los ficheros CSV del archivo cuya ruta contiene un día del rango.
+     */
+    private static SortedMap<LocalDate, List<Path>> buscarFicheros(Path directorio, LocalDate desde, LocalDate hasta) throws IOException {
+        SortedMap<LocalDate, List<Path>> ficherosPorDia = new TreeMap<>();
+        try (Stream<Path> rutas = Files.walk(directorio, 2)) {
+            rutas.filter(ruta -> ruta.toString().endsWith(".csv") && Files.isRegularFile(ruta)).forEach(ruta -> {
+                Matcher m = FECHA_RUTA.matcher(directorio.relativize(ruta).toString());
+                if (m.find()) {
+                    LocalDate dia = LocalDate.parse(m.group(1));
+                    if (!dia.isBefore(desde) && !dia.isAfter(hasta)) {
+                        ficherosPorDia.computeIfAbsent(dia, d -> new ArrayList<>()).add(ruta);
+                    }
+                }
+            });
+        }
+        return ficherosPorDia;
+    }
+
+    private static List<FicheroDia> esperar(LocalDate dia, Future<List<FicheroDia>> lectura) throws IOException {
+        try {
+            return lectura.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido leyendo el día " + dia, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error al leer los ficheros del día " + dia, e.getCause());
+        }
+    }
+
+    /**
+     * Lee e interpreta los ficheros de un día, sin acceder a la base de datos (se ejecuta en un hilo lector).
+     */
+    private static List<FicheroDia> leerDia(List<Path> ficheros) throws IOException, CsvValidationException {
+        List<FicheroDia> dia = new ArrayList<>();
+        for (Path ruta : ficheros) {
+            try (CSVReader csvReader = new CSVReader(new InputStreamReader(Files.newInputStream(ruta), StandardCharsets.UTF_8))) {
+                String[] headers = csvReader.readNext();
+                if (headers == null) {
+                    continue;
+                }
+                FicheroDia fichero = new FicheroDia();
+                List<Integer> columnasPrecio = new ArrayList<>();
+                List<String> combustibles = new ArrayList<>();
+                for (int i = 0; i < headers.length; i++) {
+                    String header = headers[i].trim();
+                    fichero.columnIndices.put(header, i);
+                    if (header.startsWith("Precio")) {
+                        columnasPrecio.add(i);
+                        combustibles.add(header.replace("Precio ", "").trim());
+                    }
+                }
+                fichero.combustibles = combustibles.toArray(new String[0]);
+                int columnaToma = fichero.columnIndices.get("Toma de datos");
+
+                String[] data;
+                while ((data = csvReader.readNext()) != null) {
+                    long segundos = LocalDateTime.parse(data[columnaToma].trim(), FORMATO_TOMA).toEpochSecond(ZoneOffset.UTC);
+                    double[] precios = new double[columnasPrecio.size()];
+                    for (int j = 0; j < precios.length; j++) {
+                        String valor = data[columnasPrecio.get(j)].trim();
+                        precios[j] = valor.isEmpty() ? Double.NaN : Double.parseDouble(valor.replace(",", "."));
+                    }
+                    fichero.filas.add(new FilaDia(data, segundos, precios));
+                }
+                dia.add(fichero);
+            }
+        }
+        return dia;
+    }
+
+    /**
+     * Resuelve las dimensiones de un día y escribe sus precios en orden de fecha_hora, en una transacción.
+     *
+     * @return Número de precios escritos, contando los que ya existían y se han dejado como estaban: el
+     *         recuento de filas afectadas del driver no los distingue de los nuevos.
+     */
+    private long escribirDia(LocalDate dia, List<FicheroDia> ficheros) throws SQLException {
+        int total = 0;
+        for (FicheroDia fichero : ficheros) {
+            total += fichero.filas.size() * fichero.combustibles.length;
+        }
+        int[] estaciones = new int[total];
+        int[] combustibles = new int[total];
+        double[] precios = new double[total];
+        long[] segundos = new long[total];
+        int n = 0;
+
+        try {
+            for (FicheroDia fichero : ficheros) {
+                int[] combustibleIds = new int[fichero.combustibles.length];
+                for (int j = 0; j < combustibleIds.length; j++) {
+                    combustibleIds[j] = ImportadorCSV.getOrInsertCombustible(fichero.combustibles[j]);
+                }
+                for (FilaDia fila : fichero.filas) {
+                    int estacionId = ImportadorCSV.resolverEstacion(fila.data, fichero.columnIndices);
+                    for (int j = 0; j < fila.precios.length; j++) {
+                        if (!Double.isNaN(fila.precios[j])) {
+                            estaciones[n] = estacionId;
+                            combustibles[n] = combustibleIds[j];
+                            precios[n] = fila.precios[j];
+                            segundos[n] = fila.segundos;
+                            n++;
+                        }
+                    }
+                }
+            }
+
+            // Orden por fecha_hora: clave de 64 bits con los segundos en la parte alta y la posición en la baja
+            if (n >= 1 << 24) {
+                throw new SQLException("Demasiados precios en el día " + dia + ": " + n);
+            }
+            long[] orden = new long[n];
+            for (int i = 0; i < n; i++) {
+                orden[i] = (segundos[i] << 24) | i;
+            }
+            Arrays.sort(orden);
+
+            long escritas = 0;
+            int pendientes = 0;
+            int[] lote = new int[FILAS_POR_INSERT];
+            for (long clave : orden) {
+                int i = (int) (clave & 0xFFFFFF);
+                LocalDateTime fechaHora = LocalDateTime.ofEpochSecond(segundos[i], 0, ZoneOffset.UTC);
+                // En el modo de solo cambios, el orden por fecha permite descartar los precios repetidos
+                if (!ImportadorCSV.debeGuardarse(estaciones[i], combustibles[i], precios[i], fechaHora)) {
+                    continue;
+                }
+                lote[pendientes++] = i;
+                if (pendientes == FILAS_POR_INSERT) {
+                    insertar(insertCompleto, lote, pendientes, estaciones, combustibles, precios, segundos);
+                    insertar(vigentesCompleto, lote, pendientes, estaciones, combustibles, precios, segundos);
+                    escritas += pendientes;
+                    pendientes = 0;
+                }
+            }
+            if (pendientes > 0) {
+                try (PreparedStatement resto = preparar(sqlInsert(pendientes));
+                     PreparedStatement restoVigentes = preparar(formatoPrecio.sqlActualizarVigentes(pendientes))) {
+                    insertar(resto, lote, pendientes, estaciones, combustibles, precios, segundos);
+                    insertar(restoVigentes, lote, pendientes, estaciones, combustibles, precios, segundos);
+                }
+                escritas += pendientes;
+            }
+            conn.commit();
+
+            if (n > 0) {
+                LocalDateTime primera = LocalDateTime.ofEpochSecond(orden[0] >>> 24, 0, ZoneOffset.UTC);
+                LocalDateTime ultima = LocalDateTime.ofEpochSecond(orden[n - 1] >>> 24, 0, ZoneOffset.UTC);
+                primeraFecha = primeraFecha == null || primera.isBefore(primeraFecha) ? primera : primeraFecha;
+                ultimaFecha = ultimaFecha == null || ultima.isAfter(ultimaFecha) ? ultima : ultimaFecha;
+            }
+            return escritas;
+        } catch (SQLException e) {
+            conn.rollback();
+            // Las cachés del importador pueden tener IDs de dimensiones del día revertido
+            ImportadorCSV.revertido();
+            throw e;
+        }
+    }
+
+    /**
+     * Prepara una sentencia adaptada al dialecto del motor, como las del importador.
+     */
+    private PreparedStatement preparar(String sql) throws SQLException {
+        return conn.prepareStatement(dialecto.adaptar(sql));
+    }
+
+    private void insertar(PreparedStatement pstmt, int[] lote, int filas, int[] estaciones, int[] combustibles,
+                          double[] precios, long[] segundos) throws SQLException {
+        int p = 1;
+        for (int k = 0; k < filas; k++) {
+            int i = lote[k];
+            pstmt.setInt(p++, estaciones[i]);
+            pstmt.setInt(p++, combustibles[i]);
+            formatoPrecio.asignar(pstmt, p++, precios[i]);
+            pstmt.setTimestamp(p++, Timestamp.valueOf(LocalDateTime.ofEpochSecond(segundos[i], 0, ZoneOffset.UTC)));
+        }
+        pstmt.executeUpdate();
+    }
+
+    private String sqlInsert(int filas) {
+        StringBuilder sql = new StringBuilder("INSERT INTO precio_combustible (estacion_id, combustible_id, ")
+                .append(formatoPrecio.getColumna()).append(", fecha_hora) VALUES ");
+        for (int i = 0; i < filas; i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+        return sql.append(" ON DUPLICATE KEY UPDATE fecha_hora = fecha_hora").toString();
+    }
+
+    /**
+     * Recalcula los agregados del rango escrito, un mes por transacción.
+     */
+    private void reagregar() throws SQLException {
+        if (primeraFecha == null) {
+            return;
+        }
+        RollupPrecios rollup = new RollupPrecios(conn);
+        LocalDate mes = primeraFecha.toLocalDate().withDayOfMonth(1);
+        while (!mes.isAfter(ultimaFecha.toLocalDate())) {
+            // Los precios vigentes se extienden hasta el final del mes, o hasta la última observación
+            LocalDateTime finMes = mes.plusMonths(1).atStartOfDay().minusSeconds(1);
+            try {
+                rollup.reagregar(mes.atStartOfDay(), finMes.isAfter(ultimaFecha) ? ultimaFecha : finMes);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            mes = mes.plusMonths(1);
+        }
+    }
+
+    /**
+     * Método principal que lanza el backfill.
+     *
+     * @param args Argumentos de línea de comandos: host, nombre de la base de datos, directorio del archivo,
+     *             primer día y último día (yyyy-MM-dd). El número de hilos lectores se configura con
+     *             BACKFILL_HILOS (por defecto, el número de procesadores).
+     */
+    public static void main(String[] args) {
+        if (args.length < 5) {
+            log.error("Uso: BackfillHistorico <host> <base de datos> <directorio> <desde yyyy-MM-dd> <hasta yyyy-MM-dd>");
+            return;
+        }
+        String host = args[0];
+        String database = args[1].isEmpty() ? DATABASE : args[1];
+        Path directorio = Paths.get(args[2]);
+        LocalDate desde = LocalDate.parse(args[3]);
+        LocalDate hasta = LocalDate.parse(args[4]);
+        int hilos = Integer.parseInt(System.getenv().getOrDefault("BACKFILL_HILOS",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        try {
+            Connection conn = Almacen.crear(host, database).conectar();
+            ImportadorCSV.inicializar(conn);
+            try {
+                new BackfillHistorico(conn, hilos).ejecutar(directorio, desde, hasta);
+            } finally {
+                ImportadorCSV.finalizar();
+            }
+        } catch (Exception e) {
+            log.error("Error en el backfill del histórico", e);
+        }
+    }
+}
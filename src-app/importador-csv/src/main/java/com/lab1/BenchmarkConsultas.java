@@ -0,0 +1,528 @@
+package com.lab1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase BenchmarkConsultas.
+ *
+ * <p>
+ * Banco de pruebas de rendimiento de las consultas de {@link Consultas}. Carga en una base de datos
+ * local, creada con esquema_relacional.sql, un conjunto de datos sintético cuyo tamaño depende de la
+ * escala indicada. Después ejecuta cada consulta, tras un calentamiento, con muchas combinaciones de
+ * parámetros aleatorios, y mide sus percentiles de latencia con {@link HistogramaLatencia}. También
+ * guarda el plan de cada consulta (EXPLAIN FORMAT=JSON) y los índices que usa.
+ * </p>
+ *
+ * <p>
+ * Los resultados se comparan con un fichero de referencia de propiedades. El benchmark falla (código de
+ * salida 1) si una consulta deja de usar un índice que usaba en la referencia, o si su p50 o su p90
+ * empeora más que el umbral indicado. Si el fichero de referencia no existe, o se pasa
+ * --actualizar-referencia, se escribe con los resultados de la ejecución.
+ * </p>
+ */
+@Slf4j
+public class BenchmarkConsultas {
+
+    private static final String DATABASE = "estaciones_servicio_benchmark";
+    private static final String TIPO_ESTACION_TERRESTRE = "Terrestre";
+    private static final String TIPO_ESTACION_MARITIMA = "Puerto";
+    private static final String[] COMBUSTIBLES = {"gasolina 95 E5", "gasolina 98 E5", "gasóleo A", "gasóleo B"};
+    private static final double[] PRECIOS_BASE = {1.65, 1.80, 1.55, 1.10};
+    private static final String[] MARGENES = {"D", "I", "N"};
+    private static final String[] HORARIOS = {
+            "L-D: 24H", "L-V: 07:00-22:00; S: 08:00-14:00", "L-S: 06:00-23:00", "L-D: 08:00-13:30 y 16:00-21:00"};
+    private static final double[] RADIOS_KM = {2, 5, 10, 25};
+
+    /**
+     * Tolerancia absoluta, en milisegundos, que se suma al umbral relativo para no dar por regresiones
+     * las variaciones de las consultas de menos de un milisegundo.
+     */
+    private static final double TOLERANCIA_MS = 0.5;
+
+    private static final int TAMANO_LOTE = 10_000;
+    private static final Pattern INDICE_PLAN = Pattern.compile("\"key\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final Connection conn;
+    private final Random random = new Random(42);
+
+    // Muestras de valores existentes para generar los parámetros
+    private final List<String> provincias = new ArrayList<>();
+    private final List<Muestra> estaciones = new ArrayList<>();
+    private Timestamp primeraFecha;
+    private Timestamp ultimaFecha;
+
+    /**
+     * Estación de la que se toman el punto, el municipio y el ID para los parámetros.
+     */
+    private static class Muestra {
+        final int estacionId;
+        final double lon;
+        final double lat;
+        final String municipio;
+
+        Muestra(int estacionId, double lon, double lat, String municipio) {
+            this.estacionId = estacionId;
+            this.lon = lon;
+            this.lat = lat;
+            this.municipio = municipio;
+        }
+    }
+
+    /**
+     * Consulta medida: su SQL y un generador de parámetros aleatorios.
+     */
+    private static class Caso {
+        final String nombre;
+        final String sql;
+        final Function<Random, Object[]> parametros;
+
+        Caso(String nombre, String sql, Function<Random, Object[]> parametros) {
+            this.nombre = nombre;
+            this.sql = sql;
+            this.parametros = parametros;
+        }
+    }
+
+    /**
+     * Resultado de un caso: latencias e índices usados en el plan.
+     */
+    private static class Resultado {
+        final HistogramaLatencia latencias = new HistogramaLatencia();
+        final SortedSet<String> indices = new TreeSet<>();
+    }
+
+    /**
+     * Constructor de la clase BenchmarkConsultas.
+     *
+     * @param conn Conexión a la base de datos de pruebas.
+     */
+    public BenchmarkConsultas(final Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Carga el conjunto de datos sintético si la base de datos está vacía.
+     *
+     * @param numEstaciones Número de estaciones de servicio.
+     * @param dias          Número de días de precios por estación y combustible.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void cargarDatos(int numEstaciones, int dias) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM estacion_servicio")) {
+            rs.next();
+            if (rs.getInt(1) > 0) {
+                log.info("La base de datos ya tiene {} estaciones; se reutilizan sus datos", rs.getInt(1));
+                return;
+            }
+        }
+
+        long inicio = System.nanoTime();
+        conn.setAutoCommit(false);
+        int numMunicipios = Math.max(1, numEstaciones / 10);
+        int numProvincias = Math.min(52, numMunicipios);
+
+        insertarNombres("INSERT INTO provincia (provincia_id, nombre_provincia) VALUES (?, ?)", numProvincias,
+                i -> i == 1 ? "MADRID" : String.format("PROVINCIA %02d", i));
+        insertarNombres("INSERT INTO marca (marca_id, nombre_marca) VALUES (?, ?)", 30,
+                i -> String.format("MARCA %02d", i));
+        insertarNombres("INSERT INTO margen (margen_id, nombre_margen) VALUES (?, ?)", MARGENES.length,
+                i -> MARGENES[i - 1]);
+        insertarNombres("INSERT INTO tipo_estacion (tipo_estacion_id, tipo_estacion) VALUES (?, ?)", 2,
+                i -> i == 1 ? TIPO_ESTACION_TERRESTRE : TIPO_ESTACION_MARITIMA);
+        insertarNombres("INSERT INTO tipo_combustible (combustible_id, nombre_combustible) VALUES (?, ?)", COMBUSTIBLES.length,
+                i -> COMBUSTIBLES[i - 1]);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO horario (horario_id, descripcion_horario, horario_semanal) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < HORARIOS.length; i++) {
+                pstmt.setInt(1, i + 1);
+                pstmt.setString(2, HORARIOS[i]);
+                pstmt.setBytes(3, HorarioSemanal.parse(HORARIOS[i]));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+
+        // Cada municipio tiene una localidad y un código postal con su mismo ID, y un centro en la península
+        double[][] centros = new double[numMunicipios + 1][];
+        try (PreparedStatement municipio = conn.prepareStatement(
+                "INSERT INTO municipio (municipio_id, nombre_municipio, provincia_id) VALUES (?, ?, ?)");
+             PreparedStatement localidad = conn.prepareStatement(
+                     "INSERT INTO localidad (localidad_id, nombre_localidad, municipio_id) VALUES (?, ?, ?)");
+             PreparedStatement codigoPostal = conn.prepareStatement(
+                     "INSERT INTO codigo_postal (codigo_postal_id, codigo_postal, localidad_id) VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= numMunicipios; i++) {
+                String nombre = i == 1 ? "ALBACETE" : String.format("MUNICIPIO %05d", i);
+                centros[i] = new double[]{-9.0 + random.nextDouble() * 12.0, 36.5 + random.nextDouble() * 7.0};
+                municipio.setInt(1, i);
+                municipio.setString(2, nombre);
+                municipio.setInt(3, 1 + random.nextInt(numProvincias));
+                municipio.addBatch();
+                localidad.setInt(1, i);
+                localidad.setString(2, nombre);
+                localidad.setInt(3, i);
+                localidad.addBatch();
+                codigoPostal.setInt(1, i);
+                codigoPostal.setString(2, String.format("%05d", i % 100_000));
+                codigoPostal.setInt(3, i);
+                codigoPostal.addBatch();
+            }
+            municipio.executeBatch();
+            localidad.executeBatch();
+            codigoPostal.executeBatch();
+        }
+
+        int[] municipioEstacion = new int[numEstaciones + 1];
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO estacion_servicio (estacion_id, direccion, margen_id, ubicacion, codigo_postal_id, marca_id, " +
+                        "horario_id, tipo_estacion_id) VALUES (?, ?, ?, ST_PointFromText(?, 4326), ?, ?, ?, ?)")) {
+            for (int i = 1; i <= numEstaciones; i++) {
+                int municipio = 1 + random.nextInt(numMunicipios);
+                municipioEstacion[i] = municipio;
+                double lon = centros[municipio][0] + (random.nextDouble() - 0.5) * 0.2;
+                double lat = centros[municipio][1] + (random.nextDouble() - 0.5) * 0.2;
+                pstmt.setInt(1, i);
+                pstmt.setString(2, "CALLE " + i);
+                pstmt.setInt(3, 1 + random.nextInt(MARGENES.length));
+                pstmt.setString(4, "POINT(" + lon + " " + lat + ")");
+                pstmt.setInt(5, municipio);
+                pstmt.setInt(6, 1 + random.nextInt(30));
+                pstmt.setInt(7, 1 + random.nextInt(HORARIOS.length));
+                pstmt.setInt(8, random.nextInt(20) == 0 ? 2 : 1);
+                pstmt.addBatch();
+                if (i % TAMANO_LOTE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+        }
+        conn.commit();
+
+        // Un precio diario por estación y combustible, con una desviación propia de cada estación
+        LocalDateTime primerDia = LocalDateTime.now().withHour(8).withMinute(0).withSecond(0).withNano(0).minusDays(dias);
+        long filas = 0;
+        FormatoPrecio formatoPrecio = FormatoPrecio.detectar(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(formatoPrecio.sqlInsertar())) {
+            for (int i = 1; i <= numEstaciones; i++) {
+                for (int c = 0; c < COMBUSTIBLES.length; c++) {
+                    double desviacion = (random.nextDouble() - 0.5) * 0.3;
+                    for (int d = 0; d < dias; d++) {
+                        double precio = PRECIOS_BASE[c] + desviacion + (random.nextDouble() - 0.5) * 0.04;
+                        pstmt.setInt(1, i);
+                        pstmt.setInt(2, c + 1);
+                        formatoPrecio.asignar(pstmt, 3, Math.round(precio * 1000) / 1000.0);
+                        pstmt.setTimestamp(4, Timestamp.valueOf(primerDia.plusDays(d)));
+                        pstmt.addBatch();
+                        if (++filas % TAMANO_LOTE == 0) {
+                            pstmt.executeBatch();
+                            conn.commit();
+                        }
+                    }
+                }
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(formatoPrecio.sqlReconstruirVigentes())) {
+            pstmt.executeUpdate();
+            conn.commit();
+        }
+        new RollupPrecios(conn).reagregar(primerDia, primerDia.plusDays(dias - 1));
+        conn.commit();
+        conn.setAutoCommit(true);
+
+        try (Statement stmt = conn.createStatement()) {
+            for (String tabla : new String[]{"estacion_servicio", "precio_combustible", "precio_vigente"}) {
+                stmt.execute("ANALYZE TABLE " + tabla);
+            }
+        }
+        log.info("Cargados {} municipios, {} estaciones y {} precios en {} ms", numMunicipios, numEstaciones, filas,
+                (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    private void insertarNombres(String sql, int numero, Function<Integer, String> nombre) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 1; i <= numero; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setString(2, nombre.apply(i));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Lee de la base de datos las provincias, una muestra de estaciones y el rango de fechas, con los
+     * que se generan los parámetros de las consultas.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void cargarMuestras() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT nombre_provincia FROM provincia")) {
+                while (rs.next()) {
+                    provincias.add(rs.getString(1));
+                }
+            }
+            // El texto WKT conserva el orden (longitud latitud) con el que se guardó el punto
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT es.estacion_id, ST_AsText(es.ubicacion), mu.nombre_municipio FROM estacion_servicio es " +
+                            "JOIN codigo_postal cp ON es.codigo_postal_id = cp.codigo_postal_id " +
+                            "JOIN localidad l ON cp.localidad_id = l.localidad_id " +
+                            "JOIN municipio mu ON l.municipio_id = mu.municipio_id " +
+                            "ORDER BY RAND(42) LIMIT 1000")) {
+                while (rs.next()) {
+                    String[] punto = rs.getString(2).replaceAll("[^0-9.\\- ]", "").trim().split("\\s+");
+                    estaciones.add(new Muestra(rs.getInt(1), Double.parseDouble(punto[0]), Double.parseDouble(punto[1]),
+                            rs.getString(3)));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT MIN(fecha_hora), MAX(fecha_hora) FROM precio_combustible")) {
+                rs.next();
+                primeraFecha = rs.getTimestamp(1);
+                ultimaFecha = rs.getTimestamp(2);
+            }
+        }
+        if (provincias.isEmpty() || estaciones.isEmpty() || primeraFecha == null) {
+            throw new SQLException("La base de datos de pruebas no tiene datos");
+        }
+    }
+
+    /**
+     * Devuelve los casos medidos: cada consulta de {@link Consultas} con su generador de parámetros.
+     */
+    private List<Caso> casos() {
+        List<Caso> casos = new ArrayList<>();
+        casos.add(new Caso("empresa_mas_estaciones", Consultas.SQL_EMPRESA_MAS_ESTACIONES,
+                r -> new Object[]{r.nextBoolean() ? TIPO_ESTACION_TERRESTRE : TIPO_ESTACION_MARITIMA}));
+        casos.add(new Caso("estacion_mas_barata_provincia", Consultas.SQL_ESTACION_MAS_BARATA_PROVINCIA_COMBUSTIBLE,
+                r -> new Object[]{elegir(r, provincias), elegir(r, COMBUSTIBLES)}));
+        casos.add(new Caso("estacion_mas_barata_radio", Consultas.SQL_ESTACION_MAS_BARATA_RADIO, r -> {
+            Muestra m = elegir(r, estaciones);
+            return new Object[]{m.lon, m.lat, elegir(r, COMBUSTIBLES), m.municipio, elegir(r, RADIOS_KM)};
+        }));
+        casos.add(new Caso("estacion_mas_barata_radio_punto", Consultas.SQL_ESTACION_MAS_BARATA_RADIO_PUNTO, r -> {
+            Muestra m = elegir(r, estaciones);
+            double radioKm = elegir(r, RADIOS_KM);
+            return new Object[]{m.lon, m.lat, elegir(r, COMBUSTIBLES), Consultas.cajaEnvolvente(m.lat, m.lon, radioKm), radioKm};
+        }));
+        casos.add(new Caso("provincia_precio_mas_alto", Consultas.SQL_PROVINCIA_GASOLINA_MAS_CARA_MARITIMA,
+                r -> new Object[]{r.nextBoolean() ? TIPO_ESTACION_TERRESTRE : TIPO_ESTACION_MARITIMA, elegir(r, COMBUSTIBLES)}));
+        casos.add(new Caso("ranking_provincia", Consultas.SQL_RANKING_PROVINCIA_COMBUSTIBLE, r -> {
+            CursorPrecio cursor = CursorPrecio.INICIO;
+            return new Object[]{elegir(r, COMBUSTIBLES), elegir(r, provincias), cursor.getPrecio(), cursor.getPrecio(),
+                    cursor.getEstacionId(), 21};
+        }));
+        casos.add(new Caso("ranking_radio", Consultas.SQL_RANKING_RADIO_COMBUSTIBLE, r -> {
+            Muestra m = elegir(r, estaciones);
+            CursorPrecio cursor = CursorPrecio.INICIO;
+            double radioKm = elegir(r, RADIOS_KM);
+            return new Object[]{m.lon, m.lat, elegir(r, COMBUSTIBLES), Consultas.cajaEnvolvente(m.lat, m.lon, radioKm),
+                    cursor.getPrecio(), cursor.getPrecio(), cursor.getEstacionId(), radioKm, 21};
+        }));
+        casos.add(new Caso("estacion_abierta_mas_barata_radio", Consultas.SQL_ESTACION_ABIERTA_MAS_BARATA_RADIO, r -> {
+            Muestra m = elegir(r, estaciones);
+            LocalDateTime instante = instanteAleatorio(r).toLocalDateTime();
+            double radioKm = elegir(r, RADIOS_KM);
+            return new Object[]{m.lon, m.lat, elegir(r, COMBUSTIBLES), Consultas.cajaEnvolvente(m.lat, m.lon, radioKm),
+                    HorarioSemanal.posicionByte(instante), HorarioSemanal.posicionBit(instante), radioKm};
+        }));
+        casos.add(new Caso("precio_vigente", Consultas.SQL_PRECIO_VIGENTE,
+                r -> new Object[]{elegir(r, estaciones).estacionId, elegir(r, COMBUSTIBLES), instanteAleatorio(r)}));
+        casos.add(new Caso("historico_precios", Consultas.SQL_HISTORICO_INTERVALOS, r -> {
+            Timestamp desde = instanteAleatorio(r);
+            Timestamp hasta = new Timestamp(desde.getTime() + 7L * 24 * 3600 * 1000);
+            return new Object[]{elegir(r, estaciones).estacionId, elegir(r, COMBUSTIBLES), hasta, desde};
+        }));
+        casos.add(new Caso("tendencia_diaria", String.format(Consultas.SQL_TENDENCIA,
+                "r.periodo", "precio_rollup_dia"), r -> new Object[]{elegir(r, provincias), elegir(r, COMBUSTIBLES),
+                primeraFecha, ultimaFecha}));
+        return casos;
+    }
+
+    private static <T> T elegir(Random r, List<T> valores) {
+        return valores.get(r.nextInt(valores.size()));
+    }
+
+    private static String elegir(Random r, String[] valores) {
+        return valores[r.nextInt(valores.length)];
+    }
+
+    private static double elegir(Random r, double[] valores) {
+        return valores[r.nextInt(valores.length)];
+    }
+
+    private Timestamp instanteAleatorio(Random r) {
+        long rango = ultimaFecha.getTime() - primeraFecha.getTime();
+        return new Timestamp(primeraFecha.getTime() + (long) (r.nextDouble() * rango));
+    }
+
+    /**
+     * Ejecuta un caso: guarda su plan y mide sus ejecuciones tras el calentamiento.
+     */
+    private Resultado medir(Caso caso, int calentamiento, int iteraciones, Path directorioPlanes) throws SQLException, IOException {
+        Resultado resultado = new Resultado();
+
+        try (PreparedStatement explain = conn.prepareStatement("EXPLAIN FORMAT=JSON " + caso.sql)) {
+            asignar(explain, caso.parametros.apply(random));
+            try (ResultSet rs = explain.executeQuery()) {
+                rs.next();
+                String plan = rs.getString(1);
+                Matcher m = INDICE_PLAN.matcher(plan);
+                while (m.find()) {
+                    resultado.indices.add(m.group(1));
+                }
+                Files.write(directorioPlanes.resolve(caso.nombre + ".json"), plan.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(caso.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            for (int i = 0; i < calentamiento + iteraciones; i++) {
+                asignar(pstmt, caso.parametros.apply(random));
+                long inicio = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        // Se leen todas las filas para medir también su transferencia
+                    }
+                }
+                if (i >= calentamiento) {
+                    resultado.latencias.registrarNanos(System.nanoTime() - inicio);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    private static void asignar(PreparedStatement pstmt, Object[] parametros) throws SQLException {
+        for (int i = 0; i < parametros.length; i++) {
+            pstmt.setObject(i + 1, parametros[i]);
+        }
+    }
+
+    /**
+     * Ejecuta todos los casos y los compara con la referencia.
+     *
+     * @param calentamiento    Ejecuciones previas a la medición de cada consulta.
+     * @param iteraciones      Ejecuciones medidas de cada consulta.
+     * @param ficheroReferencia Fichero de propiedades con los resultados de referencia.
+     * @param umbral           Empeoramiento relativo máximo admitido (0.25 = 25 %).
+     * @param actualizar       true para reescribir la referencia con los resultados de esta ejecución.
+     * @return Lista de regresiones detectadas (vacía si no hay ninguna).
+     * @throws SQLException Si ocurre un error en la base de datos.
+     * @throws IOException  Si no se puede leer o escribir la referencia o los planes.
+     */
+    public List<String> ejecutar(int calentamiento, int iteraciones, Path ficheroReferencia, double umbral, boolean actualizar)
+            throws SQLException, IOException {
+        Path directorioPlanes = Paths.get("benchmark-planes");
+        Files.createDirectories(directorioPlanes);
+
+        Properties referencia = new Properties();
+        boolean hayReferencia = Files.exists(ficheroReferencia) && !actualizar;
+        if (hayReferencia) {
+            try (InputStream in = Files.newInputStream(ficheroReferencia)) {
+                referencia.load(in);
+            }
+        }
+
+        Properties actual = new Properties();
+        List<String> regresiones = new ArrayList<>();
+        for (Caso caso : casos()) {
+            Resultado resultado = medir(caso, calentamiento, iteraciones, directorioPlanes);
+            double p50 = resultado.latencias.percentilMs(50);
+            double p90 = resultado.latencias.percentilMs(90);
+            log.info("{}: {} índices {}", caso.nombre, resultado.latencias.resumen(), resultado.indices);
+            actual.setProperty(caso.nombre + ".p50_ms", String.valueOf(p50));
+            actual.setProperty(caso.nombre + ".p90_ms", String.valueOf(p90));
+            actual.setProperty(caso.nombre + ".indices", String.join(",", resultado.indices));
+
+            if (hayReferencia) {
+                comparar(caso.nombre, "p50_ms", p50, referencia, umbral, regresiones);
+                comparar(caso.nombre, "p90_ms", p90, referencia, umbral, regresiones);
+                String indicesReferencia = referencia.getProperty(caso.nombre + ".indices", "");
+                for (String indice : indicesReferencia.split(",")) {
+                    if (!indice.isEmpty() && !resultado.indices.contains(indice)) {
+                        regresiones.add(caso.nombre + ": el plan ya no usa el índice " + indice);
+                    }
+                }
+            }
+        }
+
+        if (!hayReferencia) {
+            try (OutputStream out = Files.newOutputStream(ficheroReferencia)) {
+                actual.store(out, "Referencia de BenchmarkConsultas");
+            }
+            log.info("Referencia guardada en {}", ficheroReferencia.toAbsolutePath());
+        }
+        return regresiones;
+    }
+
+    private static void comparar(String caso, String metrica, double valor, Properties referencia, double umbral,
+                                 List<String> regresiones) {
+        String valorReferencia = referencia.getProperty(caso + "." + metrica);
+        if (valorReferencia == null) {
+            return;
+        }
+        double limite = Double.parseDouble(valorReferencia) * (1 + umbral) + TOLERANCIA_MS;
+        if (valor > limite) {
+            regresiones.add(String.format(Locale.ROOT, "%s: %s %.3f ms supera el límite %.3f ms (referencia %s ms)",
+                    caso, metrica, valor, limite, valorReferencia));
+        }
+    }
+
+    /**
+     * Método principal que carga los datos y ejecuta el benchmark.
+     *
+     * @param args Argumentos de línea de comandos: host y nombre de la base de datos de pruebas (opcionales),
+     *             seguidos opcionalmente de --estaciones=N, --dias=N, --calentamiento=N, --iteraciones=N,
+     *             --referencia=FICHERO, --umbral=0.25 y --actualizar-referencia.
+     */
+    public static void main(String[] args) {
+        List<String> posicionales = new ArrayList<>();
+        Map<String, String> opciones = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                String[] opcion = arg.substring(2).split("=", 2);
+                opciones.put(opcion[0], opcion.length > 1 ? opcion[1] : "");
+            } else {
+                posicionales.add(arg);
+            }
+        }
+        String host = posicionales.size() > 0 ? posicionales.get(0) : "localhost";
+        String database = posicionales.size() > 1 ? posicionales.get(1) : DATABASE;
+
+        int codigoSalida;
+        try (Connection conn = new MySqlConnector(host, database).getConnection()) {
+            BenchmarkConsultas benchmark = new BenchmarkConsultas(conn);
+            benchmark.cargarDatos(Integer.parseInt(opciones.getOrDefault("estaciones", "2000")),
+                    Integer.parseInt(opciones.getOrDefault("dias", "30")));
+            benchmark.cargarMuestras();
+            List<String> regresiones = benchmark.ejecutar(
+                    Integer.parseInt(opciones.getOrDefault("calentamiento", "10")),
+                    Integer.parseInt(opciones.getOrDefault("iteraciones", "100")),
+                    Paths.get(opciones.getOrDefault("referencia", "benchmark-referencia.properties")),
+                    Double.parseDouble(opciones.getOrDefault("umbral", "0.25")),
+                    opciones.containsKey("actualizar-referencia"));
+            for (String regresion : regresiones) {
+                log.error("Regresión: {}", regresion);
+            }
+            codigoSalida = regresiones.isEmpty() ? 0 : 1;
+        } catch (Exception e) {
+            log.error("Error al ejecutar el benchmark de consultas", e);
+            codigoSalida = 2;
+        }
+        System.exit(codigoSalida);
+    }
+}
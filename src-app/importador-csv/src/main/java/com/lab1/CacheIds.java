@@ -0,0 +1,41 @@
+package com.lab1;
+
+/**
+ * Interfaz CacheIds.
+ *
+ * <p>
+ * Caché de IDs de dimensiones por clave natural usada por {@link ImportadorCSV}. Un fallo no implica
+ * que la fila no exista: el importador consulta entonces la base de datos, que es siempre la fuente
+ * de verdad, y vuelve a guardar el ID. Las implementaciones no son seguras para varios hilos.
+ * </p>
+ */
+public interface CacheIds {
+
+    /**
+     * Devuelve el ID guardado para una clave.
+     *
+     * @param clave Clave natural de la fila.
+     * @return ID de la fila, o null si no está en la caché.
+     */
+    Integer get(String clave);
+
+    /**
+     * Guarda el ID de una clave. La implementación puede descartarlo o expulsar otra entrada.
+     *
+     * @param clave Clave natural de la fila.
+     * @param id    ID de la fila.
+     */
+    void put(String clave, int id);
+
+    /**
+     * Elimina todas las entradas, manteniendo las estadísticas.
+     */
+    void clear();
+
+    /**
+     * Devuelve un resumen de una línea con el tamaño, la tasa de aciertos y las expulsiones.
+     *
+     * @return Resumen de la caché.
+     */
+    String resumen();
+}
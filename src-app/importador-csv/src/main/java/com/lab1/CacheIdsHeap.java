@@ -0,0 +1,58 @@
+package com.lab1;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Clase CacheIdsHeap.
+ *
+ * <p>
+ * Caché de IDs sin límite sobre un {@link HashMap} en el heap. Es la opción por defecto y la adecuada
+ * para dimensiones pequeñas (provincias, marcas, combustibles...), cuyo número de claves está acotado
+ * por el propio dominio.
+ * </p>
+ */
+public class CacheIdsHeap implements CacheIds {
+
+    private final String nombre;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private long aciertos;
+    private long fallos;
+
+    /**
+     * Constructor de la clase CacheIdsHeap.
+     *
+     * @param nombre Nombre de la caché, usado en el resumen.
+     */
+    public CacheIdsHeap(String nombre) {
+        this.nombre = nombre;
+    }
+
+    @Override
+    public Integer get(String clave) {
+        Integer id = ids.get(clave);
+        if (id != null) {
+            aciertos++;
+        } else {
+            fallos++;
+        }
+        return id;
+    }
+
+    @Override
+    public void put(String clave, int id) {
+        ids.put(clave, id);
+    }
+
+    @Override
+    public void clear() {
+        ids.clear();
+    }
+
+    @Override
+    public String resumen() {
+        long consultas = aciertos + fallos;
+        return String.format("caché %s (heap): %d entradas, %d consultas, aciertos %.1f%%",
+                nombre, ids.size(), consultas, consultas == 0 ? 0.0 : 100.0 * aciertos / consultas);
+    }
+}
@@ -0,0 +1,257 @@
+package com.lab1;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Clase CacheIdsOffHeap.
+ *
+ * <p>
+ * Caché de IDs con un presupuesto de memoria fijo, guardada fuera del heap en buffers directos para que
+ * millones de claves no alarguen las pausas del recolector. Las claves no se guardan: cada entrada
+ * contiene una huella de 128 bits de la clave (dos hashes de 64 bits independientes) y el ID, y la
+ * probabilidad de que dos claves distintas compartan huella es despreciable.
+ * </p>
+ *
+ * <p>
+ * La tabla es asociativa por conjuntos de {@value #VIAS} vías. Cuando el conjunto de una clave nueva
+ * está lleno, se aplica la admisión de TinyLFU: un count-min sketch de contadores de 4 bits estima la
+ * frecuencia reciente de cada clave, y la nueva solo sustituye a la entrada menos frecuente del conjunto
+ * si se ha pedido más veces que ella. Así, un recorrido de claves que aparecen una sola vez no expulsa
+ * a las que se repiten. Los contadores se dividen a la mitad periódicamente para olvidar el pasado.
+ * </p>
+ */
+public class CacheIdsOffHeap implements CacheIds {
+
+    /**
+     * Vías (entradas) por conjunto.
+     */
+    private static final int VIAS = 8;
+
+    /**
+     * Bytes por entrada: huella (8 + 8), ID (4) y marca de ocupada (4).
+     */
+    private static final int TAMANO_ENTRADA = 24;
+    private static final int POS_ID = 16;
+    private static final int POS_OCUPADA = 20;
+
+    /**
+     * Filas del count-min sketch y bytes que reserva el sketch por entrada en el peor caso.
+     */
+    private static final int FILAS_SKETCH = 4;
+    private static final int BYTES_SKETCH_POR_ENTRADA = 4;
+
+    /**
+     * Incrementos del sketch, por entrada de la tabla, tras los que se envejecen los contadores.
+     */
+    private static final int MUESTRAS_POR_ENTRADA = 10;
+
+    private final String nombre;
+    private final ByteBuffer entradas;
+    private final ByteBuffer sketch;
+    private final int numConjuntos;
+    private final int capacidad;
+    private final int anchoSketch;
+    private final long umbralEnvejecimiento;
+    private long incrementos;
+    private int tamano;
+
+    private long aciertos;
+    private long fallos;
+    private long expulsiones;
+    private long rechazos;
+
+    /**
+     * Constructor de la clase CacheIdsOffHeap.
+     *
+     * @param nombre           Nombre de la caché, usado en el resumen.
+     * @param presupuestoBytes Memoria máxima, en bytes, para las entradas y el sketch.
+     */
+    public CacheIdsOffHeap(String nombre, long presupuestoBytes) {
+        this.nombre = nombre;
+        long conjuntos = presupuestoBytes / ((long) (TAMANO_ENTRADA + BYTES_SKETCH_POR_ENTRADA) * VIAS);
+        // Un ByteBuffer se indexa con int
+        conjuntos = Math.max(1, Math.min(conjuntos, Integer.MAX_VALUE / (VIAS * TAMANO_ENTRADA)));
+        this.numConjuntos = (int) conjuntos;
+        this.capacidad = numConjuntos * VIAS;
+        this.entradas = ByteBuffer.allocateDirect(capacidad * TAMANO_ENTRADA).order(ByteOrder.nativeOrder());
+        // Potencia de dos, al menos la capacidad, con 16 contadores de 4 bits por long
+        this.anchoSketch = Math.max(16, Integer.highestOneBit(capacidad - 1) << 1);
+        this.sketch = ByteBuffer.allocateDirect(FILAS_SKETCH * anchoSketch / 2).order(ByteOrder.nativeOrder());
+        this.umbralEnvejecimiento = (long) MUESTRAS_POR_ENTRADA * capacidad;
+    }
+
+    @Override
+    public Integer get(String clave) {
+        long huella1 = hash1(clave);
+        long huella2 = hash2(clave);
+        incrementar(huella2);
+
+        int base = conjunto(huella1);
+        for (int via = 0; via < VIAS; via++) {
+            int posicion = base + via * TAMANO_ENTRADA;
+            if (coincide(posicion, huella1, huella2)) {
+                aciertos++;
+                return entradas.getInt(posicion + POS_ID);
+            }
+        }
+        fallos++;
+        return null;
+    }
+
+    @Override
+    public void put(String clave, int id) {
+        long huella1 = hash1(clave);
+        long huella2 = hash2(clave);
+
+        int base = conjunto(huella1);
+        int libre = -1;
+        int victima = -1;
+        int frecuenciaVictima = Integer.MAX_VALUE;
+        for (int via = 0; via < VIAS; via++) {
+            int posicion = base + via * TAMANO_ENTRADA;
+            if (entradas.getInt(posicion + POS_OCUPADA) == 0) {
+                if (libre < 0) {
+                    libre = posicion;
+                }
+            } else if (coincide(posicion, huella1, huella2)) {
+                entradas.putInt(posicion + POS_ID, id);
+                return;
+            } else {
+                int frecuencia = frecuencia(entradas.getLong(posicion + 8));
+                if (frecuencia < frecuenciaVictima) {
+                    victima = posicion;
+                    frecuenciaVictima = frecuencia;
+                }
+            }
+        }
+
+        if (libre >= 0) {
+            escribir(libre, huella1, huella2, id);
+            tamano++;
+        } else if (frecuencia(huella2) > frecuenciaVictima) {
+            escribir(victima, huella1, huella2, id);
+            expulsiones++;
+        } else {
+            rechazos++;
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < capacidad; i++) {
+            entradas.putInt(i * TAMANO_ENTRADA + POS_OCUPADA, 0);
+        }
+        for (int i = 0; i < sketch.capacity(); i += 8) {
+            sketch.putLong(i, 0L);
+        }
+        tamano = 0;
+        incrementos = 0;
+    }
+
+    @Override
+    public String resumen() {
+        long consultas = aciertos + fallos;
+        return String.format("caché %s (fuera del heap, %d KB): %d/%d entradas, %d consultas, aciertos %.1f%%, "
+                        + "%d expulsiones, %d rechazadas por admisión",
+                nombre, (entradas.capacity() + sketch.capacity()) / 1024, tamano, capacidad, consultas,
+                consultas == 0 ? 0.0 : 100.0 * aciertos / consultas, expulsiones, rechazos);
+    }
+
+    private int conjunto(long huella1) {
+        return (int) Long.remainderUnsigned(huella1, numConjuntos) * VIAS * TAMANO_ENTRADA;
+    }
+
+    private boolean coincide(int posicion, long huella1, long huella2) {
+        return entradas.getInt(posicion + POS_OCUPADA) != 0
+                && entradas.getLong(posicion) == huella1
+                && entradas.getLong(posicion + 8) == huella2;
+    }
+
+    private void escribir(int posicion, long huella1, long huella2, int id) {
+        entradas.putLong(posicion, huella1);
+        entradas.putLong(posicion + 8, huella2);
+        entradas.putInt(posicion + POS_ID, id);
+        entradas.putInt(posicion + POS_OCUPADA, 1);
+    }
+
+    /**
+     * Incrementa, sin pasar de 15, los contadores de la clave en cada fila del sketch.
+     */
+    private void incrementar(long huella2) {
+        for (int fila = 0; fila < FILAS_SKETCH; fila++) {
+            int contador = fila * anchoSketch + indiceSketch(huella2, fila);
+            int posicion = (contador >>> 4) << 3;
+            int desplazamiento = (contador & 15) << 2;
+            long palabra = sketch.getLong(posicion);
+            if (((palabra >>> desplazamiento) & 0xF) < 15) {
+                sketch.putLong(posicion, palabra + (1L << desplazamiento));
+            }
+        }
+        if (++incrementos >= umbralEnvejecimiento) {
+            envejecer();
+        }
+    }
+
+    /**
+     * Estima la frecuencia de una clave como el mínimo de sus contadores.
+     */
+    private int frecuencia(long huella2) {
+        int minimo = 15;
+        for (int fila = 0; fila < FILAS_SKETCH; fila++) {
+            int contador = fila * anchoSketch + indiceSketch(huella2, fila);
+            long palabra = sketch.getLong((contador >>> 4) << 3);
+            minimo = Math.min(minimo, (int) ((palabra >>> ((contador & 15) << 2)) & 0xF));
+        }
+        return minimo;
+    }
+
+    /**
+     * Divide a la mitad todos los contadores del sketch.
+     */
+    private void envejecer() {
+        for (int i = 0; i < sketch.capacity(); i += 8) {
+            sketch.putLong(i, (sketch.getLong(i) >>> 1) & 0x7777777777777777L);
+        }
+        incrementos /= 2;
+    }
+
+    private int indiceSketch(long huella2, int fila) {
+        return (int) mezclar(huella2 + fila * 0x9e3779b97f4a7c15L) & (anchoSketch - 1);
+    }
+
+    /**
+     * Primer hash de la clave: FNV-1a de 64 bits sobre sus caracteres.
+     */
+    private static long hash1(String clave) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < clave.length(); i++) {
+            h ^= clave.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mezclar(h);
+    }
+
+    /**
+     * Segundo hash de la clave, con otra semilla y otra función de combinación.
+     */
+    private static long hash2(String clave) {
+        long h = 0x9e3779b97f4a7c15L ^ clave.length();
+        for (int i = 0; i < clave.length(); i++) {
+            h = Long.rotateLeft(h ^ clave.charAt(i), 27) * 0xbf58476d1ce4e5b9L;
+        }
+        return mezclar(h);
+    }
+
+    /**
+     * Finalizador de MurmurHash3 de 64 bits.
+     */
+    private static long mezclar(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,149 @@
+package com.lab1;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Clase ConsultaPermanente.
+ *
+ * <p>
+ * Consulta registrada en consulta_permanente: la estación con el precio más bajo de un combustible en
+ * una provincia, en un radio alrededor de un punto, o en ambos a la vez. Mantiene en memoria el precio
+ * vigente de cada estación que cumple el filtro, ordenado por (precio, estacion_id) como los rankings
+ * de {@link Consultas}, de modo que un precio nuevo se aplica en O(log n) y el resultado es siempre el
+ * primero del orden, sin volver a consultar la base de datos.
+ * </p>
+ */
+@Getter
+public class ConsultaPermanente {
+
+    /**
+     * Valor de {@link #getMejorEstacion()} cuando ninguna estación cumple la consulta.
+     */
+    public static final int SIN_RESULTADO = -1;
+
+    private final int consultaId;
+    private final String combustible;
+    private final String provincia;
+    private final Double latitud;
+    private final Double longitud;
+    private final Double radioKm;
+
+    /**
+     * Resultado guardado en consulta_permanente (el último notificado).
+     */
+    private int estacionNotificada;
+    private int precioNotificado;
+
+    /**
+     * Precio vigente en milésimas de cada estación que cumple el filtro.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<Integer, Integer> precios = new HashMap<>();
+
+    /**
+     * Claves (milésimas << 32 | estacion_id) de {@link #precios}, en orden de precio y estación.
+     */
+    @Getter(AccessLevel.NONE)
+    private final TreeSet<Long> orden = new TreeSet<>();
+
+    /**
+     * Constructor de la clase ConsultaPermanente.
+     *
+     * @param consultaId         ID de la consulta.
+     * @param combustible        Nombre del combustible.
+     * @param provincia          Nombre de la provincia, o null para no filtrar por provincia.
+     * @param latitud            Latitud del centro del radio, o null para no filtrar por distancia.
+     * @param longitud           Longitud del centro del radio.
+     * @param radioKm            Radio en kilómetros.
+     * @param estacionNotificada Estación del resultado guardado, o {@link #SIN_RESULTADO}.
+     * @param precioNotificado   Precio en milésimas del resultado guardado.
+     */
+    public ConsultaPermanente(int consultaId, String combustible, String provincia, Double latitud, Double longitud,
+                              Double radioKm, int estacionNotificada, int precioNotificado) {
+        if ((latitud == null) != (radioKm == null) || (latitud == null) != (longitud == null)) {
+            throw new IllegalArgumentException("La consulta " + consultaId + " debe indicar latitud, longitud y radio a la vez");
+        }
+        this.consultaId = consultaId;
+        this.combustible = combustible;
+        this.provincia = provincia;
+        this.latitud = latitud;
+        this.longitud = longitud;
+        this.radioKm = radioKm;
+        this.estacionNotificada = estacionNotificada;
+        this.precioNotificado = precioNotificado;
+    }
+
+    /**
+     * Indica si una estación cumple el filtro de la consulta.
+     *
+     * @param provinciaEstacion Provincia de la estación.
+     * @param latitudEstacion   Latitud de la estación.
+     * @param longitudEstacion  Longitud de la estación.
+     * @return true si la estación está en la provincia y dentro del radio indicados.
+     */
+    public boolean incluye(String provinciaEstacion, double latitudEstacion, double longitudEstacion) {
+        if (provincia != null && !provincia.equalsIgnoreCase(provinciaEstacion)) {
+            return false;
+        }
+        return radioKm == null ||
+                FuncionesH2.distanciaMetros(longitud, latitud, longitudEstacion, latitudEstacion) <= radioKm * 1000;
+    }
+
+    /**
+     * Aplica el precio vigente de una estación que cumple el filtro.
+     *
+     * @param estacionId ID de la estación.
+     * @param milesimas  Precio en milésimas.
+     */
+    public void actualizarPrecio(int estacionId, int milesimas) {
+        Integer anterior = precios.put(estacionId, milesimas);
+        if (anterior != null) {
+            orden.remove(clave(anterior, estacionId));
+        }
+        orden.add(clave(milesimas, estacionId));
+    }
+
+    /**
+     * Devuelve la estación con el precio más bajo.
+     *
+     * @return ID de la estación, o {@link #SIN_RESULTADO} si ninguna cumple la consulta.
+     */
+    public int getMejorEstacion() {
+        return orden.isEmpty() ? SIN_RESULTADO : (int) (orden.first() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Devuelve el precio más bajo.
+     *
+     * @return Precio en milésimas (sin significado si no hay resultado).
+     */
+    public int getMejorPrecio() {
+        return orden.isEmpty() ? 0 : (int) (orden.first() >>> 32);
+    }
+
+    /**
+     * Indica si el resultado actual difiere del último notificado.
+     *
+     * @return true si ha cambiado la estación o el precio.
+     */
+    public boolean haCambiado() {
+        int mejor = getMejorEstacion();
+        return mejor != estacionNotificada || (mejor != SIN_RESULTADO && getMejorPrecio() != precioNotificado);
+    }
+
+    /**
+     * Anota el resultado actual como notificado.
+     */
+    public void marcarNotificada() {
+        estacionNotificada = getMejorEstacion();
+        precioNotificado = getMejorPrecio();
+    }
+
+    private static long clave(int milesimas, int estacionId) {
+        return ((long) milesimas << 32) | (estacionId & 0xFFFFFFFFL);
+    }
+}
@@ -1,7 +1,15 @@
 package com.lab1;
 
+import java.math.BigDecimal;
 import java.sql.*;
-import java.util.function.Consumer;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -14,6 +22,11 @@ public class Consultas {
 
     private final Connection conn;
 
+    /**
+     * Dialecto SQL del motor de la conexión (ver {@link Almacen}), detectado en la primera consulta.
+     */
+    private Dialecto dialecto;
+
     // Constantes para valores repetidos
     private static final String DATABASE = "estaciones_servicio";
     private static final String TIPO_ESTACION_TERRESTRE = "Terrestre";
@@ -23,8 +36,9 @@ public class Consultas {
     private static final String PROVINCIA_MADRID = "MADRID";
     private static final String MUNICIPIO_ALBACETE = "ALBACETE";
 
-    // Consultas SQL actualizadas según las modificaciones de las tablas
-    private static final String SQL_EMPRESA_MAS_ESTACIONES =
+    // Consultas SQL actualizadas según las modificaciones de las tablas (visibles en el paquete para
+    // BenchmarkConsultas)
+    static final String SQL_EMPRESA_MAS_ESTACIONES =
             "SELECT m.nombre_marca, COUNT(es.estacion_id) AS num_estaciones " +
                     "FROM estacion_servicio es " +
                     "JOIN marca m ON es.marca_id = m.marca_id " +
@@ -34,7 +48,7 @@ public class Consultas {
                     "ORDER BY num_estaciones DESC " +
                     "LIMIT 1";
 
-    private static final String SQL_ESTACION_MAS_BARATA_PROVINCIA_COMBUSTIBLE =
+    static final String SQL_ESTACION_MAS_BARATA_PROVINCIA_COMBUSTIBLE =
             "SELECT es.direccion, m.nombre_marca, mg.nombre_margen, MIN(pc.precio) AS precio_minimo " +
                     "FROM precio_combustible pc " +
                     "JOIN estacion_servicio es ON pc.estacion_id = es.estacion_id " +
@@ -50,7 +64,7 @@ public class Consultas {
                     "ORDER BY precio_minimo ASC " +
                     "LIMIT 1";
 
-    private static final String SQL_ESTACION_MAS_BARATA_RADIO =
+    static final String SQL_ESTACION_MAS_BARATA_RADIO =
             "SELECT es.direccion, m.nombre_marca, mg.nombre_margen, pc.precio, " +
                     "ST_Distance_Sphere(es.ubicacion, ST_GeomFromText(CONCAT('POINT(', ?, ' ', ?, ')'), 4326)) / 1000 AS distancia_km " +
                     "FROM precio_combustible pc " +
@@ -66,7 +80,175 @@ public class Consultas {
                     "ORDER BY pc.precio ASC " +
                     "LIMIT 1";
 
-    private static final String SQL_PROVINCIA_GASOLINA_MAS_CARA_MARITIMA =
+    // Sin municipio, la búsqueda en el radio va sobre los precios vigentes y se acota con la caja
+    // envolvente del círculo (ver cajaEnvolvente), como el ranking por radio
+    static final String SQL_ESTACION_MAS_BARATA_RADIO_PUNTO =
+            "SELECT pv.estacion_id, es.direccion, m.nombre_marca, mg.nombre_margen, pv.precio, " +
+                    "ST_Distance_Sphere(es.ubicacion, ST_GeomFromText(CONCAT('POINT(', ?, ' ', ?, ')'), 4326)) / 1000 AS distancia_km " +
+                    "FROM precio_vigente pv " +
+                    "JOIN tipo_combustible tc ON pv.combustible_id = tc.combustible_id " +
+                    "JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                    "JOIN marca m ON es.marca_id = m.marca_id " +
+                    "JOIN margen mg ON es.margen_id = mg.margen_id " +
+                    "WHERE tc.nombre_combustible = ? AND MBRContains(ST_PolyFromText(?, 4326), es.ubicacion) " +
+                    "HAVING distancia_km <= ? " +
+                    "ORDER BY pv.precio ASC, pv.estacion_id ASC " +
+                    "LIMIT 1";
+
+    // Rankings de precios vigentes (precio_vigente, el último precio de cada estación) paginados por
+    // cursor sobre (precio, estacion_id): la página siguiente es un rango sobre
+    // idx_vigente_combustible_precio_estacion, que no crece con el histórico. El radio se acota además
+    // con la caja envolvente del círculo (ver cajaEnvolvente), que puede resolver el índice espacial
+    static final String SQL_RANKING_PROVINCIA_COMBUSTIBLE =
+            "SELECT pv.estacion_id, es.direccion, m.nombre_marca, mg.nombre_margen, pv.precio, pv.fecha_hora " +
+                    "FROM precio_vigente pv " +
+                    "JOIN tipo_combustible tc ON pv.combustible_id = tc.combustible_id " +
+                    "JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                    "JOIN marca m ON es.marca_id = m.marca_id " +
+                    "JOIN margen mg ON es.margen_id = mg.margen_id " +
+                    "JOIN codigo_postal cp ON es.codigo_postal_id = cp.codigo_postal_id " +
+                    "JOIN localidad l ON cp.localidad_id = l.localidad_id " +
+                    "JOIN municipio mu ON l.municipio_id = mu.municipio_id " +
+                    "JOIN provincia p ON mu.provincia_id = p.provincia_id " +
+                    "WHERE tc.nombre_combustible = ? AND p.nombre_provincia = ? " +
+                    "AND (pv.precio > ? OR (pv.precio = ? AND pv.estacion_id > ?)) " +
+                    "ORDER BY pv.precio ASC, pv.estacion_id ASC " +
+                    "LIMIT ?";
+
+    static final String SQL_RANKING_RADIO_COMBUSTIBLE =
+            "SELECT pv.estacion_id, es.direccion, m.nombre_marca, mg.nombre_margen, pv.precio, pv.fecha_hora, " +
+                    "ST_Distance_Sphere(es.ubicacion, ST_GeomFromText(CONCAT('POINT(', ?, ' ', ?, ')'), 4326)) / 1000 AS distancia_km " +
+                    "FROM precio_vigente pv " +
+                    "JOIN tipo_combustible tc ON pv.combustible_id = tc.combustible_id " +
+                    "JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                    "JOIN marca m ON es.marca_id = m.marca_id " +
+                    "JOIN margen mg ON es.margen_id = mg.margen_id " +
+                    "WHERE tc.nombre_combustible = ? AND MBRContains(ST_PolyFromText(?, 4326), es.ubicacion) " +
+                    "AND (pv.precio > ? OR (pv.precio = ? AND pv.estacion_id > ?)) " +
+                    "HAVING distancia_km <= ? " +
+                    "ORDER BY pv.precio ASC, pv.estacion_id ASC " +
+                    "LIMIT ?";
+
+    // Estación abierta más barata cerca de un punto: la apertura se comprueba con un bit del mapa
+    // semanal del horario (HorarioSemanal), sin interpretar la descripción en cada fila
+    static final String SQL_ESTACION_ABIERTA_MAS_BARATA_RADIO =
+            "SELECT pv.estacion_id, es.direccion, m.nombre_marca, mg.nombre_margen, h.descripcion_horario, pv.precio, " +
+                    "ST_Distance_Sphere(es.ubicacion, ST_GeomFromText(CONCAT('POINT(', ?, ' ', ?, ')'), 4326)) / 1000 AS distancia_km " +
+                    "FROM precio_vigente pv " +
+                    "JOIN tipo_combustible tc ON pv.combustible_id = tc.combustible_id " +
+                    "JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                    "JOIN horario h ON es.horario_id = h.horario_id " +
+                    "JOIN marca m ON es.marca_id = m.marca_id " +
+                    "JOIN margen mg ON es.margen_id = mg.margen_id " +
+                    "WHERE tc.nombre_combustible = ? AND MBRContains(ST_PolyFromText(?, 4326), es.ubicacion) " +
+                    "AND " + HorarioSemanal.PREDICADO_SQL_ABIERTO + " " +
+                    "HAVING distancia_km <= ? " +
+                    "ORDER BY pv.precio ASC " +
+                    "LIMIT 1";
+
+    // El histórico de precios se interpreta como intervalos de validez: cada fila es válida desde su
+    // fecha_hora hasta la fecha_hora de la siguiente fila de la misma estación y combustible. Así se
+    // responde igual tanto si se guardan todas las observaciones como si solo se guardan los cambios.
+    static final String SQL_PRECIO_VIGENTE =
+            "SELECT pc.estacion_id, tc.nombre_combustible, pc.precio, pc.fecha_hora AS valido_desde " +
+                    "FROM precio_combustible pc " +
+                    "JOIN tipo_combustible tc ON pc.combustible_id = tc.combustible_id " +
+                    "WHERE pc.estacion_id = ? AND tc.nombre_combustible = ? AND pc.fecha_hora <= ? " +
+                    "ORDER BY pc.fecha_hora DESC " +
+                    "LIMIT 1";
+
+    static final String SQL_HISTORICO_INTERVALOS =
+            "SELECT h.precio, h.valido_desde, h.valido_hasta FROM (" +
+                    "SELECT pc.precio, pc.fecha_hora AS valido_desde, " +
+                    "LEAD(pc.fecha_hora) OVER (ORDER BY pc.fecha_hora) AS valido_hasta " +
+                    "FROM precio_combustible pc " +
+                    "JOIN tipo_combustible tc ON pc.combustible_id = tc.combustible_id " +
+                    "WHERE pc.estacion_id = ? AND tc.nombre_combustible = ?) h " +
+                    "WHERE h.valido_desde <= ? AND (h.valido_hasta IS NULL OR h.valido_hasta > ?) " +
+                    "ORDER BY h.valido_desde";
+
+    // Datos del índice espacial en memoria (IndiceEstaciones): estaciones con su ubicación y horario,
+    // y precio vigente de cada estación y combustible
+    static final String SQL_ESTACIONES_INDICE =
+            "SELECT es.estacion_id, ST_AsText(es.ubicacion) AS ubicacion, es.direccion, m.nombre_marca, h.horario_semanal " +
+                    "FROM estacion_servicio es " +
+                    "JOIN marca m ON es.marca_id = m.marca_id " +
+                    "JOIN horario h ON es.horario_id = h.horario_id";
+
+    static final String SQL_PRECIOS_VIGENTES_INDICE =
+            "SELECT pv.estacion_id, tc.nombre_combustible, pv.precio " +
+                    "FROM precio_vigente pv " +
+                    "JOIN tipo_combustible tc ON pv.combustible_id = tc.combustible_id";
+
+    // Tendencia de precios a partir de los agregados de RollupPrecios: la tabla y la expresión del
+    // periodo dependen de la granularidad pedida
+    static final String SQL_TENDENCIA =
+            "SELECT %s AS periodo, ROUND(SUM(r.suma_precio) / SUM(r.num_precios), 3) AS precio_medio, " +
+                    "MIN(r.precio_minimo) AS precio_minimo, MAX(r.precio_maximo) AS precio_maximo, " +
+                    "SUM(r.num_precios) AS num_precios " +
+                    "FROM %s r " +
+                    "JOIN provincia p ON r.provincia_id = p.provincia_id " +
+                    "JOIN tipo_combustible tc ON r.combustible_id = tc.combustible_id " +
+                    "WHERE p.nombre_provincia = ? AND tc.nombre_combustible = ? AND r.periodo >= ? AND r.periodo < ? " +
+                    "GROUP BY 1 " +
+                    "ORDER BY 1";
+
+    /**
+     * Granularidades de la tendencia de precios, con la tabla de agregados más gruesa que puede
+     * responder a cada una.
+     */
+    public enum Granularidad {
+        HORA("precio_rollup_hora", "r.periodo", ChronoUnit.HOURS),
+        DIA("precio_rollup_dia", "r.periodo", ChronoUnit.DAYS),
+        SEMANA("precio_rollup_dia", "DATE_SUB(r.periodo, INTERVAL WEEKDAY(r.periodo) DAY)", ChronoUnit.DAYS),
+        MES("precio_rollup_dia", "DATE_FORMAT(r.periodo, '%Y-%m-01')", ChronoUnit.DAYS);
+
+        private final String tabla;
+        private final String periodo;
+        private final ChronoUnit unidadTabla;
+
+        Granularidad(String tabla, String periodo, ChronoUnit unidadTabla) {
+            this.tabla = tabla;
+            this.periodo = periodo;
+            this.unidadTabla = unidadTabla;
+        }
+
+        /**
+         * Elige la granularidad de una ventana para que la tendencia tenga como mucho unos cientos de puntos.
+         *
+         * @param desde Inicio de la ventana.
+         * @param hasta Fin de la ventana.
+         * @return Granularidad adecuada.
+         */
+        public static Granularidad para(LocalDateTime desde, LocalDateTime hasta) {
+            long dias = ChronoUnit.DAYS.between(desde, hasta);
+            if (dias <= 7) {
+                return HORA;
+            } else if (dias <= 180) {
+                return DIA;
+            } else if (dias <= 3 * 365) {
+                return SEMANA;
+            }
+            return MES;
+        }
+    }
+
+    /**
+     * Número máximo de filas por página de un ranking.
+     */
+    public static final int MAX_TOP_K = 1000;
+
+    /**
+     * Número máximo de filas que el driver trae de cada vez al leer un ranking.
+     */
+    private static final int FETCH_SIZE_RANKING = 200;
+
+    /**
+     * Filas por bloque al cargar el índice de estaciones.
+     */
+    private static final int FETCH_SIZE_INDICE = 1000;
+
+    static final String SQL_PROVINCIA_GASOLINA_MAS_CARA_MARITIMA =
             "SELECT p.nombre_provincia, pc.precio " +
                     "FROM precio_combustible pc " +
                     "JOIN estacion_servicio es ON pc.estacion_id = es.estacion_id " +
@@ -89,26 +271,385 @@ public class Consultas {
         this.conn = conn;
     }
 
+    /**
+     * Devuelve el dialecto SQL de la conexión.
+     */
+    private Dialecto dialecto() throws SQLException {
+        if (dialecto == null) {
+            dialecto = Dialecto.de(conn);
+        }
+        return dialecto;
+    }
+
+    /**
+     * Función que procesa el ResultSet de una consulta, devuelve el número de filas leídas y puede lanzar SQLException.
+     */
+    @FunctionalInterface
+    private interface ProcesadorResultSet {
+        int procesar(ResultSet rs) throws SQLException;
+    }
+
     /**
      * Método auxiliar para ejecutar consultas SQL con parámetros y procesar el ResultSet.
      *
+     * @param sentencia         Nombre de la sentencia en las métricas.
      * @param sql               Consulta SQL a ejecutar.
      * @param resultadoProcessor Función que procesa el ResultSet obtenido.
      * @param parametros        Parámetros para el PreparedStatement.
      * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
      */
-    private void ejecutarConsulta(String sql, Consumer<ResultSet> resultadoProcessor, Object... parametros) throws ConsultasException {
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    private void ejecutarConsulta(String sentencia, String sql, ProcesadorResultSet resultadoProcessor, Object... parametros) throws ConsultasException {
+        ejecutarConsulta(sentencia, sql, 0, resultadoProcessor, parametros);
+    }
+
+    /**
+     * Ejecuta una consulta leyendo el ResultSet en bloques de como máximo fetchSize filas,
+     * en lugar de materializarlo entero en memoria.
+     *
+     * @param sentencia         Nombre de la sentencia en las métricas (ver {@link MetricasConsultas}).
+     * @param sql               Consulta SQL a ejecutar.
+     * @param fetchSize         Filas por bloque, o 0 para usar el comportamiento por defecto del driver.
+     * @param resultadoProcessor Función que procesa el ResultSet obtenido.
+     * @param parametros        Parámetros para el PreparedStatement.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    private void ejecutarConsulta(String sentencia, String sql, int fetchSize, ProcesadorResultSet resultadoProcessor, Object... parametros) throws ConsultasException {
+        // Las consultas que fallan también se miden, con su tiempo hasta el error
+        long inicio = System.nanoTime();
+        int filas = 0;
+        boolean error = true;
+        try (PreparedStatement pstmt = conn.prepareStatement(dialecto().adaptar(sql), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(fetchSize);
             for (int i = 0; i < parametros.length; i++) {
                 pstmt.setObject(i + 1, parametros[i]);
             }
             try (ResultSet rs = pstmt.executeQuery()) {
-                resultadoProcessor.accept(rs);
+                filas = resultadoProcessor.procesar(rs);
             }
+            error = false;
         } catch (SQLException e) {
             log.error("Error al ejecutar la consulta: {}", sql, e);
             throw new ConsultasException("No se pudo ejecutar la consulta", e);
+        } finally {
+            MetricasConsultas.getInstancia().registrar(sentencia, System.nanoTime() - inicio, filas, error, parametros);
+        }
+    }
+
+    /**
+     * Ejecuta una consulta y devuelve todas sus filas como mapas columna-valor, en el orden del SELECT.
+     *
+     * @param sentencia  Nombre de la sentencia en las métricas.
+     * @param sql        Consulta SQL a ejecutar.
+     * @param parametros Parámetros para el PreparedStatement.
+     * @return Lista de filas obtenidas.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    private List<Map<String, Object>> consultarFilas(String sentencia, String sql, Object... parametros) throws ConsultasException {
+        return consultarFilasPorBloques(sentencia, sql, 0, parametros);
+    }
+
+    /**
+     * Ejecuta una consulta con un fetch size acotado y devuelve todas sus filas como mapas columna-valor.
+     *
+     * @param sentencia  Nombre de la sentencia en las métricas.
+     * @param sql        Consulta SQL a ejecutar.
+     * @param fetchSize  Filas por bloque, o 0 para el comportamiento por defecto del driver.
+     * @param parametros Parámetros para el PreparedStatement.
+     * @return Lista de filas obtenidas.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    private List<Map<String, Object>> consultarFilasPorBloques(String sentencia, String sql, int fetchSize, Object... parametros) throws ConsultasException {
+        final List<Map<String, Object>> filas = new ArrayList<>();
+        ejecutarConsulta(sentencia, sql, fetchSize, rs -> {
+            final ResultSetMetaData metaData = rs.getMetaData();
+            final int columnas = metaData.getColumnCount();
+            while (rs.next()) {
+                final Map<String, Object> fila = new LinkedHashMap<>();
+                for (int i = 1; i <= columnas; i++) {
+                    fila.put(metaData.getColumnLabel(i), rs.getObject(i));
+                }
+                filas.add(fila);
+            }
+            return filas.size();
+        }, parametros);
+        return filas;
+    }
+
+    // Consultas parametrizadas que devuelven sus resultados (usadas por ServicioConsultas)
+
+    /**
+     * Devuelve la empresa con más estaciones de un tipo específico.
+     *
+     * @param tipoEstacion Tipo de estación (por ejemplo, "Terrestre" o "Puerto").
+     * @return Filas con nombre_marca y num_estaciones (como máximo una).
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarEmpresaConMasEstaciones(final String tipoEstacion) throws ConsultasException {
+        return consultarFilas("empresa_mas_estaciones", SQL_EMPRESA_MAS_ESTACIONES, tipoEstacion);
+    }
+
+    /**
+     * Devuelve la estación más barata para un combustible en una provincia.
+     *
+     * @param provincia   Nombre de la provincia.
+     * @param combustible Nombre del combustible.
+     * @return Filas con direccion, nombre_marca, nombre_margen y precio_minimo (como máximo una).
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarEstacionMasBarataEnProvincia(final String provincia, final String combustible) throws ConsultasException {
+        return consultarFilas("estacion_mas_barata_provincia_combustible", SQL_ESTACION_MAS_BARATA_PROVINCIA_COMBUSTIBLE,
+                provincia, combustible);
+    }
+
+    /**
+     * Devuelve la estación más barata para un combustible dentro de un radio desde un punto. Sin
+     * municipio se compara el precio vigente de cada estación.
+     *
+     * @param municipio   Nombre del municipio al que se restringe la búsqueda, o null para no restringirla.
+     * @param combustible Nombre del combustible.
+     * @param centroLat   Latitud del centro.
+     * @param centroLon   Longitud del centro.
+     * @param radioKm     Radio en kilómetros.
+     * @return Filas con direccion, nombre_marca, nombre_margen, precio y distancia_km (como máximo una).
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarEstacionMasBarataEnRadio(final String municipio, final String combustible, final double centroLat, final double centroLon, final double radioKm) throws ConsultasException {
+        if (municipio == null) {
+            return consultarFilas("estacion_mas_barata_radio_punto", SQL_ESTACION_MAS_BARATA_RADIO_PUNTO, centroLon, centroLat, combustible,
+                    cajaEnvolvente(centroLat, centroLon, radioKm), radioKm);
+        }
+        return consultarFilas("estacion_mas_barata_radio", SQL_ESTACION_MAS_BARATA_RADIO, centroLon, centroLat, combustible, municipio, radioKm);
+    }
+
+    /**
+     * Devuelve la provincia con el precio más alto de un combustible en estaciones de un tipo.
+     *
+     * @param tipoEstacion Tipo de estación.
+     * @param combustible  Nombre del combustible.
+     * @return Filas con nombre_provincia y precio (como máximo una).
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarProvinciaConPrecioMasAlto(final String tipoEstacion, final String combustible) throws ConsultasException {
+        return consultarFilas("provincia_gasolina_mas_cara_maritima", SQL_PROVINCIA_GASOLINA_MAS_CARA_MARITIMA, tipoEstacion, combustible);
+    }
+
+    /**
+     * Devuelve una página del ranking de las estaciones más baratas de una provincia para un combustible,
+     * según el último precio registrado de cada estación.
+     *
+     * @param provincia   Nombre de la provincia.
+     * @param combustible Nombre del combustible.
+     * @param k           Número de filas de la página (entre 1 y {@link #MAX_TOP_K}).
+     * @param cursor      Cursor devuelto por la página anterior, o {@link CursorPrecio#INICIO}.
+     * @return Página con hasta k filas y el cursor de la siguiente.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public PaginaRanking consultarRankingEnProvincia(final String provincia, final String combustible, final int k, final CursorPrecio cursor) throws ConsultasException {
+        validarTopK(k);
+        // Se pide una fila de más para saber si existe una página siguiente
+        List<Map<String, Object>> filas = consultarFilasPorBloques("ranking_provincia_combustible", SQL_RANKING_PROVINCIA_COMBUSTIBLE,
+                Math.min(k + 1, FETCH_SIZE_RANKING), combustible, provincia, cursor.getPrecio(), cursor.getPrecio(), cursor.getEstacionId(), k + 1);
+        return paginar(filas, k);
+    }
+
+    /**
+     * Devuelve una página del ranking de las estaciones más baratas para un combustible dentro de
+     * un radio desde un punto, según el último precio registrado de cada estación.
+     *
+     * @param combustible Nombre del combustible.
+     * @param centroLat   Latitud del centro.
+     * @param centroLon   Longitud del centro.
+     * @param radioKm     Radio en kilómetros.
+     * @param k           Número de filas de la página (entre 1 y {@link #MAX_TOP_K}).
+     * @param cursor      Cursor devuelto por la página anterior, o {@link CursorPrecio#INICIO}.
+     * @return Página con hasta k filas y el cursor de la siguiente.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public PaginaRanking consultarRankingEnRadio(final String combustible, final double centroLat, final double centroLon, final double radioKm, final int k, final CursorPrecio cursor) throws ConsultasException {
+        validarTopK(k);
+        List<Map<String, Object>> filas = consultarFilasPorBloques("ranking_radio_combustible", SQL_RANKING_RADIO_COMBUSTIBLE,
+                Math.min(k + 1, FETCH_SIZE_RANKING), centroLon, centroLat, combustible, cajaEnvolvente(centroLat, centroLon, radioKm),
+                cursor.getPrecio(), cursor.getPrecio(), cursor.getEstacionId(), radioKm, k + 1);
+        return paginar(filas, k);
+    }
+
+    /**
+     * Devuelve la estación abierta en un instante con el precio vigente más bajo para un combustible
+     * dentro de un radio desde un punto. Las estaciones con horario desconocido se excluyen.
+     *
+     * @param combustible Nombre del combustible.
+     * @param centroLat   Latitud del centro.
+     * @param centroLon   Longitud del centro.
+     * @param radioKm     Radio en kilómetros.
+     * @param instante    Instante en el que la estación debe estar abierta.
+     * @return Filas con la estación, su horario, precio y distancia_km (como máximo una).
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarEstacionAbiertaMasBarataEnRadio(final String combustible, final double centroLat, final double centroLon, final double radioKm, final LocalDateTime instante) throws ConsultasException {
+        return consultarFilas("estacion_abierta_mas_barata_radio", SQL_ESTACION_ABIERTA_MAS_BARATA_RADIO, centroLon, centroLat, combustible,
+                cajaEnvolvente(centroLat, centroLon, radioKm), HorarioSemanal.posicionByte(instante), HorarioSemanal.posicionBit(instante), radioKm);
+    }
+
+    /**
+     * Devuelve, en WKT, el rectángulo (longitud, latitud) que contiene el círculo de un radio alrededor de
+     * un punto, con el orden de coordenadas de las ubicaciones. Cerca de los polos abarca todas las
+     * longitudes.
+     *
+     * @param centroLat Latitud del centro.
+     * @param centroLon Longitud del centro.
+     * @param radioKm   Radio en kilómetros.
+     * @return Polígono en formato WKT.
+     */
+    static String cajaEnvolvente(final double centroLat, final double centroLon, final double radioKm) {
+        double angulo = radioKm * 1000 / FuncionesH2.RADIO_TIERRA_M;
+        double latMin = Math.max(-90, centroLat - Math.toDegrees(angulo));
+        double latMax = Math.min(90, centroLat + Math.toDegrees(angulo));
+        double lonMin = -180;
+        double lonMax = 180;
+        double cosLat = Math.cos(Math.toRadians(centroLat));
+        if (Math.sin(angulo) < cosLat && latMin > -90 && latMax < 90) {
+            // Mayor diferencia de longitud de un punto del círculo (sobre la esfera, no radio / cos(lat))
+            double dLon = Math.toDegrees(Math.asin(Math.sin(angulo) / cosLat));
+            lonMin = Math.max(-180, centroLon - dLon);
+            lonMax = Math.min(180, centroLon + dLon);
+        }
+        return "POLYGON((" + lonMin + " " + latMin + ", " + lonMax + " " + latMin + ", " + lonMax + " " + latMax + ", " +
+                lonMin + " " + latMax + ", " + lonMin + " " + latMin + "))";
+    }
+
+    /**
+     * Devuelve el precio de un combustible vigente en una estación en un instante, es decir, el del
+     * último registro con fecha_hora anterior o igual al instante.
+     *
+     * @param estacionId  ID de la estación.
+     * @param combustible Nombre del combustible.
+     * @param instante    Instante de consulta.
+     * @return Filas con estacion_id, nombre_combustible, precio y valido_desde (como máximo una).
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarPrecioVigente(final int estacionId, final String combustible, final Timestamp instante) throws ConsultasException {
+        return consultarFilas("precio_vigente", SQL_PRECIO_VIGENTE, estacionId, combustible, instante);
+    }
+
+    /**
+     * Devuelve los intervalos de validez de los precios de un combustible en una estación que se
+     * solapan con un periodo. El último intervalo tiene valido_hasta nulo si sigue vigente.
+     *
+     * @param estacionId  ID de la estación.
+     * @param combustible Nombre del combustible.
+     * @param desde       Inicio del periodo.
+     * @param hasta       Fin del periodo.
+     * @return Filas con precio, valido_desde y valido_hasta, en orden cronológico.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarHistoricoPrecios(final int estacionId, final String combustible, final Timestamp desde, final Timestamp hasta) throws ConsultasException {
+        return consultarFilas("historico_intervalos", SQL_HISTORICO_INTERVALOS, estacionId, combustible, hasta, desde);
+    }
+
+    /**
+     * Devuelve la tendencia del precio de un combustible en una provincia, eligiendo la granularidad
+     * según la longitud de la ventana (ver {@link Granularidad#para}).
+     *
+     * @param provincia   Nombre de la provincia.
+     * @param combustible Nombre del combustible.
+     * @param desde       Inicio de la ventana.
+     * @param hasta       Fin de la ventana (excluido).
+     * @return Filas con periodo, precio_medio, precio_minimo, precio_maximo y num_precios, en orden cronológico.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarTendencia(final String provincia, final String combustible, final LocalDateTime desde, final LocalDateTime hasta) throws ConsultasException {
+        return consultarTendencia(provincia, combustible, desde, hasta, Granularidad.para(desde, hasta));
+    }
+
+    /**
+     * Devuelve la tendencia del precio de un combustible en una provincia con la granularidad indicada,
+     * leyendo la tabla de agregados más gruesa que la puede responder. Los periodos se calculan sobre
+     * las unidades completas de esa tabla (horas o días) que empiezan dentro de la ventana.
+     *
+     * @param provincia    Nombre de la provincia.
+     * @param combustible  Nombre del combustible.
+     * @param desde        Inicio de la ventana.
+     * @param hasta        Fin de la ventana (excluido).
+     * @param granularidad Granularidad de los periodos.
+     * @return Filas con periodo, precio_medio, precio_minimo, precio_maximo y num_precios, en orden cronológico.
+     * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
+     */
+    public List<Map<String, Object>> consultarTendencia(final String provincia, final String combustible, final LocalDateTime desde, final LocalDateTime hasta, final Granularidad granularidad) throws ConsultasException {
+        if (!desde.isBefore(hasta)) {
+            throw new IllegalArgumentException("El inicio de la ventana debe ser anterior al fin");
+        }
+        // Se redondea al alza para no incluir una unidad que empieza antes de la ventana
+        LocalDateTime inicio = desde.truncatedTo(granularidad.unidadTabla);
+        if (inicio.isBefore(desde)) {
+            inicio = inicio.plus(1, granularidad.unidadTabla);
+        }
+        String sql = String.format(SQL_TENDENCIA, granularidad.periodo, granularidad.tabla);
+        return consultarFilas("tendencia_" + granularidad.name().toLowerCase(Locale.ROOT), sql, provincia, combustible,
+                Timestamp.valueOf(inicio), Timestamp.valueOf(hasta));
+    }
+
+    /**
+     * Carga en memoria el índice espacial de las estaciones con sus precios vigentes, para responder
+     * consultas sobre rutas sin ir a la base de datos (ver {@link IndiceEstaciones}).
+     *
+     * @return Índice con todas las estaciones de ubicación conocida.
+     * @throws ConsultasException Si ocurre un error al ejecutar las consultas.
+     */
+    public IndiceEstaciones cargarIndiceEstaciones() throws ConsultasException {
+        long inicio = System.nanoTime();
+        final Map<Integer, IndiceEstaciones.Estacion> estaciones = new HashMap<>();
+        // El texto WKT conserva el orden (longitud latitud) con el que se guardó el punto
+        ejecutarConsulta("estaciones_indice", SQL_ESTACIONES_INDICE, FETCH_SIZE_INDICE, rs -> {
+            int filas = 0;
+            while (rs.next()) {
+                filas++;
+                String ubicacion = rs.getString("ubicacion");
+                if (ubicacion == null) {
+                    continue;
+                }
+                String[] punto = ubicacion.replaceAll("[^0-9.\\-eE ]", "").trim().split("\\s+");
+                int estacionId = rs.getInt("estacion_id");
+                estaciones.put(estacionId, new IndiceEstaciones.Estacion(estacionId,
+                        Double.parseDouble(punto[0]), Double.parseDouble(punto[1]),
+                        rs.getString("direccion"), rs.getString("nombre_marca"), rs.getBytes("horario_semanal")));
+            }
+            return filas;
+        });
+        ejecutarConsulta("precios_vigentes_indice", SQL_PRECIOS_VIGENTES_INDICE, FETCH_SIZE_INDICE, rs -> {
+            int precios = 0;
+            while (rs.next()) {
+                precios++;
+                IndiceEstaciones.Estacion estacion = estaciones.get(rs.getInt("estacion_id"));
+                if (estacion != null) {
+                    estacion.setPrecio(rs.getString("nombre_combustible"), rs.getDouble("precio"));
+                }
+            }
+            return precios;
+        });
+        IndiceEstaciones indice = new IndiceEstaciones(new ArrayList<>(estaciones.values()));
+        log.info("Índice de estaciones cargado: {} estaciones en {} ms", indice.size(),
+                (System.nanoTime() - inicio) / 1_000_000);
+        return indice;
+    }
+
+    private static void validarTopK(int k) {
+        if (k < 1 || k > MAX_TOP_K) {
+            throw new IllegalArgumentException("k debe estar entre 1 y " + MAX_TOP_K + ": " + k);
+        }
+    }
+
+    /**
+     * Recorta las filas a k y calcula el cursor de la página siguiente a partir de la última fila.
+     */
+    private static PaginaRanking paginar(List<Map<String, Object>> filas, int k) {
+        if (filas.size() <= k) {
+            return new PaginaRanking(filas, null);
         }
+        List<Map<String, Object>> pagina = new ArrayList<>(filas.subList(0, k));
+        Map<String, Object> ultima = pagina.get(k - 1);
+        CursorPrecio siguiente = new CursorPrecio((BigDecimal) ultima.get("precio"),
+                ((Number) ultima.get("estacion_id")).intValue());
+        return new PaginaRanking(pagina, siguiente);
     }
 
     /**
@@ -118,18 +659,20 @@ public class Consultas {
      * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
      */
     private void obtenerEmpresaConMasEstaciones(final String tipoEstacion) throws ConsultasException {
-        ejecutarConsulta(SQL_EMPRESA_MAS_ESTACIONES, rs -> {
+        ejecutarConsulta("empresa_mas_estaciones", SQL_EMPRESA_MAS_ESTACIONES, rs -> {
             try {
                 if (rs.next()) {
                     final String nombreMarca = rs.getString("nombre_marca");
                     final int numEstaciones = rs.getInt("num_estaciones");
                     log.info("La empresa con más estaciones {} es {} con {} estaciones.", tipoEstacion, nombreMarca, numEstaciones);
+                    return 1;
                 } else {
                     log.info("No se encontraron resultados para estaciones {}.", tipoEstacion);
                 }
             } catch (SQLException e) {
                 log.error("Error al procesar los resultados para obtenerEmpresaConMasEstaciones", e);
             }
+            return 0;
         }, tipoEstacion);
     }
 
@@ -141,7 +684,7 @@ public class Consultas {
      * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
      */
     private void obtenerEstacionMasBarataEnProvincia(final String provincia, final String combustible) throws ConsultasException {
-        ejecutarConsulta(SQL_ESTACION_MAS_BARATA_PROVINCIA_COMBUSTIBLE, rs -> {
+        ejecutarConsulta("estacion_mas_barata_provincia_combustible", SQL_ESTACION_MAS_BARATA_PROVINCIA_COMBUSTIBLE, rs -> {
             try {
                 if (rs.next()) {
                     final String direccion = rs.getString("direccion");
@@ -153,12 +696,14 @@ public class Consultas {
                     log.info("Empresa: {}", nombreMarca);
                     log.info("Margen: {}", margen);
                     log.info("Precio: {}", precio);
+                    return 1;
                 } else {
                     log.info("No se encontraron resultados en {}.", provincia);
                 }
             } catch (SQLException e) {
                 log.error("Error al procesar los resultados para obtenerEstacionMasBarataEnProvincia", e);
             }
+            return 0;
         }, provincia, combustible);
     }
 
@@ -173,7 +718,7 @@ public class Consultas {
      * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
      */
     private void obtenerEstacionMasBarataEnRadio(final String municipio, final String combustible, final double centroLat, final double centroLon, final double radioKm) throws ConsultasException {
-        ejecutarConsulta(SQL_ESTACION_MAS_BARATA_RADIO, rs -> {
+        ejecutarConsulta("estacion_mas_barata_radio", SQL_ESTACION_MAS_BARATA_RADIO, rs -> {
             try {
                 if (rs.next()) {
                     final String direccion = rs.getString("direccion");
@@ -188,12 +733,14 @@ public class Consultas {
                     log.info("Margen: {}", margen);
                     log.info("Precio: {}", precio);
                     log.info("Distancia: {} km", distanciaFormateada);
+                    return 1;
                 } else {
                     log.info("No se encontraron estaciones en un radio de {} km en {}.", radioKm, municipio);
                 }
             } catch (SQLException e) {
                 log.error("Error al procesar los resultados para obtenerEstacionMasBarataEnRadio", e);
             }
+            return 0;
         }, centroLon, centroLat, combustible, municipio, radioKm);
     }
 
@@ -203,18 +750,20 @@ public class Consultas {
      * @throws ConsultasException Si ocurre un error al ejecutar la consulta.
      */
     private void obtenerProvinciaConGasolina95MasCaraEnMaritima() throws ConsultasException {
-        ejecutarConsulta(SQL_PROVINCIA_GASOLINA_MAS_CARA_MARITIMA, rs -> {
+        ejecutarConsulta("provincia_gasolina_mas_cara_maritima", SQL_PROVINCIA_GASOLINA_MAS_CARA_MARITIMA, rs -> {
             try {
                 if (rs.next()) {
                     final String nombreProvincia = rs.getString("nombre_provincia");
                     final double precio = rs.getDouble("precio");
                     log.info("La provincia con la estación marítima con la Gasolina 95 E5 más cara es {} con un precio de {}", nombreProvincia, precio);
+                    return 1;
                 } else {
                     log.info("No se encontraron resultados para Gasolina 95 en estaciones marítimas.");
                 }
             } catch (SQLException e) {
                 log.error("Error al procesar los resultados para obtenerProvinciaConGasolina95MasCaraEnMaritima", e);
             }
+            return 0;
         }, TIPO_ESTACION_MARITIMA, COMBUSTIBLE_GASOLINA_95);
     }
 
@@ -241,8 +790,8 @@ public class Consultas {
         final String host = args.length > 0 ? args[0] : "localhost";
         final String database = args.length > 1 ? args[1] : DATABASE;
 
-        // Crear una instancia de MySqlConnector y obtener la conexión
-        try (Connection conn = new MySqlConnector(host, database).getConnection()) {
+        // Obtener una conexión del motor configurado en MOTOR_BD
+        try (Connection conn = Almacen.crear(host, database).conectarLectura()) {
             // Instanciar la clase Consultas y ejecutar las consultas
             final Consultas consultas = new Consultas(conn);
             consultas.ejecutarConsultas();
@@ -0,0 +1,426 @@
+package com.lab1;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase ConsultasPermanentes.
+ *
+ * <p>
+ * Evaluación incremental de las consultas registradas en consulta_permanente ("la estación más barata
+ * de gasóleo A a menos de 10 km de un punto"). Al iniciarse carga cada consulta y el precio vigente de
+ * las estaciones que la cumplen; a partir de ahí el importador le pasa la ubicación de cada estación
+ * procesada y los precios que guarda, y cada precio solo toca las consultas de su combustible que
+ * incluyen la estación, que quedan marcadas. Tras cada lote, {@link #evaluar()} compara el resultado de
+ * las consultas marcadas, y solo de ellas, con el último notificado.
+ * </p>
+ *
+ * <p>
+ * Cuando un resultado cambia se actualiza consulta_permanente y se añade una fila a
+ * notificacion_consulta en la transacción de la importación, de modo que el aviso se confirma o se
+ * revierte con los precios que lo han producido. Los {@link OyenteConsultaPermanente} registrados
+ * reciben los cambios en {@link #confirmar()}, después del commit. Las consultas que se registran con la
+ * importación en marcha se tienen en cuenta al volver a cargar (en el siguiente arranque o tras un
+ * rollback).
+ * </p>
+ */
+@Slf4j
+public class ConsultasPermanentes {
+
+    private static final String DATABASE = "estaciones_servicio";
+
+    private static final String SQL_CONSULTAS =
+            "SELECT consulta_id, nombre_combustible, nombre_provincia, latitud, longitud, radio_km, estacion_id, precio " +
+                    "FROM consulta_permanente";
+
+    /**
+     * Precio vigente de cada estación para un combustible, con su fecha, su provincia y su ubicación.
+     */
+    private static final String SQL_PRECIOS_VIGENTES =
+            "SELECT pv.estacion_id, pv.combustible_id, pv.precio, pv.fecha_hora, p.nombre_provincia, " +
+                    "ST_AsText(es.ubicacion) AS ubicacion " +
+                    "FROM precio_vigente pv " +
+                    "JOIN tipo_combustible tc ON pv.combustible_id = tc.combustible_id " +
+                    "JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                    "JOIN codigo_postal cp ON es.codigo_postal_id = cp.codigo_postal_id " +
+                    "JOIN localidad l ON cp.localidad_id = l.localidad_id " +
+                    "JOIN municipio mu ON l.municipio_id = mu.municipio_id " +
+                    "JOIN provincia p ON mu.provincia_id = p.provincia_id " +
+                    "WHERE tc.nombre_combustible = ?";
+
+    private static final String SQL_ACTUALIZAR_CONSULTA =
+            "UPDATE consulta_permanente SET estacion_id = ?, precio = ?, fecha_evaluacion = ? WHERE consulta_id = ?";
+
+    private static final String SQL_INSERTAR_NOTIFICACION =
+            "INSERT INTO notificacion_consulta (consulta_id, estacion_anterior_id, precio_anterior, estacion_id, precio, fecha_notificacion) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_REGISTRAR =
+            "INSERT INTO consulta_permanente (nombre_combustible, nombre_provincia, latitud, longitud, radio_km) VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * Provincia y coordenadas de una estación.
+     */
+    private static class Ubicacion {
+        final String provincia;
+        final double latitud;
+        final double longitud;
+
+        Ubicacion(String provincia, double latitud, double longitud) {
+            this.provincia = provincia;
+            this.latitud = latitud;
+            this.longitud = longitud;
+        }
+    }
+
+    private Connection conn;
+    private final String sufijoTablas;
+    private final Dialecto dialecto;
+
+    /**
+     * Consultas por nombre de combustible en minúsculas.
+     */
+    private final Map<String, List<ConsultaPermanente>> porCombustible = new HashMap<>();
+
+    /**
+     * Ubicación de las estaciones conocidas, por ID.
+     */
+    private final Map<Integer, Ubicacion> estaciones = new HashMap<>();
+
+    /**
+     * Último precio aplicado por (estacion_id, combustible_id), con su fecha en minutos desde la época,
+     * para descartar los que llegan fuera de orden.
+     */
+    private final UltimoPrecioMap aplicados = new UltimoPrecioMap(1 << 16);
+
+    /**
+     * Consultas con algún precio aplicado desde la última evaluación.
+     */
+    private final Set<ConsultaPermanente> afectadas = new LinkedHashSet<>();
+
+    /**
+     * Cambios guardados en la transacción en curso, pendientes de avisar a los oyentes.
+     */
+    private final List<NotificacionConsulta> pendientes = new ArrayList<>();
+
+    private final List<OyenteConsultaPermanente> oyentes = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor de la clase ConsultasPermanentes sobre tablas con sufijo, como las tablas en la sombra
+     * de {@link EsquemaSombra}. Las tablas de las consultas no tienen sufijo: no se copian a la sombra.
+     *
+     * @param conn         Conexión a la base de datos.
+     * @param sufijoTablas Sufijo de las tablas de precios (vacío para las tablas en uso).
+     * @throws SQLException Si no se puede detectar el dialecto de la conexión.
+     */
+    public ConsultasPermanentes(final Connection conn, final String sufijoTablas) throws SQLException {
+        this.conn = conn;
+        this.sufijoTablas = sufijoTablas;
+        this.dialecto = Dialecto.de(conn);
+        oyentes.add(notificacion -> log.info("Resultado de la consulta permanente cambiado: {}", notificacion));
+    }
+
+    /**
+     * Indica si la base de datos de la conexión tiene la tabla consulta_permanente.
+     *
+     * @param conn Conexión a la base de datos.
+     * @return true si la tabla existe.
+     * @throws SQLException Si ocurre un error al leer los metadatos.
+     */
+    public static boolean existeTabla(Connection conn) throws SQLException {
+        DatabaseMetaData metadatos = conn.getMetaData();
+        try (ResultSet rs = metadatos.getTables(conn.getCatalog(), null, "consulta_permanente", new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Pasa a usar otra conexión, por ejemplo tras reconectar, conservando los oyentes registrados. Hay
+     * que volver a llamar a {@link #cargar()}.
+     *
+     * @param conn Conexión nueva a la misma base de datos.
+     */
+    void usarConexion(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Registra un oyente de los cambios de resultado.
+     *
+     * @param oyente Oyente a registrar.
+     */
+    public void anadirOyente(OyenteConsultaPermanente oyente) {
+        oyentes.add(oyente);
+    }
+
+    /**
+     * Carga (o vuelve a cargar tras un rollback) las consultas registradas y el precio vigente de las
+     * estaciones que las cumplen, y evalúa todas las consultas: las que no coinciden con el resultado
+     * guardado, como las recién registradas, se notifican en la transacción en curso.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void cargar() throws SQLException {
+        long inicio = System.nanoTime();
+        porCombustible.clear();
+        aplicados.clear();
+        afectadas.clear();
+        pendientes.clear();
+        int consultas = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_CONSULTAS);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                BigDecimal precio = rs.getBigDecimal("precio");
+                ConsultaPermanente consulta = new ConsultaPermanente(
+                        rs.getInt("consulta_id"),
+                        rs.getString("nombre_combustible"),
+                        rs.getString("nombre_provincia"),
+                        rs.getObject("latitud", Double.class),
+                        rs.getObject("longitud", Double.class),
+                        rs.getObject("radio_km", Double.class),
+                        rs.getObject("estacion_id") == null ? ConsultaPermanente.SIN_RESULTADO : rs.getInt("estacion_id"),
+                        precio == null ? 0 : precio.movePointRight(3).intValue());
+                porCombustible.computeIfAbsent(consulta.getCombustible().toLowerCase(), k -> new ArrayList<>()).add(consulta);
+                consultas++;
+            }
+        }
+
+        // Una sola lectura de los precios vigentes por combustible, para todas sus consultas
+        for (List<ConsultaPermanente> deCombustible : porCombustible.values()) {
+            cargarPreciosVigentes(deCombustible);
+            afectadas.addAll(deCombustible);
+        }
+        log.info("Cargadas {} consultas permanentes en {} ms", consultas, (System.nanoTime() - inicio) / 1_000_000);
+        evaluar();
+    }
+
+    private void cargarPreciosVigentes(List<ConsultaPermanente> consultas) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                dialecto.adaptar(EsquemaSombra.enTablas(SQL_PRECIOS_VIGENTES, sufijoTablas)),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(dialecto.fetchSizeStreaming());
+            pstmt.setString(1, consultas.get(0).getCombustible());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int estacionId = rs.getInt("estacion_id");
+                    double[] punto = FuncionesH2.coordenadas(rs.getString("ubicacion"));
+                    Ubicacion ubicacion = new Ubicacion(rs.getString("nombre_provincia"), punto[1], punto[0]);
+                    estaciones.put(estacionId, ubicacion);
+                    int milesimas = rs.getBigDecimal("precio").movePointRight(3).intValue();
+                    aplicados.put(estacionId, rs.getInt("combustible_id"), milesimas,
+                            minutos(rs.getTimestamp("fecha_hora").toLocalDateTime()));
+                    for (ConsultaPermanente consulta : consultas) {
+                        if (consulta.incluye(ubicacion.provincia, ubicacion.latitud, ubicacion.longitud)) {
+                            consulta.actualizarPrecio(estacionId, milesimas);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Anota la provincia y las coordenadas de una estación procesada por el importador.
+     *
+     * @param estacionId ID de la estación.
+     * @param provincia  Nombre de la provincia.
+     * @param latitud    Latitud.
+     * @param longitud   Longitud.
+     */
+    public void registrarEstacion(int estacionId, String provincia, double latitud, double longitud) {
+        if (porCombustible.isEmpty()) {
+            return;
+        }
+        estaciones.put(estacionId, new Ubicacion(provincia, latitud, longitud));
+    }
+
+    /**
+     * Aplica un precio guardado por el importador a las consultas de su combustible que incluyen la
+     * estación, que quedan pendientes de evaluar. La estación debe haberse registrado antes con
+     * {@link #registrarEstacion(int, String, double, double)}. Como en precio_vigente, un precio anterior
+     * al último aplicado a la misma estación y combustible (un fichero antiguo importado tarde) se
+     * descarta: el vigente es siempre el más reciente.
+     *
+     * @param estacionId    ID de la estación.
+     * @param combustibleId ID del combustible.
+     * @param combustible   Nombre del combustible.
+     * @param precio        Precio en euros.
+     * @param fechaHora     Fecha y hora de la observación.
+     */
+    public void registrarPrecio(int estacionId, int combustibleId, String combustible, double precio,
+                                LocalDateTime fechaHora) {
+        List<ConsultaPermanente> consultas = porCombustible.get(combustible.toLowerCase());
+        if (consultas == null) {
+            return;
+        }
+        Ubicacion ubicacion = estaciones.get(estacionId);
+        if (ubicacion == null) {
+            return;
+        }
+        int minutos = minutos(fechaHora);
+        int ultimaFecha = aplicados.getFecha(estacionId, combustibleId);
+        if (ultimaFecha != UltimoPrecioMap.SIN_VALOR && minutos < ultimaFecha) {
+            return;
+        }
+        int milesimas = (int) Math.round(precio * 1000);
+        aplicados.put(estacionId, combustibleId, milesimas, minutos);
+        for (ConsultaPermanente consulta : consultas) {
+            if (consulta.incluye(ubicacion.provincia, ubicacion.latitud, ubicacion.longitud)) {
+                consulta.actualizarPrecio(estacionId, milesimas);
+                afectadas.add(consulta);
+            }
+        }
+    }
+
+    /**
+     * Evalúa las consultas afectadas por los precios aplicados desde la última evaluación y guarda, en la
+     * transacción en curso, los resultados que han cambiado.
+     *
+     * @return Número de consultas cuyo resultado ha cambiado.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public int evaluar() throws SQLException {
+        if (afectadas.isEmpty()) {
+            return 0;
+        }
+        int cambiadas = 0;
+        LocalDateTime ahora = LocalDateTime.now();
+        try (PreparedStatement actualizar = conn.prepareStatement(SQL_ACTUALIZAR_CONSULTA);
+             PreparedStatement insertar = conn.prepareStatement(SQL_INSERTAR_NOTIFICACION)) {
+            for (ConsultaPermanente consulta : afectadas) {
+                if (!consulta.haCambiado()) {
+                    continue;
+                }
+                NotificacionConsulta notificacion = new NotificacionConsulta(consulta.getConsultaId(),
+                        estacion(consulta.getEstacionNotificada()), precio(consulta.getEstacionNotificada(), consulta.getPrecioNotificado()),
+                        estacion(consulta.getMejorEstacion()), precio(consulta.getMejorEstacion(), consulta.getMejorPrecio()),
+                        ahora);
+
+                actualizar.setObject(1, notificacion.getEstacionId(), Types.INTEGER);
+                actualizar.setBigDecimal(2, notificacion.getPrecio());
+                actualizar.setTimestamp(3, Timestamp.valueOf(ahora));
+                actualizar.setInt(4, consulta.getConsultaId());
+                actualizar.addBatch();
+
+                insertar.setInt(1, consulta.getConsultaId());
+                insertar.setObject(2, notificacion.getEstacionAnteriorId(), Types.INTEGER);
+                insertar.setBigDecimal(3, notificacion.getPrecioAnterior());
+                insertar.setObject(4, notificacion.getEstacionId(), Types.INTEGER);
+                insertar.setBigDecimal(5, notificacion.getPrecio());
+                insertar.setTimestamp(6, Timestamp.valueOf(ahora));
+                insertar.addBatch();
+
+                consulta.marcarNotificada();
+                pendientes.add(notificacion);
+                cambiadas++;
+            }
+            if (cambiadas > 0) {
+                actualizar.executeBatch();
+                insertar.executeBatch();
+            }
+        }
+        log.debug("Evaluadas {} consultas permanentes afectadas: {} con cambios", afectadas.size(), cambiadas);
+        afectadas.clear();
+        return cambiadas;
+    }
+
+    /**
+     * Avisa a los oyentes de los cambios guardados en la transacción que se acaba de confirmar.
+     */
+    public void confirmar() {
+        List<NotificacionConsulta> confirmadas = new ArrayList<>(pendientes);
+        pendientes.clear();
+        for (NotificacionConsulta notificacion : confirmadas) {
+            for (OyenteConsultaPermanente oyente : oyentes) {
+                try {
+                    oyente.resultadoCambiado(notificacion);
+                } catch (RuntimeException e) {
+                    log.warn("Error en un oyente de la consulta permanente {}", notificacion.getConsultaId(), e);
+                }
+            }
+        }
+    }
+
+    private static int minutos(LocalDateTime fechaHora) {
+        return (int) (fechaHora.toEpochSecond(ZoneOffset.UTC) / 60);
+    }
+
+    private static Integer estacion(int estacionId) {
+        return estacionId == ConsultaPermanente.SIN_RESULTADO ? null : estacionId;
+    }
+
+    private static BigDecimal precio(int estacionId, int milesimas) {
+        return estacionId == ConsultaPermanente.SIN_RESULTADO ? null : BigDecimal.valueOf(milesimas, 3);
+    }
+
+    /**
+     * Registra una consulta permanente.
+     *
+     * @param conn        Conexión a la base de datos.
+     * @param combustible Nombre del combustible.
+     * @param provincia   Nombre de la provincia, o null.
+     * @param latitud     Latitud del centro del radio, o null.
+     * @param longitud    Longitud del centro del radio, o null.
+     * @param radioKm     Radio en kilómetros, o null.
+     * @return ID de la consulta.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public static int registrar(Connection conn, String combustible, String provincia, Double latitud, Double longitud,
+                                Double radioKm) throws SQLException {
+        // Valida la combinación de filtros antes de guardarla
+        new ConsultaPermanente(0, combustible, provincia, latitud, longitud, radioKm, ConsultaPermanente.SIN_RESULTADO, 0);
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_REGISTRAR, Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, combustible);
+            pstmt.setString(2, provincia);
+            pstmt.setObject(3, latitud, Types.DOUBLE);
+            pstmt.setObject(4, longitud, Types.DOUBLE);
+            pstmt.setObject(5, radioKm, Types.DOUBLE);
+            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        throw new SQLException("No se pudo obtener el ID de la consulta permanente");
+    }
+
+    /**
+     * Método principal que registra una consulta permanente. El importador la evalúa en su siguiente
+     * arranque.
+     *
+     * @param args Argumentos: host, base de datos y combustible, seguidos opcionalmente de
+     *             --provincia=NOMBRE y de --lat=LATITUD --lon=LONGITUD --radio=KM.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            log.error("Uso: ConsultasPermanentes <host> <base de datos> <combustible> " +
+                    "[--provincia=NOMBRE] [--lat=LATITUD --lon=LONGITUD --radio=KM]");
+            return;
+        }
+        String host = args[0];
+        String database = args[1].isEmpty() ? DATABASE : args[1];
+        String combustible = args[2];
+
+        Map<String, String> opciones = new HashMap<>();
+        for (int i = 3; i < args.length; i++) {
+            String[] opcion = args[i].replaceFirst("^--", "").split("=", 2);
+            opciones.put(opcion[0], opcion.length > 1 ? opcion[1] : "");
+        }
+        Double latitud = opciones.containsKey("lat") ? Double.valueOf(opciones.get("lat")) : null;
+        Double longitud = opciones.containsKey("lon") ? Double.valueOf(opciones.get("lon")) : null;
+        Double radioKm = opciones.containsKey("radio") ? Double.valueOf(opciones.get("radio")) : null;
+
+        try (Connection conn = Almacen.crear(host, database).conectar()) {
+            int consultaId = registrar(conn, combustible, opciones.get("provincia"), latitud, longitud, radioKm);
+            log.info("Consulta permanente registrada con ID {}", consultaId);
+        } catch (Exception e) {
+            log.error("Error al registrar la consulta permanente", e);
+        }
+    }
+}
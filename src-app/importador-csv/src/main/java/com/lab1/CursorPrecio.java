@@ -0,0 +1,65 @@
+package com.lab1;
+
+import java.math.BigDecimal;
+import lombok.Getter;
+
+/**
+ * Clase CursorPrecio.
+ *
+ * <p>
+ * Cursor de paginación por clave (keyset) para los rankings de precios: identifica la última fila
+ * devuelta por su par (precio, estacion_id), de forma que la página siguiente se obtiene con un
+ * rango sobre el índice en lugar de un OFFSET, y cuesta lo mismo que la primera.
+ * Se serializa como "precio:estacion_id" para poder viajar en una URL.
+ * </p>
+ */
+@Getter
+public class CursorPrecio {
+
+    /**
+     * Cursor anterior a cualquier fila (primera página).
+     */
+    public static final CursorPrecio INICIO = new CursorPrecio(new BigDecimal("-1"), 0);
+
+    private final BigDecimal precio;
+    private final int estacionId;
+
+    /**
+     * Constructor de la clase CursorPrecio.
+     *
+     * @param precio     Precio de la última fila devuelta.
+     * @param estacionId ID de estación de la última fila devuelta.
+     */
+    public CursorPrecio(BigDecimal precio, int estacionId) {
+        this.precio = precio;
+        this.estacionId = estacionId;
+    }
+
+    /**
+     * Interpreta un cursor serializado con {@link #toString()}.
+     *
+     * @param texto Cursor serializado, o null/vacío para la primera página.
+     * @return Cursor correspondiente.
+     * @throws IllegalArgumentException Si el texto no es un cursor válido.
+     */
+    public static CursorPrecio parse(String texto) {
+        if (texto == null || texto.trim().isEmpty()) {
+            return INICIO;
+        }
+        int separador = texto.lastIndexOf(':');
+        if (separador <= 0) {
+            throw new IllegalArgumentException("Cursor no válido: " + texto);
+        }
+        try {
+            return new CursorPrecio(new BigDecimal(texto.substring(0, separador).trim()),
+                    Integer.parseInt(texto.substring(separador + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor no válido: " + texto);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return precio.toPlainString() + ":" + estacionId;
+    }
+}
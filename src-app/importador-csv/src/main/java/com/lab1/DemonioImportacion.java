@@ -0,0 +1,371 @@
+package com.lab1;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase DemonioImportacion.
+ *
+ * <p>
+ * Modo demonio del importador: mantiene abiertos la conexión, los PreparedStatements y las cachés de
+ * {@link ImportadorCSV}, vigila el directorio de entrada con un {@link WatchService} de NIO e importa
+ * los ficheros de precios nuevos o modificados en pocos segundos desde su llegada.
+ * </p>
+ *
+ * <p>
+ * Un fichero solo se importa cuando su tamaño y su fecha de modificación no han cambiado durante el
+ * periodo de estabilidad, para no leer ficheros que aún se están escribiendo. Cada fichero se importa
+ * en su propia transacción junto con su registro en fichero_importado, identificado por la huella
+ * SHA-256 de su contenido, de modo que se procesa exactamente una vez aunque el demonio se reinicie. El
+ * fichero se lee una sola vez: la huella se calcula sobre los mismos bytes que se importan, aunque el
+ * fichero cambie después.
+ * </p>
+ *
+ * <p>
+ * Si un fichero falla, su transacción se revierte y el importador olvida el estado en memoria que
+ * pudiera referirse a ella (cachés de IDs incluidas), para que los ficheros siguientes no arrastren el
+ * error. Antes de cada fichero se comprueba la conexión y, si se ha perdido (por ejemplo por el
+ * wait_timeout o un reinicio de MySQL), se abre otra y se vuelve a preparar el importador.
+ * </p>
+ */
+@Slf4j
+public class DemonioImportacion {
+
+    private static final String DATABASE = "estaciones_servicio";
+    private static final String CSV_DIRECTORY = "ficheroscsv";
+
+    /**
+     * Tiempo que un fichero debe permanecer sin cambios antes de importarlo.
+     */
+    private static final long ESTABILIDAD_MS =
+            Long.parseLong(System.getenv().getOrDefault("DEMONIO_ESTABILIDAD_MS", "2000"));
+
+    /**
+     * Intervalo máximo entre comprobaciones de los ficheros pendientes.
+     */
+    private static final long INTERVALO_SONDEO_MS = 500;
+
+    /**
+     * Segundos de espera máxima al comprobar la conexión antes de cada fichero.
+     */
+    private static final int TIMEOUT_VALIDACION_S = 5;
+
+    private final Almacen almacen;
+    private final Path directorio;
+    private Connection conn;
+    private PreparedStatement selectFicheroStmt;
+    private PreparedStatement insertFicheroStmt;
+
+    /**
+     * Ficheros detectados pendientes de estabilizarse, por ruta.
+     */
+    private final Map<Path, EstadoFichero> pendientes = new HashMap<>();
+
+    private volatile boolean activo = true;
+    private WatchService watchService;
+
+    /**
+     * Última observación del tamaño y la fecha de modificación de un fichero pendiente.
+     */
+    private static class EstadoFichero {
+        long tamano;
+        long modificado;
+        long vistoSinCambios;
+
+        EstadoFichero(long tamano, long modificado, long ahora) {
+            this.tamano = tamano;
+            this.modificado = modificado;
+            this.vistoSinCambios = ahora;
+        }
+    }
+
+    /**
+     * Constructor de la clase DemonioImportacion. Abre una conexión del almacén y prepara el importador
+     * sobre ella.
+     *
+     * @param almacen    Almacén del que se obtienen las conexiones.
+     * @param directorio Directorio a vigilar.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public DemonioImportacion(Almacen almacen, Path directorio) throws SQLException {
+        this.almacen = almacen;
+        this.directorio = directorio;
+        conectar();
+    }
+
+    /**
+     * Abre una conexión y prepara sobre ella el importador y las sentencias del demonio.
+     */
+    private void conectar() throws SQLException {
+        conn = almacen.conectar();
+        ImportadorCSV.inicializar(conn);
+        selectFicheroStmt = conn.prepareStatement("SELECT fichero_id FROM fichero_importado WHERE huella = ?");
+        insertFicheroStmt = conn.prepareStatement(
+                "INSERT INTO fichero_importado (nombre, huella, tamano, fecha_importacion) VALUES (?, ?, ?, NOW())");
+    }
+
+    /**
+     * Comprueba la conexión y, si se ha perdido, la sustituye por otra. Lo que hubiera en la transacción
+     * perdida no se confirmó, así que se vacían las cachés de IDs.
+     */
+    private void comprobarConexion() throws SQLException {
+        if (conn.isValid(TIMEOUT_VALIDACION_S)) {
+            return;
+        }
+        log.warn("Conexión con la base de datos perdida; reconectando");
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            log.debug("Error al cerrar la conexión perdida", e);
+        }
+        ImportadorCSV.limpiarCaches();
+        conectar();
+        log.info("Reconectado con la base de datos");
+    }
+
+    /**
+     * Vigila el directorio hasta que se llama a {@link #detener()}.
+     *
+     * @throws IOException Si no se puede vigilar el directorio.
+     */
+    public void ejecutar() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        directorio.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        log.info("Vigilando el directorio {}", directorio.toAbsolutePath());
+
+        // Los ficheros que llegaron con el demonio parado se tratan como recién detectados
+        escanearDirectorio();
+
+        try {
+            while (activo) {
+                WatchKey key = watchService.poll(INTERVALO_SONDEO_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Se han perdido eventos: volver a revisar todo el directorio
+                            escanearDirectorio();
+                        } else {
+                            registrarPendiente(directorio.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                importarEstables();
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Vigilancia del directorio detenida");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Detiene la vigilancia del directorio.
+     */
+    public void detener() {
+        activo = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Error al cerrar el WatchService", e);
+            }
+        }
+    }
+
+    /**
+     * Cierra los statements del demonio y del importador, y la conexión.
+     *
+     * @throws SQLException Si ocurre un error al cerrar los recursos.
+     */
+    public void cerrar() throws SQLException {
+        selectFicheroStmt.close();
+        insertFicheroStmt.close();
+        ImportadorCSV.finalizar();
+    }
+
+    private void escanearDirectorio() throws IOException {
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio, "*.csv")) {
+            for (Path fichero : ficheros) {
+                registrarPendiente(fichero);
+            }
+        }
+    }
+
+    /**
+     * Anota un fichero como pendiente, o reinicia su periodo de estabilidad si ha cambiado.
+     */
+    private void registrarPendiente(Path fichero) {
+        String nombre = fichero.getFileName().toString();
+        // Se ignoran los ficheros ocultos y los temporales de una escritura en curso
+        if (!nombre.endsWith(".csv") || nombre.startsWith(".")) {
+            return;
+        }
+        try {
+            long tamano = Files.size(fichero);
+            long modificado = Files.getLastModifiedTime(fichero).toMillis();
+            EstadoFichero estado = pendientes.get(fichero);
+            if (estado == null) {
+                pendientes.put(fichero, new EstadoFichero(tamano, modificado, System.currentTimeMillis()));
+            } else if (estado.tamano != tamano || estado.modificado != modificado) {
+                estado.tamano = tamano;
+                estado.modificado = modificado;
+                estado.vistoSinCambios = System.currentTimeMillis();
+            }
+        } catch (NoSuchFileException e) {
+            pendientes.remove(fichero);
+        } catch (IOException e) {
+            log.warn("No se pudo consultar el fichero {}", fichero, e);
+        }
+    }
+
+    /**
+     * Importa, como un micro-lote, los ficheros pendientes que han permanecido estables, del más antiguo
+     * al más reciente ({@link ImportadorCSV#ordenarFicheros}), porque el modo de solo cambios descarta las
+     * observaciones anteriores a las ya importadas.
+     */
+    private void importarEstables() {
+        long ahora = System.currentTimeMillis();
+        List<File> estables = new ArrayList<>();
+        Iterator<Map.Entry<Path, EstadoFichero>> it = pendientes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, EstadoFichero> entry = it.next();
+            Path fichero = entry.getKey();
+            EstadoFichero estado = entry.getValue();
+            try {
+                if (!Files.exists(fichero)) {
+                    it.remove();
+                    continue;
+                }
+                long tamano = Files.size(fichero);
+                long modificado = Files.getLastModifiedTime(fichero).toMillis();
+                if (tamano != estado.tamano || modificado != estado.modificado) {
+                    estado.tamano = tamano;
+                    estado.modificado = modificado;
+                    estado.vistoSinCambios = ahora;
+                    continue;
+                }
+                if (ahora - estado.vistoSinCambios < ESTABILIDAD_MS) {
+                    continue;
+                }
+                it.remove();
+                estables.add(fichero.toFile());
+            } catch (IOException e) {
+                log.warn("No se pudo consultar el fichero {}", fichero, e);
+            }
+        }
+
+        for (File fichero : ImportadorCSV.ordenarFicheros(estables)) {
+            try {
+                importarUnaVez(fichero);
+            } catch (IOException e) {
+                log.warn("No se pudo leer el fichero {}", fichero, e);
+            }
+        }
+    }
+
+    /**
+     * Importa un fichero en su propia transacción salvo que su contenido ya se hubiera importado.
+     */
+    private void importarUnaVez(File fichero) throws IOException {
+        // Los ficheros diarios son de pocos MB: se leen en memoria para importar los bytes de la huella
+        byte[] contenido = Files.readAllBytes(fichero.toPath());
+        String huella = huella(contenido);
+        try {
+            comprobarConexion();
+            selectFicheroStmt.setString(1, huella);
+            try (ResultSet rs = selectFicheroStmt.executeQuery()) {
+                if (rs.next()) {
+                    log.info("El fichero {} ya se importó anteriormente (huella {}); se omite", fichero.getName(), huella);
+                    conn.rollback();
+                    return;
+                }
+            }
+
+            long inicio = System.nanoTime();
+            boolean correcto;
+            try {
+                correcto = ImportadorCSV.importarFichero(fichero.getName(), new ByteArrayInputStream(contenido));
+            } catch (RuntimeException e) {
+                log.error("Error al importar el fichero {}", fichero.getName(), e);
+                correcto = false;
+            }
+            if (!correcto) {
+                conn.rollback();
+                ImportadorCSV.revertido();
+                log.warn("El fichero {} no se importó; se reintentará cuando vuelva a modificarse o al reiniciar", fichero.getName());
+                return;
+            }
+
+            // Los agregados y el registro del fichero se confirman en la misma transacción que sus datos
+            ImportadorCSV.actualizarAgregados();
+            insertFicheroStmt.setString(1, fichero.getName());
+            insertFicheroStmt.setString(2, huella);
+            insertFicheroStmt.setLong(3, contenido.length);
+            insertFicheroStmt.executeUpdate();
+            conn.commit();
+            ImportadorCSV.confirmado();
+            log.info("Fichero {} importado en {} ms", fichero.getName(), (System.nanoTime() - inicio) / 1_000_000);
+        } catch (SQLException e) {
+            log.error("Error al registrar la importación del fichero {}", fichero.getName(), e);
+            try {
+                conn.rollback();
+                ImportadorCSV.revertido();
+            } catch (SQLException rollbackEx) {
+                log.error("Error al hacer rollback de la transacción", rollbackEx);
+            }
+        }
+    }
+
+    /**
+     * Calcula la huella SHA-256 del contenido de un fichero, en hexadecimal.
+     */
+    private static String huella(byte[] contenido) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest.digest(contenido)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Método principal que arranca el demonio.
+     *
+     * @param args Argumentos de línea de comandos: host, nombre de la base de datos y directorio a vigilar (opcionales).
+     */
+    public static void main(String[] args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        String database = args.length > 1 ? args[1] : DATABASE;
+        Path directorio = Paths.get(args.length > 2 ? args[2] : CSV_DIRECTORY);
+
+        try {
+            DemonioImportacion demonio = new DemonioImportacion(Almacen.crear(host, database), directorio);
+            Thread principal = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                demonio.detener();
+                try {
+                    principal.join(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            demonio.ejecutar();
+            demonio.cerrar();
+        } catch (Exception e) {
+            log.error("Error en el demonio de importación", e);
+        }
+    }
+}
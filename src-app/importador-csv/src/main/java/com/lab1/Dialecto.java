@@ -0,0 +1,159 @@
+package com.lab1;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Enum Dialecto.
+ *
+ * <p>
+ * Diferencias de SQL entre los motores de {@link Almacen}. Las sentencias del proyecto están escritas
+ * para MySQL; {@link #adaptar(String)} las reescribe para H2 (en modo MySQL) en lo que este no admite:
+ * </p>
+ * <ul>
+ *     <li>El predicado de apertura de HorarioSemanal (ORD y desplazamientos de bits) pasa a la función
+ *     HORARIO_ABIERTO de {@link FuncionesH2}.</li>
+ *     <li>La búsqueda de una estación por su ubicación compara el WKT canónico con = para usar el índice
+ *     de la columna.</li>
+ *     <li>DATE_SUB(x, INTERVAL n DAY) pasa a DATEADD(DAY, -(n), x).</li>
+ *     <li>HAVING sobre un alias sin GROUP BY (extensión de MySQL) pasa a un WHERE sobre una tabla
+ *     derivada.</li>
+ *     <li>Las columnas del SELECT que dependen funcionalmente de la clave del GROUP BY (MySQL lo admite,
+ *     H2 no) se añaden al GROUP BY.</li>
+ * </ul>
+ * <p>
+ * Las reescrituras se guardan en caché: cada sentencia se adapta una sola vez.
+ * </p>
+ */
+public enum Dialecto {
+    MYSQL,
+    H2;
+
+    private static final String PREDICADO_H2_ABIERTO = "HORARIO_ABIERTO(h.horario_semanal, ?, ?) = 1";
+
+    private static final Pattern ST_EQUALS_PUNTO =
+            Pattern.compile("ST_Equals\\((\\w+(?:\\.\\w+)?), (ST_PointFromText\\(\\?, 4326\\))\\)");
+    private static final Pattern DATE_SUB_DIAS =
+            Pattern.compile("DATE_SUB\\(([\\w.]+), INTERVAL (.+?) DAY\\)");
+    private static final Pattern HAVING_SIN_GROUP_BY =
+            Pattern.compile("(?s)^(SELECT .+?) HAVING (.+?) ORDER BY (.+?)((?: LIMIT .+)?)$");
+    private static final Pattern GROUP_BY =
+            Pattern.compile("(?s) GROUP BY ((?:[\\w.]+, )*[\\w.]+)((?: HAVING | ORDER BY | LIMIT ).*)?$");
+    private static final Pattern COLUMNA_CUALIFICADA = Pattern.compile("\\w+\\.\\w+");
+
+    private final Map<String, String> adaptadas = new ConcurrentHashMap<>();
+
+    /**
+     * Detecta el dialecto de una conexión por su URL JDBC.
+     *
+     * @param conn Conexión a la base de datos.
+     * @return Dialecto de la conexión.
+     * @throws SQLException Si no se pueden leer los metadatos de la conexión.
+     */
+    public static Dialecto de(Connection conn) throws SQLException {
+        return conn.getMetaData().getURL().startsWith("jdbc:h2:") ? H2 : MYSQL;
+    }
+
+    /**
+     * Adapta una sentencia escrita para MySQL a este dialecto.
+     *
+     * @param sql Sentencia SQL en el dialecto de MySQL.
+     * @return Sentencia equivalente en este dialecto.
+     */
+    public String adaptar(String sql) {
+        if (this == MYSQL) {
+            return sql;
+        }
+        return adaptadas.computeIfAbsent(sql, Dialecto::adaptarH2);
+    }
+
+    /**
+     * Tamaño de fetch para recorrer un resultado grande sin cargarlo entero en memoria. El driver de MySQL
+     * solo envía las filas de una en una con Integer.MIN_VALUE; H2 embebido pasa a disco los resultados
+     * grandes por sí mismo y no admite tamaños negativos.
+     *
+     * @return Tamaño de fetch para setFetchSize.
+     */
+    public int fetchSizeStreaming() {
+        return this == MYSQL ? Integer.MIN_VALUE : 0;
+    }
+
+    private static String adaptarH2(String sql) {
+        String adaptada = sql.replace(HorarioSemanal.PREDICADO_SQL_ABIERTO, PREDICADO_H2_ABIERTO);
+        adaptada = ST_EQUALS_PUNTO.matcher(adaptada).replaceAll("$1 = $2");
+        adaptada = DATE_SUB_DIAS.matcher(adaptada).replaceAll("DATEADD(DAY, -($2), $1)");
+        if (adaptada.contains(" GROUP BY ")) {
+            adaptada = completarGroupBy(adaptada);
+        } else {
+            Matcher m = HAVING_SIN_GROUP_BY.matcher(adaptada);
+            if (m.matches()) {
+                adaptada = "SELECT * FROM (" + m.group(1) + ") t WHERE " + m.group(2) +
+                        " ORDER BY " + sinCualificar(m.group(3)) + m.group(4);
+            }
+        }
+        return adaptada;
+    }
+
+    /**
+     * Añade al GROUP BY las columnas cualificadas (alias.columna) del SELECT que no estén ya en él.
+     */
+    private static String completarGroupBy(String sql) {
+        Matcher m = GROUP_BY.matcher(sql);
+        int inicioSelect = sql.indexOf("SELECT ");
+        int finSelect = sql.indexOf(" FROM ", inicioSelect);
+        if (!m.find() || inicioSelect < 0 || finSelect < 0) {
+            return sql;
+        }
+        List<String> claves = new ArrayList<>();
+        for (String clave : m.group(1).split(", ")) {
+            claves.add(clave);
+        }
+        if (claves.size() == 1 && claves.get(0).matches("\\d+")) {
+            return sql;
+        }
+        StringBuilder groupBy = new StringBuilder(m.group(1));
+        for (String columna : columnasSelect(sql.substring(inicioSelect + "SELECT ".length(), finSelect))) {
+            if (COLUMNA_CUALIFICADA.matcher(columna).matches() && !claves.contains(columna)) {
+                groupBy.append(", ").append(columna);
+                claves.add(columna);
+            }
+        }
+        String resto = m.group(2) == null ? "" : m.group(2);
+        return sql.substring(0, m.start()) + " GROUP BY " + groupBy + resto;
+    }
+
+    /**
+     * Separa la lista del SELECT por las comas que no están dentro de paréntesis.
+     */
+    private static List<String> columnasSelect(String lista) {
+        List<String> columnas = new ArrayList<>();
+        int profundidad = 0;
+        int inicio = 0;
+        for (int i = 0; i < lista.length(); i++) {
+            char c = lista.charAt(i);
+            if (c == '(') {
+                profundidad++;
+            } else if (c == ')') {
+                profundidad--;
+            } else if (c == ',' && profundidad == 0) {
+                columnas.add(lista.substring(inicio, i).trim());
+                inicio = i + 1;
+            }
+        }
+        columnas.add(lista.substring(inicio).trim());
+        return columnas;
+    }
+
+    /**
+     * Quita el alias de tabla de las columnas de un ORDER BY, que pasa a aplicarse a la tabla derivada.
+     */
+    private static String sinCualificar(String orderBy) {
+        return orderBy.replaceAll("\\b\\w+\\.(\\w+)", "$1");
+    }
+}
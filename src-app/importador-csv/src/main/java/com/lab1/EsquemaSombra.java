@@ -0,0 +1,316 @@
+package com.lab1;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase EsquemaSombra.
+ *
+ * <p>
+ * Tablas en la sombra para importar sin afectar a las consultas: cada tabla que escribe la importación
+ * se copia en una tabla *_nueva, la importación escribe solo en las copias y, al terminar, todas se
+ * publican a la vez con un único RENAME TABLE, que es atómico. Los lectores siguen usando las tablas en
+ * uso durante toda la carga, sin competir por sus bloqueos, y las tablas sustituidas se conservan como
+ * *_anterior para poder revertir la publicación.
+ * </p>
+ *
+ * <p>
+ * La copia de los datos existentes se hace en READ COMMITTED, que lee una instantánea sin bloquear las
+ * filas de origen. Las copias se crean con CREATE TABLE ... LIKE, que no copia las claves ajenas: se
+ * añaden al publicar, junto con los índices secundarios no únicos de las tablas de carga masiva, que se
+ * eliminan antes de la carga y se construyen una sola vez al final. Nadie más debe escribir en las tablas
+ * en uso mientras tanto (por ejemplo, el demonio de importación), porque esas escrituras se perderían al
+ * publicar.
+ * </p>
+ */
+@Slf4j
+public class EsquemaSombra {
+
+    private static final String DATABASE = "estaciones_servicio";
+
+    public static final String SUFIJO_NUEVA = "_nueva";
+    public static final String SUFIJO_ANTERIOR = "_anterior";
+
+    /**
+     * Tablas que escribe la importación, cada una después de las que referencia.
+     */
+    static final String[] TABLAS = {"provincia", "municipio", "localidad", "codigo_postal", "margen", "horario",
+            "marca", "tipo_estacion", "estacion_servicio", "tipo_combustible", "precio_combustible",
+            "precio_vigente", "precio_rollup_hora", "precio_rollup_dia"};
+
+    /**
+     * Tablas de carga masiva, cuyos índices secundarios no únicos se construyen después de la carga.
+     */
+    private static final Set<String> TABLAS_CARGA_MASIVA = Collections.singleton("precio_combustible");
+
+    /**
+     * Referencia a una de las tablas en una sentencia (tras FROM, JOIN, INTO, UPDATE o TABLE), para no
+     * confundirla con una columna del mismo nombre, como tipo_estacion o codigo_postal.
+     */
+    private static final Pattern REFERENCIA_TABLA =
+            Pattern.compile("(?i)\\b(FROM|JOIN|INTO|UPDATE|TABLE)(\\s+)(" + String.join("|", TABLAS) + ")\\b");
+
+    // Líneas de SHOW CREATE TABLE con un índice no único y con una clave ajena
+    private static final Pattern INDICE = Pattern.compile("^\\s*KEY `(\\w+)` (\\(.*\\)),?$");
+    private static final Pattern CLAVE_AJENA =
+            Pattern.compile("^\\s*CONSTRAINT `(\\w+)` FOREIGN KEY (\\(.*?\\)) REFERENCES `(\\w+)` (.*?),?$");
+
+    private static final String SQL_COLUMNAS =
+            "SELECT COLUMN_NAME FROM information_schema.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND EXTRA NOT LIKE '%GENERATED%' " +
+                    "ORDER BY ORDINAL_POSITION";
+
+    private final Connection conn;
+
+    /**
+     * Definiciones de los índices diferidos y de las claves ajenas de cada tabla nueva, pendientes de crear al publicar.
+     */
+    private final Map<String, List<String>> indicesPendientes = new LinkedHashMap<>();
+    private final Map<String, List<String>> clavesAjenasPendientes = new LinkedHashMap<>();
+
+    /**
+     * Constructor de la clase EsquemaSombra.
+     *
+     * @param conn Conexión a la base de datos.
+     */
+    public EsquemaSombra(final Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Reescribe una sentencia para que use las tablas con el sufijo indicado en lugar de las tablas en uso.
+     *
+     * @param sql    Sentencia SQL.
+     * @param sufijo Sufijo de las tablas (vacío para las tablas en uso).
+     * @return Sentencia reescrita.
+     */
+    public static String enTablas(String sql, String sufijo) {
+        if (sufijo.isEmpty()) {
+            return sql;
+        }
+        return REFERENCIA_TABLA.matcher(sql).replaceAll("$1$2$3" + sufijo);
+    }
+
+    /**
+     * Crea las tablas nuevas como copias de las tablas en uso, sin claves ajenas ni los índices diferidos,
+     * y copia en ellas los datos existentes. Descarta antes las tablas nuevas de una importación anterior.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void preparar() throws SQLException {
+        long inicio = System.nanoTime();
+        descartar();
+        indicesPendientes.clear();
+        clavesAjenasPendientes.clear();
+        try (Statement stmt = conn.createStatement()) {
+            for (String tabla : TABLAS) {
+                String nueva = tabla + SUFIJO_NUEVA;
+                stmt.execute("CREATE TABLE " + nueva + " LIKE " + tabla);
+
+                List<String> indices = new ArrayList<>();
+                List<String> clavesAjenas = new ArrayList<>();
+                List<String> eliminar = new ArrayList<>();
+                for (String linea : definicion(stmt, tabla).split("\n")) {
+                    Matcher indice = INDICE.matcher(linea);
+                    Matcher claveAjena = CLAVE_AJENA.matcher(linea);
+                    if (indice.matches() && TABLAS_CARGA_MASIVA.contains(tabla)) {
+                        indices.add("ADD INDEX `" + indice.group(1) + "` " + indice.group(2));
+                        eliminar.add("DROP INDEX `" + indice.group(1) + "`");
+                    } else if (claveAjena.matches()) {
+                        clavesAjenas.add(claveAjenaNueva(tabla, claveAjena));
+                    }
+                }
+                if (!eliminar.isEmpty()) {
+                    stmt.execute("ALTER TABLE " + nueva + " " + String.join(", ", eliminar));
+                }
+                indicesPendientes.put(nueva, indices);
+                clavesAjenasPendientes.put(nueva, clavesAjenas);
+            }
+        }
+        copiar();
+        log.info("Tablas en la sombra preparadas en {} ms", (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    /**
+     * Construye los índices diferidos y las claves ajenas de las tablas nuevas, actualiza sus estadísticas
+     * y las publica con un único RENAME TABLE, conservando las sustituidas como *_anterior (y descartando
+     * las de la publicación anterior). Debe llamarse con los datos de la importación ya confirmados.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void publicar() throws SQLException {
+        long inicio = System.nanoTime();
+        try (Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, List<String>> indices : indicesPendientes.entrySet()) {
+                if (!indices.getValue().isEmpty()) {
+                    stmt.execute("ALTER TABLE " + indices.getKey() + " " + String.join(", ", indices.getValue()));
+                }
+            }
+            log.info("Índices diferidos construidos en {} ms", (System.nanoTime() - inicio) / 1_000_000);
+
+            // Las filas copiadas ya cumplían las claves ajenas y la importación las respeta, así que se
+            // añaden sin validarlas de nuevo
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                for (Map.Entry<String, List<String>> clavesAjenas : clavesAjenasPendientes.entrySet()) {
+                    if (!clavesAjenas.getValue().isEmpty()) {
+                        stmt.execute("ALTER TABLE " + clavesAjenas.getKey() + " " + String.join(", ", clavesAjenas.getValue()));
+                    }
+                }
+                eliminarTablas(stmt, SUFIJO_ANTERIOR);
+            } finally {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+            stmt.execute("ANALYZE TABLE " + listaTablas(SUFIJO_NUEVA));
+
+            List<String> renombrados = new ArrayList<>();
+            for (String tabla : TABLAS) {
+                renombrados.add(tabla + " TO " + tabla + SUFIJO_ANTERIOR);
+                renombrados.add(tabla + SUFIJO_NUEVA + " TO " + tabla);
+            }
+            stmt.execute("RENAME TABLE " + String.join(", ", renombrados));
+        }
+        indicesPendientes.clear();
+        clavesAjenasPendientes.clear();
+        log.info("Tablas nuevas publicadas en {} ms; las sustituidas se conservan como *{}",
+                (System.nanoTime() - inicio) / 1_000_000, SUFIJO_ANTERIOR);
+    }
+
+    /**
+     * Elimina las tablas nuevas, por ejemplo tras una importación fallida.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void descartar() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                eliminarTablas(stmt, SUFIJO_NUEVA);
+            } finally {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    /**
+     * Revierte la última publicación: las tablas *_anterior vuelven a estar en uso y las publicadas
+     * pasan a ser las tablas *_nueva, con un único RENAME TABLE.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos o no hay tablas anteriores.
+     */
+    public void revertir() throws SQLException {
+        descartar();
+        List<String> renombrados = new ArrayList<>();
+        for (String tabla : TABLAS) {
+            renombrados.add(tabla + " TO " + tabla + SUFIJO_NUEVA);
+            renombrados.add(tabla + SUFIJO_ANTERIOR + " TO " + tabla);
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("RENAME TABLE " + String.join(", ", renombrados));
+        }
+        log.info("Publicación revertida; las tablas retiradas se conservan como *{}", SUFIJO_NUEVA);
+    }
+
+    /**
+     * Copia los datos de las tablas en uso en las nuevas, en READ COMMITTED y una tabla por transacción.
+     */
+    private void copiar() throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        int aislamiento = conn.getTransactionIsolation();
+        conn.setAutoCommit(true);
+        conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        try (Statement stmt = conn.createStatement()) {
+            for (String tabla : TABLAS) {
+                long inicio = System.nanoTime();
+                // Las columnas generadas (como precio en el almacenamiento compacto) no se pueden insertar
+                String columnas = String.join(", ", columnas(tabla));
+                int filas = stmt.executeUpdate("INSERT INTO " + tabla + SUFIJO_NUEVA + " (" + columnas + ") " +
+                        "SELECT " + columnas + " FROM " + tabla);
+                log.info("Copiadas {} filas de {} en {} ms", filas, tabla, (System.nanoTime() - inicio) / 1_000_000);
+            }
+        } finally {
+            conn.setTransactionIsolation(aislamiento);
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private List<String> columnas(String tabla) throws SQLException {
+        List<String> columnas = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_COLUMNAS)) {
+            pstmt.setString(1, tabla);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    columnas.add("`" + rs.getString(1) + "`");
+                }
+            }
+        }
+        return columnas;
+    }
+
+    private static String definicion(Statement stmt, String tabla) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SHOW CREATE TABLE " + tabla)) {
+            rs.next();
+            return rs.getString(2);
+        }
+    }
+
+    /**
+     * Traduce una clave ajena de una tabla en uso a su tabla nueva: la tabla referenciada pasa a ser su
+     * copia nueva y el nombre, tabla_ibfk_N, pasa a tabla_nueva_ibfk_N, que MySQL renombra de vuelta a
+     * tabla_ibfk_N al publicar.
+     */
+    private static String claveAjenaNueva(String tabla, Matcher claveAjena) throws SQLException {
+        String nombre = claveAjena.group(1);
+        if (!nombre.startsWith(tabla + "_ibfk_")) {
+            throw new SQLException("La clave ajena " + nombre + " de " + tabla + " no sigue el patrón tabla_ibfk_N");
+        }
+        String referenciada = claveAjena.group(3);
+        if (Arrays.asList(TABLAS).contains(referenciada)) {
+            referenciada += SUFIJO_NUEVA;
+        }
+        return "ADD CONSTRAINT `" + tabla + SUFIJO_NUEVA + nombre.substring(tabla.length()) + "` FOREIGN KEY "
+                + claveAjena.group(2) + " REFERENCES `" + referenciada + "` " + claveAjena.group(4);
+    }
+
+    private static void eliminarTablas(Statement stmt, String sufijo) throws SQLException {
+        stmt.execute("DROP TABLE IF EXISTS " + listaTablas(sufijo));
+    }
+
+    private static String listaTablas(String sufijo) {
+        StringJoiner lista = new StringJoiner(", ");
+        for (String tabla : TABLAS) {
+            lista.add(tabla + sufijo);
+        }
+        return lista.toString();
+    }
+
+    /**
+     * Método principal para revertir la última publicación o descartar unas tablas en la sombra.
+     *
+     * @param args Argumentos de línea de comandos: host, nombre de la base de datos y acción (revertir o descartar).
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || !("revertir".equals(args[2]) || "descartar".equals(args[2]))) {
+            log.error("Uso: EsquemaSombra <host> <base de datos> <revertir|descartar>");
+            return;
+        }
+        String database = args[1].isEmpty() ? DATABASE : args[1];
+        try (Connection conn = new MySqlConnector(args[0], database).getConnection()) {
+            EsquemaSombra sombra = new EsquemaSombra(conn);
+            if ("revertir".equals(args[2])) {
+                sombra.revertir();
+            } else {
+                sombra.descartar();
+            }
+        } catch (Exception e) {
+            log.error("Error al {} las tablas en la sombra", args[2], e);
+        }
+    }
+}
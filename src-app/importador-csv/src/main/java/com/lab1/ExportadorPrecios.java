@@ -0,0 +1,276 @@
+package com.lab1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase ExportadorPrecios.
+ *
+ * <p>
+ * Exporta el histórico de precio_combustible, unido a sus dimensiones, a CSV o a JSON-lines.
+ * Usa el cursor de streaming de MySQL (fetch size Integer.MIN_VALUE), que entrega las filas de una
+ * en una sin materializar el resultado, y escribe con un único buffer NIO reutilizado, por lo que
+ * la memoria usada es constante con independencia del número de filas exportadas.
+ * </p>
+ */
+@Slf4j
+public class ExportadorPrecios {
+
+    private static final String DATABASE = "estaciones_servicio";
+
+    /**
+     * Tamaño del buffer de escritura.
+     */
+    private static final int TAMANO_BUFFER = 1 << 20;
+
+    /**
+     * Cada cuántas filas se informa del progreso.
+     */
+    private static final long FILAS_PROGRESO = 100_000;
+
+    private static final String SQL_EXPORTACION =
+            "SELECT pc.fecha_hora, p.nombre_provincia, mu.nombre_municipio, l.nombre_localidad, cp.codigo_postal, " +
+                    "es.estacion_id, es.direccion, ST_AsText(es.ubicacion) AS ubicacion, m.nombre_marca, mg.nombre_margen, " +
+                    "te.tipo_estacion, tc.nombre_combustible, pc.precio " +
+                    "FROM precio_combustible pc " +
+                    "JOIN estacion_servicio es ON pc.estacion_id = es.estacion_id " +
+                    "JOIN marca m ON es.marca_id = m.marca_id " +
+                    "JOIN margen mg ON es.margen_id = mg.margen_id " +
+                    "JOIN tipo_estacion te ON es.tipo_estacion_id = te.tipo_estacion_id " +
+                    "JOIN codigo_postal cp ON es.codigo_postal_id = cp.codigo_postal_id " +
+                    "JOIN localidad l ON cp.localidad_id = l.localidad_id " +
+                    "JOIN municipio mu ON l.municipio_id = mu.municipio_id " +
+                    "JOIN provincia p ON mu.provincia_id = p.provincia_id " +
+                    "JOIN tipo_combustible tc ON pc.combustible_id = tc.combustible_id " +
+                    "WHERE 1 = 1";
+
+    /**
+     * Formatos de exportación soportados.
+     */
+    public enum Formato {
+        CSV, JSONL
+    }
+
+    private final Connection conn;
+
+    /**
+     * Constructor de la clase ExportadorPrecios.
+     *
+     * @param conn Conexión a la base de datos.
+     */
+    public ExportadorPrecios(final Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Exporta los precios que cumplen los filtros al canal indicado.
+     *
+     * @param destino     Canal de escritura (no se cierra).
+     * @param formato     Formato de salida.
+     * @param desde       Primer día incluido, o null para no limitar.
+     * @param hasta       Último día incluido, o null para no limitar.
+     * @param provincia   Nombre de la provincia, o null para todas.
+     * @param combustible Nombre del combustible, o null para todos.
+     * @return Número de filas exportadas.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     * @throws IOException  Si ocurre un error al escribir.
+     */
+    public long exportar(WritableByteChannel destino, Formato formato, LocalDate desde, LocalDate hasta,
+                         String provincia, String combustible) throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder(SQL_EXPORTACION);
+        List<Object> parametros = new ArrayList<>();
+        if (desde != null) {
+            sql.append(" AND pc.fecha_hora >= ?");
+            parametros.add(Timestamp.valueOf(desde.atStartOfDay()));
+        }
+        if (hasta != null) {
+            sql.append(" AND pc.fecha_hora < ?");
+            parametros.add(Timestamp.valueOf(hasta.plusDays(1).atStartOfDay()));
+        }
+        if (provincia != null) {
+            sql.append(" AND p.nombre_provincia = ?");
+            parametros.add(provincia);
+        }
+        if (combustible != null) {
+            sql.append(" AND tc.nombre_combustible = ?");
+            parametros.add(combustible);
+        }
+
+        EscritorNio escritor = new EscritorNio(destino);
+        long filas = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Con MySQL, Integer.MIN_VALUE activa el streaming fila a fila del driver
+            pstmt.setFetchSize(Dialecto.de(conn).fetchSizeStreaming());
+            for (int i = 0; i < parametros.size(); i++) {
+                pstmt.setObject(i + 1, parametros.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnas = metaData.getColumnCount();
+                String[] nombres = new String[columnas];
+                for (int i = 0; i < columnas; i++) {
+                    nombres[i] = metaData.getColumnLabel(i + 1);
+                }
+
+                StringBuilder linea = new StringBuilder(512);
+                if (formato == Formato.CSV) {
+                    for (int i = 0; i < columnas; i++) {
+                        if (i > 0) {
+                            linea.append(',');
+                        }
+                        linea.append(nombres[i]);
+                    }
+                    linea.append('\n');
+                    escritor.escribir(linea);
+                }
+
+                while (rs.next()) {
+                    linea.setLength(0);
+                    if (formato == Formato.CSV) {
+                        for (int i = 0; i < columnas; i++) {
+                            if (i > 0) {
+                                linea.append(',');
+                            }
+                            campoCsv(linea, rs.getString(i + 1));
+                        }
+                    } else {
+                        // El precio se escribe como número y el resto de columnas como texto
+                        Map<String, Object> fila = new LinkedHashMap<>();
+                        for (int i = 0; i < columnas; i++) {
+                            fila.put(nombres[i], "precio".equals(nombres[i]) ? rs.getBigDecimal(i + 1) : rs.getString(i + 1));
+                        }
+                        Json.escribir(linea, fila);
+                    }
+                    linea.append('\n');
+                    escritor.escribir(linea);
+
+                    filas++;
+                    if (filas % FILAS_PROGRESO == 0) {
+                        log.info("Exportadas {} filas", filas);
+                    }
+                }
+            }
+        }
+        escritor.vaciar();
+        return filas;
+    }
+
+    /**
+     * Escribe un campo CSV, entrecomillándolo si contiene separadores, comillas o saltos de línea.
+     */
+    private static void campoCsv(StringBuilder linea, String valor) {
+        if (valor == null) {
+            return;
+        }
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            linea.append(valor);
+            return;
+        }
+        linea.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"') {
+                linea.append('"');
+            }
+            linea.append(c);
+        }
+        linea.append('"');
+    }
+
+    /**
+     * Escritor UTF-8 sobre un canal NIO con un buffer directo de tamaño fijo reutilizado.
+     */
+    private static class EscritorNio {
+        private final WritableByteChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANO_BUFFER);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        EscritorNio(WritableByteChannel canal) {
+            this.canal = canal;
+        }
+
+        void escribir(CharSequence texto) throws IOException {
+            CharBuffer caracteres = CharBuffer.wrap(texto);
+            while (true) {
+                CoderResult resultado = encoder.encode(caracteres, buffer, true);
+                if (resultado.isOverflow()) {
+                    volcar();
+                } else if (resultado.isError()) {
+                    resultado.throwException();
+                } else {
+                    break;
+                }
+            }
+            encoder.reset();
+        }
+
+        void vaciar() throws IOException {
+            volcar();
+        }
+
+        private void volcar() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Método principal que lanza la exportación.
+     *
+     * @param args Argumentos: host, base de datos, formato (csv o jsonl) y fichero de salida ("-" para la
+     *             salida estándar), seguidos opcionalmente de --desde=yyyy-MM-dd, --hasta=yyyy-MM-dd,
+     *             --provincia=NOMBRE y --combustible=NOMBRE.
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            log.error("Uso: ExportadorPrecios <host> <base de datos> <csv|jsonl> <fichero|-> " +
+                    "[--desde=yyyy-MM-dd] [--hasta=yyyy-MM-dd] [--provincia=NOMBRE] [--combustible=NOMBRE]");
+            return;
+        }
+        String host = args[0];
+        String database = args[1].isEmpty() ? DATABASE : args[1];
+        Formato formato = Formato.valueOf(args[2].toUpperCase());
+        String salida = args[3];
+
+        Map<String, String> opciones = new HashMap<>();
+        for (int i = 4; i < args.length; i++) {
+            String[] opcion = args[i].replaceFirst("^--", "").split("=", 2);
+            opciones.put(opcion[0], opcion.length > 1 ? opcion[1] : "");
+        }
+        LocalDate desde = opciones.containsKey("desde") ? LocalDate.parse(opciones.get("desde")) : null;
+        LocalDate hasta = opciones.containsKey("hasta") ? LocalDate.parse(opciones.get("hasta")) : null;
+
+        long inicio = System.nanoTime();
+        try (Connection conn = Almacen.crear(host, database).conectar();
+             WritableByteChannel destino = "-".equals(salida)
+                     ? Channels.newChannel(System.out)
+                     : FileChannel.open(Paths.get(salida), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long filas = new ExportadorPrecios(conn).exportar(destino, formato, desde, hasta,
+                    opciones.get("provincia"), opciones.get("combustible"));
+            log.info("Exportación terminada: {} filas en {} ms", filas, (System.nanoTime() - inicio) / 1_000_000);
+        } catch (Exception e) {
+            log.error("Error al exportar los precios", e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.lab1;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+
+/**
+ * Enum FormatoPrecio.
+ *
+ * <p>
+ * Formato en que precio_combustible guarda los precios: DECIMAL(5, 3) en la columna precio (el esquema
+ * de esquema_relacional.sql) o, con el almacenamiento compacto de esquema_compacto.sql, SMALLINT UNSIGNED
+ * en milésimas en la columna precio_milesimas, con precio como columna virtual. Las lecturas usan
+ * siempre la columna precio; solo las escrituras dependen del formato. precio_vigente guarda el precio
+ * en el mismo formato que precio_combustible.
+ * </p>
+ */
+public enum FormatoPrecio {
+    DECIMAL("precio"),
+    MILESIMAS("precio_milesimas");
+
+    private static final String SQL_DETECTAR =
+            "SELECT 1 FROM information_schema.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'precio_combustible' AND COLUMN_NAME = 'precio_milesimas'";
+
+    /**
+     * Mayor precio representable en milésimas con un SMALLINT UNSIGNED.
+     */
+    private static final int MAX_MILESIMAS = 65535;
+
+    private final String columna;
+
+    FormatoPrecio(String columna) {
+        this.columna = columna;
+    }
+
+    /**
+     * Detecta el formato de la tabla precio_combustible de la base de datos de la conexión.
+     *
+     * @param conn Conexión a la base de datos.
+     * @return Formato de los precios.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public static FormatoPrecio detectar(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_DETECTAR);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? MILESIMAS : DECIMAL;
+        }
+    }
+
+    /**
+     * Devuelve la columna en la que se escribe el precio.
+     *
+     * @return Nombre de la columna.
+     */
+    public String getColumna() {
+        return columna;
+    }
+
+    /**
+     * Devuelve la sentencia de inserción de un precio (estacion_id, combustible_id, precio, fecha_hora).
+     * Una observación ya guardada (misma estación, combustible y fecha_hora) se deja como está, de modo
+     * que varios importadores pueden cargar a la vez sin comprobarlo antes; a diferencia de INSERT
+     * IGNORE, un precio fuera de rango sigue siendo un error.
+     *
+     * @return Sentencia INSERT con cuatro parámetros.
+     */
+    public String sqlInsertar() {
+        return "INSERT INTO precio_combustible (estacion_id, combustible_id, " + columna + ", fecha_hora) VALUES (?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE fecha_hora = fecha_hora";
+    }
+
+    /**
+     * Devuelve la sentencia que mantiene precio_vigente (el último precio de cada estación y combustible)
+     * al guardar uno o varios precios, con los mismos parámetros que {@link #sqlInsertar()} por fila. Una
+     * observación anterior a la vigente no la sustituye, de modo que el orden de llegada no importa.
+     *
+     * @param filas Número de filas de la sentencia.
+     * @return Sentencia INSERT con cuatro parámetros por fila.
+     */
+    public String sqlActualizarVigentes(int filas) {
+        StringBuilder sql = new StringBuilder("INSERT INTO precio_vigente (estacion_id, combustible_id, ")
+                .append(columna).append(", fecha_hora) VALUES ");
+        for (int i = 0; i < filas; i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+        // El precio se asigna antes que fecha_hora: MySQL evalúa las asignaciones en orden
+        return sql.append(" ON DUPLICATE KEY UPDATE ").append(columna).append(" = CASE WHEN VALUES(fecha_hora) >= fecha_hora ")
+                .append("THEN VALUES(").append(columna).append(") ELSE ").append(columna).append(" END, ")
+                .append("fecha_hora = GREATEST(fecha_hora, VALUES(fecha_hora))").toString();
+    }
+
+    /**
+     * Devuelve la sentencia que rellena precio_vigente a partir del histórico de precio_combustible, para
+     * una base de datos anterior a la tabla o cargada sin mantenerla.
+     *
+     * @return Sentencia INSERT ... SELECT sin parámetros.
+     */
+    public String sqlReconstruirVigentes() {
+        return "INSERT INTO precio_vigente (estacion_id, combustible_id, " + columna + ", fecha_hora) " +
+                "SELECT pc.estacion_id, pc.combustible_id, pc." + columna + ", pc.fecha_hora " +
+                "FROM precio_combustible pc " +
+                "WHERE NOT EXISTS (SELECT 1 FROM precio_combustible pc2 " +
+                "WHERE pc2.estacion_id = pc.estacion_id AND pc2.combustible_id = pc.combustible_id " +
+                "AND pc2.fecha_hora > pc.fecha_hora)";
+    }
+
+    /**
+     * Asigna un precio a un parámetro de una sentencia de inserción en este formato.
+     *
+     * @param pstmt  Sentencia de inserción.
+     * @param indice Índice del parámetro.
+     * @param precio Precio en euros.
+     * @throws SQLException Si ocurre un error al asignar el parámetro o el precio no cabe en el formato
+     *                      (como haría MySQL en modo estricto con una columna DECIMAL).
+     */
+    public void asignar(PreparedStatement pstmt, int indice, double precio) throws SQLException {
+        if (this == MILESIMAS) {
+            try {
+                pstmt.setInt(indice, milesimas(precio));
+            } catch (IllegalArgumentException e) {
+                throw new SQLDataException(e.getMessage(), "22003", e);
+            }
+        } else {
+            pstmt.setDouble(indice, precio);
+        }
+    }
+
+    /**
+     * Convierte un precio en euros a milésimas, redondeando.
+     *
+     * @param precio Precio en euros.
+     * @return Precio en milésimas.
+     * @throws IllegalArgumentException Si el precio no cabe en un SMALLINT UNSIGNED.
+     */
+    public static int milesimas(double precio) {
+        long milesimas = Math.round(precio * 1000);
+        if (milesimas < 0 || milesimas > MAX_MILESIMAS) {
+            throw new IllegalArgumentException("Precio fuera del rango del almacenamiento compacto: " + precio);
+        }
+        return (int) milesimas;
+    }
+}
@@ -0,0 +1,237 @@
+package com.lab1;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Clase FuncionesH2.
+ *
+ * <p>
+ * Funciones de MySQL que usan las sentencias del proyecto y que H2 no tiene, implementadas en Java y
+ * registradas por {@link AlmacenH2} como alias (CREATE ALIAS). En H2 la ubicación de una estación se
+ * guarda como texto WKT canónico, "POINT(lon lat)" con las coordenadas sin ceros a la derecha, de modo
+ * que dos puntos iguales son cadenas iguales y la distancia se calcula aquí con la fórmula del
+ * haversine, con el mismo radio que ST_Distance_Sphere de MySQL.
+ * </p>
+ */
+public final class FuncionesH2 {
+
+    /**
+     * Radio de la Tierra en metros que usa por defecto ST_Distance_Sphere de MySQL.
+     */
+    static final double RADIO_TIERRA_M = 6370986;
+
+    private FuncionesH2() {
+    }
+
+    /**
+     * ST_PointFromText: normaliza el WKT de un punto (el SRID se ignora: siempre es 4326).
+     *
+     * @param wkt  Punto en formato WKT, "POINT(lon lat)".
+     * @param srid Sistema de referencia.
+     * @return Punto en formato WKT canónico.
+     */
+    public static String stPointFromText(String wkt, int srid) {
+        if (wkt == null) {
+            return null;
+        }
+        double[] punto = coordenadas(wkt);
+        return "POINT(" + canonica(punto[0]) + " " + canonica(punto[1]) + ")";
+    }
+
+    /**
+     * ST_PolyFromText: el polígono se usa tal cual (solo lo lee {@link #mbrContains}).
+     *
+     * @param wkt  Polígono en formato WKT.
+     * @param srid Sistema de referencia.
+     * @return El mismo polígono.
+     */
+    public static String stPolyFromText(String wkt, int srid) {
+        return wkt;
+    }
+
+    /**
+     * MBRContains: si un punto está dentro del rectángulo que envuelve un polígono.
+     *
+     * @param poligono Polígono en formato WKT.
+     * @param punto    Punto en formato WKT.
+     * @return Si el punto está dentro del rectángulo (incluido el borde).
+     */
+    public static Boolean mbrContains(String poligono, String punto) {
+        if (poligono == null || punto == null) {
+            return null;
+        }
+        double[] p = coordenadas(punto);
+        double lonMin = Double.POSITIVE_INFINITY;
+        double lonMax = Double.NEGATIVE_INFINITY;
+        double latMin = Double.POSITIVE_INFINITY;
+        double latMax = Double.NEGATIVE_INFINITY;
+        String vertices = poligono.substring(poligono.lastIndexOf('(') + 1, poligono.indexOf(')'));
+        for (String vertice : vertices.split(",")) {
+            String[] partes = vertice.trim().split("\\s+");
+            double lon = Double.parseDouble(partes[0]);
+            double lat = Double.parseDouble(partes[1]);
+            lonMin = Math.min(lonMin, lon);
+            lonMax = Math.max(lonMax, lon);
+            latMin = Math.min(latMin, lat);
+            latMax = Math.max(latMax, lat);
+        }
+        return p[0] >= lonMin && p[0] <= lonMax && p[1] >= latMin && p[1] <= latMax;
+    }
+
+    /**
+     * ST_AsText: la ubicación ya se guarda como WKT.
+     *
+     * @param punto Punto en formato WKT canónico.
+     * @return El mismo punto.
+     */
+    public static String stAsText(String punto) {
+        return punto;
+    }
+
+    /**
+     * ST_Equals de dos puntos.
+     *
+     * @param a Primer punto en formato WKT.
+     * @param b Segundo punto en formato WKT.
+     * @return Si los dos puntos tienen las mismas coordenadas.
+     */
+    public static Boolean stEquals(String a, String b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        double[] pa = coordenadas(a);
+        double[] pb = coordenadas(b);
+        return pa[0] == pb[0] && pa[1] == pb[1];
+    }
+
+    /**
+     * ST_Distance_Sphere: distancia en metros sobre la esfera entre dos puntos (lon, lat).
+     *
+     * @param a Primer punto en formato WKT.
+     * @param b Segundo punto en formato WKT.
+     * @return Distancia en metros.
+     */
+    public static Double stDistanceSphere(String a, String b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        double[] pa = coordenadas(a);
+        double[] pb = coordenadas(b);
+        return distanciaMetros(pa[0], pa[1], pb[0], pb[1]);
+    }
+
+    /**
+     * Distancia en metros sobre la esfera entre dos puntos, con el radio de ST_Distance_Sphere.
+     *
+     * @param lon1 Longitud del primer punto.
+     * @param lat1 Latitud del primer punto.
+     * @param lon2 Longitud del segundo punto.
+     * @param lat2 Latitud del segundo punto.
+     * @return Distancia en metros.
+     */
+    static double distanciaMetros(double lon1, double lat1, double lon2, double lat2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double senoLat = Math.sin((phi2 - phi1) / 2);
+        double senoLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double h = senoLat * senoLat + Math.cos(phi1) * Math.cos(phi2) * senoLon * senoLon;
+        return 2 * RADIO_TIERRA_M * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * DATE_FORMAT con los especificadores que usa el proyecto: %Y, %m, %d, %H, %i, %s y %%.
+     *
+     * @param fecha   Fecha y hora.
+     * @param formato Formato de MySQL.
+     * @return Fecha formateada.
+     */
+    public static String dateFormat(Timestamp fecha, String formato) {
+        if (fecha == null || formato == null) {
+            return null;
+        }
+        LocalDateTime f = fecha.toLocalDateTime();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < formato.length(); i++) {
+            char c = formato.charAt(i);
+            if (c != '%' || i + 1 == formato.length()) {
+                sb.append(c);
+                continue;
+            }
+            char especificador = formato.charAt(++i);
+            switch (especificador) {
+                case 'Y':
+                    sb.append(String.format("%04d", f.getYear()));
+                    break;
+                case 'm':
+                    sb.append(String.format("%02d", f.getMonthValue()));
+                    break;
+                case 'd':
+                    sb.append(String.format("%02d", f.getDayOfMonth()));
+                    break;
+                case 'H':
+                    sb.append(String.format("%02d", f.getHour()));
+                    break;
+                case 'i':
+                    sb.append(String.format("%02d", f.getMinute()));
+                    break;
+                case 's':
+                    sb.append(String.format("%02d", f.getSecond()));
+                    break;
+                default:
+                    sb.append(especificador);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * WEEKDAY: día de la semana, de 0 (lunes) a 6 (domingo).
+     *
+     * @param fecha Fecha.
+     * @return Día de la semana.
+     */
+    public static Integer weekday(Timestamp fecha) {
+        return fecha == null ? null : fecha.toLocalDateTime().getDayOfWeek().getValue() - 1;
+    }
+
+    /**
+     * Equivalente de {@link HorarioSemanal#PREDICADO_SQL_ABIERTO}: H2 no tiene ORD ni desplazamientos de
+     * bits en SQL.
+     *
+     * @param mapa          Mapa semanal del horario.
+     * @param posicionByte  Posición del byte, empezando en 1.
+     * @param bit           Bit dentro del byte.
+     * @return 1 si el bit está activo, 0 si no.
+     */
+    public static Integer horarioAbierto(byte[] mapa, int posicionByte, int bit) {
+        if (mapa == null || posicionByte < 1 || posicionByte > mapa.length) {
+            return null;
+        }
+        return (mapa[posicionByte - 1] >> bit) & 1;
+    }
+
+    /**
+     * Extrae las coordenadas (lon, lat) del WKT de un punto.
+     */
+    static double[] coordenadas(String wkt) {
+        int abre = wkt.indexOf('(');
+        int cierra = wkt.lastIndexOf(')');
+        if (abre < 0 || cierra < abre) {
+            throw new IllegalArgumentException("WKT de punto no válido: " + wkt);
+        }
+        String[] partes = wkt.substring(abre + 1, cierra).trim().split("\\s+");
+        if (partes.length != 2) {
+            throw new IllegalArgumentException("WKT de punto no válido: " + wkt);
+        }
+        return new double[]{Double.parseDouble(partes[0]), Double.parseDouble(partes[1])};
+    }
+
+    /**
+     * Representación canónica de una coordenada: sin ceros a la derecha ni notación científica.
+     */
+    private static String canonica(double coordenada) {
+        return BigDecimal.valueOf(coordenada).stripTrailingZeros().toPlainString();
+    }
+}
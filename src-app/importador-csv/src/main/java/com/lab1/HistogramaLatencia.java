@@ -0,0 +1,129 @@
+package com.lab1;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Clase HistogramaLatencia.
+ *
+ * <p>
+ * Histograma de latencias con cubetas log-lineales, al estilo de HdrHistogram: los valores
+ * (en microsegundos) por debajo de 64 se registran exactos y, a partir de ahí, cada potencia de
+ * dos se divide en 32 cubetas, lo que da un error relativo inferior al 3% con memoria constante.
+ * Es seguro para registrar desde varios hilos a la vez sin bloqueos.
+ * </p>
+ */
+public class HistogramaLatencia {
+
+    private static final int VALORES_EXACTOS = 64;
+    private static final int SUBCUBETAS_BITS = 5;
+    private static final int SUBCUBETAS = 1 << SUBCUBETAS_BITS;
+    private static final int MAGNITUD_MAXIMA = 40;
+
+    /**
+     * Número total de cubetas: 64 exactas más 32 por cada potencia de dos entre 2^6 y 2^40.
+     */
+    private static final int NUM_CUBETAS = VALORES_EXACTOS + (MAGNITUD_MAXIMA - 6 + 1) * SUBCUBETAS;
+
+    private final AtomicLongArray cubetas = new AtomicLongArray(NUM_CUBETAS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumaMicros = new AtomicLong();
+    private final AtomicLong maximoMicros = new AtomicLong();
+
+    /**
+     * Registra una latencia medida en nanosegundos.
+     *
+     * @param nanos Duración en nanosegundos.
+     */
+    public void registrarNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        cubetas.incrementAndGet(indice(micros));
+        total.incrementAndGet();
+        sumaMicros.addAndGet(micros);
+        long maximo;
+        while (micros > (maximo = maximoMicros.get())) {
+            if (maximoMicros.compareAndSet(maximo, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Devuelve el número de valores registrados.
+     *
+     * @return Número de valores registrados.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Calcula el percentil indicado en milisegundos.
+     *
+     * @param percentil Percentil entre 0 y 100.
+     * @return Valor aproximado del percentil en milisegundos, o 0 si no hay valores.
+     */
+    public double percentilMs(double percentil) {
+        long n = total.get();
+        if (n == 0) {
+            return 0.0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(n * percentil / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < NUM_CUBETAS; i++) {
+            acumulado += cubetas.get(i);
+            if (acumulado >= objetivo) {
+                return Math.min(valorRepresentativo(i), maximoMicros.get()) / 1000.0;
+            }
+        }
+        return maximoMicros.get() / 1000.0;
+    }
+
+    /**
+     * Devuelve un resumen del histograma (total, media, p50, p90, p99 y máximo en milisegundos).
+     *
+     * @return Mapa con el resumen, en un orden estable para su serialización.
+     */
+    public Map<String, Object> resumen() {
+        long n = total.get();
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        resumen.put("total", n);
+        resumen.put("media_ms", n == 0 ? 0.0 : sumaMicros.get() / 1000.0 / n);
+        resumen.put("p50_ms", percentilMs(50));
+        resumen.put("p90_ms", percentilMs(90));
+        resumen.put("p99_ms", percentilMs(99));
+        resumen.put("max_ms", maximoMicros.get() / 1000.0);
+        return resumen;
+    }
+
+    /**
+     * Calcula la cubeta correspondiente a un valor en microsegundos.
+     */
+    private static int indice(long micros) {
+        if (micros < VALORES_EXACTOS) {
+            return (int) micros;
+        }
+        int magnitud = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitud > MAGNITUD_MAXIMA) {
+            return NUM_CUBETAS - 1;
+        }
+        int sub = (int) (micros >>> (magnitud - SUBCUBETAS_BITS)) & (SUBCUBETAS - 1);
+        return VALORES_EXACTOS + (magnitud - 6) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * Devuelve el punto medio de una cubeta en microsegundos.
+     */
+    private static long valorRepresentativo(int indice) {
+        if (indice < VALORES_EXACTOS) {
+            return indice;
+        }
+        int magnitud = (indice - VALORES_EXACTOS) / SUBCUBETAS + 6;
+        int sub = (indice - VALORES_EXACTOS) % SUBCUBETAS;
+        long ancho = 1L << (magnitud - SUBCUBETAS_BITS);
+        long inferior = (1L << magnitud) + sub * ancho;
+        return inferior + ancho / 2;
+    }
+}
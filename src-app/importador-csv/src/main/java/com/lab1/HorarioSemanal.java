@@ -0,0 +1,167 @@
+package com.lab1;
+
+import java.time.LocalDateTime;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Clase HorarioSemanal.
+ *
+ * <p>
+ * Convierte las descripciones de horario del fichero de precios (por ejemplo
+ * "L-V: 08:00-13:30 y 15:30-19:30; S: 09:00-13:00" o "L-D: 24H") en un mapa de bits semanal con un
+ * bit por franja de 15 minutos: 7 días x 96 franjas = 672 bits, guardados en 84 bytes en la columna
+ * horario.horario_semanal. Así, saber si una estación está abierta en un instante es comprobar un bit,
+ * tanto en memoria como en SQL, en lugar de interpretar el texto en cada fila.
+ * </p>
+ *
+ * <p>
+ * Los bits se numeran desde el lunes a las 00:00; el bit i está en el byte i / 8, posición i % 8
+ * (empezando por el menos significativo). Una franja se marca como abierta solo si la estación está
+ * abierta durante toda ella: la apertura se redondea al alza y el cierre a la baja a la franja, de modo
+ * que una estación cerrada nunca se da por abierta, a costa de darla por cerrada hasta 14 minutos
+ * después de abrir o antes de cerrar si el horario no cae en un cuarto de hora.
+ * </p>
+ */
+public final class HorarioSemanal {
+
+    /**
+     * Minutos por franja.
+     */
+    public static final int MINUTOS_FRANJA = 15;
+
+    /**
+     * Franjas por día.
+     */
+    public static final int FRANJAS_DIA = 24 * 60 / MINUTOS_FRANJA;
+
+    /**
+     * Tamaño del mapa de bits en bytes.
+     */
+    public static final int TAMANO_BYTES = 7 * FRANJAS_DIA / 8;
+
+    /**
+     * Predicado SQL "abierto en el instante" sobre el alias h de la tabla horario. Recibe como
+     * parámetros la posición del byte (desde 1) y la del bit, obtenidas con {@link #posicionByte}
+     * y {@link #posicionBit}.
+     */
+    public static final String PREDICADO_SQL_ABIERTO = "((ORD(SUBSTRING(h.horario_semanal, ?, 1)) >> ?) & 1) = 1";
+
+    private static final String DIAS = "LMXJVSD";
+    private static final Pattern TRAMO = Pattern.compile("^\\s*([LMXJVSD])(?:\\s*-\\s*([LMXJVSD]))?\\s*:\\s*(.+)$");
+    private static final Pattern RANGO = Pattern.compile("^\\s*(\\d{1,2}):(\\d{2})\\s*-\\s*(\\d{1,2}):(\\d{2})\\s*$");
+    private static final Pattern ABIERTO_24H = Pattern.compile("^\\s*24\\s*H\\s*$", Pattern.CASE_INSENSITIVE);
+
+    private HorarioSemanal() {
+    }
+
+    /**
+     * Convierte una descripción de horario en su mapa de bits semanal.
+     *
+     * @param descripcion Descripción del horario.
+     * @return Mapa de bits de {@link #TAMANO_BYTES} bytes, o null si la descripción no se puede interpretar.
+     */
+    public static byte[] parse(String descripcion) {
+        if (descripcion == null || descripcion.trim().isEmpty()) {
+            return null;
+        }
+        byte[] mapa = new byte[TAMANO_BYTES];
+        for (String tramo : descripcion.split(";")) {
+            if (tramo.trim().isEmpty()) {
+                continue;
+            }
+            Matcher m = TRAMO.matcher(tramo);
+            if (!m.matches()) {
+                return null;
+            }
+            int primerDia = DIAS.indexOf(m.group(1).charAt(0));
+            int ultimoDia = m.group(2) != null ? DIAS.indexOf(m.group(2).charAt(0)) : primerDia;
+            // Los intervalos de días pueden dar la vuelta a la semana (por ejemplo "S-L")
+            int numDias = Math.floorMod(ultimoDia - primerDia, 7) + 1;
+
+            for (String rango : m.group(3).split("\\s+y\\s+")) {
+                int inicio;
+                int fin;
+                if (ABIERTO_24H.matcher(rango).matches()) {
+                    inicio = 0;
+                    fin = 24 * 60;
+                } else {
+                    Matcher r = RANGO.matcher(rango);
+                    if (!r.matches()) {
+                        return null;
+                    }
+                    inicio = Integer.parseInt(r.group(1)) * 60 + Integer.parseInt(r.group(2));
+                    fin = Integer.parseInt(r.group(3)) * 60 + Integer.parseInt(r.group(4));
+                    if (inicio > 24 * 60 || fin > 24 * 60) {
+                        return null;
+                    }
+                    // 23:59 se interpreta como fin del día y un cierre anterior a la apertura
+                    // (por ejemplo 22:00-06:00 o 06:00-00:00) como un cierre al día siguiente
+                    if (fin == 23 * 60 + 59) {
+                        fin = 24 * 60;
+                    } else if (fin <= inicio) {
+                        fin += 24 * 60;
+                    }
+                }
+                for (int d = 0; d < numDias; d++) {
+                    marcar(mapa, (primerDia + d) % 7, inicio, fin);
+                }
+            }
+        }
+        return mapa;
+    }
+
+    /**
+     * Marca como abiertas las franjas de un día contenidas enteras entre dos minutos (el fin puede pasar
+     * al día siguiente).
+     */
+    private static void marcar(byte[] mapa, int dia, int minutoInicio, int minutoFin) {
+        int primera = dia * FRANJAS_DIA + (minutoInicio + MINUTOS_FRANJA - 1) / MINUTOS_FRANJA;
+        int ultima = dia * FRANJAS_DIA + minutoFin / MINUTOS_FRANJA;
+        for (int franja = primera; franja < ultima; franja++) {
+            int bit = franja % (7 * FRANJAS_DIA);
+            mapa[bit >> 3] |= (byte) (1 << (bit & 7));
+        }
+    }
+
+    /**
+     * Indica si un horario está abierto en un instante.
+     *
+     * @param mapa     Mapa de bits semanal, o null si el horario es desconocido.
+     * @param instante Instante a comprobar.
+     * @return true si está abierto; false si está cerrado o el horario es desconocido.
+     */
+    public static boolean estaAbierto(byte[] mapa, LocalDateTime instante) {
+        if (mapa == null) {
+            return false;
+        }
+        int bit = indiceBit(instante);
+        return (mapa[bit >> 3] & (1 << (bit & 7))) != 0;
+    }
+
+    /**
+     * Devuelve la posición (desde 1, como SUBSTRING de SQL) del byte que contiene el bit de un instante.
+     *
+     * @param instante Instante a comprobar.
+     * @return Posición del byte.
+     */
+    public static int posicionByte(LocalDateTime instante) {
+        return (indiceBit(instante) >> 3) + 1;
+    }
+
+    /**
+     * Devuelve la posición del bit de un instante dentro de su byte.
+     *
+     * @param instante Instante a comprobar.
+     * @return Posición del bit (0 a 7).
+     */
+    public static int posicionBit(LocalDateTime instante) {
+        return indiceBit(instante) & 7;
+    }
+
+    private static int indiceBit(LocalDateTime instante) {
+        int dia = instante.getDayOfWeek().getValue() - 1;
+        int franja = (instante.getHour() * 60 + instante.getMinute()) / MINUTOS_FRANJA;
+        return dia * FRANJAS_DIA + franja;
+    }
+}
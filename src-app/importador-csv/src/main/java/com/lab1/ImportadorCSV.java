@@ -3,10 +3,15 @@ package com.lab1;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
 import lombok.extern.slf4j.Slf4j;
@@ -60,21 +65,115 @@ public class ImportadorCSV {
     private static PreparedStatement insertEstacionServicioStmt;
     private static PreparedStatement selectCombustibleStmt;
     private static PreparedStatement insertCombustibleStmt;
-    private static PreparedStatement selectPrecioCombustibleStmt;
     private static PreparedStatement insertPrecioCombustibleStmt;
+    private static PreparedStatement actualizarPrecioVigenteStmt;
 
-    // Mapas para cachear IDs y evitar consultas redundantes
+    /**
+     * Presupuesto en MB de las cachés de las dimensiones que crecen con el volumen de datos (municipios,
+     * localidades, códigos postales y estaciones). Con un valor positivo se guardan fuera del heap con
+     * ese límite (ver {@link CacheIdsOffHeap}); con 0, el valor por defecto, en HashMaps sin límite.
+     * Se configura con IMPORTADOR_CACHE_MB.
+     */
+    private static final int CACHE_MB =
+            Integer.parseInt(System.getenv().getOrDefault("IMPORTADOR_CACHE_MB", "0"));
+
+    // Cachés de IDs para evitar consultas redundantes
+
+    private static CacheIds provinciaCache = new CacheIdsHeap("provincia");
+    private static CacheIds municipioCache = crearCache("municipio", 10);
+    private static CacheIds localidadCache = crearCache("localidad", 20);
+    private static CacheIds codigoPostalCache = crearCache("codigo_postal", 20);
+    private static CacheIds margenCache = new CacheIdsHeap("margen");
+    private static CacheIds horarioCache = new CacheIdsHeap("horario");
+    private static CacheIds marcaCache = new CacheIdsHeap("marca");
+    private static CacheIds tipoEstacionCache = new CacheIdsHeap("tipo_estacion");
+    private static CacheIds combustibleCache = new CacheIdsHeap("tipo_combustible");
+    private static CacheIds estacionServicioCache = crearCache("estacion_servicio", 50);
+
+    /**
+     * Modo de almacenamiento de solo cambios: un precio solo se inserta cuando difiere del último
+     * observado para la misma estación y combustible, de modo que cada fila de precio_combustible es
+     * válida desde su fecha_hora hasta la siguiente. Se activa con IMPORTADOR_SOLO_CAMBIOS=true.
+     */
+    private static final boolean SOLO_CAMBIOS =
+            Boolean.parseBoolean(System.getenv().getOrDefault("IMPORTADOR_SOLO_CAMBIOS", "false"));
+
+    /**
+     * Formato de la columna "Toma de datos".
+     */
+    private static final DateTimeFormatter FORMATO_TOMA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Fecha en el nombre de un fichero, por ejemplo preciosEESS_es_2024-11-20.csv.
+     */
+    private static final Pattern FECHA_NOMBRE = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})");
+
+    /**
+     * Modo de importación en pipeline: el análisis del CSV y la escritura de precios se ejecutan en
+     * hilos distintos unidos por un buffer circular acotado (ver {@link PipelineImportacion}).
+     * Se activa con IMPORTADOR_PIPELINE=true. Cada lote se confirma por separado, así que si la
+     * importación falla sin IMPORTADOR_SOMBRA, los lotes ya escritos quedan en las tablas en uso.
+     */
+    private static final boolean PIPELINE =
+            Boolean.parseBoolean(System.getenv().getOrDefault("IMPORTADOR_PIPELINE", "false"));
+
+    /**
+     * Modo de importación en la sombra: la importación escribe en copias *_nueva de las tablas, que se
+     * publican al final con un único RENAME TABLE (ver {@link EsquemaSombra}), sin que las consultas
+     * compitan con ella. Se activa con IMPORTADOR_SOMBRA=true.
+     */
+    private static final boolean SOMBRA =
+            Boolean.parseBoolean(System.getenv().getOrDefault("IMPORTADOR_SOMBRA", "false"));
+
+    /**
+     * Sufijo de las tablas en las que escribe la importación: vacío, o {@link EsquemaSombra#SUFIJO_NUEVA}
+     * en el modo de importación en la sombra.
+     */
+    private static String sufijoTablas = "";
+
+    /**
+     * Pipeline de escritura de precios, o null si los precios se insertan en el propio hilo.
+     */
+    private static PipelineImportacion pipeline;
+
+    /**
+     * Tablas en la sombra de la importación, o null si se escribe directamente en las tablas en uso.
+     */
+    private static EsquemaSombra sombra;
+
+    /**
+     * Último precio observado por (estacion_id, combustible_id), usado en el modo de solo cambios.
+     */
+    private static UltimoPrecioMap ultimoPrecioMap = new UltimoPrecioMap(1 << 16);
+
+    /**
+     * Observaciones descartadas en el modo de solo cambios por ser anteriores a la última ya procesada
+     * del mismo par, desde el arranque.
+     */
+    private static long observacionesFueraDeOrden;
+
+    /**
+     * Formato en que precio_combustible guarda los precios (ver {@link FormatoPrecio}).
+     */
+    private static FormatoPrecio formatoPrecio = FormatoPrecio.DECIMAL;
+
+    /**
+     * Dialecto SQL del motor de la conexión (ver {@link Almacen}).
+     */
+    private static Dialecto dialecto = Dialecto.MYSQL;
+
+    /**
+     * Rango de fechas de las observaciones leídas cuyos agregados (ver {@link RollupPrecios}) aún no se han
+     * recalculado, o null si no hay ninguno.
+     */
+    private static LocalDateTime agregadosDesde;
+    private static LocalDateTime agregadosHasta;
 
-    private static Map<String, Integer> provinciaCache = new HashMap<>();
-    private static Map<String, Integer> municipioCache = new HashMap<>();
-    private static Map<String, Integer> localidadCache = new HashMap<>();
-    private static Map<String, Integer> codigoPostalCache = new HashMap<>();
-    private static Map<String, Integer> margenCache = new HashMap<>();
-    private static Map<String, Integer> horarioCache = new HashMap<>();
-    private static Map<String, Integer> marcaCache = new HashMap<>();
-    private static Map<String, Integer> tipoEstacionCache = new HashMap<>();
-    private static Map<String, Integer> combustibleCache = new HashMap<>();
-    private static Map<String, Integer> estacionServicioCache = new HashMap<>();
+    /**
+     * Consultas permanentes que se reevalúan tras cada lote (ver {@link ConsultasPermanentes}), o null si
+     * la base de datos no tiene la tabla consulta_permanente.
+     */
+    private static ConsultasPermanentes consultasPermanentes;
 
     /**
      * Método principal que inicia la importación de los archivos CSV a la base de datos.
@@ -87,127 +186,485 @@ public class ImportadorCSV {
             String host = args.length > 0 ? args[0] : "localhost";
             String database = args.length > 1 ? args[1] : DATABASE;
 
-            // Crear una instancia de MySqlConnector facilitado por el profesor
-            MySqlConnector mySqlConnector = new MySqlConnector(host, database);
-            conn = mySqlConnector.getConnection();
+            // Crear el almacén del motor configurado en MOTOR_BD (MySQL por defecto o H2 embebido)
+            Almacen almacen = Almacen.crear(host, database);
+
+            Connection conexion = almacen.conectar();
+
+            // En modo sombra, copiar las tablas en uso en las tablas *_nueva en las que se importará
+            if (SOMBRA) {
+                if (almacen.getDialecto() != Dialecto.MYSQL) {
+                    throw new IllegalStateException("El modo sombra (IMPORTADOR_SOMBRA) solo está disponible con MySQL");
+                }
+                sombra = new EsquemaSombra(conexion);
+                sombra.preparar();
+                sufijoTablas = EsquemaSombra.SUFIJO_NUEVA;
+            }
 
-            // Preparar los PreparedStatements
-            prepareStatements();
+            // Preparar los PreparedStatements y las cachés sobre la conexión
+            inicializar(conexion);
 
-            // Desactivar auto-commit para controlar manualmente las transacciones
-            conn.setAutoCommit(false);
+            // En modo pipeline, los precios se escriben en un hilo con su propia conexión
+            if (PIPELINE) {
+                if (sombra == null) {
+                    log.warn("Modo pipeline sin IMPORTADOR_SOMBRA: si la importación falla, los lotes ya escritos " +
+                            "quedarán confirmados en las tablas en uso");
+                }
+                pipeline = new PipelineImportacion(conn, almacen.conectar(), 4, 20000, sufijoTablas);
+                pipeline.iniciar();
+            }
 
             // Obtener la lista de archivos CSV en el directorio especificado
             File folder = new File(CSV_DIRECTORY);
             File[] listOfFiles = folder.listFiles((dir, name) -> name.endsWith(".csv"));
 
             if (listOfFiles != null) {
-                for (File file : listOfFiles) {
-                    if (file.isFile()) {
-                        log.info("Procesando archivo CSV: {}", file.getName());
-                        processCSVFile(file);
+                // Importar en orden cronológico: el modo de solo cambios descarta lo anterior a lo ya visto
+                for (File file : ordenarFicheros(Arrays.asList(listOfFiles))) {
+                    // En modo pipeline un lote fallido aborta el pipeline: la importación no puede seguir
+                    if (file.isFile() && !importarFichero(file) && pipeline != null) {
+                        throw new SQLException("Importación en pipeline abortada por un error en el archivo " + file.getName());
                     }
                 }
+                // Esperar a que el pipeline vuelque los últimos precios
+                if (pipeline != null) {
+                    pipeline.cerrar();
+                }
+                // Recalcular los agregados de las horas y días importados en la misma transacción
+                actualizarAgregados();
                 // Confirmar transacción después de procesar todos los archivos
                 conn.commit();
+                confirmado();
                 conn.setAutoCommit(true);
+                // Publicar de una vez las tablas importadas en la sombra
+                if (sombra != null) {
+                    sombra.publicar();
+                }
             } else {
                 log.warn("No se encontraron archivos CSV en el directorio {}", CSV_DIRECTORY);
             }
 
-            // Cerrar los PreparedStatements
-            closeStatements();
-
-            // Cerrar la conexión a la base de datos
-            conn.close();
+            // Cerrar los PreparedStatements y la conexión a la base de datos
+            finalizar();
         } catch (Exception e) {
             log.error("Error al importar archivos CSV", e);
+            if (pipeline != null) {
+                pipeline.abortar();
+            }
             try {
                 if (conn != null && !conn.isClosed()) {
                     conn.rollback();
-                    log.info("Transacción revertida debido a un error.");
+                    if (pipeline != null && sombra == null) {
+                        log.warn("Transacción en curso revertida; los lotes del pipeline ya publicados siguen confirmados");
+                    } else {
+                        log.info("Transacción revertida debido a un error.");
+                    }
                 }
             } catch (SQLException rollbackEx) {
                 log.error("Error al hacer rollback de la transacción", rollbackEx);
             }
+            // Las tablas en uso no se han modificado: basta con descartar las de la sombra
+            if (sombra != null) {
+                try {
+                    sombra.descartar();
+                } catch (SQLException descartarEx) {
+                    log.error("Error al descartar las tablas en la sombra", descartarEx);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepara el importador sobre una conexión: crea los PreparedStatements reutilizables, precarga
+     * los datos necesarios según el modo y desactiva el auto-commit. Las cachés y los statements se
+     * mantienen entre ficheros hasta llamar a {@link #finalizar()}.
+     *
+     * @param conexion Conexión a la base de datos.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    static void inicializar(Connection conexion) throws SQLException {
+        conn = conexion;
+        dialecto = Dialecto.de(conn);
+
+        // Formato de los precios: DECIMAL o, con el almacenamiento compacto, milésimas
+        formatoPrecio = FormatoPrecio.detectar(conn);
+        log.info("Formato de precios de precio_combustible: {}", formatoPrecio);
+
+        // Preparar los PreparedStatements
+        prepareStatements();
+
+        // Rellenar precio_vigente si la base de datos tiene precios anteriores a la tabla
+        reconstruirPreciosVigentes();
+
+        // En el modo de solo cambios, precargar el último precio de cada estación y combustible
+        if (SOLO_CAMBIOS) {
+            cargarUltimosPrecios();
+        }
+
+        // Desactivar auto-commit para controlar manualmente las transacciones
+        conn.setAutoCommit(false);
+
+        // Cargar las consultas permanentes, cuyos cambios se guardan ya en la transacción de la importación;
+        // tras una reconexión se reutilizan, con sus oyentes, sobre la conexión nueva
+        if (ConsultasPermanentes.existeTabla(conn)) {
+            if (consultasPermanentes == null) {
+                consultasPermanentes = new ConsultasPermanentes(conn, sufijoTablas);
+            } else {
+                consultasPermanentes.usarConexion(conn);
+            }
+            consultasPermanentes.cargar();
         }
     }
 
+    /**
+     * Devuelve las consultas permanentes del importador, para registrar oyentes de sus cambios.
+     *
+     * @return Consultas permanentes, o null si la base de datos no las tiene.
+     */
+    static ConsultasPermanentes getConsultasPermanentes() {
+        return consultasPermanentes;
+    }
+
+    /**
+     * Avisa de que se ha confirmado la transacción en curso: los oyentes de las consultas permanentes
+     * reciben los cambios de resultado que contenía.
+     */
+    static void confirmado() {
+        if (consultasPermanentes != null) {
+            consultasPermanentes.confirmar();
+        }
+    }
+
+    /**
+     * Vuelve a cargar, después de revertir la transacción en curso, el estado en memoria que refleja lo
+     * guardado: las cachés de IDs (que pueden tener IDs de filas revertidas), los últimos precios del
+     * modo de solo cambios y las consultas permanentes.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    static void revertido() throws SQLException {
+        limpiarCaches();
+        agregadosDesde = null;
+        agregadosHasta = null;
+        if (SOLO_CAMBIOS) {
+            cargarUltimosPrecios();
+        }
+        if (consultasPermanentes != null) {
+            consultasPermanentes.cargar();
+        }
+    }
+
+    /**
+     * Devuelve los ficheros en orden de importación: por la fecha de la instantánea que contienen, la
+     * "Toma de datos" más reciente de sus registros, y por nombre a igual fecha. A diferencia de la fecha
+     * de modificación, no cambia al copiar, descomprimir o sincronizar los ficheros. Un fichero sin
+     * registros con fecha se ordena por la fecha de su nombre o, si no la tiene, por la de modificación.
+     *
+     * @param ficheros Ficheros CSV a importar.
+     * @return Lista nueva con los ficheros ordenados.
+     */
+    static List<File> ordenarFicheros(Collection<File> ficheros) {
+        Map<File, LocalDateTime> fechas = new HashMap<>();
+        for (File fichero : ficheros) {
+            fechas.put(fichero, fechaInstantanea(fichero));
+        }
+        List<File> ordenados = new ArrayList<>(ficheros);
+        ordenados.sort(Comparator.comparing((File fichero) -> fechas.get(fichero)).thenComparing(File::getName));
+        return ordenados;
+    }
+
+    /**
+     * Devuelve la fecha de la instantánea de un fichero (ver {@link #ordenarFicheros(Collection)}).
+     */
+    private static LocalDateTime fechaInstantanea(File fichero) {
+        LocalDateTime ultima = null;
+        try (CSVReader csvReader = new CSVReader(new InputStreamReader(new FileInputStream(fichero), StandardCharsets.UTF_8))) {
+            String[] headers = csvReader.readNext();
+            int columnaToma = -1;
+            for (int i = 0; headers != null && i < headers.length; i++) {
+                if (headers[i].trim().equals("Toma de datos")) {
+                    columnaToma = i;
+                }
+            }
+            String[] data;
+            while (columnaToma >= 0 && (data = csvReader.readNext()) != null) {
+                if (data.length <= columnaToma) {
+                    continue;
+                }
+                try {
+                    LocalDateTime toma = LocalDateTime.parse(data[columnaToma].trim(), FORMATO_TOMA);
+                    if (ultima == null || toma.isAfter(ultima)) {
+                        ultima = toma;
+                    }
+                } catch (DateTimeParseException e) {
+                    // El registro fallará al importarlo; no cuenta para la fecha del fichero
+                }
+            }
+        } catch (IOException | CsvValidationException e) {
+            log.warn("No se pudo leer la fecha de la instantánea del archivo {}", fichero.getName(), e);
+        }
+        if (ultima != null) {
+            return ultima;
+        }
+        Matcher m = FECHA_NOMBRE.matcher(fichero.getName());
+        if (m.find()) {
+            return LocalDate.parse(m.group(1)).atStartOfDay();
+        }
+        return LocalDateTime.ofEpochSecond(fichero.lastModified() / 1000, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Importa un fichero CSV dentro de la transacción en curso, sin confirmarla.
+     *
+     * @param file El archivo CSV a importar.
+     * @return true si todos los registros se procesaron sin errores.
+     */
+    static boolean importarFichero(File file) {
+        try (InputStream contenido = new FileInputStream(file)) {
+            return importarFichero(file.getName(), contenido);
+        } catch (IOException e) {
+            log.error("Error al leer el archivo CSV: {}", file.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Importa el contenido de un fichero CSV dentro de la transacción en curso, sin confirmarla. Permite
+     * importar exactamente los bytes ya leídos por quien llama, por ejemplo para calcular su huella.
+     *
+     * @param nombre     Nombre del archivo, para los mensajes.
+     * @param contenido  Contenido del archivo en UTF-8; se lee entero y se cierra.
+     * @return true si todos los registros se procesaron sin errores.
+     */
+    static boolean importarFichero(String nombre, InputStream contenido) {
+        log.info("Procesando archivo CSV: {}", nombre);
+        long fueraDeOrden = observacionesFueraDeOrden;
+        boolean correcto = processCSV(nombre, contenido);
+        if (observacionesFueraDeOrden > fueraDeOrden) {
+            log.warn("Descartadas {} observaciones del archivo {} anteriores a las ya importadas de la misma estación y combustible",
+                    observacionesFueraDeOrden - fueraDeOrden, nombre);
+        }
+        return correcto;
+    }
+
+    /**
+     * Devuelve el número de observaciones descartadas en el modo de solo cambios por llegar fuera de
+     * orden cronológico, desde el arranque.
+     *
+     * @return Número de observaciones descartadas.
+     */
+    static long getObservacionesFueraDeOrden() {
+        return observacionesFueraDeOrden;
+    }
+
+    /**
+     * Recalcula, dentro de la transacción en curso, los agregados de precios de los días con
+     * observaciones leídas desde la última llamada. En modo pipeline debe llamarse después de cerrar el pipeline,
+     * cuando todos los precios están escritos.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    static void actualizarAgregados() throws SQLException {
+        if (agregadosDesde == null) {
+            return;
+        }
+        // Desde la última hora agregada, para que las horas sin observaciones entre dos ficheros reciban
+        // los precios vigentes, y al menos hasta ella, para no recortar los agregados de un día ya completo
+        RollupPrecios rollup = new RollupPrecios(conn, sufijoTablas);
+        LocalDateTime desde = agregadosDesde;
+        LocalDateTime hasta = agregadosHasta;
+        LocalDateTime ultimaHora = rollup.ultimaHoraAgregada();
+        if (ultimaHora != null && ultimaHora.isBefore(desde)) {
+            desde = ultimaHora;
+        }
+        if (ultimaHora != null && ultimaHora.isAfter(hasta)) {
+            hasta = ultimaHora;
+        }
+        rollup.reagregar(desde, hasta);
+        agregadosDesde = null;
+        agregadosHasta = null;
+    }
+
+    /**
+     * Cierra los PreparedStatements y la conexión del importador.
+     *
+     * @throws SQLException Si ocurre un error al cerrar los recursos.
+     */
+    static void finalizar() throws SQLException {
+        for (CacheIds cache : cachesDimensiones()) {
+            log.info(cache.resumen());
+        }
+        closeStatements();
+        conn.close();
+    }
+
+    /**
+     * Vacía las cachés de IDs de las dimensiones. Hay que llamarlo cuando una transacción se revierte o
+     * se pierde, porque las cachés guardan también los IDs de las filas insertadas en ella.
+     */
+    static void limpiarCaches() {
+        for (CacheIds cache : cachesDimensiones()) {
+            cache.clear();
+        }
+    }
+
+    private static List<CacheIds> cachesDimensiones() {
+        return Arrays.asList(provinciaCache, municipioCache, localidadCache, codigoPostalCache,
+                margenCache, horarioCache, marcaCache, tipoEstacionCache, combustibleCache, estacionServicioCache);
+    }
+
+    /**
+     * Crea la caché de una dimensión grande: fuera del heap con el porcentaje indicado del presupuesto
+     * {@link #CACHE_MB}, o en el heap si no hay presupuesto.
+     */
+    private static CacheIds crearCache(String nombre, int porcentajePresupuesto) {
+        if (CACHE_MB <= 0) {
+            return new CacheIdsHeap(nombre);
+        }
+        return new CacheIdsOffHeap(nombre, CACHE_MB * 1024L * 1024L * porcentajePresupuesto / 100);
+    }
+
+    /**
+     * Prepara una sentencia sobre las tablas en las que escribe la importación (ver {@link #sufijoTablas}),
+     * adaptada al dialecto del motor.
+     */
+    private static PreparedStatement preparar(String sql) throws SQLException {
+        return conn.prepareStatement(dialecto.adaptar(EsquemaSombra.enTablas(sql, sufijoTablas)));
+    }
+
+    private static PreparedStatement preparar(String sql, int autoGeneratedKeys) throws SQLException {
+        return conn.prepareStatement(dialecto.adaptar(EsquemaSombra.enTablas(sql, sufijoTablas)), autoGeneratedKeys);
+    }
+
+    private static PreparedStatement preparar(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return conn.prepareStatement(dialecto.adaptar(EsquemaSombra.enTablas(sql, sufijoTablas)), resultSetType, resultSetConcurrency);
+    }
+
+    /**
+     * Cláusula que, al insertar una fila cuya clave natural ya existe, deja su ID en LAST_INSERT_ID() en
+     * lugar de fallar o de duplicarla.
+     */
+    private static String actualizarId(String columnaId) {
+        return " ON DUPLICATE KEY UPDATE " + columnaId + " = LAST_INSERT_ID(" + columnaId + ")";
+    }
+
+    /**
+     * Resuelve el ID de una fila de dimensión con la inserción de {@link #actualizarId(String)}: el driver
+     * de MySQL devuelve como clave generada tanto el ID de la fila insertada como el de la fila existente,
+     * en un solo viaje a la base de datos y sin carreras entre importadores concurrentes, porque la clave
+     * natural es única. Si el motor no devuelve la clave de la fila existente (H2), se busca con la
+     * consulta por clave natural. Los parámetros de las dos sentencias deben estar asignados.
+     *
+     * @param insert      Inserción con la cláusula de actualizarId.
+     * @param select      Consulta del ID por la clave natural.
+     * @param descripcion Descripción de la fila para el mensaje de error.
+     * @return ID de la fila.
+     * @throws SQLException Si ocurre un error en la base de datos o no se obtiene el ID.
+     */
+    private static int resolverId(PreparedStatement insert, PreparedStatement select, String descripcion) throws SQLException {
+        insert.executeUpdate();
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            if (keys.next()) {
+                return keys.getInt(1);
+            }
+        }
+        try (ResultSet rs = select.executeQuery()) {
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        }
+        throw new SQLException("No se pudo obtener el ID de " + descripcion);
+    }
+
     /**
      * Prepara los PreparedStatements reutilizables para las operaciones de base de datos.
      *
      * @throws SQLException Si ocurre un error al preparar los statements.
      */
     private static void prepareStatements() throws SQLException {
-        // Preparación de los PreparedStatements reutilizables
+        // Preparación de los PreparedStatements reutilizables: cada dimensión se resuelve con una
+        // inserción que, si la clave natural ya existe, devuelve el ID de la fila existente (ver
+        // resolverId), y con una consulta por la clave natural para los motores que no lo devuelven
 
         // Statements para 'provincia'
-        selectProvinciaStmt = conn.prepareStatement("SELECT provincia_id FROM provincia WHERE nombre_provincia = ?");
-        insertProvinciaStmt = conn.prepareStatement(
-                "INSERT INTO provincia (nombre_provincia) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+        selectProvinciaStmt = preparar("SELECT provincia_id FROM provincia WHERE nombre_provincia = ?");
+        insertProvinciaStmt = preparar(
+                "INSERT INTO provincia (nombre_provincia) VALUES (?)" + actualizarId("provincia_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'municipio'
-        selectMunicipioStmt = conn.prepareStatement(
+        selectMunicipioStmt = preparar(
                 "SELECT municipio_id FROM municipio WHERE nombre_municipio = ? AND provincia_id = ?");
-        insertMunicipioStmt = conn.prepareStatement(
-                "INSERT INTO municipio (nombre_municipio, provincia_id) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+        insertMunicipioStmt = preparar(
+                "INSERT INTO municipio (nombre_municipio, provincia_id) VALUES (?, ?)" + actualizarId("municipio_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'localidad'
-        selectLocalidadStmt = conn.prepareStatement(
+        selectLocalidadStmt = preparar(
                 "SELECT localidad_id FROM localidad WHERE nombre_localidad = ? AND municipio_id = ?");
-        insertLocalidadStmt = conn.prepareStatement(
-                "INSERT INTO localidad (nombre_localidad, municipio_id) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+        insertLocalidadStmt = preparar(
+                "INSERT INTO localidad (nombre_localidad, municipio_id) VALUES (?, ?)" + actualizarId("localidad_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'codigo_postal'
-        selectCodigoPostalStmt = conn.prepareStatement(
+        selectCodigoPostalStmt = preparar(
                 "SELECT codigo_postal_id FROM codigo_postal WHERE codigo_postal = ? AND localidad_id = ?");
-        insertCodigoPostalStmt = conn.prepareStatement(
-                "INSERT INTO codigo_postal (codigo_postal, localidad_id) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+        insertCodigoPostalStmt = preparar(
+                "INSERT INTO codigo_postal (codigo_postal, localidad_id) VALUES (?, ?)" + actualizarId("codigo_postal_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'margen'
-        selectMargenStmt = conn.prepareStatement("SELECT margen_id FROM margen WHERE nombre_margen = ?");
-        insertMargenStmt = conn.prepareStatement(
-                "INSERT INTO margen (nombre_margen) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+        selectMargenStmt = preparar("SELECT margen_id FROM margen WHERE nombre_margen = ?");
+        insertMargenStmt = preparar(
+                "INSERT INTO margen (nombre_margen) VALUES (?)" + actualizarId("margen_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'horario'
-        selectHorarioStmt = conn.prepareStatement("SELECT horario_id FROM horario WHERE descripcion_horario = ?");
-        insertHorarioStmt = conn.prepareStatement(
-                "INSERT INTO horario (descripcion_horario) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+        selectHorarioStmt = preparar(
+                "SELECT horario_id FROM horario WHERE descripcion_horario = ?");
+        // El mapa de bits de los horarios ya existentes se sustituye por el de la inserción, para que los
+        // calculados con otra interpretación de la descripción se corrijan en la siguiente importación
+        insertHorarioStmt = preparar(
+                "INSERT INTO horario (descripcion_horario, horario_semanal) VALUES (?, ?)" + actualizarId("horario_id") +
+                        ", horario_semanal = VALUES(horario_semanal)",
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'marca'
-        selectMarcaStmt = conn.prepareStatement("SELECT marca_id FROM marca WHERE nombre_marca = ?");
-        insertMarcaStmt = conn.prepareStatement(
-                "INSERT INTO marca (nombre_marca) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+        selectMarcaStmt = preparar("SELECT marca_id FROM marca WHERE nombre_marca = ?");
+        insertMarcaStmt = preparar(
+                "INSERT INTO marca (nombre_marca) VALUES (?)" + actualizarId("marca_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'tipo_estacion'
-        selectTipoEstacionStmt = conn.prepareStatement("SELECT tipo_estacion_id FROM tipo_estacion WHERE tipo_estacion = ?");
-        insertTipoEstacionStmt = conn.prepareStatement(
-                "INSERT INTO tipo_estacion (tipo_estacion) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+        selectTipoEstacionStmt = preparar("SELECT tipo_estacion_id FROM tipo_estacion WHERE tipo_estacion = ?");
+        insertTipoEstacionStmt = preparar(
+                "INSERT INTO tipo_estacion (tipo_estacion) VALUES (?)" + actualizarId("tipo_estacion_id"),
+                Statement.RETURN_GENERATED_KEYS);
 
         // Statements para 'estacion_servicio'
 
         // Validación de existencia de estación con ubicación espacial
-        selectEstacionServicioStmt = conn.prepareStatement(
+        selectEstacionServicioStmt = preparar(
                 "SELECT estacion_id FROM estacion_servicio WHERE ST_Equals(ubicacion, ST_PointFromText(?, 4326))"
         );
 
-        // Inserción de una estación con campo 'ubicacion' espacial
-        insertEstacionServicioStmt = conn.prepareStatement(
+        // Inserción de una estación con campo 'ubicacion' espacial (única a través de clave_ubicacion)
+        insertEstacionServicioStmt = preparar(
                 "INSERT INTO estacion_servicio (direccion, margen_id, ubicacion, codigo_postal_id, marca_id, horario_id, tipo_estacion_id) " +
-                        "VALUES (?, ?, ST_PointFromText(?, 4326), ?, ?, ?, ?)",
+                        "VALUES (?, ?, ST_PointFromText(?, 4326), ?, ?, ?, ?)" + actualizarId("estacion_id"),
                 Statement.RETURN_GENERATED_KEYS
         );
 
         // Statements para 'tipo_combustible'
-        selectCombustibleStmt = conn.prepareStatement("SELECT combustible_id FROM tipo_combustible WHERE nombre_combustible = ?");
-        insertCombustibleStmt = conn.prepareStatement(
-                "INSERT INTO tipo_combustible (nombre_combustible) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
-
-        // Statements para 'precio_combustible'
-        selectPrecioCombustibleStmt = conn.prepareStatement(
-                "SELECT precio_id FROM precio_combustible WHERE estacion_id = ? AND combustible_id = ? AND fecha_hora = ?");
-        insertPrecioCombustibleStmt = conn.prepareStatement(
-                "INSERT INTO precio_combustible (estacion_id, combustible_id, precio, fecha_hora) VALUES (?, ?, ?, ?)");
+        selectCombustibleStmt = preparar("SELECT combustible_id FROM tipo_combustible WHERE nombre_combustible = ?");
+        insertCombustibleStmt = preparar(
+                "INSERT INTO tipo_combustible (nombre_combustible) VALUES (?)" + actualizarId("combustible_id"),
+                Statement.RETURN_GENERATED_KEYS);
+
+        // Statement para 'precio_combustible': las observaciones ya guardadas se ignoran
+        insertPrecioCombustibleStmt = preparar(formatoPrecio.sqlInsertar());
+        // Statement para 'precio_vigente', que se actualiza con cada precio guardado
+        actualizarPrecioVigenteStmt = preparar(formatoPrecio.sqlActualizarVigentes(1));
     }
 
     /**
@@ -237,22 +694,24 @@ public class ImportadorCSV {
         insertEstacionServicioStmt.close();
         selectCombustibleStmt.close();
         insertCombustibleStmt.close();
-        selectPrecioCombustibleStmt.close();
         insertPrecioCombustibleStmt.close();
+        actualizarPrecioVigenteStmt.close();
     }
 
     /**
      * Procesa un archivo CSV, leyendo sus registros y agregándolos a la base de datos.
      *
-     * @param file El archivo CSV a procesar.
+     * @param nombre    Nombre del archivo CSV, para los mensajes.
+     * @param contenido Contenido del archivo CSV.
+     * @return true si el archivo se procesó completo sin errores.
      */
-    private static void processCSVFile(File file) {
-        try (CSVReader csvReader = new CSVReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+    private static boolean processCSV(String nombre, InputStream contenido) {
+        try (CSVReader csvReader = new CSVReader(new InputStreamReader(contenido, StandardCharsets.UTF_8))) {
             String[] headers = csvReader.readNext();
 
             if (headers == null) {
-                log.warn("El archivo CSV {} está vacío.", file.getName());
-                return;
+                log.warn("El archivo CSV {} está vacío.", nombre);
+                return true;
             }
 
             // Crear mapa de índices de columnas para acceder a los datos por nombre
@@ -264,6 +723,7 @@ public class ImportadorCSV {
             List<String[]> batchData = new ArrayList<>();
             int batchSize = 5000;
             int count = 0;
+            boolean correcto = true;
 
             String[] data;
             while ((data = csvReader.readNext()) != null) {
@@ -271,15 +731,28 @@ public class ImportadorCSV {
                 count++;
 
                 if (count % batchSize == 0) {
-                    processBatch(batchData, headers, columnIndices);
+                    correcto &= processBatch(batchData, headers, columnIndices);
                     batchData.clear();
+                    // Con el pipeline abortado no se puede seguir con el archivo
+                    if (!correcto && pipeline != null) {
+                        return false;
+                    }
                 }
             }
             if (!batchData.isEmpty()) {
-                processBatch(batchData, headers, columnIndices);
+                correcto &= processBatch(batchData, headers, columnIndices);
+            }
+            // Entregar al pipeline los precios pendientes del archivo
+            if (pipeline != null && correcto) {
+                pipeline.publicar();
             }
+            return correcto;
+        } catch (SQLException e) {
+            log.error("Error al volcar los precios del archivo CSV: {}", nombre, e);
+            return false;
         } catch (IOException | CsvValidationException e) {
-            log.error("Error al procesar el archivo CSV: {}", file.getName(), e);
+            log.error("Error al procesar el archivo CSV: {}", nombre, e);
+            return false;
         }
     }
 
@@ -289,26 +762,44 @@ public class ImportadorCSV {
      * @param batchData     Lista de registros a procesar.
      * @param headers       Encabezados del CSV.
      * @param columnIndices Mapa de índices de columnas.
+     * @return true si el lote se procesó sin errores.
      */
-    private static void processBatch(List<String[]> batchData, String[] headers, Map<String, Integer> columnIndices) {
+    private static boolean processBatch(List<String[]> batchData, String[] headers, Map<String, Integer> columnIndices) {
         try {
             for (String[] data : batchData) {
                 processRecord(data, headers, columnIndices);
             }
 
-            // Ejecutar batch inserts después de procesar el batch
-            insertPrecioCombustibleStmt.executeBatch();
-            insertPrecioCombustibleStmt.clearBatch();
+            // Ejecutar batch inserts después de procesar el batch (en modo pipeline los vuelca el escritor)
+            if (pipeline == null) {
+                insertPrecioCombustibleStmt.executeBatch();
+                insertPrecioCombustibleStmt.clearBatch();
+                actualizarPrecioVigenteStmt.executeBatch();
+                actualizarPrecioVigenteStmt.clearBatch();
+            }
+
+            // Reevaluar solo las consultas permanentes afectadas por los precios del lote
+            if (consultasPermanentes != null) {
+                consultasPermanentes.evaluar();
+            }
 
             log.info("Procesados {} registros", batchData.size());
+            return true;
         } catch (SQLException e) {
             log.error("Error al procesar el batch de registros", e);
+            // El lote del pipeline en curso referencia dimensiones de la transacción que se revierte
+            if (pipeline != null) {
+                pipeline.abortar();
+            }
             try {
                 conn.rollback();
                 log.info("Transacción revertida debido a un error en el batch.");
+                // Los precios revertidos ya no son los últimos guardados
+                revertido();
             } catch (SQLException rollbackEx) {
                 log.error("Error al hacer rollback de la transacción", rollbackEx);
             }
+            return false;
         }
     }
 
@@ -321,6 +812,33 @@ public class ImportadorCSV {
      * @throws SQLException Si ocurre un error en la base de datos.
      */
     private static void processRecord(String[] data, String[] headers, Map<String, Integer> columnIndices) throws SQLException {
+        String tomaDeDatos = data[columnIndices.get("Toma de datos")].trim();
+
+        // Precios de combustibles
+        Map<String, String> preciosCombustibles = new HashMap<>();
+        for (String header : headers) {
+            if (header.startsWith("Precio")) {
+                preciosCombustibles.put(header, data[columnIndices.get(header)].trim());
+            }
+        }
+
+        int estacionId = resolverEstacion(data, columnIndices);
+
+        // Procesar precios de combustibles
+        processPrecios(estacionId, tomaDeDatos, preciosCombustibles);
+
+        log.debug("Estación procesada con ID: {}", estacionId);
+    }
+
+    /**
+     * Obtiene o inserta la estación de un registro del CSV, con todas sus dimensiones, y devuelve su ID.
+     *
+     * @param data          Datos del registro.
+     * @param columnIndices Mapa de índices de columnas.
+     * @return ID de la estación de servicio.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    static int resolverEstacion(String[] data, Map<String, Integer> columnIndices) throws SQLException {
         // Extraer datos de la línea CSV usando el mapa de índices
         String provincia = data[columnIndices.get("Provincia")].trim();
         String municipio = data[columnIndices.get("Municipio")].trim();
@@ -328,7 +846,6 @@ public class ImportadorCSV {
         String codigoPostal = data[columnIndices.get("Código postal")].trim();
         String direccion = data[columnIndices.get("Dirección")].trim();
         String margen = data[columnIndices.get("Margen")].trim();
-        String tomaDeDatos = data[columnIndices.get("Toma de datos")].trim();
         String tipoEstacion = data[columnIndices.get("Tipo estación")].trim();
         String rotulo = data[columnIndices.get("Rótulo")].trim();
         String horarioDescripcion = data[columnIndices.get("Horario")].trim();
@@ -341,14 +858,6 @@ public class ImportadorCSV {
         // Usamos Locale.US para asegurar puntos como separadores decimales
         String ubicacionWKT = String.format(Locale.US,"POINT(%f %f)", longitud, latitud);
 
-        // Precios de combustibles
-        Map<String, String> preciosCombustibles = new HashMap<>();
-        for (String header : headers) {
-            if (header.startsWith("Precio")) {
-                preciosCombustibles.put(header, data[columnIndices.get(header)].trim());
-            }
-        }
-
         // Insertar o actualizar registros en la base de datos
         int provinciaId = getOrInsertProvincia(provincia);
         int municipioId = getOrInsertMunicipio(municipio, provinciaId);
@@ -360,11 +869,10 @@ public class ImportadorCSV {
         int tipoEstacionId = getOrInsertTipoEstacion(tipoEstacion);
         int estacionId = getOrInsertEstacionServicio(
                 direccion, margenId, ubicacionWKT, codigoPostalId, marcaId, horarioId, tipoEstacionId);
-
-        // Procesar precios de combustibles
-        processPrecios(estacionId, tomaDeDatos, preciosCombustibles);
-
-        log.debug("Estación procesada con ID: {}", estacionId);
+        if (consultasPermanentes != null) {
+            consultasPermanentes.registrarEstacion(estacionId, provincia, latitud, longitud);
+        }
+        return estacionId;
     }
 
     // Métodos getOrInsert con cacheo de IDs y reutilización de PreparedStatement
@@ -378,33 +886,17 @@ public class ImportadorCSV {
      */
     private static int getOrInsertProvincia(String nombreProvincia) throws SQLException {
         // Verificar si la provincia ya está en caché
-        if (provinciaCache.containsKey(nombreProvincia)) {
-            int provinciaId = provinciaCache.get(nombreProvincia);
-            log.debug("Provincia encontrada en caché: {} con ID {}", nombreProvincia, provinciaId);
-            return provinciaId;
+        Integer provinciaCacheada = provinciaCache.get(nombreProvincia);
+        if (provinciaCacheada != null) {
+            log.debug("Provincia encontrada en caché: {} con ID {}", nombreProvincia, provinciaCacheada);
+            return provinciaCacheada;
         }
 
-        // Intentar obtener el ID de la provincia desde la base de datos
+        // Insertar la provincia u obtener el ID de la existente
+        insertProvinciaStmt.setString(1, nombreProvincia);
         selectProvinciaStmt.setString(1, nombreProvincia);
-        ResultSet rs = selectProvinciaStmt.executeQuery();
-        int provinciaId;
-
-        if (rs.next()) {
-            // Provincia encontrada
-            provinciaId = rs.getInt("provincia_id");
-            log.debug("Provincia encontrada en BD: {} con ID {}", nombreProvincia, provinciaId);
-        } else {
-            // Insertar nueva provincia si no existe
-            insertProvinciaStmt.setString(1, nombreProvincia);
-            insertProvinciaStmt.executeUpdate();
-            ResultSet keys = insertProvinciaStmt.getGeneratedKeys();
-            if (keys.next()) {
-                provinciaId = keys.getInt(1);
-                log.debug("Provincia insertada: {} con ID {}", nombreProvincia, provinciaId);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para la provincia: " + nombreProvincia);
-            }
-        }
+        int provinciaId = resolverId(insertProvinciaStmt, selectProvinciaStmt, "la provincia: " + nombreProvincia);
+        log.debug("Provincia resuelta en BD: {} con ID {}", nombreProvincia, provinciaId);
 
         // Cachear el ID de la provincia para evitar consultas redundantes
         provinciaCache.put(nombreProvincia, provinciaId);
@@ -421,27 +913,16 @@ public class ImportadorCSV {
      */
     private static int getOrInsertMunicipio(String nombreMunicipio, int provinciaId) throws SQLException {
         String key = nombreMunicipio + "_" + provinciaId;
-        if (municipioCache.containsKey(key)) {
-            return municipioCache.get(key);
+        Integer cacheado = municipioCache.get(key);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertMunicipioStmt.setString(1, nombreMunicipio);
+        insertMunicipioStmt.setInt(2, provinciaId);
         selectMunicipioStmt.setString(1, nombreMunicipio);
         selectMunicipioStmt.setInt(2, provinciaId);
-        ResultSet rs = selectMunicipioStmt.executeQuery();
-        int municipioId;
-        if (rs.next()) {
-            municipioId = rs.getInt("municipio_id");
-        } else {
-            insertMunicipioStmt.setString(1, nombreMunicipio);
-            insertMunicipioStmt.setInt(2, provinciaId);
-            insertMunicipioStmt.executeUpdate();
-            ResultSet keys = insertMunicipioStmt.getGeneratedKeys();
-            if (keys.next()) {
-                municipioId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para el municipio: " + nombreMunicipio);
-            }
-        }
+        int municipioId = resolverId(insertMunicipioStmt, selectMunicipioStmt, "el municipio: " + nombreMunicipio);
         municipioCache.put(key, municipioId);
         return municipioId;
     }
@@ -456,27 +937,16 @@ public class ImportadorCSV {
      */
     private static int getOrInsertLocalidad(String nombreLocalidad, int municipioId) throws SQLException {
         String key = nombreLocalidad + "_" + municipioId;
-        if (localidadCache.containsKey(key)) {
-            return localidadCache.get(key);
+        Integer cacheado = localidadCache.get(key);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertLocalidadStmt.setString(1, nombreLocalidad);
+        insertLocalidadStmt.setInt(2, municipioId);
         selectLocalidadStmt.setString(1, nombreLocalidad);
         selectLocalidadStmt.setInt(2, municipioId);
-        ResultSet rs = selectLocalidadStmt.executeQuery();
-        int localidadId;
-        if (rs.next()) {
-            localidadId = rs.getInt("localidad_id");
-        } else {
-            insertLocalidadStmt.setString(1, nombreLocalidad);
-            insertLocalidadStmt.setInt(2, municipioId);
-            insertLocalidadStmt.executeUpdate();
-            ResultSet keys = insertLocalidadStmt.getGeneratedKeys();
-            if (keys.next()) {
-                localidadId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para la localidad: " + nombreLocalidad);
-            }
-        }
+        int localidadId = resolverId(insertLocalidadStmt, selectLocalidadStmt, "la localidad: " + nombreLocalidad);
         localidadCache.put(key, localidadId);
         return localidadId;
     }
@@ -491,27 +961,16 @@ public class ImportadorCSV {
      */
     private static int getOrInsertCodigoPostal(String codigoPostal, int localidadId) throws SQLException {
         String key = codigoPostal + "_" + localidadId;
-        if (codigoPostalCache.containsKey(key)) {
-            return codigoPostalCache.get(key);
+        Integer cacheado = codigoPostalCache.get(key);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertCodigoPostalStmt.setString(1, codigoPostal);
+        insertCodigoPostalStmt.setInt(2, localidadId);
         selectCodigoPostalStmt.setString(1, codigoPostal);
         selectCodigoPostalStmt.setInt(2, localidadId);
-        ResultSet rs = selectCodigoPostalStmt.executeQuery();
-        int codigoPostalId;
-        if (rs.next()) {
-            codigoPostalId = rs.getInt("codigo_postal_id");
-        } else {
-            insertCodigoPostalStmt.setString(1, codigoPostal);
-            insertCodigoPostalStmt.setInt(2, localidadId);
-            insertCodigoPostalStmt.executeUpdate();
-            ResultSet keys = insertCodigoPostalStmt.getGeneratedKeys();
-            if (keys.next()) {
-                codigoPostalId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para el código postal: " + codigoPostal);
-            }
-        }
+        int codigoPostalId = resolverId(insertCodigoPostalStmt, selectCodigoPostalStmt, "el código postal: " + codigoPostal);
         codigoPostalCache.put(key, codigoPostalId);
         return codigoPostalId;
     }
@@ -524,25 +983,14 @@ public class ImportadorCSV {
      * @throws SQLException Si ocurre un error en la base de datos.
      */
     private static int getOrInsertMargen(String nombreMargen) throws SQLException {
-        if (margenCache.containsKey(nombreMargen)) {
-            return margenCache.get(nombreMargen);
+        Integer cacheado = margenCache.get(nombreMargen);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertMargenStmt.setString(1, nombreMargen);
         selectMargenStmt.setString(1, nombreMargen);
-        ResultSet rs = selectMargenStmt.executeQuery();
-        int margenId;
-        if (rs.next()) {
-            margenId = rs.getInt("margen_id");
-        } else {
-            insertMargenStmt.setString(1, nombreMargen);
-            insertMargenStmt.executeUpdate();
-            ResultSet keys = insertMargenStmt.getGeneratedKeys();
-            if (keys.next()) {
-                margenId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para el margen: " + nombreMargen);
-            }
-        }
+        int margenId = resolverId(insertMargenStmt, selectMargenStmt, "el margen: " + nombreMargen);
         margenCache.put(nombreMargen, margenId);
         return margenId;
     }
@@ -550,30 +998,29 @@ public class ImportadorCSV {
     /**
      * Obtiene o inserta un horario en la base de datos y devuelve su ID.
      *
+     * <p>
+     * Cada horario distinto se interpreta una sola vez con {@link HorarioSemanal} y su mapa de bits se
+     * guarda junto al texto; los horarios ya existentes sin mapa de bits se completan al encontrarlos.
+     * </p>
+     *
      * @param descripcionHorario Descripción del horario.
      * @return ID del horario.
      * @throws SQLException Si ocurre un error en la base de datos.
      */
     private static int getOrInsertHorario(String descripcionHorario) throws SQLException {
-        if (horarioCache.containsKey(descripcionHorario)) {
-            return horarioCache.get(descripcionHorario);
+        Integer cacheado = horarioCache.get(descripcionHorario);
+        if (cacheado != null) {
+            return cacheado;
         }
 
-        selectHorarioStmt.setString(1, descripcionHorario);
-        ResultSet rs = selectHorarioStmt.executeQuery();
-        int horarioId;
-        if (rs.next()) {
-            horarioId = rs.getInt("horario_id");
-        } else {
-            insertHorarioStmt.setString(1, descripcionHorario);
-            insertHorarioStmt.executeUpdate();
-            ResultSet keys = insertHorarioStmt.getGeneratedKeys();
-            if (keys.next()) {
-                horarioId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para el horario: " + descripcionHorario);
-            }
+        byte[] horarioSemanal = HorarioSemanal.parse(descripcionHorario);
+        if (horarioSemanal == null) {
+            log.warn("No se pudo interpretar el horario '{}'; se guardará sin mapa semanal", descripcionHorario);
         }
+        insertHorarioStmt.setString(1, descripcionHorario);
+        insertHorarioStmt.setBytes(2, horarioSemanal);
+        selectHorarioStmt.setString(1, descripcionHorario);
+        int horarioId = resolverId(insertHorarioStmt, selectHorarioStmt, "el horario: " + descripcionHorario);
         horarioCache.put(descripcionHorario, horarioId);
         return horarioId;
     }
@@ -586,25 +1033,14 @@ public class ImportadorCSV {
      * @throws SQLException Si ocurre un error en la base de datos.
      */
     private static int getOrInsertMarca(String nombreMarca) throws SQLException {
-        if (marcaCache.containsKey(nombreMarca)) {
-            return marcaCache.get(nombreMarca);
+        Integer cacheado = marcaCache.get(nombreMarca);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertMarcaStmt.setString(1, nombreMarca);
         selectMarcaStmt.setString(1, nombreMarca);
-        ResultSet rs = selectMarcaStmt.executeQuery();
-        int marcaId;
-        if (rs.next()) {
-            marcaId = rs.getInt("marca_id");
-        } else {
-            insertMarcaStmt.setString(1, nombreMarca);
-            insertMarcaStmt.executeUpdate();
-            ResultSet keys = insertMarcaStmt.getGeneratedKeys();
-            if (keys.next()) {
-                marcaId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para la marca: " + nombreMarca);
-            }
-        }
+        int marcaId = resolverId(insertMarcaStmt, selectMarcaStmt, "la marca: " + nombreMarca);
         marcaCache.put(nombreMarca, marcaId);
         return marcaId;
     }
@@ -617,25 +1053,14 @@ public class ImportadorCSV {
      * @throws SQLException Si ocurre un error en la base de datos.
      */
     private static int getOrInsertTipoEstacion(String tipoEstacion) throws SQLException {
-        if (tipoEstacionCache.containsKey(tipoEstacion)) {
-            return tipoEstacionCache.get(tipoEstacion);
+        Integer cacheado = tipoEstacionCache.get(tipoEstacion);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertTipoEstacionStmt.setString(1, tipoEstacion);
         selectTipoEstacionStmt.setString(1, tipoEstacion);
-        ResultSet rs = selectTipoEstacionStmt.executeQuery();
-        int tipoEstacionId;
-        if (rs.next()) {
-            tipoEstacionId = rs.getInt("tipo_estacion_id");
-        } else {
-            insertTipoEstacionStmt.setString(1, tipoEstacion);
-            insertTipoEstacionStmt.executeUpdate();
-            ResultSet keys = insertTipoEstacionStmt.getGeneratedKeys();
-            if (keys.next()) {
-                tipoEstacionId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para el tipo de estación: " + tipoEstacion);
-            }
-        }
+        int tipoEstacionId = resolverId(insertTipoEstacionStmt, selectTipoEstacionStmt, "el tipo de estación: " + tipoEstacion);
         tipoEstacionCache.put(tipoEstacion, tipoEstacionId);
         return tipoEstacionId;
     }
@@ -659,36 +1084,23 @@ public class ImportadorCSV {
 
         String key = ubicacionWKT;
 
-        if (estacionServicioCache.containsKey(key)) {
-            return estacionServicioCache.get(key);
+        Integer cacheado = estacionServicioCache.get(key);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        // Insertar la estación u obtener la existente en la misma ubicación
+        insertEstacionServicioStmt.setString(1, direccion);
+        insertEstacionServicioStmt.setInt(2, margenId);
+        insertEstacionServicioStmt.setString(3, ubicacionWKT);
+        insertEstacionServicioStmt.setInt(4, codigoPostalId);
+        insertEstacionServicioStmt.setInt(5, marcaId);
+        insertEstacionServicioStmt.setInt(6, horarioId);
+        insertEstacionServicioStmt.setInt(7, tipoEstacionId);
         // Usar la representación WKT para la comparación espacial
         selectEstacionServicioStmt.setString(1, ubicacionWKT);
-        ResultSet rs = selectEstacionServicioStmt.executeQuery();
-        int estacionId;
-
-        if (rs.next()) {
-            // Ya existe, retornar ID
-            estacionId = rs.getInt("estacion_id");
-        } else {
-            // Insertar nueva estación
-            insertEstacionServicioStmt.setString(1, direccion);
-            insertEstacionServicioStmt.setInt(2, margenId);
-            insertEstacionServicioStmt.setString(3, ubicacionWKT);
-            insertEstacionServicioStmt.setInt(4, codigoPostalId);
-            insertEstacionServicioStmt.setInt(5, marcaId);
-            insertEstacionServicioStmt.setInt(6, horarioId);
-            insertEstacionServicioStmt.setInt(7, tipoEstacionId);
-
-            insertEstacionServicioStmt.executeUpdate();
-            ResultSet keys = insertEstacionServicioStmt.getGeneratedKeys();
-            if (keys.next()) {
-                estacionId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para la estación de servicio.");
-            }
-        }
+        int estacionId = resolverId(insertEstacionServicioStmt, selectEstacionServicioStmt,
+                "la estación de servicio en " + ubicacionWKT);
         estacionServicioCache.put(key, estacionId);
         return estacionId;
     }
@@ -702,8 +1114,16 @@ public class ImportadorCSV {
      * @throws SQLException Si ocurre un error en la base de datos.
      */
     private static void processPrecios(int estacionId, String tomaDeDatos, Map<String, String> preciosCombustibles) throws SQLException {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        LocalDateTime fechaHora = LocalDateTime.parse(tomaDeDatos, formatter);
+        LocalDateTime fechaHora = LocalDateTime.parse(tomaDeDatos, FORMATO_TOMA);
+
+        // El rango a reagregar incluye las observaciones que no se guardan (modo de solo cambios): los
+        // agregados extienden los precios vigentes hasta la última observación
+        if (agregadosDesde == null || fechaHora.isBefore(agregadosDesde)) {
+            agregadosDesde = fechaHora;
+        }
+        if (agregadosHasta == null || fechaHora.isAfter(agregadosHasta)) {
+            agregadosHasta = fechaHora;
+        }
 
         for (Map.Entry<String, String> entry : preciosCombustibles.entrySet()) {
             String combustibleName = entry.getKey().replace("Precio ", "").trim();
@@ -713,23 +1133,140 @@ public class ImportadorCSV {
 
                 int combustibleId = getOrInsertCombustible(combustibleName);
 
-                // Verificar si ya existe un registro con la misma fecha_hora
-                selectPrecioCombustibleStmt.setInt(1, estacionId);
-                selectPrecioCombustibleStmt.setInt(2, combustibleId);
-                selectPrecioCombustibleStmt.setTimestamp(3, Timestamp.valueOf(fechaHora));
-                ResultSet rs = selectPrecioCombustibleStmt.executeQuery();
-                if (!rs.next()) {
-                    // Añadir al batch insert
-                    insertPrecioCombustibleStmt.setInt(1, estacionId);
-                    insertPrecioCombustibleStmt.setInt(2, combustibleId);
-                    insertPrecioCombustibleStmt.setDouble(3, precio);
-                    insertPrecioCombustibleStmt.setTimestamp(4, Timestamp.valueOf(fechaHora));
-                    insertPrecioCombustibleStmt.addBatch();
+                // Añadir al batch insert (un registro con la misma fecha_hora ya guardado se ignora);
+                // en el modo de solo cambios, solo si cambia respecto al último observado
+                if (debeGuardarse(estacionId, combustibleId, precio, fechaHora)) {
+                    anadirPrecio(estacionId, combustibleId, precio, fechaHora);
+                    if (consultasPermanentes != null) {
+                        consultasPermanentes.registrarPrecio(estacionId, combustibleId, combustibleName, precio, fechaHora);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Añade un precio al batch insert o, en modo pipeline, al lote en curso del pipeline.
+     *
+     * @param estacionId    ID de la estación de servicio.
+     * @param combustibleId ID del combustible.
+     * @param precio        Precio del combustible.
+     * @param fechaHora     Fecha y hora de la toma de datos.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    private static void anadirPrecio(int estacionId, int combustibleId, double precio, LocalDateTime fechaHora) throws SQLException {
+        if (pipeline != null) {
+            pipeline.anadir(estacionId, combustibleId, precio, Timestamp.valueOf(fechaHora));
+            return;
+        }
+        for (PreparedStatement stmt : new PreparedStatement[]{insertPrecioCombustibleStmt, actualizarPrecioVigenteStmt}) {
+            stmt.setInt(1, estacionId);
+            stmt.setInt(2, combustibleId);
+            formatoPrecio.asignar(stmt, 3, precio);
+            stmt.setTimestamp(4, Timestamp.valueOf(fechaHora));
+            stmt.addBatch();
+        }
+    }
+
+    /**
+     * Indica si hay que guardar un precio: siempre, salvo en el modo de solo cambios, en el que solo se
+     * guardan los cambios respecto al último precio observado (que se actualiza).
+     *
+     * @param estacionId    ID de la estación de servicio.
+     * @param combustibleId ID del combustible.
+     * @param precio        Precio observado.
+     * @param fechaHora     Fecha y hora de la observación.
+     * @return true si el precio debe guardarse.
+     */
+    static boolean debeGuardarse(int estacionId, int combustibleId, double precio, LocalDateTime fechaHora) {
+        return !SOLO_CAMBIOS || esCambioDePrecio(estacionId, combustibleId, precio, fechaHora);
+    }
+
+    /**
+     * Comprueba contra el último precio observado si un precio supone un cambio que hay que guardar,
+     * y actualiza la última observación del par.
+     *
+     * <p>
+     * Las observaciones con una fecha anterior o igual a la última ya procesada se descartan, por lo
+     * que los ficheros deben importarse en orden cronológico ({@link #ordenarFicheros(Collection)}); las
+     * anteriores se cuentan en {@link #observacionesFueraDeOrden}.
+     * </p>
+     *
+     * @param estacionId    ID de la estación de servicio.
+     * @param combustibleId ID del combustible.
+     * @param precio        Precio observado.
+     * @param fechaHora     Fecha y hora de la observación.
+     * @return true si el precio es nuevo o distinto del último y debe insertarse.
+     */
+    private static boolean esCambioDePrecio(int estacionId, int combustibleId, double precio, LocalDateTime fechaHora) {
+        int milesimas = (int) Math.round(precio * 1000);
+        int minutos = (int) (fechaHora.toEpochSecond(ZoneOffset.UTC) / 60);
+        int ultimaFecha = ultimoPrecioMap.getFecha(estacionId, combustibleId);
+        if (ultimaFecha != UltimoPrecioMap.SIN_VALOR) {
+            if (minutos <= ultimaFecha) {
+                // La misma fecha es la misma observación repetida; una anterior ha llegado fuera de orden
+                if (minutos < ultimaFecha) {
+                    observacionesFueraDeOrden++;
+                }
+                return false;
+            }
+            if (ultimoPrecioMap.getPrecio(estacionId, combustibleId) == milesimas) {
+                ultimoPrecioMap.put(estacionId, combustibleId, milesimas, minutos);
+                return false;
+            }
+        }
+        ultimoPrecioMap.put(estacionId, combustibleId, milesimas, minutos);
+        return true;
+    }
+
+    /**
+     * Rellena precio_vigente a partir del histórico si está vacía y precio_combustible no, como ocurre en
+     * una base de datos cargada antes de existir la tabla.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    private static void reconstruirPreciosVigentes() throws SQLException {
+        try (PreparedStatement vigentes = preparar("SELECT 1 FROM precio_vigente LIMIT 1");
+             PreparedStatement precios = preparar("SELECT 1 FROM precio_combustible LIMIT 1");
+             ResultSet rsVigentes = vigentes.executeQuery();
+             ResultSet rsPrecios = precios.executeQuery()) {
+            if (rsVigentes.next() || !rsPrecios.next()) {
+                return;
+            }
+        }
+        long inicio = System.nanoTime();
+        try (PreparedStatement stmt = preparar(formatoPrecio.sqlReconstruirVigentes())) {
+            int filas = stmt.executeUpdate();
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+            log.info("Reconstruidos {} precios vigentes en {} ms", filas, (System.nanoTime() - inicio) / 1_000_000);
+        }
+    }
+
+    /**
+     * Carga en memoria el último precio guardado de cada estación y combustible.
+     *
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    private static void cargarUltimosPrecios() throws SQLException {
+        ultimoPrecioMap.clear();
+        try (PreparedStatement stmt = preparar(
+                "SELECT pv.estacion_id, pv.combustible_id, pv.precio, pv.fecha_hora FROM precio_vigente pv",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Leer en streaming para no materializar el resultado
+            stmt.setFetchSize(dialecto.fetchSizeStreaming());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int milesimas = rs.getBigDecimal("precio").movePointRight(3).intValue();
+                    int minutos = (int) (rs.getTimestamp("fecha_hora").toLocalDateTime().toEpochSecond(ZoneOffset.UTC) / 60);
+                    ultimoPrecioMap.put(rs.getInt("estacion_id"), rs.getInt("combustible_id"), milesimas, minutos);
+                }
+            }
+        }
+        log.info("Cargados {} últimos precios para el modo de solo cambios", ultimoPrecioMap.size());
+    }
+
     /**
      * Obtiene o inserta un tipo de combustible en la base de datos y devuelve su ID.
      *
@@ -737,26 +1274,15 @@ public class ImportadorCSV {
      * @return ID del combustible.
      * @throws SQLException Si ocurre un error en la base de datos.
      */
-    private static int getOrInsertCombustible(String nombreCombustible) throws SQLException {
-        if (combustibleCache.containsKey(nombreCombustible)) {
-            return combustibleCache.get(nombreCombustible);
+    static int getOrInsertCombustible(String nombreCombustible) throws SQLException {
+        Integer cacheado = combustibleCache.get(nombreCombustible);
+        if (cacheado != null) {
+            return cacheado;
         }
 
+        insertCombustibleStmt.setString(1, nombreCombustible);
         selectCombustibleStmt.setString(1, nombreCombustible);
-        ResultSet rs = selectCombustibleStmt.executeQuery();
-        int combustibleId;
-        if (rs.next()) {
-            combustibleId = rs.getInt("combustible_id");
-        } else {
-            insertCombustibleStmt.setString(1, nombreCombustible);
-            insertCombustibleStmt.executeUpdate();
-            ResultSet keys = insertCombustibleStmt.getGeneratedKeys();
-            if (keys.next()) {
-                combustibleId = keys.getInt(1);
-            } else {
-                throw new SQLException("No se pudo obtener el ID generado para el combustible: " + nombreCombustible);
-            }
-        }
+        int combustibleId = resolverId(insertCombustibleStmt, selectCombustibleStmt, "el combustible: " + nombreCombustible);
         combustibleCache.put(nombreCombustible, combustibleId);
         return combustibleId;
     }
@@ -0,0 +1,372 @@
+package com.lab1;
+
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Clase IndiceEstaciones.
+ *
+ * <p>
+ * Índice espacial en memoria de las estaciones de servicio con sus precios vigentes, para responder
+ * consultas sobre una ruta completa sin ir a la base de datos. Las estaciones se organizan en un R-tree
+ * empaquetado con Sort-Tile-Recursive (STR): se construye de una vez a partir de todos los puntos, con
+ * nodos llenos y poco solapados, y no admite inserciones; para actualizarlo se construye uno nuevo.
+ * </p>
+ *
+ * <p>
+ * La búsqueda en una ruta recorre sus segmentos: la caja de cada segmento, ampliada con el ancho del
+ * corredor, poda el árbol, y solo a las estaciones candidatas se les calcula la distancia exacta al
+ * segmento. Esa distancia usa una proyección equirectangular local centrada en el segmento, con un
+ * error despreciable para segmentos de hasta unas decenas de kilómetros.
+ * </p>
+ */
+public class IndiceEstaciones {
+
+    /**
+     * Entradas por nodo del árbol.
+     */
+    private static final int CAPACIDAD_NODO = 16;
+
+    private static final double RADIO_TIERRA_KM = 6371.0;
+    private static final double KM_POR_GRADO = Math.PI * RADIO_TIERRA_KM / 180.0;
+
+    /**
+     * Marcas diacríticas que deja separadas la descomposición NFD.
+     */
+    private static final Pattern ACENTOS = Pattern.compile("\\p{M}");
+
+    // Estaciones, en el orden de las hojas del árbol
+    private final int[] estacionIds;
+    private final double[] lons;
+    private final double[] lats;
+    private final String[] direcciones;
+    private final String[] marcas;
+    private final byte[][] horarios;
+
+    /**
+     * Precio vigente de cada estación por combustible (con el nombre en la forma de {@link #clave(String)}),
+     * en el orden de las hojas (NaN si no lo vende).
+     */
+    private final Map<String, double[]> precios = new HashMap<>();
+
+    /**
+     * Niveles del árbol, desde las hojas (nivel 0, cuyos hijos son estaciones) hasta la raíz.
+     */
+    private final List<Nivel> niveles = new ArrayList<>();
+
+    /**
+     * Nodos de un nivel: su caja y el rango [inicio, fin) de sus hijos en el nivel inferior.
+     */
+    private static class Nivel {
+        final double[] minLon;
+        final double[] minLat;
+        final double[] maxLon;
+        final double[] maxLat;
+        final int[] inicio;
+        final int[] fin;
+
+        Nivel(int nodos) {
+            minLon = new double[nodos];
+            minLat = new double[nodos];
+            maxLon = new double[nodos];
+            maxLat = new double[nodos];
+            inicio = new int[nodos];
+            fin = new int[nodos];
+        }
+
+        int size() {
+            return inicio.length;
+        }
+    }
+
+    /**
+     * Estación con los datos necesarios para construir el índice.
+     */
+    public static class Estacion {
+        final int estacionId;
+        final double lon;
+        final double lat;
+        final String direccion;
+        final String marca;
+        final byte[] horarioSemanal;
+        final Map<String, Double> precios = new HashMap<>();
+
+        /**
+         * Constructor de la clase Estacion.
+         *
+         * @param estacionId     ID de la estación.
+         * @param lon            Longitud.
+         * @param lat            Latitud.
+         * @param direccion      Dirección.
+         * @param marca          Nombre de la marca.
+         * @param horarioSemanal Mapa de bits del horario (ver {@link HorarioSemanal}), o null si se desconoce.
+         */
+        public Estacion(int estacionId, double lon, double lat, String direccion, String marca, byte[] horarioSemanal) {
+            this.estacionId = estacionId;
+            this.lon = lon;
+            this.lat = lat;
+            this.direccion = direccion;
+            this.marca = marca;
+            this.horarioSemanal = horarioSemanal;
+        }
+
+        /**
+         * Asigna el precio vigente de un combustible.
+         *
+         * @param combustible Nombre del combustible.
+         * @param precio      Precio vigente.
+         */
+        public void setPrecio(String combustible, double precio) {
+            precios.put(clave(combustible), precio);
+        }
+    }
+
+    /**
+     * Clave de un nombre de combustible sin mayúsculas ni acentos, para que el índice lo encuentre igual
+     * que la collation utf8mb4_unicode_ci de la base de datos: "Gasóleo A" y "gasoleo a" son el mismo.
+     */
+    private static String clave(String combustible) {
+        String sinAcentos = ACENTOS.matcher(Normalizer.normalize(combustible, Normalizer.Form.NFD)).replaceAll("");
+        return sinAcentos.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Construye el índice a partir de las estaciones.
+     *
+     * @param estaciones Estaciones a indexar.
+     */
+    public IndiceEstaciones(List<Estacion> estaciones) {
+        int n = estaciones.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = estaciones.get(i).lon;
+            y[i] = estaciones.get(i).lat;
+        }
+        int[] orden = ordenStr(x, y);
+
+        estacionIds = new int[n];
+        lons = new double[n];
+        lats = new double[n];
+        direcciones = new String[n];
+        marcas = new String[n];
+        horarios = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            Estacion e = estaciones.get(orden[i]);
+            estacionIds[i] = e.estacionId;
+            lons[i] = e.lon;
+            lats[i] = e.lat;
+            direcciones[i] = e.direccion;
+            marcas[i] = e.marca;
+            horarios[i] = e.horarioSemanal;
+            for (Map.Entry<String, Double> precio : e.precios.entrySet()) {
+                precios.computeIfAbsent(precio.getKey(), c -> {
+                    double[] vacio = new double[n];
+                    Arrays.fill(vacio, Double.NaN);
+                    return vacio;
+                })[i] = precio.getValue();
+            }
+        }
+
+        // Hojas: grupos consecutivos de estaciones, ya ordenadas por STR
+        Nivel nivel = agrupar(lons, lats, lons, lats);
+        niveles.add(nivel);
+        // Niveles superiores: se reordenan los nodos del nivel por STR sobre sus centros y se agrupan
+        while (nivel.size() > 1) {
+            int nodos = nivel.size();
+            double[] cx = new double[nodos];
+            double[] cy = new double[nodos];
+            for (int i = 0; i < nodos; i++) {
+                cx[i] = (nivel.minLon[i] + nivel.maxLon[i]) / 2;
+                cy[i] = (nivel.minLat[i] + nivel.maxLat[i]) / 2;
+            }
+            nivel = reordenar(nivel, ordenStr(cx, cy));
+            niveles.set(niveles.size() - 1, nivel);
+            nivel = agrupar(nivel.minLon, nivel.minLat, nivel.maxLon, nivel.maxLat);
+            niveles.add(nivel);
+        }
+    }
+
+    /**
+     * Devuelve el número de estaciones indexadas.
+     *
+     * @return Número de estaciones.
+     */
+    public int size() {
+        return estacionIds.length;
+    }
+
+    /**
+     * Busca las estaciones más baratas para un combustible a menos de una distancia de una ruta.
+     *
+     * @param ruta        Puntos de la ruta como pares {latitud, longitud}, en orden.
+     * @param combustible Nombre del combustible.
+     * @param anchoKm     Distancia máxima a la ruta, en kilómetros.
+     * @param k           Número máximo de estaciones devueltas.
+     * @param instante    Instante en que deben estar abiertas, o null para no filtrar por horario.
+     * @return Filas con estacion_id, direccion, nombre_marca, precio, distancia_km (a la ruta) y km_ruta
+     *         (posición en la ruta del punto más cercano), ordenadas por precio y distancia.
+     */
+    public List<Map<String, Object>> buscarMasBaratasEnRuta(List<double[]> ruta, String combustible, double anchoKm,
+                                                            int k, LocalDateTime instante) {
+        if (ruta.isEmpty()) {
+            throw new IllegalArgumentException("La ruta debe tener al menos un punto");
+        }
+        double[] preciosCombustible = precios.get(clave(combustible));
+        if (preciosCombustible == null || estacionIds.length == 0) {
+            return new ArrayList<>();
+        }
+
+        // Mejor aproximación a la ruta de cada estación del corredor: {distancia, km de ruta}
+        Map<Integer, double[]> enCorredor = new HashMap<>();
+        int[] pila = new int[64 * niveles.size()];
+        double kmAcumulados = 0;
+        for (int s = 0; s < Math.max(1, ruta.size() - 1); s++) {
+            double[] a = ruta.get(s);
+            double[] b = ruta.get(Math.min(s + 1, ruta.size() - 1));
+
+            // Caja del segmento ampliada con el ancho del corredor
+            double margenLat = anchoKm / KM_POR_GRADO;
+            double latMaxima = Math.min(89.0, Math.max(Math.abs(a[0]), Math.abs(b[0])) + margenLat);
+            double margenLon = anchoKm / (KM_POR_GRADO * Math.cos(Math.toRadians(latMaxima)));
+            double minLat = Math.min(a[0], b[0]) - margenLat;
+            double maxLat = Math.max(a[0], b[0]) + margenLat;
+            double minLon = Math.min(a[1], b[1]) - margenLon;
+            double maxLon = Math.max(a[1], b[1]) + margenLon;
+
+            // Proyección local del segmento: A en el origen, B en (bx, by), en kilómetros
+            double cosLat = Math.cos(Math.toRadians((a[0] + b[0]) / 2));
+            double bx = (b[1] - a[1]) * cosLat * KM_POR_GRADO;
+            double by = (b[0] - a[0]) * KM_POR_GRADO;
+            double longitud2 = bx * bx + by * by;
+
+            // Recorrido del árbol desde la raíz, con una pila de (nivel, nodo)
+            int cima = 0;
+            int raiz = niveles.size() - 1;
+            for (int nodo = 0; nodo < niveles.get(raiz).size(); nodo++) {
+                pila[cima++] = raiz;
+                pila[cima++] = nodo;
+            }
+            while (cima > 0) {
+                int nodo = pila[--cima];
+                int nivelNodo = pila[--cima];
+                Nivel nivel = niveles.get(nivelNodo);
+                if (nivel.maxLon[nodo] < minLon || nivel.minLon[nodo] > maxLon
+                        || nivel.maxLat[nodo] < minLat || nivel.minLat[nodo] > maxLat) {
+                    continue;
+                }
+                if (nivelNodo > 0) {
+                    for (int hijo = nivel.inicio[nodo]; hijo < nivel.fin[nodo]; hijo++) {
+                        pila[cima++] = nivelNodo - 1;
+                        pila[cima++] = hijo;
+                    }
+                    continue;
+                }
+                for (int i = nivel.inicio[nodo]; i < nivel.fin[nodo]; i++) {
+                    if (Double.isNaN(preciosCombustible[i]) || lons[i] < minLon || lons[i] > maxLon
+                            || lats[i] < minLat || lats[i] > maxLat) {
+                        continue;
+                    }
+                    if (instante != null && !HorarioSemanal.estaAbierto(horarios[i], instante)) {
+                        continue;
+                    }
+                    // Distancia exacta del punto al segmento en la proyección local
+                    double px = (lons[i] - a[1]) * cosLat * KM_POR_GRADO;
+                    double py = (lats[i] - a[0]) * KM_POR_GRADO;
+                    double t = longitud2 == 0 ? 0 : Math.max(0, Math.min(1, (px * bx + py * by) / longitud2));
+                    double dx = px - t * bx;
+                    double dy = py - t * by;
+                    double distancia = Math.sqrt(dx * dx + dy * dy);
+                    if (distancia <= anchoKm) {
+                        double[] mejor = enCorredor.get(i);
+                        if (mejor == null || distancia < mejor[0]) {
+                            enCorredor.put(i, new double[]{distancia, kmAcumulados + t * Math.sqrt(longitud2)});
+                        }
+                    }
+                }
+            }
+            kmAcumulados += Math.sqrt(longitud2);
+        }
+
+        List<Integer> candidatas = new ArrayList<>(enCorredor.keySet());
+        candidatas.sort(Comparator.<Integer>comparingDouble(i -> preciosCombustible[i])
+                .thenComparingDouble(i -> enCorredor.get(i)[0]));
+        List<Map<String, Object>> filas = new ArrayList<>();
+        for (int i : candidatas.subList(0, Math.min(k, candidatas.size()))) {
+            Map<String, Object> fila = new LinkedHashMap<>();
+            fila.put("estacion_id", estacionIds[i]);
+            fila.put("direccion", direcciones[i]);
+            fila.put("nombre_marca", marcas[i]);
+            fila.put("precio", preciosCombustible[i]);
+            fila.put("distancia_km", Math.round(enCorredor.get(i)[0] * 1000) / 1000.0);
+            fila.put("km_ruta", Math.round(enCorredor.get(i)[1] * 10) / 10.0);
+            filas.add(fila);
+        }
+        return filas;
+    }
+
+    /**
+     * Agrupa en nodos de {@link #CAPACIDAD_NODO} entradas consecutivas cuyas cajas se indican.
+     */
+    private static Nivel agrupar(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        int entradas = minX.length;
+        int nodos = Math.max(1, (entradas + CAPACIDAD_NODO - 1) / CAPACIDAD_NODO);
+        Nivel nivel = new Nivel(nodos);
+        for (int nodo = 0; nodo < nodos; nodo++) {
+            int inicio = nodo * CAPACIDAD_NODO;
+            int fin = Math.min(entradas, inicio + CAPACIDAD_NODO);
+            nivel.inicio[nodo] = inicio;
+            nivel.fin[nodo] = fin;
+            nivel.minLon[nodo] = Double.POSITIVE_INFINITY;
+            nivel.minLat[nodo] = Double.POSITIVE_INFINITY;
+            nivel.maxLon[nodo] = Double.NEGATIVE_INFINITY;
+            nivel.maxLat[nodo] = Double.NEGATIVE_INFINITY;
+            for (int i = inicio; i < fin; i++) {
+                nivel.minLon[nodo] = Math.min(nivel.minLon[nodo], minX[i]);
+                nivel.minLat[nodo] = Math.min(nivel.minLat[nodo], minY[i]);
+                nivel.maxLon[nodo] = Math.max(nivel.maxLon[nodo], maxX[i]);
+                nivel.maxLat[nodo] = Math.max(nivel.maxLat[nodo], maxY[i]);
+            }
+        }
+        return nivel;
+    }
+
+    private static Nivel reordenar(Nivel nivel, int[] orden) {
+        Nivel reordenado = new Nivel(orden.length);
+        for (int i = 0; i < orden.length; i++) {
+            int j = orden[i];
+            reordenado.minLon[i] = nivel.minLon[j];
+            reordenado.minLat[i] = nivel.minLat[j];
+            reordenado.maxLon[i] = nivel.maxLon[j];
+            reordenado.maxLat[i] = nivel.maxLat[j];
+            reordenado.inicio[i] = nivel.inicio[j];
+            reordenado.fin[i] = nivel.fin[j];
+        }
+        return reordenado;
+    }
+
+    /**
+     * Orden Sort-Tile-Recursive de n puntos: se ordenan por x, se cortan en franjas verticales de
+     * S * CAPACIDAD_NODO puntos (S = raíz de n / CAPACIDAD_NODO), y cada franja se ordena por y.
+     */
+    private static int[] ordenStr(double[] x, double[] y) {
+        int n = x.length;
+        Integer[] indices = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, Comparator.comparingDouble(i -> x[i]));
+        int hojas = (n + CAPACIDAD_NODO - 1) / CAPACIDAD_NODO;
+        int porFranja = (int) Math.ceil(Math.sqrt(hojas)) * CAPACIDAD_NODO;
+        for (int inicio = 0; inicio < n; inicio += porFranja) {
+            Arrays.sort(indices, inicio, Math.min(n, inicio + porFranja), Comparator.comparingDouble(i -> y[i]));
+        }
+        int[] orden = new int[n];
+        for (int i = 0; i < n; i++) {
+            orden[i] = indices[i];
+        }
+        return orden;
+    }
+}
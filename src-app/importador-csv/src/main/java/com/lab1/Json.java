@@ -0,0 +1,111 @@
+package com.lab1;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Clase Json.
+ *
+ * <p>
+ * Serializador JSON mínimo para los resultados de las consultas (mapas, colecciones, cadenas,
+ * números, booleanos y nulos). Cualquier otro tipo, como fechas, se serializa como cadena.
+ * </p>
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Serializa un valor a JSON.
+     *
+     * @param valor Valor a serializar.
+     * @return Representación JSON del valor.
+     */
+    public static String escribir(Object valor) {
+        StringBuilder sb = new StringBuilder();
+        escribir(sb, valor);
+        return sb.toString();
+    }
+
+    /**
+     * Serializa un valor a JSON sobre un StringBuilder existente.
+     *
+     * @param sb    Destino de la serialización.
+     * @param valor Valor a serializar.
+     */
+    public static void escribir(StringBuilder sb, Object valor) {
+        if (valor == null) {
+            sb.append("null");
+        } else if (valor instanceof Map) {
+            sb.append('{');
+            boolean primero = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) valor).entrySet()) {
+                if (!primero) {
+                    sb.append(',');
+                }
+                primero = false;
+                escribirCadena(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                escribir(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else if (valor instanceof Collection) {
+            sb.append('[');
+            boolean primero = true;
+            for (Object elemento : (Collection<?>) valor) {
+                if (!primero) {
+                    sb.append(',');
+                }
+                primero = false;
+                escribir(sb, elemento);
+            }
+            sb.append(']');
+        } else if (valor instanceof Number) {
+            double d = ((Number) valor).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                sb.append("null");
+            } else {
+                sb.append(valor);
+            }
+        } else if (valor instanceof Boolean) {
+            sb.append(valor);
+        } else {
+            escribirCadena(sb, valor.toString());
+        }
+    }
+
+    /**
+     * Escribe una cadena JSON escapando los caracteres de control.
+     */
+    private static void escribirCadena(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
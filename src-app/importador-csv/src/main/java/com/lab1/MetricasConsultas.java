@@ -0,0 +1,181 @@
+package com.lab1;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Clase MetricasConsultas.
+ *
+ * <p>
+ * Métricas de las consultas ejecutadas por {@link Consultas}, compartidas por todas sus instancias:
+ * un {@link HistogramaLatencia} por sentencia, con las consultas que fallan incluidas, y un registro de
+ * consultas lentas. Las consultas que
+ * superan el umbral (variable de entorno CONSULTAS_UMBRAL_LENTO_MS, 500 ms por defecto) se escriben en
+ * el logger "com.lab1.ConsultasLentas" con su sentencia, parámetros, filas leídas y duración, para
+ * poder enviarlas a un fichero propio desde la configuración del log, y las últimas se conservan en
+ * memoria.
+ * </p>
+ *
+ * <p>
+ * Las métricas se publican por JMX (ver {@link MetricasConsultasMBean}) y, en el servicio HTTP, en /metricas.
+ * </p>
+ */
+@Slf4j
+public class MetricasConsultas implements MetricasConsultasMBean {
+
+    private static final Logger LOG_LENTAS = LoggerFactory.getLogger("com.lab1.ConsultasLentas");
+
+    /**
+     * Consultas lentas que se conservan en memoria.
+     */
+    private static final int MAX_ULTIMAS_LENTAS = 50;
+
+    private static final MetricasConsultas INSTANCIA = new MetricasConsultas();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCIA,
+                    new ObjectName("com.lab1:type=MetricasConsultas"));
+        } catch (JMException e) {
+            log.warn("No se pudieron publicar las métricas de consultas por JMX", e);
+        }
+    }
+
+    private final Map<String, HistogramaLatencia> histogramas = new ConcurrentHashMap<>();
+    private final AtomicLong ejecutadas = new AtomicLong();
+    private final AtomicLong lentas = new AtomicLong();
+    private final AtomicLong fallidas = new AtomicLong();
+    private final Deque<String> ultimasLentas = new ArrayDeque<>();
+    private volatile long umbralLentoNanos = 1_000_000L * Long.parseLong(
+            System.getenv().getOrDefault("CONSULTAS_UMBRAL_LENTO_MS", "500"));
+
+    private MetricasConsultas() {
+    }
+
+    /**
+     * Devuelve las métricas compartidas.
+     *
+     * @return Instancia única.
+     */
+    public static MetricasConsultas getInstancia() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Registra la ejecución de una consulta, también si ha fallado.
+     *
+     * @param sentencia  Nombre de la sentencia.
+     * @param nanos      Duración, desde que se prepara la sentencia hasta leer el ResultSet o fallar, en
+     *                   nanosegundos.
+     * @param filas      Filas leídas.
+     * @param error      true si la consulta ha terminado con un error.
+     * @param parametros Parámetros de la consulta.
+     */
+    public void registrar(String sentencia, long nanos, int filas, boolean error, Object[] parametros) {
+        histogramas.computeIfAbsent(sentencia, s -> new HistogramaLatencia()).registrarNanos(nanos);
+        ejecutadas.incrementAndGet();
+        if (error) {
+            fallidas.incrementAndGet();
+        }
+        if (nanos < umbralLentoNanos) {
+            return;
+        }
+        lentas.incrementAndGet();
+        String descripcion = String.format(Locale.ROOT, "%s: %.1f ms, %d filas%s, parámetros %s",
+                sentencia, nanos / 1e6, filas, error ? " (con error)" : "", Arrays.deepToString(parametros));
+        LOG_LENTAS.warn("Consulta lenta {}", descripcion);
+        synchronized (ultimasLentas) {
+            ultimasLentas.addFirst(descripcion);
+            if (ultimasLentas.size() > MAX_ULTIMAS_LENTAS) {
+                ultimasLentas.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Devuelve un resumen de todas las métricas, para serializarlo como JSON.
+     *
+     * @return Mapa con el umbral, los contadores, el resumen de cada sentencia y las últimas consultas lentas.
+     */
+    public Map<String, Object> resumen() {
+        Map<String, Object> sentencias = new TreeMap<>();
+        for (Map.Entry<String, HistogramaLatencia> entry : histogramas.entrySet()) {
+            sentencias.put(entry.getKey(), entry.getValue().resumen());
+        }
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        resumen.put("umbral_lento_ms", getUmbralLentoMs());
+        resumen.put("ejecutadas", ejecutadas.get());
+        resumen.put("lentas", lentas.get());
+        resumen.put("fallidas", fallidas.get());
+        resumen.put("sentencias", sentencias);
+        resumen.put("ultimas_lentas", Arrays.asList(getUltimasConsultasLentas()));
+        return resumen;
+    }
+
+    @Override
+    public long getConsultasEjecutadas() {
+        return ejecutadas.get();
+    }
+
+    @Override
+    public long getConsultasLentas() {
+        return lentas.get();
+    }
+
+    @Override
+    public long getConsultasFallidas() {
+        return fallidas.get();
+    }
+
+    @Override
+    public long getUmbralLentoMs() {
+        return umbralLentoNanos / 1_000_000L;
+    }
+
+    @Override
+    public void setUmbralLentoMs(long umbralLentoMs) {
+        this.umbralLentoNanos = umbralLentoMs * 1_000_000L;
+    }
+
+    @Override
+    public String[] getSentencias() {
+        return new TreeSet<>(histogramas.keySet()).toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getUltimasConsultasLentas() {
+        synchronized (ultimasLentas) {
+            return ultimasLentas.toArray(new String[0]);
+        }
+    }
+
+    @Override
+    public double percentilMs(String sentencia, double percentil) {
+        HistogramaLatencia histograma = histogramas.get(sentencia);
+        return histograma == null ? 0.0 : histograma.percentilMs(percentil);
+    }
+
+    @Override
+    public String resumen(String sentencia) {
+        HistogramaLatencia histograma = histogramas.get(sentencia);
+        return histograma == null ? "" : histograma.resumen().toString();
+    }
+
+    @Override
+    public void reiniciar() {
+        histogramas.clear();
+        ejecutadas.set(0);
+        lentas.set(0);
+        fallidas.set(0);
+        synchronized (ultimasLentas) {
+            ultimasLentas.clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.lab1;
+
+/**
+ * Interfaz MetricasConsultasMBean.
+ *
+ * <p>
+ * Interfaz de gestión JMX de {@link MetricasConsultas}, registrada como com.lab1:type=MetricasConsultas
+ * y consultable con jconsole o VisualVM.
+ * </p>
+ */
+public interface MetricasConsultasMBean {
+
+    /**
+     * Devuelve el número de consultas ejecutadas desde el arranque o el último reinicio.
+     *
+     * @return Número de consultas ejecutadas.
+     */
+    long getConsultasEjecutadas();
+
+    /**
+     * Devuelve el número de consultas que han superado el umbral de consulta lenta.
+     *
+     * @return Número de consultas lentas.
+     */
+    long getConsultasLentas();
+
+    /**
+     * Devuelve el número de consultas que han terminado con un error.
+     *
+     * @return Número de consultas fallidas.
+     */
+    long getConsultasFallidas();
+
+    /**
+     * Devuelve el umbral de consulta lenta.
+     *
+     * @return Umbral en milisegundos.
+     */
+    long getUmbralLentoMs();
+
+    /**
+     * Cambia el umbral de consulta lenta en caliente.
+     *
+     * @param umbralLentoMs Umbral en milisegundos.
+     */
+    void setUmbralLentoMs(long umbralLentoMs);
+
+    /**
+     * Devuelve los nombres de las sentencias con latencias registradas.
+     *
+     * @return Nombres de las sentencias.
+     */
+    String[] getSentencias();
+
+    /**
+     * Devuelve las últimas consultas lentas, de la más reciente a la más antigua.
+     *
+     * @return Descripción de cada consulta lenta.
+     */
+    String[] getUltimasConsultasLentas();
+
+    /**
+     * Calcula un percentil de la latencia de una sentencia.
+     *
+     * @param sentencia Nombre de la sentencia.
+     * @param percentil Percentil entre 0 y 100.
+     * @return Valor del percentil en milisegundos, o 0 si la sentencia no tiene latencias.
+     */
+    double percentilMs(String sentencia, double percentil);
+
+    /**
+     * Devuelve el resumen de latencias de una sentencia.
+     *
+     * @param sentencia Nombre de la sentencia.
+     * @return Resumen (total, media, p50, p90, p99 y máximo).
+     */
+    String resumen(String sentencia);
+
+    /**
+     * Descarta todas las latencias y consultas lentas registradas.
+     */
+    void reiniciar();
+}
@@ -19,11 +19,23 @@ public class MySqlConnector {
      * @param database
      */
     public MySqlConnector(String host, String database) {
+        this(host, database, false);
+    }
+
+    /**
+     * Constructor de la clase. Se conecta a la base de datos.
+     * @param host
+     * @param database
+     * @param lecturaPorBloques Si se activa useCursorFetch, que permite leer los ResultSet por bloques
+     *                          cuando se fija un fetch size (solo para las conexiones de consulta: obliga a
+     *                          usar sentencias preparadas en el servidor también en las escrituras)
+     */
+    public MySqlConnector(String host, String database, boolean lecturaPorBloques) {
 
         try {
             //Creamos la conexión a la base de datos
             this.connection = DriverManager.getConnection(
-                    "jdbc:mysql://" + host + "/" + database,
+                    "jdbc:mysql://" + host + "/" + database + (lecturaPorBloques ? "?useCursorFetch=true" : ""),
 
                     // Obtenemos los valores de las variables de entorno MYSQL_USER y MYSQL_PASSWORD
                     // Si no existen, se asignan los valores por defecto "root" y "mysql"
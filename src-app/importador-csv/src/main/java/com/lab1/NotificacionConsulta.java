@@ -0,0 +1,51 @@
+package com.lab1;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import lombok.Getter;
+
+/**
+ * Clase NotificacionConsulta.
+ *
+ * <p>
+ * Cambio del resultado de una {@link ConsultaPermanente}: la estación y el precio anteriores y los
+ * nuevos, null cuando no había o ya no hay ninguna estación que cumpla la consulta. Es la fila que se
+ * guarda en notificacion_consulta y la que reciben los {@link OyenteConsultaPermanente}.
+ * </p>
+ */
+@Getter
+public class NotificacionConsulta {
+
+    private final int consultaId;
+    private final Integer estacionAnteriorId;
+    private final BigDecimal precioAnterior;
+    private final Integer estacionId;
+    private final BigDecimal precio;
+    private final LocalDateTime fecha;
+
+    /**
+     * Constructor de la clase NotificacionConsulta.
+     *
+     * @param consultaId         ID de la consulta.
+     * @param estacionAnteriorId Estación del resultado anterior, o null.
+     * @param precioAnterior     Precio del resultado anterior, o null.
+     * @param estacionId         Estación del resultado nuevo, o null.
+     * @param precio             Precio del resultado nuevo, o null.
+     * @param fecha              Fecha y hora de la evaluación.
+     */
+    public NotificacionConsulta(int consultaId, Integer estacionAnteriorId, BigDecimal precioAnterior,
+                                Integer estacionId, BigDecimal precio, LocalDateTime fecha) {
+        this.consultaId = consultaId;
+        this.estacionAnteriorId = estacionAnteriorId;
+        this.precioAnterior = precioAnterior;
+        this.estacionId = estacionId;
+        this.precio = precio;
+        this.fecha = fecha;
+    }
+
+    @Override
+    public String toString() {
+        return "consulta " + consultaId + ": estación " + estacionAnteriorId + " (" + precioAnterior + ") -> estación " +
+                estacionId + " (" + precio + ")";
+    }
+}
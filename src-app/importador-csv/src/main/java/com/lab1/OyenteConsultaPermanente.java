@@ -0,0 +1,21 @@
+package com.lab1;
+
+/**
+ * Interfaz OyenteConsultaPermanente.
+ *
+ * <p>
+ * Recibe los cambios de resultado de las consultas permanentes (ver {@link ConsultasPermanentes}).
+ * Se llama después de confirmar la transacción que los ha producido, en el hilo del importador, por lo
+ * que no debe bloquearse.
+ * </p>
+ */
+@FunctionalInterface
+public interface OyenteConsultaPermanente {
+
+    /**
+     * Notifica que el resultado de una consulta permanente ha cambiado.
+     *
+     * @param notificacion Resultado anterior y nuevo de la consulta.
+     */
+    void resultadoCambiado(NotificacionConsulta notificacion);
+}
@@ -0,0 +1,44 @@
+package com.lab1;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * Clase PaginaRanking.
+ *
+ * <p>
+ * Página de un ranking de precios: las filas obtenidas y el cursor para pedir la siguiente,
+ * que es null cuando no quedan más filas.
+ * </p>
+ */
+@Getter
+public class PaginaRanking {
+
+    private final List<Map<String, Object>> filas;
+    private final CursorPrecio siguienteCursor;
+
+    /**
+     * Constructor de la clase PaginaRanking.
+     *
+     * @param filas           Filas de la página.
+     * @param siguienteCursor Cursor de la página siguiente, o null si es la última.
+     */
+    public PaginaRanking(List<Map<String, Object>> filas, CursorPrecio siguienteCursor) {
+        this.filas = filas;
+        this.siguienteCursor = siguienteCursor;
+    }
+
+    /**
+     * Devuelve la página como mapa, para su serialización a JSON.
+     *
+     * @return Mapa con las filas y el cursor siguiente.
+     */
+    public Map<String, Object> comoMapa() {
+        Map<String, Object> mapa = new LinkedHashMap<>();
+        mapa.put("filas", filas);
+        mapa.put("siguienteCursor", siguienteCursor == null ? null : siguienteCursor.toString());
+        return mapa;
+    }
+}
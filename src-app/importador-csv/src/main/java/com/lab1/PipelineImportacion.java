@@ -0,0 +1,372 @@
+package com.lab1;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase PipelineImportacion.
+ *
+ * <p>
+ * Importación en dos etapas solapadas. El hilo lector/transformador de {@link ImportadorCSV} escribe
+ * los precios en lotes preasignados de un buffer circular acotado, y un hilo escritor dedicado, con
+ * su propia conexión, los vuelca a precio_combustible y a precio_vigente con executeBatch. Así el análisis del CSV y la
+ * espera a MySQL se solapan. Cuando el escritor se retrasa y no quedan lotes libres, el lector se
+ * bloquea (contrapresión). Si el escritor falla, el error se relanza en el lector en la siguiente
+ * publicación o al cerrar.
+ * </p>
+ *
+ * <p>
+ * Cada lote se confirma por separado: antes de publicarlo se confirma la conexión del lector, para que
+ * las filas de dimensiones que referencian sus precios sean visibles para el escritor. Por tanto, en
+ * este modo la importación no es una única transacción: si falla, los lotes ya publicados quedan
+ * confirmados. Para que un fallo no deje una importación parcial en las tablas en uso, el pipeline
+ * debe combinarse con la importación en la sombra de {@link EsquemaSombra}.
+ * </p>
+ *
+ * <p>
+ * Tras un error del lector hay que llamar a {@link #abortar()}: el lote que se estaba llenando se
+ * descarta sin publicarlo, porque sus precios referencian dimensiones de la transacción revertida, y el
+ * pipeline deja de admitir precios.
+ * </p>
+ *
+ * <p>
+ * La conexión del escritor solo la usa y la cierra su hilo, al terminar: un lote que se está volcando
+ * cuando se aborta el pipeline termina sin confirmarse, aunque el lector ya no espere por él.
+ * </p>
+ */
+@Slf4j
+public class PipelineImportacion {
+
+    /**
+     * Lote preasignado de precios, reutilizado durante toda la importación.
+     */
+    private static class LotePrecios {
+        final int[] estacionIds;
+        final int[] combustibleIds;
+        final double[] precios;
+        final long[] fechas;
+        int tamano;
+        boolean fin;
+
+        LotePrecios(int capacidad) {
+            estacionIds = new int[capacidad];
+            combustibleIds = new int[capacidad];
+            precios = new double[capacidad];
+            fechas = new long[capacidad];
+        }
+    }
+
+    private final Connection connLectura;
+    private final Connection connEscritura;
+    private final FormatoPrecio formatoPrecio;
+    private final Dialecto dialecto;
+    private final String sufijoTablas;
+    private final LotePrecios[] lotes;
+    private final int capacidadLote;
+
+    // Estado del buffer circular, protegido por el cerrojo
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final Condition hayLibres = cerrojo.newCondition();
+    private final Condition hayPublicados = cerrojo.newCondition();
+    private int cabeza;
+    private int cola;
+    private int publicados;
+
+    private final Thread escritor;
+    private volatile Throwable errorEscritor;
+    private volatile boolean abortado;
+
+    /**
+     * Lote que está llenando el lector, o null si aún no ha reservado ninguno.
+     */
+    private LotePrecios actual;
+
+    // Métricas de utilización de cada etapa (nanosegundos)
+    private long inicioNanos;
+    private long esperaLectorNanos;
+    // Las del escritor solo se leen tras join(), que garantiza su visibilidad
+    private long ocupadoEscritorNanos;
+    private long esperaEscritorNanos;
+    private long filasEscritas;
+
+    /**
+     * Constructor de la clase PipelineImportacion.
+     *
+     * @param connLectura   Conexión del lector, en la que se insertan las dimensiones.
+     * @param connEscritura Conexión dedicada del escritor de precios.
+     * @param numLotes      Número de lotes del buffer circular.
+     * @param capacidadLote Precios por lote.
+     * @param sufijoTablas  Sufijo de las tablas en las que se escribe (vacío, o el de las tablas en la sombra
+     *                      de {@link EsquemaSombra}).
+     * @throws SQLException Si ocurre un error al preparar la conexión del escritor.
+     */
+    public PipelineImportacion(Connection connLectura, Connection connEscritura, int numLotes, int capacidadLote,
+                               String sufijoTablas) throws SQLException {
+        this.connLectura = connLectura;
+        this.connEscritura = connEscritura;
+        this.capacidadLote = capacidadLote;
+        this.sufijoTablas = sufijoTablas;
+        this.lotes = new LotePrecios[numLotes];
+        for (int i = 0; i < numLotes; i++) {
+            lotes[i] = new LotePrecios(capacidadLote);
+        }
+        this.connEscritura.setAutoCommit(false);
+        this.formatoPrecio = FormatoPrecio.detectar(connEscritura);
+        this.dialecto = Dialecto.de(connEscritura);
+        this.escritor = new Thread(this::escribir, "pipeline-escritor");
+        this.escritor.setDaemon(true);
+    }
+
+    /**
+     * Arranca el hilo escritor.
+     */
+    public void iniciar() {
+        inicioNanos = System.nanoTime();
+        escritor.start();
+    }
+
+    /**
+     * Añade un precio al lote en curso, publicándolo si se llena.
+     *
+     * @param estacionId    ID de la estación de servicio.
+     * @param combustibleId ID del combustible.
+     * @param precio        Precio.
+     * @param fechaHora     Fecha y hora de la toma de datos.
+     * @throws SQLException Si falla la confirmación del lector o el escritor ha fallado.
+     */
+    public void anadir(int estacionId, int combustibleId, double precio, Timestamp fechaHora) throws SQLException {
+        comprobarAbortado();
+        if (actual == null) {
+            actual = reservar();
+        }
+        int i = actual.tamano++;
+        actual.estacionIds[i] = estacionId;
+        actual.combustibleIds[i] = combustibleId;
+        actual.precios[i] = precio;
+        actual.fechas[i] = fechaHora.getTime();
+        if (actual.tamano == capacidadLote) {
+            publicar();
+        }
+    }
+
+    /**
+     * Publica el lote en curso, si tiene precios, para que lo vuelque el escritor.
+     *
+     * @throws SQLException Si falla la confirmación del lector o el escritor ha fallado.
+     */
+    public void publicar() throws SQLException {
+        comprobarAbortado();
+        if (actual == null || actual.tamano == 0) {
+            comprobarEscritor();
+            return;
+        }
+        // Las dimensiones de este lote deben ser visibles para la conexión del escritor
+        connLectura.commit();
+        entregar(actual);
+        actual = null;
+    }
+
+    /**
+     * Publica el último lote, espera a que el escritor termine y muestra la utilización de cada etapa.
+     *
+     * @throws SQLException Si el escritor ha fallado.
+     */
+    public void cerrar() throws SQLException {
+        publicar();
+        LotePrecios fin = reservar();
+        fin.fin = true;
+        entregar(fin);
+        long inicioEspera = System.nanoTime();
+        try {
+            escritor.join();
+            esperaLectorNanos += System.nanoTime() - inicioEspera;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando al escritor del pipeline", e);
+        }
+        comprobarEscritor();
+        informarUtilizacion();
+    }
+
+    /**
+     * Detiene el escritor sin esperar a que vacíe el buffer, tras un error del lector, y descarta el lote
+     * que se estaba llenando. El escritor revierte el lote que esté volcando y cierra su conexión; si no
+     * termina en unos segundos, lo hará al acabar la sentencia en curso. Las llamadas siguientes no
+     * hacen nada.
+     */
+    public void abortar() {
+        if (abortado) {
+            return;
+        }
+        abortado = true;
+        actual = null;
+        escritor.interrupt();
+        try {
+            escritor.join(TimeUnit.SECONDS.toMillis(10));
+            if (escritor.isAlive()) {
+                log.warn("El escritor del pipeline sigue volcando un lote: lo revertirá al terminar");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reserva el siguiente lote libre, bloqueándose mientras el escritor no libere ninguno.
+     */
+    private LotePrecios reservar() throws SQLException {
+        long inicio = System.nanoTime();
+        cerrojo.lock();
+        try {
+            while (publicados == lotes.length) {
+                comprobarEscritor();
+                hayLibres.await(100, TimeUnit.MILLISECONDS);
+            }
+            LotePrecios lote = lotes[cola];
+            lote.tamano = 0;
+            lote.fin = false;
+            return lote;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando un lote libre del pipeline", e);
+        } finally {
+            cerrojo.unlock();
+            esperaLectorNanos += System.nanoTime() - inicio;
+        }
+    }
+
+    private void entregar(LotePrecios lote) throws SQLException {
+        comprobarEscritor();
+        cerrojo.lock();
+        try {
+            cola = (cola + 1) % lotes.length;
+            publicados++;
+            hayPublicados.signal();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    private void comprobarAbortado() throws SQLException {
+        if (abortado) {
+            throw new SQLException("El pipeline se ha abortado");
+        }
+    }
+
+    private void comprobarEscritor() throws SQLException {
+        Throwable error = errorEscritor;
+        if (error != null) {
+            throw new SQLException("El escritor del pipeline ha fallado", error);
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: vuelca cada lote publicado y lo libera.
+     */
+    private void escribir() {
+        try (PreparedStatement insert = preparar(formatoPrecio.sqlInsertar());
+             PreparedStatement vigente = preparar(formatoPrecio.sqlActualizarVigentes(1))) {
+            while (true) {
+                long inicioEspera = System.nanoTime();
+                LotePrecios lote;
+                cerrojo.lock();
+                try {
+                    while (publicados == 0) {
+                        hayPublicados.await();
+                    }
+                    lote = lotes[cabeza];
+                } finally {
+                    cerrojo.unlock();
+                }
+                long inicioTrabajo = System.nanoTime();
+                esperaEscritorNanos += inicioTrabajo - inicioEspera;
+
+                if (lote.fin) {
+                    return;
+                }
+                for (int i = 0; i < lote.tamano; i++) {
+                    for (PreparedStatement stmt : new PreparedStatement[]{insert, vigente}) {
+                        stmt.setInt(1, lote.estacionIds[i]);
+                        stmt.setInt(2, lote.combustibleIds[i]);
+                        formatoPrecio.asignar(stmt, 3, lote.precios[i]);
+                        stmt.setTimestamp(4, new Timestamp(lote.fechas[i]));
+                        stmt.addBatch();
+                    }
+                }
+                insert.executeBatch();
+                insert.clearBatch();
+                vigente.executeBatch();
+                vigente.clearBatch();
+                // Un lote que se estaba volcando al abortar no se confirma
+                if (abortado) {
+                    return;
+                }
+                connEscritura.commit();
+                filasEscritas += lote.tamano;
+                ocupadoEscritorNanos += System.nanoTime() - inicioTrabajo;
+
+                cerrojo.lock();
+                try {
+                    cabeza = (cabeza + 1) % lotes.length;
+                    publicados--;
+                    hayLibres.signal();
+                } finally {
+                    cerrojo.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            log.error("Error en el escritor del pipeline", t);
+            errorEscritor = t;
+            try {
+                connEscritura.rollback();
+            } catch (SQLException rollbackEx) {
+                log.error("Error al hacer rollback de la transacción del escritor", rollbackEx);
+            }
+        } finally {
+            cerrarConexionEscritor();
+        }
+    }
+
+    /**
+     * Cierra la conexión del escritor desde su hilo, revirtiendo antes lo no confirmado si el pipeline se
+     * ha abortado.
+     */
+    private void cerrarConexionEscritor() {
+        try {
+            if (abortado) {
+                connEscritura.rollback();
+            }
+            connEscritura.close();
+        } catch (SQLException e) {
+            log.warn("Error al cerrar la conexión del escritor del pipeline", e);
+        }
+    }
+
+    /**
+     * Prepara en la conexión del escritor una sentencia sobre las tablas en las que se escribe, adaptada
+     * al dialecto del motor, como las de {@link ImportadorCSV}.
+     */
+    private PreparedStatement preparar(String sql) throws SQLException {
+        return connEscritura.prepareStatement(dialecto.adaptar(EsquemaSombra.enTablas(sql, sufijoTablas)));
+    }
+
+    private void informarUtilizacion() {
+        double total = System.nanoTime() - inicioNanos;
+        double ocupadoLector = total - esperaLectorNanos;
+        log.info("Pipeline: {} precios escritos en {} ms", filasEscritas, (long) (total / 1_000_000));
+        log.info("Pipeline: lector ocupado {}% (esperando lotes libres {} ms)",
+                String.format("%.1f", 100 * ocupadoLector / total), esperaLectorNanos / 1_000_000);
+        log.info("Pipeline: escritor ocupado {}% (esperando lotes {} ms)",
+                String.format("%.1f", 100 * ocupadoEscritorNanos / total), esperaEscritorNanos / 1_000_000);
+        log.info("Pipeline: solapamiento {}x (suma de tiempo ocupado / tiempo total)",
+                String.format("%.2f", (ocupadoLector + ocupadoEscritorNanos) / total));
+    }
+}
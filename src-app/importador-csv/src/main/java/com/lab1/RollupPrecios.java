@@ -0,0 +1,310 @@
+package com.lab1;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase RollupPrecios.
+ *
+ * <p>
+ * Mantiene los agregados de precios por provincia, combustible y periodo de las tablas
+ * precio_rollup_hora y precio_rollup_dia: suma y número de precios (para la media), mínimo y máximo.
+ * Las consultas de tendencia de {@link Consultas} leen estos agregados en lugar de recorrer todo
+ * precio_combustible con sus cinco uniones geográficas.
+ * </p>
+ *
+ * <p>
+ * Los precios se agregan como intervalos de validez, igual que el histórico de {@link Consultas}: cada
+ * fila de precio_combustible es válida hasta la siguiente de la misma estación y combustible. Cada hora
+ * cuenta una vez cada precio vigente en algún momento de ella, aunque se guardara antes, de modo que el
+ * resultado es el mismo si se guardan todas las observaciones o solo los cambios (IMPORTADOR_SOLO_CAMBIOS)
+ * y las horas sin cambios también tienen agregados. El último precio de cada estación se extiende hasta
+ * el final del rango indicado, que debe ser la última observación. Los días se agregan a partir de las
+ * horas, así que su media pondera cada precio por las horas que estuvo vigente.
+ * </p>
+ *
+ * <p>
+ * Reagregar un rango recalcula desde cero los días completos que lo contienen. Por eso es idempotente y
+ * se puede repetir tras una corrección de datos o un fallo.
+ * </p>
+ */
+@Slf4j
+public class RollupPrecios {
+
+    private static final String DATABASE = "estaciones_servicio";
+
+    private static final String SQL_BORRAR_HORAS =
+            "DELETE FROM precio_rollup_hora WHERE periodo >= ? AND periodo < ?";
+
+    // Intervalos de validez vigentes en algún momento de un día: los que empiezan en el día y el precio
+    // vigente al empezar el día (la última fila anterior de cada estación y combustible)
+    private static final String SQL_INTERVALOS_DIA =
+            "SELECT t.provincia_id, t.combustible_id, t.precio, t.fecha_hora AS valido_desde, " +
+                    "LEAD(t.fecha_hora) OVER (PARTITION BY t.estacion_id, t.combustible_id ORDER BY t.fecha_hora) AS valido_hasta " +
+                    "FROM (SELECT mu.provincia_id, pc.estacion_id, pc.combustible_id, pc.precio, pc.fecha_hora " +
+                    "FROM precio_combustible pc " +
+                    "JOIN estacion_servicio es ON pc.estacion_id = es.estacion_id " +
+                    "JOIN codigo_postal cp ON es.codigo_postal_id = cp.codigo_postal_id " +
+                    "JOIN localidad l ON cp.localidad_id = l.localidad_id " +
+                    "JOIN municipio mu ON l.municipio_id = mu.municipio_id " +
+                    "WHERE pc.fecha_hora >= ? AND pc.fecha_hora < ? " +
+                    "UNION ALL " +
+                    "SELECT mu.provincia_id, pc.estacion_id, pc.combustible_id, pc.precio, pc.fecha_hora " +
+                    "FROM precio_vigente pv " +
+                    "JOIN precio_combustible pc ON pc.estacion_id = pv.estacion_id AND pc.combustible_id = pv.combustible_id " +
+                    "AND pc.fecha_hora = (SELECT MAX(pc2.fecha_hora) FROM precio_combustible pc2 " +
+                    "WHERE pc2.estacion_id = pv.estacion_id AND pc2.combustible_id = pv.combustible_id AND pc2.fecha_hora < ?) " +
+                    "JOIN estacion_servicio es ON pc.estacion_id = es.estacion_id " +
+                    "JOIN codigo_postal cp ON es.codigo_postal_id = cp.codigo_postal_id " +
+                    "JOIN localidad l ON cp.localidad_id = l.localidad_id " +
+                    "JOIN municipio mu ON l.municipio_id = mu.municipio_id) t";
+
+    /**
+     * Filas horarias por sentencia INSERT.
+     */
+    private static final int FILAS_POR_INSERT = 1000;
+
+    private static final String SQL_ULTIMA_HORA =
+            "SELECT MAX(periodo) FROM precio_rollup_hora";
+
+    private static final String SQL_BORRAR_DIAS =
+            "DELETE FROM precio_rollup_dia WHERE periodo >= ? AND periodo < ?";
+
+    private static final String SQL_AGREGAR_DIAS =
+            "INSERT INTO precio_rollup_dia (provincia_id, combustible_id, periodo, suma_precio, num_precios, precio_minimo, precio_maximo) " +
+                    "SELECT provincia_id, combustible_id, DATE(periodo) AS dia, " +
+                    "SUM(suma_precio), SUM(num_precios), MIN(precio_minimo), MAX(precio_maximo) " +
+                    "FROM precio_rollup_hora " +
+                    "WHERE periodo >= ? AND periodo < ? " +
+                    "GROUP BY provincia_id, combustible_id, dia";
+
+    /**
+     * Agregado de una hora, provincia y combustible, con los precios en milésimas.
+     */
+    private static class AgregadoHora {
+        final int provinciaId;
+        final int combustibleId;
+        final int hora;
+        long suma;
+        int num;
+        int minimo = Integer.MAX_VALUE;
+        int maximo = Integer.MIN_VALUE;
+
+        AgregadoHora(int provinciaId, int combustibleId, int hora) {
+            this.provinciaId = provinciaId;
+            this.combustibleId = combustibleId;
+            this.hora = hora;
+        }
+
+        void anadir(int milesimas) {
+            suma += milesimas;
+            num++;
+            minimo = Math.min(minimo, milesimas);
+            maximo = Math.max(maximo, milesimas);
+        }
+    }
+
+    private final Connection conn;
+    private final String sufijoTablas;
+
+    /**
+     * Constructor de la clase RollupPrecios.
+     *
+     * @param conn Conexión a la base de datos.
+     */
+    public RollupPrecios(final Connection conn) {
+        this(conn, "");
+    }
+
+    /**
+     * Constructor de la clase RollupPrecios sobre tablas con sufijo, como las tablas en la sombra de
+     * {@link EsquemaSombra}.
+     *
+     * @param conn         Conexión a la base de datos.
+     * @param sufijoTablas Sufijo de las tablas (vacío para las tablas en uso).
+     */
+    public RollupPrecios(final Connection conn, final String sufijoTablas) {
+        this.conn = conn;
+        this.sufijoTablas = sufijoTablas;
+    }
+
+    /**
+     * Recalcula los agregados horarios y diarios de los días que contienen el rango, dentro de la
+     * transacción en curso (no la confirma).
+     *
+     * @param desde Primer instante del rango.
+     * @param hasta Último instante del rango (incluido), hasta el que se extienden los precios vigentes.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public void reagregar(LocalDateTime desde, LocalDateTime hasta) throws SQLException {
+        long inicio = System.nanoTime();
+        Timestamp primerDia = Timestamp.valueOf(desde.toLocalDate().atStartOfDay());
+        Timestamp finDia = Timestamp.valueOf(hasta.toLocalDate().plusDays(1).atStartOfDay());
+
+        Dialecto dialecto = Dialecto.de(conn);
+        int horas = 0;
+        try (PreparedStatement borrar = preparar(dialecto, SQL_BORRAR_HORAS);
+             PreparedStatement intervalos = preparar(dialecto, SQL_INTERVALOS_DIA);
+             PreparedStatement insertar = preparar(dialecto, sqlInsertarHoras(FILAS_POR_INSERT))) {
+            borrar.setTimestamp(1, primerDia);
+            borrar.setTimestamp(2, finDia);
+            borrar.executeUpdate();
+            for (LocalDate dia = desde.toLocalDate(); !dia.isAfter(hasta.toLocalDate()); dia = dia.plusDays(1)) {
+                horas += agregarHorasDia(dialecto, intervalos, insertar, dia, hasta);
+            }
+        }
+        int dias;
+        try (PreparedStatement borrar = preparar(dialecto, SQL_BORRAR_DIAS);
+             PreparedStatement agregar = preparar(dialecto, SQL_AGREGAR_DIAS)) {
+            borrar.setTimestamp(1, primerDia);
+            borrar.setTimestamp(2, finDia);
+            borrar.executeUpdate();
+            agregar.setTimestamp(1, primerDia);
+            agregar.setTimestamp(2, finDia);
+            dias = agregar.executeUpdate();
+        }
+        log.info("Agregados recalculados del {} al {}: {} filas horarias y {} diarias en {} ms",
+                primerDia.toLocalDateTime().toLocalDate(), hasta.toLocalDate(), horas, dias,
+                (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    /**
+     * Agrega las horas de un día, sin pasar del final del rango. Los intervalos del día se leen una sola
+     * vez y se reparten aquí entre las horas que solapan, en milésimas para que las sumas sean exactas.
+     *
+     * @return Número de filas horarias insertadas.
+     */
+    private int agregarHorasDia(Dialecto dialecto, PreparedStatement intervalos, PreparedStatement insertar,
+                                LocalDate dia, LocalDateTime hasta) throws SQLException {
+        LocalDateTime inicioDia = dia.atStartOfDay();
+        LocalDateTime finDia = dia.plusDays(1).atStartOfDay();
+        int ultimaHoraRango = hasta.isBefore(finDia) ? hasta.getHour() : 23;
+
+        Map<Long, AgregadoHora> agregados = new HashMap<>();
+        intervalos.setTimestamp(1, Timestamp.valueOf(inicioDia));
+        intervalos.setTimestamp(2, Timestamp.valueOf(finDia));
+        intervalos.setTimestamp(3, Timestamp.valueOf(inicioDia));
+        try (ResultSet rs = intervalos.executeQuery()) {
+            while (rs.next()) {
+                LocalDateTime validoDesde = rs.getTimestamp("valido_desde").toLocalDateTime();
+                Timestamp validoHasta = rs.getTimestamp("valido_hasta");
+                int primeraHora = validoDesde.isBefore(inicioDia) ? 0 : validoDesde.getHour();
+                // La última hora que solapa es la del último instante antes de valido_hasta
+                int ultimaHora = validoHasta == null || !validoHasta.toLocalDateTime().isBefore(finDia)
+                        ? ultimaHoraRango
+                        : Math.min(validoHasta.toLocalDateTime().minusNanos(1).getHour(), ultimaHoraRango);
+                int provinciaId = rs.getInt("provincia_id");
+                int combustibleId = rs.getInt("combustible_id");
+                int milesimas = rs.getBigDecimal("precio").movePointRight(3).intValue();
+                for (int hora = primeraHora; hora <= ultimaHora; hora++) {
+                    long clave = ((long) provinciaId << 37) | ((long) combustibleId << 5) | hora;
+                    AgregadoHora agregado = agregados.get(clave);
+                    if (agregado == null) {
+                        agregado = new AgregadoHora(provinciaId, combustibleId, hora);
+                        agregados.put(clave, agregado);
+                    }
+                    agregado.anadir(milesimas);
+                }
+            }
+        }
+
+        List<AgregadoHora> pendientes = new ArrayList<>(agregados.values());
+        int completas = pendientes.size() / FILAS_POR_INSERT * FILAS_POR_INSERT;
+        for (int i = 0; i < completas; i += FILAS_POR_INSERT) {
+            insertarHoras(insertar, pendientes.subList(i, i + FILAS_POR_INSERT), inicioDia);
+        }
+        if (completas < pendientes.size()) {
+            try (PreparedStatement resto = preparar(dialecto, sqlInsertarHoras(pendientes.size() - completas))) {
+                insertarHoras(resto, pendientes.subList(completas, pendientes.size()), inicioDia);
+            }
+        }
+        return agregados.size();
+    }
+
+    private void insertarHoras(PreparedStatement pstmt, List<AgregadoHora> filas, LocalDateTime inicioDia)
+            throws SQLException {
+        int p = 1;
+        for (AgregadoHora agregado : filas) {
+            pstmt.setInt(p++, agregado.provinciaId);
+            pstmt.setInt(p++, agregado.combustibleId);
+            pstmt.setTimestamp(p++, Timestamp.valueOf(inicioDia.plusHours(agregado.hora)));
+            pstmt.setBigDecimal(p++, BigDecimal.valueOf(agregado.suma, 3));
+            pstmt.setInt(p++, agregado.num);
+            pstmt.setBigDecimal(p++, BigDecimal.valueOf(agregado.minimo, 3));
+            pstmt.setBigDecimal(p++, BigDecimal.valueOf(agregado.maximo, 3));
+        }
+        pstmt.executeUpdate();
+    }
+
+    private static String sqlInsertarHoras(int filas) {
+        StringBuilder sql = new StringBuilder("INSERT INTO precio_rollup_hora (provincia_id, combustible_id, periodo, ")
+                .append("suma_precio, num_precios, precio_minimo, precio_maximo) VALUES ");
+        for (int i = 0; i < filas; i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?)");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Devuelve la última hora con agregados, desde la que hay que reagregar para extender los precios
+     * vigentes a las horas sin observaciones que la separan de un fichero nuevo.
+     *
+     * @return Inicio de la última hora agregada, o null si no hay agregados.
+     * @throws SQLException Si ocurre un error en la base de datos.
+     */
+    public LocalDateTime ultimaHoraAgregada() throws SQLException {
+        try (PreparedStatement pstmt = preparar(Dialecto.de(conn), SQL_ULTIMA_HORA);
+             ResultSet rs = pstmt.executeQuery()) {
+            Timestamp ultima = rs.next() ? rs.getTimestamp(1) : null;
+            return ultima == null ? null : ultima.toLocalDateTime();
+        }
+    }
+
+    private PreparedStatement preparar(Dialecto dialecto, String sql) throws SQLException {
+        return conn.prepareStatement(dialecto.adaptar(EsquemaSombra.enTablas(sql, sufijoTablas)));
+    }
+
+    /**
+     * Método principal que reagrega un rango de días bajo demanda.
+     *
+     * @param args Argumentos de línea de comandos: host, nombre de la base de datos, primer día y último
+     *             día (yyyy-MM-dd).
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            log.error("Uso: RollupPrecios <host> <base de datos> <desde yyyy-MM-dd> <hasta yyyy-MM-dd>");
+            return;
+        }
+        String host = args[0];
+        String database = args[1].isEmpty() ? DATABASE : args[1];
+        LocalDate desde = LocalDate.parse(args[2]);
+        LocalDate hasta = LocalDate.parse(args[3]);
+
+        try (Connection conn = Almacen.crear(host, database).conectar()) {
+            conn.setAutoCommit(false);
+            try {
+                // Los precios vigentes se extienden hasta el final del último día, sin pasar de ahora
+                LocalDateTime finHasta = hasta.plusDays(1).atStartOfDay().minusSeconds(1);
+                LocalDateTime ahora = LocalDateTime.now();
+                new RollupPrecios(conn).reagregar(desde.atStartOfDay(), finHasta.isAfter(ahora) ? ahora : finHasta);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            log.error("Error al reagregar los precios", e);
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package com.lab1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Clase ServicioConsultas.
+ *
+ * <p>
+ * Servicio HTTP de larga duración, basado en el servidor HTTP incluido en el JDK, que expone las
+ * consultas de {@link Consultas} como endpoints JSON parametrizados. Evita pagar el arranque de la
+ * JVM y el establecimiento de la conexión en cada consulta: cada hilo del ejecutor mantiene su
+ * propia conexión abierta y las peticiones se atienden en paralelo sobre un pool acotado. Cada
+ * endpoint registra sus latencias en un {@link HistogramaLatencia}, consultable en /metricas junto
+ * con el estado del pool y las métricas por sentencia de {@link MetricasConsultas}.
+ * </p>
+ *
+ * <p>
+ * La conexión de un hilo se comprueba antes de usarla si lleva un tiempo sin usarse y después de
+ * cualquier petición fallida; si se ha perdido (wait_timeout, reinicio de MySQL) se cierra y el hilo
+ * abre otra. El hilo aceptador del servidor solo entrega las peticiones al pool: con la cola llena
+ * responde 503 en lugar de ejecutarlas él mismo.
+ * </p>
+ */
+@Slf4j
+public class ServicioConsultas {
+
+    private static final String DATABASE = "estaciones_servicio";
+    private static final int PUERTO_POR_DEFECTO = 8080;
+    private static final long REFRESCO_INDICE_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.parseLong(System.getenv().getOrDefault("SERVICIO_INDICE_REFRESCO_S", "300")));
+
+    /**
+     * Tiempo sin usarse tras el cual la conexión de un hilo se comprueba antes de la siguiente petición.
+     */
+    private static final long VALIDAR_TRAS_INACTIVIDAD_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int TIMEOUT_VALIDACION_S = 2;
+
+    private final Almacen almacen;
+    private final ThreadPoolExecutor executor;
+    private final HttpServer server;
+
+    /**
+     * Histogramas de latencia por endpoint.
+     */
+    private final Map<String, HistogramaLatencia> histogramas = new ConcurrentHashMap<>();
+
+    /**
+     * Conexiones abiertas por los hilos del pool, para cerrarlas al parar el servicio.
+     */
+    private final List<Connection> conexiones = new CopyOnWriteArrayList<>();
+
+    /**
+     * Instancia de Consultas (y su conexión) asociada a cada hilo del pool.
+     */
+    private final ThreadLocal<ConsultasHilo> consultasPorHilo = new ThreadLocal<>();
+
+    /**
+     * Peticiones rechazadas con 503 por tener la cola llena.
+     */
+    private final AtomicLong rechazadas = new AtomicLong();
+
+    /**
+     * Índice en memoria de las estaciones con sus precios vigentes, compartido por todos los hilos y
+     * recargado cada {@link #REFRESCO_INDICE_NANOS}; mientras un hilo lo recarga, el resto sigue usando el anterior.
+     */
+    private volatile IndiceEstaciones indiceEstaciones;
+    private volatile long indiceCargadoNanos;
+    private final AtomicBoolean recargandoIndice = new AtomicBoolean();
+
+    /**
+     * Consultas de un hilo del pool, con su conexión y el momento de su último uso.
+     */
+    private static class ConsultasHilo {
+        final Connection conn;
+        final Consultas consultas;
+        long ultimoUsoNanos;
+
+        ConsultasHilo(Connection conn) {
+            this.conn = conn;
+            this.consultas = new Consultas(conn);
+        }
+    }
+
+    /**
+     * Función de un endpoint: recibe el acceso a las consultas del hilo y los parámetros de la
+     * petición, y devuelve el resultado a serializar. La conexión solo se reserva al invocar el
+     * Supplier, una vez validados los parámetros.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        Object ejecutar(Supplier<Consultas> consultas, Map<String, String> parametros) throws ConsultasException;
+    }
+
+    /**
+     * Constructor de la clase ServicioConsultas.
+     *
+     * @param host      Host de la base de datos.
+     * @param database  Nombre de la base de datos.
+     * @param puerto    Puerto HTTP en el que escuchar.
+     * @param hilos     Número de hilos (y de conexiones) del pool.
+     * @param tamanoCola Peticiones que pueden esperar en cola antes de aplicar contrapresión.
+     * @throws IOException Si no se puede abrir el puerto.
+     */
+    public ServicioConsultas(String host, String database, int puerto, int hilos, int tamanoCola) throws IOException {
+        this.almacen = Almacen.crear(host, database);
+
+        AtomicInteger contadorHilos = new AtomicInteger();
+        // Con la cola llena el pool rechaza la petición y el hilo aceptador responde 503 (ver registrarEndpoint)
+        this.executor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(tamanoCola),
+                r -> new Thread(r, "consultas-" + contadorHilos.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        // Sin executor propio, los handlers se ejecutan en el hilo aceptador, que solo los entrega al pool
+        this.server = HttpServer.create(new InetSocketAddress(puerto), 0);
+
+        registrarEndpoint("/consultas/empresa-mas-estaciones", new String[]{"tipoEstacion"}, (consultas, p) ->
+                consultas.get().consultarEmpresaConMasEstaciones(p.get("tipoEstacion")));
+        registrarEndpoint("/consultas/estacion-mas-barata/provincia", new String[]{"provincia", "combustible"}, (consultas, p) ->
+                consultas.get().consultarEstacionMasBarataEnProvincia(p.get("provincia"), p.get("combustible")));
+        registrarEndpoint("/consultas/estacion-mas-barata/radio", new String[]{"combustible", "lat", "lon", "radioKm"}, (consultas, p) -> {
+            double lat = numero(p, "lat");
+            double lon = numero(p, "lon");
+            double radioKm = numero(p, "radioKm");
+            return consultas.get().consultarEstacionMasBarataEnRadio(p.get("municipio"), p.get("combustible"), lat, lon, radioKm);
+        });
+        registrarEndpoint("/consultas/estacion-mas-barata/ruta", new String[]{"ruta", "combustible", "anchoKm"}, (consultas, p) -> {
+            List<double[]> ruta = ruta(p);
+            double anchoKm = numero(p, "anchoKm");
+            int k = entero(p, "k", 1);
+            if (k < 1 || k > Consultas.MAX_TOP_K) {
+                throw new IllegalArgumentException("k debe estar entre 1 y " + Consultas.MAX_TOP_K + ": " + k);
+            }
+            LocalDateTime instante = p.containsKey("instante") ? instante(p, "instante").toLocalDateTime()
+                    : Boolean.parseBoolean(p.get("abierta")) ? LocalDateTime.now() : null;
+            return indiceEstaciones(consultas).buscarMasBaratasEnRuta(ruta, p.get("combustible"), anchoKm, k, instante);
+        });
+        registrarEndpoint("/consultas/provincia-precio-mas-alto", new String[]{"tipoEstacion", "combustible"}, (consultas, p) ->
+                consultas.get().consultarProvinciaConPrecioMasAlto(p.get("tipoEstacion"), p.get("combustible")));
+        registrarEndpoint("/consultas/ranking/provincia", new String[]{"provincia", "combustible"}, (consultas, p) -> {
+            int k = entero(p, "k", 10);
+            CursorPrecio cursor = CursorPrecio.parse(p.get("cursor"));
+            return consultas.get().consultarRankingEnProvincia(p.get("provincia"), p.get("combustible"), k, cursor).comoMapa();
+        });
+        registrarEndpoint("/consultas/ranking/radio", new String[]{"combustible", "lat", "lon", "radioKm"}, (consultas, p) -> {
+            double lat = numero(p, "lat");
+            double lon = numero(p, "lon");
+            double radioKm = numero(p, "radioKm");
+            int k = entero(p, "k", 10);
+            CursorPrecio cursor = CursorPrecio.parse(p.get("cursor"));
+            return consultas.get().consultarRankingEnRadio(p.get("combustible"), lat, lon, radioKm, k, cursor).comoMapa();
+        });
+        registrarEndpoint("/consultas/estacion-abierta-mas-barata/radio", new String[]{"combustible", "lat", "lon", "radioKm"}, (consultas, p) -> {
+            double lat = numero(p, "lat");
+            double lon = numero(p, "lon");
+            double radioKm = numero(p, "radioKm");
+            LocalDateTime instante = p.containsKey("instante") ? instante(p, "instante").toLocalDateTime() : LocalDateTime.now();
+            return consultas.get().consultarEstacionAbiertaMasBarataEnRadio(p.get("combustible"), lat, lon, radioKm, instante);
+        });
+        registrarEndpoint("/consultas/precio-vigente", new String[]{"estacionId", "combustible"}, (consultas, p) -> {
+            int estacionId = entero(p, "estacionId", 0);
+            Timestamp instante = p.containsKey("instante") ? instante(p, "instante") : new Timestamp(System.currentTimeMillis());
+            return consultas.get().consultarPrecioVigente(estacionId, p.get("combustible"), instante);
+        });
+        registrarEndpoint("/consultas/historico-precios", new String[]{"estacionId", "combustible", "desde", "hasta"}, (consultas, p) -> {
+            int estacionId = entero(p, "estacionId", 0);
+            Timestamp desde = instante(p, "desde");
+            Timestamp hasta = instante(p, "hasta");
+            return consultas.get().consultarHistoricoPrecios(estacionId, p.get("combustible"), desde, hasta);
+        });
+        registrarEndpoint("/consultas/tendencia", new String[]{"provincia", "combustible", "desde", "hasta"}, (consultas, p) -> {
+            LocalDateTime desde = instante(p, "desde").toLocalDateTime();
+            LocalDateTime hasta = instante(p, "hasta").toLocalDateTime();
+            Consultas.Granularidad granularidad = granularidad(p, desde, hasta);
+            Map<String, Object> tendencia = new LinkedHashMap<>();
+            tendencia.put("granularidad", granularidad.name());
+            tendencia.put("filas", consultas.get().consultarTendencia(p.get("provincia"), p.get("combustible"), desde, hasta, granularidad));
+            return tendencia;
+        });
+
+        server.createContext("/metricas", exchange -> responder(exchange, 200, metricas()));
+    }
+
+    /**
+     * Arranca el servicio.
+     */
+    public void iniciar() {
+        server.start();
+        log.info("Servicio de consultas escuchando en el puerto {}", server.getAddress().getPort());
+    }
+
+    /**
+     * Detiene el servicio, esperando como máximo el tiempo indicado a las peticiones en curso,
+     * y cierra las conexiones de los hilos.
+     *
+     * @param segundosEspera Segundos de espera para las peticiones en curso.
+     */
+    public void detener(int segundosEspera) {
+        server.stop(segundosEspera);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(segundosEspera, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection conn : conexiones) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                log.warn("Error al cerrar una conexión del servicio", e);
+            }
+        }
+        log.info("Servicio de consultas detenido");
+    }
+
+    /**
+     * Registra un endpoint JSON que mide su latencia en un histograma propio. La petición se atiende en
+     * un hilo del pool; si la cola está llena se responde 503 desde el hilo aceptador.
+     */
+    private void registrarEndpoint(String ruta, String[] obligatorios, Endpoint endpoint) {
+        HistogramaLatencia histograma = histogramas.computeIfAbsent(ruta, r -> new HistogramaLatencia());
+        HttpHandler atender = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                long inicio = System.nanoTime();
+                try {
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        responder(exchange, 405, error("Método no permitido: " + exchange.getRequestMethod()));
+                        return;
+                    }
+                    Map<String, String> parametros = parametros(exchange.getRequestURI().getRawQuery());
+                    for (String obligatorio : obligatorios) {
+                        parametros.put(obligatorio, requerido(parametros, obligatorio));
+                    }
+                    Object resultado = endpoint.ejecutar(ServicioConsultas.this::consultasDelHilo, parametros);
+                    responder(exchange, 200, resultado);
+                } catch (IllegalArgumentException e) {
+                    responder(exchange, 400, error(e.getMessage()));
+                } catch (ConsultasException | RuntimeException e) {
+                    log.error("Error al atender la petición {}", exchange.getRequestURI(), e);
+                    // Si el error se debe a una conexión perdida, la siguiente petición del hilo abrirá otra
+                    descartarSiNoValida();
+                    responder(exchange, 500, error(e.getMessage()));
+                } finally {
+                    histograma.registrarNanos(System.nanoTime() - inicio);
+                    exchange.close();
+                }
+            }
+        };
+        server.createContext(ruta, exchange -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        atender.handle(exchange);
+                    } catch (IOException e) {
+                        log.warn("Error al responder la petición {}", exchange.getRequestURI(), e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rechazadas.incrementAndGet();
+                try {
+                    responder(exchange, 503, error("Servicio saturado: inténtelo de nuevo más tarde"));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Devuelve las consultas del hilo actual, abriendo su conexión la primera vez o si la anterior se ha
+     * perdido. La conexión solo se comprueba si lleva un tiempo sin usarse.
+     */
+    private Consultas consultasDelHilo() {
+        ConsultasHilo actual = consultasPorHilo.get();
+        long ahora = System.nanoTime();
+        if (actual != null && ahora - actual.ultimoUsoNanos > VALIDAR_TRAS_INACTIVIDAD_NANOS && !esValida(actual.conn)) {
+            descartar(actual);
+            actual = null;
+        }
+        if (actual == null) {
+            actual = crearConsultas();
+            consultasPorHilo.set(actual);
+        }
+        actual.ultimoUsoNanos = ahora;
+        return actual.consultas;
+    }
+
+    /**
+     * Crea la instancia de Consultas de un hilo del pool, con su propia conexión.
+     */
+    private ConsultasHilo crearConsultas() {
+        Connection conn;
+        try {
+            conn = almacen.conectarLectura();
+        } catch (SQLException e) {
+            throw new IllegalStateException("No se pudo conectar con la base de datos", e);
+        }
+        conexiones.add(conn);
+        log.info("Conexión abierta para el hilo {}", Thread.currentThread().getName());
+        return new ConsultasHilo(conn);
+    }
+
+    /**
+     * Descarta las consultas del hilo actual si su conexión ya no es válida.
+     */
+    private void descartarSiNoValida() {
+        ConsultasHilo actual = consultasPorHilo.get();
+        if (actual != null && !esValida(actual.conn)) {
+            descartar(actual);
+        }
+    }
+
+    /**
+     * Cierra la conexión perdida del hilo actual y la olvida.
+     */
+    private void descartar(ConsultasHilo consultasHilo) {
+        log.warn("Conexión del hilo {} perdida; se abrirá otra", Thread.currentThread().getName());
+        consultasPorHilo.remove();
+        conexiones.remove(consultasHilo.conn);
+        try {
+            consultasHilo.conn.close();
+        } catch (SQLException e) {
+            log.debug("Error al cerrar la conexión perdida", e);
+        }
+    }
+
+    private static boolean esValida(Connection conn) {
+        try {
+            return conn.isValid(TIMEOUT_VALIDACION_S);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Devuelve el índice de estaciones, cargándolo la primera vez y recargándolo cuando caduca.
+     */
+    private IndiceEstaciones indiceEstaciones(Supplier<Consultas> consultas) throws ConsultasException {
+        IndiceEstaciones indice = indiceEstaciones;
+        if (indice == null) {
+            synchronized (this) {
+                if (indiceEstaciones == null) {
+                    indiceEstaciones = consultas.get().cargarIndiceEstaciones();
+                    indiceCargadoNanos = System.nanoTime();
+                }
+                return indiceEstaciones;
+            }
+        }
+        if (System.nanoTime() - indiceCargadoNanos > REFRESCO_INDICE_NANOS && recargandoIndice.compareAndSet(false, true)) {
+            try {
+                indice = consultas.get().cargarIndiceEstaciones();
+                indiceEstaciones = indice;
+                indiceCargadoNanos = System.nanoTime();
+            } finally {
+                recargandoIndice.set(false);
+            }
+        }
+        return indice;
+    }
+
+    /**
+     * Construye el resultado del endpoint de métricas.
+     */
+    private Map<String, Object> metricas() {
+        Map<String, Object> endpoints = new TreeMap<>();
+        for (Map.Entry<String, HistogramaLatencia> entry : histogramas.entrySet()) {
+            endpoints.put(entry.getKey(), entry.getValue().resumen());
+        }
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("hilos", executor.getPoolSize());
+        pool.put("activos", executor.getActiveCount());
+        pool.put("max_activos", executor.getLargestPoolSize());
+        pool.put("en_cola", executor.getQueue().size());
+        pool.put("capacidad_cola", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+        pool.put("completadas", executor.getCompletedTaskCount());
+        pool.put("rechazadas", rechazadas.get());
+        pool.put("conexiones", conexiones.size());
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("endpoints", endpoints);
+        metricas.put("pool", pool);
+        metricas.put("consultas", MetricasConsultas.getInstancia().resumen());
+        return metricas;
+    }
+
+    /**
+     * Serializa el resultado a JSON y lo envía como respuesta.
+     */
+    private static void responder(HttpExchange exchange, int estado, Object resultado) throws IOException {
+        byte[] cuerpo = Json.escribir(resultado).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(estado, cuerpo.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(cuerpo);
+        }
+    }
+
+    private static Map<String, Object> error(String mensaje) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", mensaje);
+        return error;
+    }
+
+    /**
+     * Decodifica los parámetros de la query string de una petición.
+     */
+    private static Map<String, String> parametros(String query) throws UnsupportedEncodingException {
+        Map<String, String> parametros = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parametros;
+        }
+        for (String par : query.split("&")) {
+            int igual = par.indexOf('=');
+            String clave = igual >= 0 ? par.substring(0, igual) : par;
+            String valor = igual >= 0 ? par.substring(igual + 1) : "";
+            parametros.put(URLDecoder.decode(clave, "UTF-8"), URLDecoder.decode(valor, "UTF-8"));
+        }
+        return parametros;
+    }
+
+    private static String requerido(Map<String, String> parametros, String nombre) {
+        String valor = parametros.get(nombre);
+        if (valor == null || valor.trim().isEmpty()) {
+            throw new IllegalArgumentException("Falta el parámetro obligatorio '" + nombre + "'");
+        }
+        return valor.trim();
+    }
+
+    private static double numero(Map<String, String> parametros, String nombre) {
+        String valor = requerido(parametros, nombre);
+        try {
+            return Double.parseDouble(valor.replace(",", "."));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("El parámetro '" + nombre + "' no es un número: " + valor);
+        }
+    }
+
+    private static int entero(Map<String, String> parametros, String nombre, int porDefecto) {
+        String valor = parametros.get(nombre);
+        if (valor == null || valor.trim().isEmpty()) {
+            return porDefecto;
+        }
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("El parámetro '" + nombre + "' no es un entero: " + valor);
+        }
+    }
+
+    /**
+     * Interpreta el parámetro opcional granularidad (hora, dia, semana o mes); si falta, se elige según la ventana.
+     */
+    private static Consultas.Granularidad granularidad(Map<String, String> parametros, LocalDateTime desde, LocalDateTime hasta) {
+        String valor = parametros.get("granularidad");
+        if (valor == null || valor.trim().isEmpty()) {
+            return Consultas.Granularidad.para(desde, hasta);
+        }
+        try {
+            return Consultas.Granularidad.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("El parámetro 'granularidad' debe ser hora, dia, semana o mes: " + valor);
+        }
+    }
+
+    /**
+     * Interpreta el parámetro ruta: puntos "lat,lon" separados por punto y coma.
+     */
+    private static List<double[]> ruta(Map<String, String> parametros) {
+        String valor = requerido(parametros, "ruta");
+        List<double[]> ruta = new ArrayList<>();
+        for (String punto : valor.split(";")) {
+            String[] coordenadas = punto.trim().split(",");
+            try {
+                if (coordenadas.length != 2) {
+                    throw new NumberFormatException();
+                }
+                ruta.add(new double[]{Double.parseDouble(coordenadas[0].trim()), Double.parseDouble(coordenadas[1].trim())});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("El parámetro 'ruta' debe ser una lista de puntos lat,lon separados por ';': " + punto);
+            }
+        }
+        return ruta;
+    }
+
+    /**
+     * Interpreta un parámetro de fecha y hora en formato ISO (yyyy-MM-ddTHH:mm[:ss]) o una fecha (yyyy-MM-dd).
+     */
+    private static Timestamp instante(Map<String, String> parametros, String nombre) {
+        String valor = requerido(parametros, nombre);
+        try {
+            if (valor.length() == 10) {
+                return Timestamp.valueOf(LocalDate.parse(valor).atStartOfDay());
+            }
+            return Timestamp.valueOf(LocalDateTime.parse(valor));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("El parámetro '" + nombre + "' no es una fecha válida: " + valor);
+        }
+    }
+
+    /**
+     * Método principal que arranca el servicio.
+     *
+     * @param args Argumentos de línea de comandos: host, nombre de la base de datos y puerto (opcionales).
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        String database = args.length > 1 ? args[1] : DATABASE;
+        int puerto = args.length > 2 ? Integer.parseInt(args[2]) : PUERTO_POR_DEFECTO;
+
+        // Tamaño del pool y de la cola configurables por variables de entorno
+        int hilos = Integer.parseInt(System.getenv().getOrDefault("SERVICIO_HILOS",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+        int tamanoCola = Integer.parseInt(System.getenv().getOrDefault("SERVICIO_COLA", "256"));
+
+        ServicioConsultas servicio = new ServicioConsultas(host, database, puerto, hilos, tamanoCola);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> servicio.detener(5)));
+        servicio.iniciar();
+    }
+}
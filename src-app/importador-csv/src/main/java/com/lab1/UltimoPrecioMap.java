@@ -0,0 +1,159 @@
+package com.lab1;
+
+import java.util.Arrays;
+
+/**
+ * Clase UltimoPrecioMap.
+ *
+ * <p>
+ * Mapa de tipos primitivos (direccionamiento abierto con sondeo lineal) de (estacion_id, combustible_id)
+ * al último precio conocido, en milésimas de euro, y a la fecha de su última observación, en minutos
+ * desde la época. Evita el coste de un HashMap con claves y valores encapsulados para los cientos de
+ * miles de pares que mantiene el importador en el modo de almacenamiento de solo cambios.
+ * </p>
+ */
+public class UltimoPrecioMap {
+
+    /**
+     * Valor devuelto cuando el par no está en el mapa.
+     */
+    public static final int SIN_VALOR = Integer.MIN_VALUE;
+
+    private static final long CLAVE_VACIA = -1L;
+    private static final float FACTOR_CARGA = 0.7f;
+
+    private long[] claves;
+    private int[] precios;
+    private int[] fechas;
+    private int tamano;
+    private int umbral;
+
+    /**
+     * Constructor de la clase UltimoPrecioMap.
+     *
+     * @param capacidadInicial Número de pares esperados.
+     */
+    public UltimoPrecioMap(int capacidadInicial) {
+        int capacidad = Integer.highestOneBit(Math.max(16, (int) (capacidadInicial / FACTOR_CARGA)) - 1) << 1;
+        inicializar(capacidad);
+    }
+
+    private void inicializar(int capacidad) {
+        claves = new long[capacidad];
+        Arrays.fill(claves, CLAVE_VACIA);
+        precios = new int[capacidad];
+        fechas = new int[capacidad];
+        umbral = (int) (capacidad * FACTOR_CARGA);
+        tamano = 0;
+    }
+
+    /**
+     * Devuelve el último precio conocido del par, en milésimas.
+     *
+     * @param estacionId    ID de la estación.
+     * @param combustibleId ID del combustible.
+     * @return Precio en milésimas, o {@link #SIN_VALOR} si no hay precio para el par.
+     */
+    public int getPrecio(int estacionId, int combustibleId) {
+        int posicion = buscar(clave(estacionId, combustibleId));
+        return posicion < 0 ? SIN_VALOR : precios[posicion];
+    }
+
+    /**
+     * Devuelve la fecha en que se observó por última vez el precio del par, en minutos desde la época.
+     *
+     * @param estacionId    ID de la estación.
+     * @param combustibleId ID del combustible.
+     * @return Fecha en minutos, o {@link #SIN_VALOR} si no hay precio para el par.
+     */
+    public int getFecha(int estacionId, int combustibleId) {
+        int posicion = buscar(clave(estacionId, combustibleId));
+        return posicion < 0 ? SIN_VALOR : fechas[posicion];
+    }
+
+    /**
+     * Guarda el último precio observado del par, reemplazando el anterior.
+     *
+     * @param estacionId    ID de la estación.
+     * @param combustibleId ID del combustible.
+     * @param precio        Precio en milésimas.
+     * @param fecha         Fecha de la observación en minutos desde la época.
+     */
+    public void put(int estacionId, int combustibleId, int precio, int fecha) {
+        long clave = clave(estacionId, combustibleId);
+        int mascara = claves.length - 1;
+        int posicion = mezclar(clave) & mascara;
+        while (claves[posicion] != CLAVE_VACIA) {
+            if (claves[posicion] == clave) {
+                precios[posicion] = precio;
+                fechas[posicion] = fecha;
+                return;
+            }
+            posicion = (posicion + 1) & mascara;
+        }
+        claves[posicion] = clave;
+        precios[posicion] = precio;
+        fechas[posicion] = fecha;
+        if (++tamano > umbral) {
+            redimensionar();
+        }
+    }
+
+    /**
+     * Devuelve el número de pares guardados.
+     *
+     * @return Número de pares.
+     */
+    public int size() {
+        return tamano;
+    }
+
+    /**
+     * Elimina todos los pares.
+     */
+    public void clear() {
+        Arrays.fill(claves, CLAVE_VACIA);
+        tamano = 0;
+    }
+
+    private int buscar(long clave) {
+        int mascara = claves.length - 1;
+        int posicion = mezclar(clave) & mascara;
+        while (claves[posicion] != CLAVE_VACIA) {
+            if (claves[posicion] == clave) {
+                return posicion;
+            }
+            posicion = (posicion + 1) & mascara;
+        }
+        return -1;
+    }
+
+    private void redimensionar() {
+        long[] clavesAnteriores = claves;
+        int[] preciosAnteriores = precios;
+        int[] fechasAnteriores = fechas;
+        inicializar(clavesAnteriores.length << 1);
+        for (int i = 0; i < clavesAnteriores.length; i++) {
+            if (clavesAnteriores[i] != CLAVE_VACIA) {
+                put((int) (clavesAnteriores[i] >>> 32), (int) clavesAnteriores[i], preciosAnteriores[i], fechasAnteriores[i]);
+            }
+        }
+    }
+
+    private static long clave(int estacionId, int combustibleId) {
+        return ((long) estacionId << 32) | (combustibleId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Mezcla los bits de la clave (finalizador de MurmurHash3) para repartirla por la tabla.
+     */
+    private static int mezclar(long clave) {
+        long h = clave;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,151 @@
+package com.lab1;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Clase BaseDatosPrueba.
+ *
+ * <p>
+ * Base de datos H2 embebida de {@link AlmacenH2} en un directorio temporal, con el esquema de
+ * esquema_h2.sql, y métodos para dar de alta estaciones y precios en las pruebas. Todas las estaciones
+ * comparten marca, margen y tipo; la provincia y el horario se indican en cada alta.
+ * </p>
+ */
+class BaseDatosPrueba implements AutoCloseable {
+
+    /**
+     * Horario de las estaciones que no indican otro.
+     */
+    static final String HORARIO_24H = "L-D: 24H";
+
+    private final Almacen almacen;
+    private final Connection conn;
+
+    /**
+     * Crea la base de datos en un directorio.
+     *
+     * @param directorio Directorio temporal de la prueba.
+     * @throws SQLException Si no se puede crear la base de datos.
+     */
+    BaseDatosPrueba(Path directorio) throws SQLException {
+        this.almacen = new AlmacenH2(directorio.toString(), "bd");
+        this.conn = almacen.conectar();
+        ejecutar("INSERT INTO marca (nombre_marca) VALUES ('PRUEBA')");
+        ejecutar("INSERT INTO margen (nombre_margen) VALUES ('D')");
+        ejecutar("INSERT INTO tipo_estacion (tipo_estacion) VALUES ('Terrestre')");
+    }
+
+    Almacen getAlmacen() {
+        return almacen;
+    }
+
+    Connection getConexion() {
+        return conn;
+    }
+
+    /**
+     * Da de alta una estación abierta las 24 horas.
+     */
+    int estacion(String provincia, String direccion, double latitud, double longitud) throws SQLException {
+        return estacion(provincia, direccion, latitud, longitud, HORARIO_24H);
+    }
+
+    /**
+     * Da de alta una estación con su horario, en un municipio, localidad y código postal propios.
+     *
+     * @return ID de la estación.
+     */
+    int estacion(String provincia, String direccion, double latitud, double longitud, String horario)
+            throws SQLException {
+        int provinciaId = idONuevo("provincia", "provincia_id", "nombre_provincia", provincia);
+        int municipioId = insertar("INSERT INTO municipio (nombre_municipio, provincia_id) VALUES (?, ?)", direccion, provinciaId);
+        int localidadId = insertar("INSERT INTO localidad (nombre_localidad, municipio_id) VALUES (?, ?)", direccion, municipioId);
+        int codigoPostalId = insertar("INSERT INTO codigo_postal (codigo_postal, localidad_id) VALUES (?, ?)", "00000", localidadId);
+        int horarioId = idOHorario(horario);
+        return insertar("INSERT INTO estacion_servicio (direccion, margen_id, ubicacion, codigo_postal_id, marca_id, horario_id, " +
+                        "tipo_estacion_id) VALUES (?, 1, ?, ?, 1, ?, 1)",
+                direccion, "POINT(" + longitud + " " + latitud + ")", codigoPostalId, horarioId);
+    }
+
+    /**
+     * Devuelve el ID de un combustible, dándolo de alta si no existe.
+     */
+    int combustible(String nombre) throws SQLException {
+        return idONuevo("tipo_combustible", "combustible_id", "nombre_combustible", nombre);
+    }
+
+    /**
+     * Guarda un precio en el histórico y como precio vigente, como el importador.
+     */
+    void precio(int estacionId, int combustibleId, String precio, LocalDateTime fechaHora) throws SQLException {
+        try (PreparedStatement insert = conn.prepareStatement(FormatoPrecio.DECIMAL.sqlInsertar());
+             PreparedStatement vigente = conn.prepareStatement(FormatoPrecio.DECIMAL.sqlActualizarVigentes(1))) {
+            for (PreparedStatement pstmt : new PreparedStatement[]{insert, vigente}) {
+                pstmt.setInt(1, estacionId);
+                pstmt.setInt(2, combustibleId);
+                pstmt.setBigDecimal(3, new BigDecimal(precio));
+                pstmt.setTimestamp(4, Timestamp.valueOf(fechaHora));
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    void ejecutar(String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private int idONuevo(String tabla, String columnaId, String columnaNombre, String nombre) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT " + columnaId + " FROM " + tabla + " WHERE " + columnaNombre + " = ?")) {
+            pstmt.setString(1, nombre);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        return insertar("INSERT INTO " + tabla + " (" + columnaNombre + ") VALUES (?)", nombre);
+    }
+
+    private int idOHorario(String descripcion) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT horario_id FROM horario WHERE descripcion_horario = ?")) {
+            pstmt.setString(1, descripcion);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        return insertar("INSERT INTO horario (descripcion_horario, horario_semanal) VALUES (?, ?)",
+                descripcion, HorarioSemanal.parse(descripcion));
+    }
+
+    private int insertar(String sql, Object... parametros) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < parametros.length; i++) {
+                pstmt.setObject(i + 1, parametros[i]);
+            }
+            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        conn.close();
+    }
+}
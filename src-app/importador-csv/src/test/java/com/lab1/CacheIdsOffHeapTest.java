@@ -0,0 +1,109 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas de {@link CacheIdsOffHeap}.
+ */
+class CacheIdsOffHeapTest {
+
+    private static final Pattern ENTRADAS = Pattern.compile("(\\d+)/(\\d+) entradas");
+
+    @Test
+    void devuelveElIdGuardadoYNullSiNoEsta() {
+        CacheIds cache = new CacheIdsOffHeap("prueba", 64 * 1024);
+        cache.put("28001|Madrid", 17);
+
+        assertEquals(Integer.valueOf(17), cache.get("28001|Madrid"));
+        assertNull(cache.get("28002|Madrid"));
+    }
+
+    @Test
+    void reemplazaElIdDeUnaClaveExistente() {
+        CacheIds cache = new CacheIdsOffHeap("prueba", 64 * 1024);
+        cache.put("clave", 1);
+        cache.put("clave", 2);
+
+        assertEquals(Integer.valueOf(2), cache.get("clave"));
+        assertEquals(1, entradas(cache)[0]);
+    }
+
+    @Test
+    void clearEliminaTodasLasEntradas() {
+        CacheIds cache = new CacheIdsOffHeap("prueba", 64 * 1024);
+        for (int i = 0; i < 100; i++) {
+            cache.put("clave-" + i, i);
+        }
+        cache.clear();
+
+        assertEquals(0, entradas(cache)[0]);
+        assertNull(cache.get("clave-5"));
+    }
+
+    @Test
+    void noSuperaSuCapacidadConMasClavesQueEntradas() {
+        CacheIds cache = new CacheIdsOffHeap("prueba", 64 * 1024);
+        for (int i = 0; i < 100_000; i++) {
+            String clave = "clave-" + i;
+            if (cache.get(clave) == null) {
+                cache.put(clave, i);
+            }
+        }
+
+        int[] entradas = entradas(cache);
+        assertTrue(entradas[0] <= entradas[1], cache.resumen());
+        // Lo que queda en la caché sigue devolviendo el ID correcto
+        int aciertos = 0;
+        for (int i = 0; i < 100_000; i++) {
+            Integer id = cache.get("clave-" + i);
+            if (id != null) {
+                assertEquals(i, id.intValue());
+                aciertos++;
+            }
+        }
+        assertTrue(aciertos > 0);
+    }
+
+    @Test
+    void unRecorridoDeClavesUnicasNoExpulsaALasFrecuentes() {
+        CacheIds cache = new CacheIdsOffHeap("prueba", 64 * 1024);
+        for (int repeticion = 0; repeticion < 5; repeticion++) {
+            for (int i = 0; i < 100; i++) {
+                usar(cache, "frecuente-" + i, i);
+            }
+        }
+        for (int i = 0; i < 20_000; i++) {
+            usar(cache, "unica-" + i, i);
+            if (i % 500 == 0) {
+                for (int j = 0; j < 100; j++) {
+                    usar(cache, "frecuente-" + j, j);
+                }
+            }
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), cache.get("frecuente-" + i), "frecuente-" + i);
+        }
+    }
+
+    /**
+     * Patrón de uso del importador: consulta la caché y, si falla, guarda el ID obtenido de la base de datos.
+     */
+    private static void usar(CacheIds cache, String clave, int id) {
+        if (cache.get(clave) == null) {
+            cache.put(clave, id);
+        }
+    }
+
+    private static int[] entradas(CacheIds cache) {
+        Matcher m = ENTRADAS.matcher(cache.resumen());
+        assertTrue(m.find(), cache.resumen());
+        return new int[]{Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))};
+    }
+}
@@ -0,0 +1,97 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas de {@link ConsultasPermanentes} con los precios que guarda {@link ImportadorCSV}.
+ */
+class ConsultasPermanentesTest {
+
+    private static final String CABECERA = "Provincia,Municipio,Localidad,Código postal,Dirección,Margen,Longitud,Latitud," +
+            "Toma de datos,Precio gasolina 95 E5,Precio gasolina 95 E10,Precio gasolina 95 E5 Premium,Precio gasolina 98 E5," +
+            "Precio gasolina 98 E10,Precio gasóleo A,Precio gasóleo Premium,Precio gasóleo B,Precio gasóleo C," +
+            "Precio bioetanol,Precio biodiésel,Precio gases licuados del petróleo,Precio gas natural comprimido," +
+            "Precio gas natural licuado,Precio hidrógeno,Rótulo,Horario,Tipo estación";
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void unFicheroAntiguoImportadoTardeNoCambiaElResultado() throws Exception {
+        File nuevo = fichero("nuevo.csv",
+                fila("CALLE UNO, 1", -3.70, 40.41, "2024-12-02 10:00:00", "1.459"),
+                fila("CALLE DOS, 2", -3.71, 40.42, "2024-12-02 10:00:00", "1.469"));
+        File antiguo = fichero("antiguo.csv",
+                fila("CALLE DOS, 2", -3.71, 40.42, "2024-12-01 10:00:00", "1.299"));
+
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio.resolve("bd"))) {
+            Connection conn = bd.getConexion();
+            int consultaId = ConsultasPermanentes.registrar(conn, "Gasóleo A", "MADRID", null, null, null);
+
+            ImportadorCSV.inicializar(conn);
+            try {
+                assertTrue(ImportadorCSV.importarFichero(nuevo));
+                assertTrue(ImportadorCSV.importarFichero(antiguo));
+                conn.commit();
+
+                assertEquals(estacion(conn, "CALLE UNO, 1"), resultado(conn, consultaId, "estacion_id"));
+                assertEquals(new BigDecimal("1.459"), resultado(conn, consultaId, "precio"));
+            } finally {
+                ImportadorCSV.limpiarCaches();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private File fichero(String nombre, String... filas) throws Exception {
+        Path fichero = directorio.resolve(nombre);
+        StringBuilder contenido = new StringBuilder(CABECERA).append('\n');
+        for (String fila : filas) {
+            contenido.append(fila).append('\n');
+        }
+        Files.write(fichero, contenido.toString().getBytes(StandardCharsets.UTF_8));
+        return fichero.toFile();
+    }
+
+    /**
+     * Fila de una estación de Madrid con solo el precio del gasóleo A.
+     */
+    private static String fila(String direccion, double longitud, double latitud, String tomaDeDatos, String precio) {
+        return "MADRID,MADRID,MADRID,28001,\"" + direccion + "\",D," + longitud + "," + latitud + "," + tomaDeDatos +
+                ",,,,,," + precio + ",,,,,,,,,,PRUEBA,L-D: 24H,Terrestre";
+    }
+
+    private static Object estacion(Connection conn, String direccion) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT estacion_id FROM estacion_servicio WHERE direccion = ?")) {
+            pstmt.setString(1, direccion);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getObject(1);
+            }
+        }
+    }
+
+    private static Object resultado(Connection conn, int consultaId, String columna) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT " + columna + " FROM consulta_permanente WHERE consulta_id = ?")) {
+            pstmt.setInt(1, consultaId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getObject(1);
+            }
+        }
+    }
+}
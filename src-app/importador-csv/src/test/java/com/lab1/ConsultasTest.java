@@ -0,0 +1,48 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas de las consultas de {@link Consultas} que no son rankings paginados.
+ */
+class ConsultasTest {
+
+    private static final LocalDateTime AYER = LocalDateTime.of(2024, 12, 1, 10, 0);
+    private static final LocalDateTime HOY = LocalDateTime.of(2024, 12, 2, 10, 0);
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void laMasBarataEnUnRadioSinMunicipioUsaElPrecioVigente() throws Exception {
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            int gasoleo = bd.combustible("Gasóleo A");
+            // A unos 1,1 km del centro, con un precio anterior más barato que ya no es vigente
+            int cerca = bd.estacion("Madrid", "Calle 1", 40.43, -3.70);
+            bd.precio(cerca, gasoleo, "1.299", AYER);
+            bd.precio(cerca, gasoleo, "1.499", HOY);
+            int otra = bd.estacion("Madrid", "Calle 2", 40.41, -3.71);
+            bd.precio(otra, gasoleo, "1.459", HOY);
+            // Fuera del radio, más barata
+            int lejos = bd.estacion("Toledo", "Toledo 1", 39.86, -4.02);
+            bd.precio(lejos, gasoleo, "1.099", HOY);
+
+            List<Map<String, Object>> filas = new Consultas(bd.getConexion())
+                    .consultarEstacionMasBarataEnRadio(null, "Gasóleo A", 40.42, -3.70, 5);
+
+            assertEquals(1, filas.size());
+            assertEquals(otra, filas.get(0).get("estacion_id"));
+            assertEquals(new BigDecimal("1.459"), filas.get(0).get("precio"));
+            assertTrue(((Number) filas.get(0).get("distancia_km")).doubleValue() <= 5);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas de {@link CursorPrecio} y de la paginación por cursor de los rankings de {@link Consultas}.
+ */
+class CursorPrecioTest {
+
+    private static final LocalDateTime AYER = LocalDateTime.of(2024, 12, 1, 10, 0);
+    private static final LocalDateTime HOY = LocalDateTime.of(2024, 12, 2, 10, 0);
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void seSerializaYSeInterpretaSinPerderPrecision() {
+        CursorPrecio cursor = new CursorPrecio(new BigDecimal("1.459"), 1234);
+
+        assertEquals("1.459:1234", cursor.toString());
+        CursorPrecio leido = CursorPrecio.parse(cursor.toString());
+        assertEquals(new BigDecimal("1.459"), leido.getPrecio());
+        assertEquals(1234, leido.getEstacionId());
+    }
+
+    @Test
+    void unTextoVacioEsLaPrimeraPagina() {
+        assertSame(CursorPrecio.INICIO, CursorPrecio.parse(null));
+        assertSame(CursorPrecio.INICIO, CursorPrecio.parse("  "));
+    }
+
+    @Test
+    void rechazaCursoresMalFormados() {
+        assertThrows(IllegalArgumentException.class, () -> CursorPrecio.parse("1.459"));
+        assertThrows(IllegalArgumentException.class, () -> CursorPrecio.parse(":12"));
+        assertThrows(IllegalArgumentException.class, () -> CursorPrecio.parse("abc:12"));
+        assertThrows(IllegalArgumentException.class, () -> CursorPrecio.parse("1.459:x"));
+    }
+
+    @Test
+    void lasPaginasRecorrenElRankingSinRepetirNiSaltarFilasConEmpates() throws Exception {
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            int gasoleo = bd.combustible("Gasóleo A");
+            String[] precios = {"1.399", "1.459", "1.399", "1.389", "1.459", "1.399", "1.500"};
+            List<String> esperado = new ArrayList<>();
+            int[] ids = new int[precios.length];
+            for (int i = 0; i < precios.length; i++) {
+                ids[i] = bd.estacion("Madrid", "Calle " + i, 40.4 + i * 0.01, -3.7);
+                bd.precio(ids[i], gasoleo, "1.600", AYER);
+                bd.precio(ids[i], gasoleo, precios[i], HOY);
+            }
+            // Otra provincia y un precio anterior más barato, que no es vigente, no deben aparecer
+            int toledo = bd.estacion("Toledo", "Toledo 1", 39.8, -4.0);
+            bd.precio(toledo, gasoleo, "1.100", HOY);
+            esperado.add("1.389:" + ids[3]);
+            esperado.add("1.399:" + ids[0]);
+            esperado.add("1.399:" + ids[2]);
+            esperado.add("1.399:" + ids[5]);
+            esperado.add("1.459:" + ids[1]);
+            esperado.add("1.459:" + ids[4]);
+            esperado.add("1.500:" + ids[6]);
+
+            Consultas consultas = new Consultas(bd.getConexion());
+            List<String> obtenido = new ArrayList<>();
+            CursorPrecio cursor = CursorPrecio.INICIO;
+            int paginas = 0;
+            do {
+                PaginaRanking pagina = consultas.consultarRankingEnProvincia("Madrid", "Gasóleo A", 2,
+                        CursorPrecio.parse(cursor.toString()));
+                assertTrue(pagina.getFilas().size() <= 2);
+                for (Map<String, Object> fila : pagina.getFilas()) {
+                    obtenido.add(((BigDecimal) fila.get("precio")).toPlainString() + ":" + fila.get("estacion_id"));
+                }
+                cursor = pagina.getSiguienteCursor();
+                paginas++;
+            } while (cursor != null);
+
+            assertEquals(esperado, obtenido);
+            assertEquals(4, paginas);
+        }
+    }
+
+    @Test
+    void laUltimaPaginaCompletaNoTieneCursorSiguiente() throws Exception {
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            int gasoleo = bd.combustible("Gasóleo A");
+            for (int i = 0; i < 4; i++) {
+                bd.precio(bd.estacion("Madrid", "Calle " + i, 40.4 + i * 0.01, -3.7), gasoleo, "1.4" + i, HOY);
+            }
+
+            Consultas consultas = new Consultas(bd.getConexion());
+            PaginaRanking primera = consultas.consultarRankingEnProvincia("Madrid", "Gasóleo A", 2, CursorPrecio.INICIO);
+            PaginaRanking segunda = consultas.consultarRankingEnProvincia("Madrid", "Gasóleo A", 2, primera.getSiguienteCursor());
+
+            assertEquals(2, segunda.getFilas().size());
+            assertNull(segunda.getSiguienteCursor());
+        }
+    }
+}
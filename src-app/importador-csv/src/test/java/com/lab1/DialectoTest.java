@@ -0,0 +1,91 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas de las reescrituras de {@link Dialecto#adaptar(String)}.
+ */
+class DialectoTest {
+
+    @Test
+    void mysqlNoReescribeNada() {
+        String sql = "SELECT a.x FROM t a WHERE DATE_SUB(a.f, INTERVAL 7 DAY) < ? HAVING d <= ? ORDER BY a.x";
+
+        assertSame(sql, Dialecto.MYSQL.adaptar(sql));
+    }
+
+    @Test
+    void elPredicadoDeAperturaPasaALaFuncionDeH2() {
+        String sql = "SELECT h.horario_id FROM horario h WHERE " + HorarioSemanal.PREDICADO_SQL_ABIERTO;
+
+        assertEquals("SELECT h.horario_id FROM horario h WHERE HORARIO_ABIERTO(h.horario_semanal, ?, ?) = 1",
+                Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void stEqualsConUnPuntoPasaAUnaIgualdad() {
+        String sql = "SELECT es.estacion_id FROM estacion_servicio es WHERE ST_Equals(es.ubicacion, ST_PointFromText(?, 4326))";
+
+        assertEquals("SELECT es.estacion_id FROM estacion_servicio es WHERE es.ubicacion = ST_PointFromText(?, 4326)",
+                Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void dateSubPasaADateadd() {
+        String sql = "SELECT DATE_SUB(r.periodo, INTERVAL WEEKDAY(r.periodo) DAY) AS semana FROM precio_rollup_dia r";
+
+        assertEquals("SELECT DATEADD(DAY, -(WEEKDAY(r.periodo)), r.periodo) AS semana FROM precio_rollup_dia r",
+                Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void havingSinGroupByPasaAUnWhereSobreUnaTablaDerivada() {
+        String sql = "SELECT pv.estacion_id, pv.precio, ST_Distance_Sphere(es.ubicacion, ?) / 1000 AS distancia_km " +
+                "FROM precio_vigente pv JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                "WHERE pv.combustible_id = ? HAVING distancia_km <= ? ORDER BY pv.precio ASC, pv.estacion_id ASC LIMIT ?";
+
+        assertEquals("SELECT * FROM (SELECT pv.estacion_id, pv.precio, ST_Distance_Sphere(es.ubicacion, ?) / 1000 AS distancia_km " +
+                        "FROM precio_vigente pv JOIN estacion_servicio es ON pv.estacion_id = es.estacion_id " +
+                        "WHERE pv.combustible_id = ?) t WHERE distancia_km <= ? ORDER BY precio ASC, estacion_id ASC LIMIT ?",
+                Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void completaElGroupByConLasColumnasDelSelect() {
+        String sql = "SELECT p.provincia_id, p.nombre_provincia, AVG(pc.precio) AS media " +
+                "FROM precio_combustible pc JOIN provincia p ON pc.provincia_id = p.provincia_id " +
+                "GROUP BY p.provincia_id ORDER BY media DESC LIMIT 1";
+
+        assertEquals("SELECT p.provincia_id, p.nombre_provincia, AVG(pc.precio) AS media " +
+                        "FROM precio_combustible pc JOIN provincia p ON pc.provincia_id = p.provincia_id " +
+                        "GROUP BY p.provincia_id, p.nombre_provincia ORDER BY media DESC LIMIT 1",
+                Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void noTocaUnGroupByPorPosicion() {
+        String sql = "SELECT DATE(r.periodo), SUM(r.num_precios) FROM precio_rollup_hora r GROUP BY 1";
+
+        assertEquals(sql, Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void unGroupByConHavingConservaElHaving() {
+        String sql = "SELECT m.marca_id, m.nombre_marca, COUNT(*) AS n FROM estacion_servicio es " +
+                "JOIN marca m ON es.marca_id = m.marca_id GROUP BY m.marca_id HAVING n > 1 ORDER BY n DESC";
+
+        assertEquals("SELECT m.marca_id, m.nombre_marca, COUNT(*) AS n FROM estacion_servicio es " +
+                        "JOIN marca m ON es.marca_id = m.marca_id GROUP BY m.marca_id, m.nombre_marca HAVING n > 1 ORDER BY n DESC",
+                Dialecto.H2.adaptar(sql));
+    }
+
+    @Test
+    void cadaSentenciaSeAdaptaUnaSolaVez() {
+        String sql = "SELECT DATE_SUB(r.periodo, INTERVAL 1 DAY) FROM precio_rollup_dia r";
+
+        assertSame(Dialecto.H2.adaptar(sql), Dialecto.H2.adaptar(new String(sql)));
+    }
+}
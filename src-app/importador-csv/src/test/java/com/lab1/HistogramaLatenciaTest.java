@@ -0,0 +1,97 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas de {@link HistogramaLatencia}.
+ */
+class HistogramaLatenciaTest {
+
+    @Test
+    void sinValoresLosPercentilesSonCero() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+
+        assertEquals(0, histograma.getTotal());
+        assertEquals(0.0, histograma.percentilMs(50));
+        assertEquals(0.0, histograma.resumen().get("media_ms"));
+    }
+
+    @Test
+    void losValoresPequenosSonExactos() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        for (int micros = 1; micros <= 50; micros++) {
+            histograma.registrarNanos(micros * 1000L);
+        }
+
+        assertEquals(0.025, histograma.percentilMs(50), 1e-9);
+        assertEquals(0.045, histograma.percentilMs(90), 1e-9);
+        assertEquals(0.050, histograma.percentilMs(100), 1e-9);
+    }
+
+    @Test
+    void losPercentilesTienenUnErrorRelativoMenorDelTresPorCiento() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        Random random = new Random(7);
+        long[] micros = new long[100_000];
+        for (int i = 0; i < micros.length; i++) {
+            // Distribución de cola larga entre 100 µs y unos 10 s
+            micros[i] = 100 + (long) Math.exp(random.nextDouble() * Math.log(10_000_000));
+            histograma.registrarNanos(micros[i] * 1000);
+        }
+        Arrays.sort(micros);
+
+        for (double percentil : new double[]{50, 90, 99, 99.9}) {
+            double esperadoMs = micros[(int) Math.ceil(micros.length * percentil / 100) - 1] / 1000.0;
+            double obtenidoMs = histograma.percentilMs(percentil);
+            assertEquals(esperadoMs, obtenidoMs, esperadoMs * 0.03, "p" + percentil);
+        }
+    }
+
+    @Test
+    void unPercentilNoSuperaElMaximoRegistrado() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        histograma.registrarNanos(1_000_000_000L);
+
+        assertEquals(1000.0, histograma.percentilMs(99));
+        assertEquals(1000.0, histograma.resumen().get("max_ms"));
+    }
+
+    @Test
+    void elResumenIncluyeTotalMediaYMaximo() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        histograma.registrarNanos(2_000_000L);
+        histograma.registrarNanos(4_000_000L);
+
+        Map<String, Object> resumen = histograma.resumen();
+        assertEquals(2L, resumen.get("total"));
+        assertEquals(3.0, (Double) resumen.get("media_ms"), 1e-9);
+        assertEquals(4.0, resumen.get("max_ms"));
+    }
+
+    @Test
+    void registraSinPerderValoresDesdeVariosHilos() throws InterruptedException {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        ExecutorService hilos = Executors.newFixedThreadPool(8);
+        for (int h = 0; h < 8; h++) {
+            hilos.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histograma.registrarNanos(500_000L);
+                }
+            });
+        }
+        hilos.shutdown();
+        assertTrue(hilos.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(80_000, histograma.getTotal());
+        assertEquals(0.5, histograma.percentilMs(50), 0.5 * 0.03);
+    }
+}
@@ -0,0 +1,124 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas de {@link HorarioSemanal}.
+ */
+class HorarioSemanalTest {
+
+    /**
+     * Un lunes; los días siguientes de la semana se obtienen sumando días.
+     */
+    private static final LocalDate LUNES = LocalDate.of(2024, 12, 2);
+
+    @Test
+    void unHorario24HEstaSiempreAbierto() {
+        byte[] mapa = HorarioSemanal.parse("L-D: 24H");
+
+        for (int dia = 0; dia < 7; dia++) {
+            assertTrue(abierto(mapa, dia, "00:00"));
+            assertTrue(abierto(mapa, dia, "12:07"));
+            assertTrue(abierto(mapa, dia, "23:59"));
+        }
+    }
+
+    @Test
+    void losLimitesEnCuartosDeHoraSonExactos() {
+        byte[] mapa = HorarioSemanal.parse("L-V: 08:00-13:30 y 15:30-19:30; S: 09:00-13:00");
+
+        assertFalse(abierto(mapa, 0, "07:59"));
+        assertTrue(abierto(mapa, 0, "08:00"));
+        assertTrue(abierto(mapa, 0, "13:29"));
+        assertFalse(abierto(mapa, 0, "13:30"));
+        assertFalse(abierto(mapa, 4, "15:29"));
+        assertTrue(abierto(mapa, 4, "15:30"));
+        assertTrue(abierto(mapa, 5, "09:00"));
+        assertFalse(abierto(mapa, 5, "13:00"));
+        assertFalse(abierto(mapa, 6, "10:00"));
+    }
+
+    @Test
+    void laAperturaSeRedondeaAlAlzaYElCierreALaBaja() {
+        byte[] mapa = HorarioSemanal.parse("L-D: 07:10-22:50");
+
+        assertFalse(abierto(mapa, 0, "07:05"));
+        assertFalse(abierto(mapa, 0, "07:12"));
+        assertTrue(abierto(mapa, 0, "07:15"));
+        assertTrue(abierto(mapa, 0, "22:44"));
+        assertFalse(abierto(mapa, 0, "22:45"));
+        assertFalse(abierto(mapa, 0, "22:55"));
+    }
+
+    @Test
+    void unTramoMasCortoQueUnaFranjaNoMarcaNada() {
+        byte[] mapa = HorarioSemanal.parse("L: 10:05-10:10");
+
+        assertFalse(abierto(mapa, 0, "10:00"));
+        assertFalse(abierto(mapa, 0, "10:07"));
+    }
+
+    @Test
+    void unCierreAnteriorALaAperturaPasaAlDiaSiguiente() {
+        byte[] mapa = HorarioSemanal.parse("L-V: 22:10-06:05");
+
+        assertFalse(abierto(mapa, 0, "22:14"));
+        assertTrue(abierto(mapa, 0, "22:15"));
+        assertTrue(abierto(mapa, 0, "23:59"));
+        assertTrue(abierto(mapa, 1, "00:00"));
+        assertTrue(abierto(mapa, 1, "05:59"));
+        assertFalse(abierto(mapa, 1, "06:00"));
+        assertFalse(abierto(mapa, 1, "06:03"));
+        // El tramo del viernes acaba el sábado; el lunes de madrugada solo abre si el domingo abre
+        assertTrue(abierto(mapa, 5, "05:30"));
+        assertFalse(abierto(mapa, 0, "05:30"));
+    }
+
+    @Test
+    void elTramoDelDomingoPorLaNochePasaAlLunes() {
+        byte[] mapa = HorarioSemanal.parse("D: 21:00-03:00");
+
+        assertTrue(abierto(mapa, 6, "21:00"));
+        assertTrue(abierto(mapa, 0, "02:59"));
+        assertFalse(abierto(mapa, 0, "03:00"));
+        assertFalse(abierto(mapa, 5, "22:00"));
+    }
+
+    @Test
+    void elCierreAMedianocheYA2359CubreElFinalDelDia() {
+        assertTrue(abierto(HorarioSemanal.parse("L-D: 06:00-00:00"), 0, "23:59"));
+        assertTrue(abierto(HorarioSemanal.parse("L-D: 06:00-23:59"), 0, "23:59"));
+        assertFalse(abierto(HorarioSemanal.parse("L-D: 06:00-23:59"), 1, "00:00"));
+    }
+
+    @Test
+    void unaDescripcionNoInterpretableDevuelveNull() {
+        assertNull(HorarioSemanal.parse("Consultar"));
+        assertNull(HorarioSemanal.parse("L-D: 25:00-26:00"));
+        assertNull(HorarioSemanal.parse(" "));
+        assertFalse(HorarioSemanal.estaAbierto(null, LUNES.atTime(12, 0)));
+    }
+
+    @Test
+    void laPosicionSqlApuntaAlMismoBit() {
+        byte[] mapa = HorarioSemanal.parse("X: 10:00-10:15");
+        LocalDateTime instante = LUNES.plusDays(2).atTime(10, 7);
+
+        int byteSql = HorarioSemanal.posicionByte(instante);
+        int bitSql = HorarioSemanal.posicionBit(instante);
+        assertEquals(1, (mapa[byteSql - 1] >> bitSql) & 1);
+        assertTrue(HorarioSemanal.estaAbierto(mapa, instante));
+    }
+
+    private static boolean abierto(byte[] mapa, int dia, String hora) {
+        return HorarioSemanal.estaAbierto(mapa, LUNES.plusDays(dia).atTime(LocalTime.parse(hora)));
+    }
+}
@@ -0,0 +1,65 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas del orden de importación de {@link ImportadorCSV#ordenarFicheros}.
+ */
+class ImportadorCSVTest {
+
+    private static final String CABECERA = "Provincia,Municipio,Dirección,Toma de datos,Precio gasóleo A";
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void ordenaPorLaTomaDeDatosAunqueLaFechaDeModificacionDigaLoContrario() throws Exception {
+        File lunes = fichero("b.csv", "2024-12-02 10:00:00", "2024-12-02 09:30:00");
+        File martes = fichero("a.csv", "2024-12-03 10:00:00");
+        File domingo = fichero("c.csv", "2024-12-01 10:00:00");
+        // Copiados en orden inverso: el más reciente tiene la fecha de modificación más antigua
+        assertTrue(martes.setLastModified(1_000_000_000L));
+        assertTrue(lunes.setLastModified(2_000_000_000L));
+        assertTrue(domingo.setLastModified(3_000_000_000L));
+
+        assertEquals(Arrays.asList(domingo, lunes, martes),
+                ImportadorCSV.ordenarFicheros(Arrays.asList(martes, lunes, domingo)));
+    }
+
+    @Test
+    void unFicheroSinTomaDeDatosSeOrdenaPorLaFechaDeSuNombre() throws Exception {
+        File conDatos = fichero("sin-fecha.csv", "2024-12-02 10:00:00");
+        File vacio = fichero("preciosEESS_es_2024-12-01.csv");
+        File posterior = fichero("preciosEESS_es_2024-12-03.csv", "no es una fecha");
+
+        assertEquals(Arrays.asList(vacio, conDatos, posterior),
+                ImportadorCSV.ordenarFicheros(Arrays.asList(posterior, conDatos, vacio)));
+    }
+
+    @Test
+    void aIgualFechaOrdenaPorNombre() throws Exception {
+        File b = fichero("b.csv", "2024-12-02 10:00:00");
+        File a = fichero("a.csv", "2024-12-02 10:00:00");
+
+        assertEquals(Arrays.asList(a, b), ImportadorCSV.ordenarFicheros(Arrays.asList(b, a)));
+    }
+
+    private File fichero(String nombre, String... tomas) throws Exception {
+        Path fichero = directorio.resolve(nombre);
+        StringBuilder contenido = new StringBuilder(CABECERA).append('\n');
+        for (String toma : tomas) {
+            contenido.append("MADRID,MADRID,\"CALLE UNO, 1\",").append(toma).append(",1.459\n");
+        }
+        Files.write(fichero, contenido.toString().getBytes(StandardCharsets.UTF_8));
+        return fichero.toFile();
+    }
+}
@@ -0,0 +1,71 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas de {@link IndiceEstaciones}.
+ */
+class IndiceEstacionesTest {
+
+    /**
+     * Ruta de Madrid a Guadalajara como pares {latitud, longitud}.
+     */
+    private static final List<double[]> RUTA = Arrays.asList(new double[]{40.42, -3.70}, new double[]{40.63, -3.17});
+
+    @Test
+    void devuelveLasMasBaratasDelCorredorOrdenadasPorPrecio() {
+        IndiceEstaciones indice = indice();
+
+        List<Map<String, Object>> filas = indice.buscarMasBaratasEnRuta(RUTA, "Gasóleo A", 5, 10, null);
+
+        assertEquals(Arrays.asList(2, 1), estaciones(filas));
+        assertEquals(1.389, filas.get(0).get("precio"));
+    }
+
+    @Test
+    void elCombustibleNoDistingueMayusculasNiAcentos() {
+        IndiceEstaciones indice = indice();
+
+        for (String combustible : new String[]{"Gasóleo A", "gasóleo A", "GASÓLEO A", "gasoleo a"}) {
+            assertEquals(Arrays.asList(2, 1), estaciones(indice.buscarMasBaratasEnRuta(RUTA, combustible, 5, 10, null)),
+                    combustible);
+        }
+    }
+
+    @Test
+    void unCombustibleSinPreciosNoDevuelveEstaciones() {
+        assertTrue(indice().buscarMasBaratasEnRuta(RUTA, "Hidrógeno", 5, 10, null).isEmpty());
+    }
+
+    /**
+     * Dos estaciones junto a la ruta y una lejos de ella, más barata.
+     */
+    private static IndiceEstaciones indice() {
+        List<IndiceEstaciones.Estacion> estaciones = new ArrayList<>();
+        estaciones.add(estacion(1, -3.60, 40.46, "1.459"));
+        estaciones.add(estacion(2, -3.35, 40.56, "1.389"));
+        estaciones.add(estacion(3, -4.00, 39.80, "1.099"));
+        return new IndiceEstaciones(estaciones);
+    }
+
+    private static IndiceEstaciones.Estacion estacion(int id, double lon, double lat, String precio) {
+        IndiceEstaciones.Estacion estacion = new IndiceEstaciones.Estacion(id, lon, lat, "Calle " + id, "PRUEBA", null);
+        estacion.setPrecio("Gasóleo A", Double.parseDouble(precio));
+        return estacion;
+    }
+
+    private static List<Object> estaciones(List<Map<String, Object>> filas) {
+        List<Object> ids = new ArrayList<>();
+        for (Map<String, Object> fila : filas) {
+            ids.add(fila.get("estacion_id"));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,71 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas de las métricas que registra {@link Consultas} en {@link MetricasConsultas}.
+ */
+class MetricasConsultasTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void unaConsultaQueFallaSeRegistraComoFallida() throws Exception {
+        MetricasConsultas metricas = MetricasConsultas.getInstancia();
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            bd.ejecutar("DROP TABLE precio_vigente");
+            Consultas consultas = new Consultas(bd.getConexion());
+            long ejecutadas = metricas.getConsultasEjecutadas();
+            long fallidas = metricas.getConsultasFallidas();
+
+            assertThrows(ConsultasException.class,
+                    () -> consultas.consultarRankingEnProvincia("Madrid", "Gasóleo A", 10, CursorPrecio.INICIO));
+
+            assertEquals(ejecutadas + 1, metricas.getConsultasEjecutadas());
+            assertEquals(fallidas + 1, metricas.getConsultasFallidas());
+        }
+    }
+
+    @Test
+    void unaConsultaCorrectaNoCuentaComoFallida() throws Exception {
+        MetricasConsultas metricas = MetricasConsultas.getInstancia();
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            Consultas consultas = new Consultas(bd.getConexion());
+            long ejecutadas = metricas.getConsultasEjecutadas();
+            long fallidas = metricas.getConsultasFallidas();
+
+            consultas.consultarRankingEnProvincia("Madrid", "Gasóleo A", 10, CursorPrecio.INICIO);
+
+            assertEquals(ejecutadas + 1, metricas.getConsultasEjecutadas());
+            assertEquals(fallidas, metricas.getConsultasFallidas());
+        }
+    }
+
+    @Test
+    void lasSentenciasConstruidasSeRegistranConSuNombre() throws Exception {
+        MetricasConsultas metricas = MetricasConsultas.getInstancia();
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            Consultas consultas = new Consultas(bd.getConexion());
+            LocalDateTime desde = LocalDateTime.of(2024, 12, 1, 0, 0);
+
+            consultas.consultarTendencia("Madrid", "Gasóleo A", desde, desde.plusDays(7), Consultas.Granularidad.SEMANA);
+            consultas.consultarEstacionMasBarataEnRadio(null, "Gasóleo A", 40.4, -3.7, 5);
+
+            List<String> sentencias = Arrays.asList(metricas.getSentencias());
+            assertTrue(sentencias.contains("tendencia_semana"), sentencias.toString());
+            assertTrue(sentencias.contains("estacion_mas_barata_radio_punto"), sentencias.toString());
+            assertFalse(sentencias.contains("otra"), sentencias.toString());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pruebas de {@link PipelineImportacion}.
+ */
+class PipelineImportacionTest {
+
+    private static final LocalDateTime HOY = LocalDateTime.of(2024, 12, 2, 10, 0);
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void alCerrarQuedanEscritosTodosLosPreciosYElVigente() throws Exception {
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            int gasoleo = bd.combustible("Gasóleo A");
+            int estacion = bd.estacion("Madrid", "Calle 1", 40.4, -3.7);
+            Connection escritura = bd.getAlmacen().conectar();
+            PipelineImportacion pipeline = new PipelineImportacion(bd.getConexion(), escritura, 2, 3, "");
+            pipeline.iniciar();
+            for (int i = 0; i < 10; i++) {
+                pipeline.anadir(estacion, gasoleo, 1.4 + i / 1000.0, Timestamp.valueOf(HOY.plusHours(i)));
+            }
+            pipeline.cerrar();
+
+            assertEquals(10, contar(bd, "SELECT COUNT(*) FROM precio_combustible"));
+            assertEquals(1409, contar(bd, "SELECT precio * 1000 FROM precio_vigente"));
+            assertTrue(escritura.isClosed());
+        }
+    }
+
+    @Test
+    void alAbortarElEscritorCierraSuConexionYNoAdmiteMasPrecios() throws Exception {
+        try (BaseDatosPrueba bd = new BaseDatosPrueba(directorio)) {
+            int gasoleo = bd.combustible("Gasóleo A");
+            int estacion = bd.estacion("Madrid", "Calle 1", 40.4, -3.7);
+            Connection escritura = bd.getAlmacen().conectar();
+            PipelineImportacion pipeline = new PipelineImportacion(bd.getConexion(), escritura, 2, 3, "");
+            pipeline.iniciar();
+            pipeline.anadir(estacion, gasoleo, 1.4, Timestamp.valueOf(HOY));
+            pipeline.abortar();
+
+            assertTrue(escritura.isClosed());
+            assertEquals(0, contar(bd, "SELECT COUNT(*) FROM precio_combustible"));
+            assertThrows(SQLException.class, () -> pipeline.anadir(estacion, gasoleo, 1.5, Timestamp.valueOf(HOY)));
+        }
+    }
+
+    private static int contar(BaseDatosPrueba bd, String sql) throws SQLException {
+        try (Statement stmt = bd.getConexion().createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
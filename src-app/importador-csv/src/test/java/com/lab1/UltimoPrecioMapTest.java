@@ -0,0 +1,84 @@
+package com.lab1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pruebas de {@link UltimoPrecioMap}.
+ */
+class UltimoPrecioMapTest {
+
+    @Test
+    void devuelveSinValorParaUnParDesconocido() {
+        UltimoPrecioMap mapa = new UltimoPrecioMap(16);
+        mapa.put(1, 2, 1459, 100);
+
+        assertEquals(UltimoPrecioMap.SIN_VALOR, mapa.getPrecio(2, 1));
+        assertEquals(UltimoPrecioMap.SIN_VALOR, mapa.getFecha(1, 3));
+    }
+
+    @Test
+    void reemplazaElPrecioYLaFechaDeUnParExistente() {
+        UltimoPrecioMap mapa = new UltimoPrecioMap(16);
+        mapa.put(7, 3, 1459, 100);
+        mapa.put(7, 3, 1389, 160);
+
+        assertEquals(1, mapa.size());
+        assertEquals(1389, mapa.getPrecio(7, 3));
+        assertEquals(160, mapa.getFecha(7, 3));
+    }
+
+    @Test
+    void distingueLaEstacionDelCombustibleEnLaClave() {
+        UltimoPrecioMap mapa = new UltimoPrecioMap(16);
+        mapa.put(1, 2, 1000, 1);
+        mapa.put(2, 1, 2000, 2);
+        // Un ID negativo no debe confundirse con los bits altos de la estación
+        mapa.put(0, -1, 3000, 3);
+
+        assertEquals(1000, mapa.getPrecio(1, 2));
+        assertEquals(2000, mapa.getPrecio(2, 1));
+        assertEquals(3000, mapa.getPrecio(0, -1));
+        assertEquals(UltimoPrecioMap.SIN_VALOR, mapa.getPrecio(-1, 0));
+    }
+
+    @Test
+    void conservaTodosLosParesAlCrecerMasAllaDeLaCapacidadInicial() {
+        UltimoPrecioMap mapa = new UltimoPrecioMap(16);
+        Map<Long, Integer> esperado = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int estacion = random.nextInt(20_000);
+            int combustible = random.nextInt(12);
+            int precio = 1000 + random.nextInt(1000);
+            mapa.put(estacion, combustible, precio, i);
+            esperado.put(((long) estacion << 32) | combustible, precio);
+        }
+
+        assertEquals(esperado.size(), mapa.size());
+        for (Map.Entry<Long, Integer> par : esperado.entrySet()) {
+            int estacion = (int) (par.getKey() >>> 32);
+            int combustible = (int) (long) par.getKey();
+            assertEquals(par.getValue().intValue(), mapa.getPrecio(estacion, combustible));
+        }
+    }
+
+    @Test
+    void clearVaciaElMapaYPermiteReutilizarlo() {
+        UltimoPrecioMap mapa = new UltimoPrecioMap(16);
+        for (int i = 0; i < 100; i++) {
+            mapa.put(i, 1, 1500, i);
+        }
+        mapa.clear();
+
+        assertEquals(0, mapa.size());
+        assertEquals(UltimoPrecioMap.SIN_VALOR, mapa.getPrecio(5, 1));
+        mapa.put(5, 1, 1600, 7);
+        assertEquals(1600, mapa.getPrecio(5, 1));
+        assertEquals(1, mapa.size());
+    }
+}